@@ -5,71 +5,168 @@ import objects.CalculationRequest;
 import java.util.Optional;
 
 /**
- * A work assignment class aimed to provide work for {@code RowWorker}.
+ * A work assignment class aimed to provide work for {@code Worker}.
+ * <p>
+ * No thread is started when the monitor is created. Workers are spawned on demand
+ * when requests are given (up to the maximum number of threads), they are daemon threads
+ * so they never keep the JVM alive, and a worker that has been idle for longer than the
+ * idle timeout retires by itself, shrinking the pool back to zero threads.
  */
 public class ParallelMatrixMonitor {
 
+    /**
+     * Default time (in milliseconds) an idle worker waits for a new request before retiring
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30_000;
     private static final int MAX_REQUEST = 128;
-    private final Worker[] threadPool;
+    private final int maxThreads;
+    private final long idleTimeout;
     private final CalculationRequest[] requestsQueue;
     private int tail;
     private int head;
     private int count;
+    private int liveWorkers;
+    private int idleWorkers;
+    private long spawnedWorkers;
+    private boolean terminated;
 
-    public ParallelMatrixMonitor(int numOfThreads) {
+    public ParallelMatrixMonitor(int maxThreads) {
+        this(maxThreads, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create a monitor, no worker thread is started until the first request is given
+     *
+     * @param maxThreads  The maximum number of worker threads alive at the same time
+     * @param idleTimeout The time (in milliseconds) an idle worker waits before retiring
+     */
+    public ParallelMatrixMonitor(int maxThreads, long idleTimeout) {
+        if (maxThreads <= 0)
+            throw new IllegalArgumentException("At least one worker thread is required");
         this.requestsQueue = new CalculationRequest[MAX_REQUEST];
         this.head = 0;
         this.tail = 0;
         this.count = 0;
-        this.threadPool = new Worker[numOfThreads];
-        for (int i = 0; i < numOfThreads; i++) {
-            threadPool[i] = new Worker(this);
-        }
-        startWorkers();
-    }
-
-    public void startWorkers() {
-        for (int i = 0; i < threadPool.length; i++) {
-            threadPool[i].start();
-        }
+        this.maxThreads = maxThreads;
+        this.idleTimeout = idleTimeout;
     }
 
+    /**
+     * Stop all workers. Requests already queued are still processed, after that every
+     * worker retires and further requests are rejected.
+     */
     public synchronized void stopWorkers() {
-        for (int i = 0; i < threadPool.length; i++) {
-            threadPool[i].terminate();
-            // Dummies request equals to the size of thread pool is created in order to
-            // bring all threads out of the wait() method.
-            giveRequest(() -> {
-            });
-        }
+        terminated = true;
+        notifyAll();
     }
 
     public synchronized void giveRequest(CalculationRequest request) {
+        if (!offerRequest(request))
+            throw new IllegalStateException("The monitor has been stopped");
+    }
+
+    /**
+     * Queue a request unless the monitor has been stopped. Checking and queueing happen under one lock, so a
+     * request is either rejected or queued before the stop, in which case the workers still calculate it.
+     *
+     * @param request The request
+     * @return false if the monitor has been stopped and the request was not queued
+     */
+    public synchronized boolean offerRequest(CalculationRequest request) {
+        if (terminated)
+            return false;
         while (count >= requestsQueue.length) {
             try {
                 wait();
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            if (terminated)
+                return false;
         }
         requestsQueue[tail] = request;
         tail = (tail + 1) % requestsQueue.length;
         count++;
+        // Only spawn a new worker if the waiting ones cannot take all the pending requests
+        if (idleWorkers < count && liveWorkers < maxThreads)
+            spawnWorker();
         notifyAll();
+        return true;
     }
 
+    /**
+     * Take a request from the queue, waiting at most the idle timeout for one.
+     *
+     * @return The request, or an empty {@code Optional} if the calling worker should retire
+     */
     public synchronized Optional<CalculationRequest> takeRequest() {
-        while (count <= 0) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+        long deadline = System.currentTimeMillis() + idleTimeout;
+        idleWorkers++;
+        try {
+            while (count <= 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (terminated || remaining <= 0)
+                    return Optional.empty();
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    return Optional.empty();
+                }
             }
+        } finally {
+            idleWorkers--;
         }
         CalculationRequest request = requestsQueue[head];
+        requestsQueue[head] = null;
         head = (head + 1) % requestsQueue.length;
         count--;
         notifyAll();
         return Optional.ofNullable(request);
     }
+
+    /**
+     * Get the number of worker threads currently alive
+     *
+     * @return The number of live workers
+     */
+    public synchronized int getNumOfLiveWorkers() {
+        return liveWorkers;
+    }
+
+    /**
+     * Get the number of worker threads spawned since this monitor was created
+     *
+     * @return The number of spawned workers
+     */
+    public synchronized long getNumOfSpawnedWorkers() {
+        return spawnedWorkers;
+    }
+
+    /**
+     * Get the maximum number of worker threads of this monitor
+     *
+     * @return The maximum number of workers
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public synchronized boolean isTerminated() {
+        return terminated;
+    }
+
+    synchronized void workerRetired() {
+        liveWorkers--;
+        // A request may have arrived just as the worker gave up, queued requests are calculated even after a stop
+        if (count > idleWorkers && liveWorkers < maxThreads)
+            spawnWorker();
+    }
+
+    private void spawnWorker() {
+        Worker worker = new Worker(this);
+        worker.setName("matrix-worker-" + spawnedWorkers);
+        liveWorkers++;
+        spawnedWorkers++;
+        worker.start();
+    }
 }
@@ -7,7 +7,8 @@ import java.util.Optional;
 /**
  * Get request from {@code ParallelMatrixMonitor} and run calculations when it is alive.
  * <br>
- * Stop processing any request after it has been terminated.
+ * Retire once the monitor has no work for it within the idle timeout, or after it has been terminated.
+ * Workers are daemon threads, they never prevent the JVM from exiting.
  */
 public class Worker extends Thread {
     private final ParallelMatrixMonitor monitor;
@@ -16,6 +17,7 @@ public class Worker extends Thread {
 
     Worker(ParallelMatrixMonitor monitor) {
         this.monitor = monitor;
+        setDaemon(true);
     }
 
     public void terminate() {
@@ -24,9 +26,15 @@ public class Worker extends Thread {
 
     @Override
     public void run() {
-        while (alive) {
-            Optional<CalculationRequest> request = monitor.takeRequest();
-            request.ifPresent(CalculationRequest::calculate);
+        try {
+            while (alive) {
+                Optional<CalculationRequest> request = monitor.takeRequest();
+                if (request.isEmpty())
+                    break;
+                request.get().calculate();
+            }
+        } finally {
+            monitor.workerRetired();
         }
     }
 
@@ -0,0 +1,22 @@
+package exceptions;
+
+/**
+ * Thrown to indicate that a Cholesky factorization was asked of a matrix that is not symmetric positive definite.
+ * The column at which the factorization broke down is kept when it is known, -1 otherwise.
+ */
+public class NotPositiveDefiniteException extends ArithmeticException {
+    private final int column;
+
+    public NotPositiveDefiniteException(String s) {
+        this(s, -1);
+    }
+
+    public NotPositiveDefiniteException(String s, int column) {
+        super(s);
+        this.column = column;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,112 @@
+package objects;
+
+/**
+ * The activation functions of the forward pass, on the CPU and in {@code Activation.cl}.
+ * <p>
+ * Each one knows the {@code MODE} number the OpenCL kernels use for it, so the same value can be given
+ * to {@code Matrix.forwardPass} and {@code Matrix.clForwardPass}.
+ */
+public enum Activation {
+    /**
+     * LeakyReLU with a slope of 0.01 below zero
+     */
+    LEAKY_RELU(0, ElementwiseOperators.LEAKY_RELU),
+    SIGMOID(1, ElementwiseOperators.SIGMOID),
+    /**
+     * 1 for inputs greater than or equal to zero, otherwise 0
+     */
+    STEP(2, ElementwiseOperators.STEP),
+    TANH(3, ElementwiseOperators.TANH),
+    SOFTPLUS(4, ElementwiseOperators.SOFTPLUS),
+    /**
+     * x Phi(x), Phi being the distribution function of the standard normal distribution
+     */
+    GELU(5, ElementwiseOperators.GELU),
+    /**
+     * No activation, any mode the kernels do not know
+     */
+    IDENTITY(-1, null);
+
+    private final int mode;
+    private final BulkDoubleOperator operator;
+
+    Activation(int mode, BulkDoubleOperator operator) {
+        this.mode = mode;
+        this.operator = operator;
+    }
+
+    /**
+     * @return The {@code MODE} of the OpenCL kernels
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Get the activation of an OpenCL {@code MODE}
+     *
+     * @param mode The mode
+     * @return The activation, {@code IDENTITY} for unknown modes as in the kernels
+     */
+    public static Activation ofMode(int mode) {
+        for (Activation activation : values())
+            if (activation.mode == mode)
+                return activation;
+        return IDENTITY;
+    }
+
+    /**
+     * Get the bulk operator of the activation
+     *
+     * @param precision Whether the exact functions or their fast approximations are wanted
+     * @return The operator, the identity for {@code IDENTITY}
+     * @see ActivationPrecision
+     */
+    public BulkDoubleOperator operator(ActivationPrecision precision) {
+        BulkDoubleOperator exact = operator == null ? ElementwiseOperators.scale(1) : operator;
+        if (precision != ActivationPrecision.FAST)
+            return exact;
+        return switch (this) {
+            case SIGMOID -> ElementwiseOperators.FAST_SIGMOID;
+            case TANH -> ElementwiseOperators.FAST_TANH;
+            case SOFTPLUS -> ElementwiseOperators.FAST_SOFTPLUS;
+            case GELU -> ElementwiseOperators.FAST_GELU;
+            default -> exact;
+        };
+    }
+
+    public double apply(double x) {
+        return operator == null ? x : operator.applyAsDouble(x);
+    }
+
+    /**
+     * The derivative of the activation, for the backward pass
+     *
+     * @param x The input of the activation
+     * @param y The output of the activation, {@code apply(x)}, which the derivatives of the sigmoid and tanh reuse
+     * @return The derivative at x
+     */
+    public double derivative(double x, double y) {
+        return switch (this) {
+            case LEAKY_RELU -> x >= 0 ? 1 : 0.01;
+            case SIGMOID -> y * (1 - y);
+            case STEP -> 0;
+            case TANH -> 1 - y * y;
+            case SOFTPLUS -> 1 / (1 + Math.exp(-x));
+            case GELU -> ActivationMath.geluDerivative(x);
+            case IDENTITY -> 1;
+        };
+    }
+
+    /**
+     * Activate {@code data[from, to)} in place
+     *
+     * @param data The array
+     * @param from The first index
+     * @param to   The index after the last one
+     */
+    public void applyToRange(double[] data, int from, int to) {
+        if (operator != null)
+            operator.applyToRange(data, data, from, to);
+    }
+}
@@ -0,0 +1,161 @@
+package objects;
+
+/**
+ * The scalar functions behind the exact and the fast activations of {@code ElementwiseOperators}.
+ * <p>
+ * The fast functions are straight-line polynomial code with no call to {@code Math.exp} or {@code Math.log},
+ * so a range loop over them is a single inlinable body the JIT can unroll and vectorize. Their error bounds
+ * are relative to the exact result unless said otherwise.
+ */
+final class ActivationMath {
+
+    private static final double LOG2_E = 1.4426950408889634;
+    /**
+     * ln 2 split in a high part with a short mantissa, so k x LN2_HI is exact, and the rest
+     */
+    private static final double LN2_HI = 6.93147180369123816490e-01;
+    private static final double LN2_LO = 1.90821492927058770002e-10;
+    private static final double SQRT_PI = 1.7724538509055160;
+    private static final double SQRT1_2 = 0.7071067811865476;
+
+    /**
+     * Below this erf is summed as a series, above erfc is a continued fraction
+     */
+    private static final double ERF_SERIES_LIMIT = 2.5;
+    private static final int ERFC_FRACTION_DEPTH = 80;
+
+    private ActivationMath() {
+    }
+
+    /**
+     * e^x - 1, relative error below 1e-13, arguments are clamped to [-708, 709]
+     */
+    static double fastExpm1(double x) {
+        x = Math.min(Math.max(x, -708), 709);
+        double k = Math.floor(x * LOG2_E + 0.5);
+        double scale = Double.longBitsToDouble(((long) k + 1023) << 52);
+        return scale * expm1Reduced((x - k * LN2_HI) - k * LN2_LO) + (scale - 1);
+    }
+
+    /**
+     * e^x, relative error below 1e-13, arguments are clamped to [-708, 709]
+     */
+    static double fastExp(double x) {
+        x = Math.min(Math.max(x, -708), 709);
+        double k = Math.floor(x * LOG2_E + 0.5);
+        double scale = Double.longBitsToDouble(((long) k + 1023) << 52);
+        return scale + scale * expm1Reduced((x - k * LN2_HI) - k * LN2_LO);
+    }
+
+    /**
+     * e^r - 1 for |r| <= ln(2) / 2, to the 11th power of r whose truncation is below 1e-14
+     */
+    private static double expm1Reduced(double r) {
+        return r * (1 + r * (1.0 / 2 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120 + r * (1.0 / 720 + r * (1.0 / 5040
+                + r * (1.0 / 40320 + r * (1.0 / 362880 + r * (1.0 / 3628800 + r * (1.0 / 39916800)))))))))));
+    }
+
+    /**
+     * log(1 + y) for y in [0, 1]
+     */
+    static double fastLog1p(double y) {
+        // log(1 + y) = 2 atanh(u) with u = y / (2 + y) <= 1/3, summed to the 21st power of u
+        double u = y / (2 + y);
+        double u2 = u * u;
+        return 2 * u * (1 + u2 * (1.0 / 3 + u2 * (1.0 / 5 + u2 * (1.0 / 7 + u2 * (1.0 / 9 + u2 * (1.0 / 11 + u2 * (1.0 / 13
+                + u2 * (1.0 / 15 + u2 * (1.0 / 17 + u2 * (1.0 / 19 + u2 * (1.0 / 21)))))))))));
+    }
+
+    /**
+     * The sigmoid 1 / (1 + e^-x), relative error below 1e-13
+     */
+    static double fastSigmoid(double x) {
+        return 1 / (1 + fastExp(-x));
+    }
+
+    /**
+     * tanh(x), relative error below 1e-13
+     */
+    static double fastTanh(double x) {
+        // tanh|x| = -(e^-2|x| - 1) / (e^-2|x| + 1), with e^-2|x| - 1 computed without cancellation near zero
+        double m = fastExpm1(-2 * Math.min(Math.abs(x), 20));
+        return Math.copySign(-m / (2 + m), x);
+    }
+
+    /**
+     * log(1 + e^x), relative error below 1e-10
+     */
+    static double fastSoftplus(double x) {
+        return Math.max(x, 0) + fastLog1p(fastExp(-Math.abs(x)));
+    }
+
+    /**
+     * x Phi(x) with the erf of Abramowitz and Stegun 7.1.26, absolute error below 3e-7
+     */
+    static double fastGelu(double x) {
+        double z = Math.abs(x) * SQRT1_2;
+        double t = 1 / (1 + 0.3275911 * z);
+        double erfc = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * fastExp(-z * z);
+        // Phi(x) = erfc(-x / sqrt(2)) / 2
+        return 0.5 * x * (x >= 0 ? 2 - erfc : erfc);
+    }
+
+    /**
+     * The error function, to a few units in the last place
+     */
+    static double erf(double x) {
+        double z = Math.abs(x);
+        if (z < ERF_SERIES_LIMIT)
+            return Math.copySign(erfSeries(z), x);
+        return Math.copySign(1 - erfcFraction(z), x);
+    }
+
+    /**
+     * The complementary error function 1 - erf(x), keeping its relative precision in the tail
+     */
+    static double erfc(double x) {
+        if (x < 0)
+            return 2 - erfc(-x);
+        if (x < ERF_SERIES_LIMIT)
+            return 1 - erfSeries(x);
+        return erfcFraction(x);
+    }
+
+    /**
+     * x Phi(x), Phi being the distribution function of the standard normal distribution
+     */
+    static double gelu(double x) {
+        return 0.5 * x * erfc(-x * SQRT1_2);
+    }
+
+    /**
+     * The derivative of {@link #gelu(double)}, Phi(x) + x phi(x)
+     */
+    static double geluDerivative(double x) {
+        return 0.5 * erfc(-x * SQRT1_2) + x * Math.exp(-0.5 * x * x) / (SQRT_PI * Math.sqrt(2));
+    }
+
+    /**
+     * erf(z) = 2 / sqrt(pi) e^-z^2 sum z (2z^2)^n / (1 x 3 x ... x (2n + 1)), every term positive
+     */
+    private static double erfSeries(double z) {
+        double twoZ2 = 2 * z * z;
+        double term = z;
+        double sum = z;
+        for (int n = 1; term > 1e-17 * sum; n++) {
+            term *= twoZ2 / (2 * n + 1);
+            sum += term;
+        }
+        return 2 / SQRT_PI * Math.exp(-z * z) * sum;
+    }
+
+    /**
+     * erfc(z) = e^-z^2 / sqrt(pi) / (z + (1/2) / (z + 1 / (z + (3/2) / (z + ...)))), evaluated from the bottom
+     */
+    private static double erfcFraction(double z) {
+        double fraction = z;
+        for (int n = ERFC_FRACTION_DEPTH; n >= 1; n--)
+            fraction = z + n / 2.0 / fraction;
+        return Math.exp(-z * z) / (SQRT_PI * fraction);
+    }
+}
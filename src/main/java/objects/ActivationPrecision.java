@@ -0,0 +1,19 @@
+package objects;
+
+/**
+ * Whether activations use the exact functions of {@code Math} or fast approximations of them.
+ * <p>
+ * The fast ones are polynomial and rational code with no call into {@code Math}, which the JIT can unroll and
+ * vectorize over a range. Their worst errors, measured against the exact functions:
+ * <ul>
+ *     <li>sigmoid, tanh and e^x: relative error below 1e-13</li>
+ *     <li>SoftPlus: relative error below 1e-10</li>
+ *     <li>GELU: absolute error below 3e-7</li>
+ *     <li>softmax: relative error of each entry below 1e-12</li>
+ * </ul>
+ * LeakyReLU, the step and the identity are exact in both.
+ */
+public enum ActivationPrecision {
+    EXACT,
+    FAST
+}
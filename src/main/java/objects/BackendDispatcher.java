@@ -0,0 +1,207 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Choose the {@code ExecutionBackend} of an operation from a simple cost model.
+ * <p>
+ * The estimated time of a backend is its fixed cost (waking workers, creating OpenCL buffers
+ * and launching the kernel) plus the transfer time (OpenCL only) plus the work divided by the
+ * throughput of the backend. Throughputs start from conservative defaults and are refined from
+ * the measured time of every dispatched call, so the choice adapts to the machine it runs on.
+ * <p>
+ * A backend can be forced per operation with {@link #setOverride(Operation, ExecutionBackend)},
+ * and the last dispatch of the calling thread is available from {@link #getLastRecord()}.
+ */
+public class BackendDispatcher {
+
+    /**
+     * The operations known by the dispatcher
+     */
+    public enum Operation {
+        MULTIPLICATION, ADDITION
+    }
+
+    /**
+     * The part of an operation that is actually run once the backend has been chosen
+     */
+    @FunctionalInterface
+    public interface BackendTask {
+        Matrix run(ExecutionBackend backend) throws MatrixDimensionsNotMatchException;
+    }
+
+    /**
+     * A backend and whether it comes from an override, read together so a concurrent {@code setOverride}
+     * cannot come in between
+     */
+    private record Choice(ExecutionBackend backend, boolean overridden) {
+    }
+
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double MULTI_THREADED_OVERHEAD = 40_000;        // ns, waking workers and waiting on the latch
+    private static final double MULTI_THREADED_REQUEST_OVERHEAD = 2_000; // ns, per request given to the monitor
+    private static final double OPENCL_OVERHEAD = 250_000;               // ns, buffer creation, kernel launch and clFinish
+    private static final double OPENCL_BANDWIDTH = 4.0;                  // bytes per ns between host and device
+
+    private final int numOfThreads;
+    /**
+     * Throughput in flops per ns indexed by [backend][operation], per thread for {@code MULTI_THREADED}
+     */
+    private final double[][] throughput;
+    private final Map<Operation, ExecutionBackend> overrides = new EnumMap<>(Operation.class);
+    private final AtomicLongArray dispatchCounts = new AtomicLongArray(ExecutionBackend.values().length);
+    private final ThreadLocal<DispatchRecord> lastRecord = new ThreadLocal<>();
+
+    BackendDispatcher(int numOfThreads) {
+        this.numOfThreads = numOfThreads;
+        this.throughput = new double[ExecutionBackend.values().length][Operation.values().length];
+        for (Operation operation : Operation.values()) {
+            throughput[ExecutionBackend.SERIAL.ordinal()][operation.ordinal()] = 0.3;
+            throughput[ExecutionBackend.MULTI_THREADED.ordinal()][operation.ordinal()] = 0.2;
+            throughput[ExecutionBackend.OPENCL.ordinal()][operation.ordinal()] = 20.0;
+        }
+    }
+
+    /**
+     * Force an operation to run on the given backend
+     *
+     * @param operation The operation
+     * @param backend   The backend, or {@code null} to let the cost model choose again
+     */
+    public synchronized void setOverride(Operation operation, ExecutionBackend backend) {
+        if (backend == null)
+            overrides.remove(operation);
+        else
+            overrides.put(operation, backend);
+    }
+
+    /**
+     * Force every operation to run on the given backend
+     *
+     * @param backend The backend, or {@code null} to let the cost model choose again
+     */
+    public synchronized void setOverride(ExecutionBackend backend) {
+        for (Operation operation : Operation.values())
+            setOverride(operation, backend);
+    }
+
+    /**
+     * Get the last dispatch made by the calling thread
+     *
+     * @return The record, or {@code null} if this thread has not dispatched anything
+     */
+    public DispatchRecord getLastRecord() {
+        return lastRecord.get();
+    }
+
+    /**
+     * Get the number of operations executed on a backend since startup
+     *
+     * @param backend The backend
+     * @return The number of dispatched operations
+     */
+    public long getDispatchCount(ExecutionBackend backend) {
+        return dispatchCounts.get(backend.ordinal());
+    }
+
+    /**
+     * Get the current throughput estimate of a backend
+     *
+     * @param backend   The backend
+     * @param operation The operation
+     * @return The estimated throughput in flops per ns (per thread for {@code MULTI_THREADED})
+     */
+    public synchronized double getThroughput(ExecutionBackend backend, Operation operation) {
+        return throughput[backend.ordinal()][operation.ordinal()];
+    }
+
+    /**
+     * Pick the backend with the lowest estimated time
+     *
+     * @param operation   The operation
+     * @param work        The number of floating point operations
+     * @param bytes       The number of bytes that have to be moved to and from an OpenCL device
+     * @param numOfTasks  The number of requests the operation is split into when multithreaded
+     * @param clAvailable Whether an OpenCL device is ready to be used
+     * @return The chosen backend
+     */
+    public ExecutionBackend choose(Operation operation, double work, double bytes, int numOfTasks, boolean clAvailable) {
+        return select(operation, work, bytes, numOfTasks, clAvailable).backend();
+    }
+
+    private synchronized Choice select(Operation operation, double work, double bytes, int numOfTasks, boolean clAvailable) {
+        ExecutionBackend forced = overrides.get(operation);
+        // A forced OPENCL without a device falls back to the cost model, and is not an override then
+        if (forced != null && (forced != ExecutionBackend.OPENCL || clAvailable))
+            return new Choice(forced, true);
+        ExecutionBackend best = ExecutionBackend.SERIAL;
+        double bestTime = work / throughput[ExecutionBackend.SERIAL.ordinal()][operation.ordinal()];
+        if (numOfThreads > 1 && numOfTasks > 1) {
+            double time = multiThreadedFixedCost(numOfTasks)
+                    + work / (throughput[ExecutionBackend.MULTI_THREADED.ordinal()][operation.ordinal()] * Math.min(numOfThreads, numOfTasks));
+            if (time < bestTime) {
+                best = ExecutionBackend.MULTI_THREADED;
+                bestTime = time;
+            }
+        }
+        if (clAvailable) {
+            double time = openCLFixedCost(bytes) + work / throughput[ExecutionBackend.OPENCL.ordinal()][operation.ordinal()];
+            if (time < bestTime)
+                best = ExecutionBackend.OPENCL;
+        }
+        return new Choice(best, false);
+    }
+
+    /**
+     * Choose a backend, run the task on it and learn from the measured time
+     *
+     * @param operation   The operation
+     * @param work        The number of floating point operations
+     * @param bytes       The number of bytes that have to be moved to and from an OpenCL device
+     * @param numOfTasks  The number of requests the operation is split into when multithreaded
+     * @param clAvailable Whether an OpenCL device is ready to be used
+     * @param task        The task that runs the operation on the chosen backend
+     * @return The result of the task
+     * @throws MatrixDimensionsNotMatchException if the task throws it
+     */
+    public Matrix execute(Operation operation, double work, double bytes, int numOfTasks, boolean clAvailable, BackendTask task) throws MatrixDimensionsNotMatchException {
+        Choice choice = select(operation, work, bytes, numOfTasks, clAvailable);
+        ExecutionBackend backend = choice.backend();
+        long start = System.nanoTime();
+        Matrix result = task.run(backend);
+        long nanos = System.nanoTime() - start;
+        learn(operation, backend, work, bytes, numOfTasks, nanos);
+        dispatchCounts.incrementAndGet(backend.ordinal());
+        lastRecord.set(new DispatchRecord(operation, backend, choice.overridden(), work, nanos));
+        return result;
+    }
+
+    private synchronized void learn(Operation operation, ExecutionBackend backend, double work, double bytes, int numOfTasks, long nanos) {
+        // MULTI_THREADED throughput is per thread, so its times are summed over the threads that ran
+        double parallelism = backend == ExecutionBackend.MULTI_THREADED ? Math.min(numOfThreads, numOfTasks) : 1;
+        double computeTime = switch (backend) {
+            case SERIAL -> nanos;
+            case MULTI_THREADED -> (nanos - multiThreadedFixedCost(numOfTasks)) * parallelism;
+            case OPENCL -> nanos - openCLFixedCost(bytes);
+        };
+        // Calls dominated by the fixed cost tell little about the throughput
+        computeTime = Math.max(computeTime, nanos * parallelism / 10.0);
+        if (computeTime <= 0 || work <= 0)
+            return;
+        double observed = work / computeTime;
+        double[] rates = throughput[backend.ordinal()];
+        rates[operation.ordinal()] = (1 - EWMA_WEIGHT) * rates[operation.ordinal()] + EWMA_WEIGHT * observed;
+    }
+
+    private static double multiThreadedFixedCost(int numOfTasks) {
+        return MULTI_THREADED_OVERHEAD + MULTI_THREADED_REQUEST_OVERHEAD * numOfTasks;
+    }
+
+    private static double openCLFixedCost(double bytes) {
+        return OPENCL_OVERHEAD + bytes / OPENCL_BANDWIDTH;
+    }
+}
@@ -0,0 +1,25 @@
+package objects;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * A {@code DoubleBinaryOperator} that can be applied to a whole range of two arrays at once
+ *
+ * @see BulkDoubleOperator
+ */
+public interface BulkDoubleBinaryOperator extends DoubleBinaryOperator {
+
+    /**
+     * Apply the operator to {@code left[from, to)} and {@code right[from, to)}, writing into the same positions of {@code target}
+     *
+     * @param left   The left operands
+     * @param right  The right operands
+     * @param target The target array, can be one of the operand arrays
+     * @param from   The first index
+     * @param to     The index after the last one
+     */
+    default void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+        for (int i = from; i < to; i++)
+            target[i] = applyAsDouble(left[i], right[i]);
+    }
+}
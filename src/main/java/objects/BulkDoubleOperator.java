@@ -0,0 +1,26 @@
+package objects;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A {@code DoubleUnaryOperator} that can be applied to a whole range of an array at once.
+ * <p>
+ * The default range loop calls {@code applyAsDouble} and therefore shares one call site between every
+ * operator that uses it. Operators in {@code ElementwiseOperators} override it with a loop of their own,
+ * so the JIT sees a single, inlinable target in each loop.
+ */
+public interface BulkDoubleOperator extends DoubleUnaryOperator {
+
+    /**
+     * Apply the operator to {@code source[from, to)}, writing into the same positions of {@code target}
+     *
+     * @param source The source array
+     * @param target The target array, can be the source array
+     * @param from   The first index
+     * @param to     The index after the last one
+     */
+    default void applyToRange(double[] source, double[] target, int from, int to) {
+        for (int i = from; i < to; i++)
+            target[i] = applyAsDouble(source[i]);
+    }
+}
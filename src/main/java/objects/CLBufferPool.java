@@ -0,0 +1,182 @@
+package objects;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.lwjgl.opencl.CL10.*;
+import static util.InfoUtil.checkCLError;
+
+/**
+ * A pool of OpenCL device buffers that lives as long as the context.
+ * <p>
+ * Requested sizes are rounded up to a power of two (the size class) so a released buffer can serve
+ * any later request of the same class. Free buffers are kept in least recently released order and the
+ * oldest ones are released to the device when a new allocation would exceed the device-memory budget.
+ * All buffers are created {@code CL_MEM_READ_WRITE} so they can be reused for any operand.
+ */
+public class CLBufferPool {
+
+    /**
+     * Statistics of the pool
+     *
+     * @param allocations   Number of {@code clCreateBuffer} calls
+     * @param hits          Number of requests served by a pooled buffer
+     * @param misses        Number of requests that needed a new buffer
+     * @param evictions     Number of free buffers released to respect the budget
+     * @param allocatedBytes Bytes currently allocated on the device (in use and free)
+     * @param pooledBytes   Bytes of the free buffers waiting to be reused
+     */
+    public record Statistics(long allocations, long hits, long misses, long evictions, long allocatedBytes, long pooledBytes) {
+    }
+
+    private static final long MIN_SIZE_CLASS = 4096;
+
+    private final long context;
+    private final IntBuffer errorCodeRet = BufferUtils.createIntBuffer(1);
+    private final Map<Long, ArrayDeque<Long>> freeBuffers = new HashMap<>();
+    /**
+     * Every free buffer and its size class, oldest release first
+     */
+    private final LinkedHashMap<Long, Long> leastRecentlyReleased = new LinkedHashMap<>();
+    private final Map<Long, Long> inUse = new HashMap<>();
+    private long budget;
+    private long allocatedBytes;
+    private long pooledBytes;
+    private long allocations;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a pool for a context
+     *
+     * @param context The OpenCL context the buffers belong to
+     * @param budget  The number of bytes the pool may keep allocated on the device
+     */
+    public CLBufferPool(long context, long budget) {
+        this.context = context;
+        this.budget = budget;
+    }
+
+    /**
+     * Get a buffer of at least the given size, reusing a pooled one if possible
+     *
+     * @param bytes The size needed
+     * @return The {@code cl_mem} handle
+     */
+    public synchronized long acquire(long bytes) {
+        long sizeClass = sizeClass(bytes);
+        ArrayDeque<Long> free = freeBuffers.get(sizeClass);
+        if (free != null && !free.isEmpty()) {
+            long buffer = free.pop();
+            leastRecentlyReleased.remove(buffer);
+            pooledBytes -= sizeClass;
+            inUse.put(buffer, sizeClass);
+            hits++;
+            return buffer;
+        }
+        misses++;
+        evict(allocatedBytes + sizeClass - budget);
+        long buffer = clCreateBuffer(context, CL_MEM_READ_WRITE, sizeClass, errorCodeRet);
+        if (errorCodeRet.get(0) == CL_MEM_OBJECT_ALLOCATION_FAILURE || errorCodeRet.get(0) == CL_OUT_OF_RESOURCES) {
+            // The device disagrees with the budget, give back everything pooled and try once more
+            evict(pooledBytes);
+            buffer = clCreateBuffer(context, CL_MEM_READ_WRITE, sizeClass, errorCodeRet);
+        }
+        checkCLError(errorCodeRet);
+        allocations++;
+        allocatedBytes += sizeClass;
+        inUse.put(buffer, sizeClass);
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool so later requests can reuse it
+     *
+     * @param buffer The {@code cl_mem} handle returned by {@code acquire}
+     */
+    public synchronized void release(long buffer) {
+        Long sizeClass = inUse.remove(buffer);
+        if (sizeClass == null)
+            throw new IllegalArgumentException(String.format("The buffer [0x%X] does not belong to this pool", buffer));
+        freeBuffers.computeIfAbsent(sizeClass, k -> new ArrayDeque<>()).push(buffer);
+        leastRecentlyReleased.put(buffer, sizeClass);
+        pooledBytes += sizeClass;
+        if (allocatedBytes > budget)
+            evict(allocatedBytes - budget);
+    }
+
+    /**
+     * Change the budget, releasing free buffers if the pool is now over it
+     *
+     * @param budget The number of bytes the pool may keep allocated on the device
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        if (allocatedBytes > budget)
+            evict(allocatedBytes - budget);
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(allocations, hits, misses, evictions, allocatedBytes, pooledBytes);
+    }
+
+    /**
+     * Release every free buffer to the device, buffers in use are not affected
+     */
+    public synchronized void trim() {
+        evict(pooledBytes);
+    }
+
+    /**
+     * Release every buffer of the pool, including the ones still in use
+     */
+    public synchronized void close() {
+        trim();
+        for (long buffer : inUse.keySet())
+            clReleaseMemObject(buffer);
+        inUse.clear();
+        allocatedBytes = 0;
+    }
+
+    /**
+     * Release the least recently released free buffers until at least the given number of bytes is freed
+     */
+    private void evict(long bytes) {
+        Iterator<Map.Entry<Long, Long>> iterator = leastRecentlyReleased.entrySet().iterator();
+        while (bytes > 0 && iterator.hasNext()) {
+            Map.Entry<Long, Long> entry = iterator.next();
+            long buffer = entry.getKey();
+            long sizeClass = entry.getValue();
+            iterator.remove();
+            freeBuffers.get(sizeClass).remove(buffer);
+            clReleaseMemObject(buffer);
+            allocatedBytes -= sizeClass;
+            pooledBytes -= sizeClass;
+            evictions++;
+            bytes -= sizeClass;
+        }
+    }
+
+    /**
+     * Round a size up to its size class, a power of two of at least 4 KiB
+     *
+     * @param bytes The size
+     * @return The size class
+     */
+    static long sizeClass(long bytes) {
+        if (bytes <= MIN_SIZE_CLASS)
+            return MIN_SIZE_CLASS;
+        return Long.highestOneBit(bytes - 1) << 1;
+    }
+}
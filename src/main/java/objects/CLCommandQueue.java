@@ -0,0 +1,170 @@
+package objects;
+
+import org.lwjgl.BufferUtils;
+
+import java.lang.ref.WeakReference;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opencl.CL10.*;
+import static util.InfoUtil.checkCLError;
+
+/**
+ * The in-order queue of one thread of an {@code OpenCLInteractor}, with its own instances of the kernels.
+ * <p>
+ * Kernel arguments are part of the kernel object, so two threads setting the arguments of the same
+ * {@code cl_kernel} would launch each other's operands. Each thread therefore enqueues on its own queue
+ * with its own kernels, and only the buffer pool and the programs are shared.
+ * <p>
+ * A buffer given back while commands using it may still be pending is held until the queue is drained
+ * by a blocking transfer or {@link #finish()}, so another queue can never reuse it too early.
+ */
+final class CLCommandQueue {
+
+    private final OpenCLInteractor interactor;
+    private final long queue;
+    private final WeakReference<Thread> owner;
+    private final IntBuffer errorCodeRet = BufferUtils.createIntBuffer(1);
+    private final Map<String, Long> kernels = new HashMap<>();
+    private final List<Long> pendingFrees = new ArrayList<>();
+    /**
+     * Whether no command has been enqueued since the queue was last drained
+     */
+    private boolean idle = true;
+    private boolean released = false;
+
+    private int gemmGeneration = -1;
+    private long gemmKernel;
+    private GemmConfiguration gemmConfiguration;
+
+    CLCommandQueue(OpenCLInteractor interactor, long queue, Thread owner) {
+        this.interactor = interactor;
+        this.queue = queue;
+        this.owner = new WeakReference<>(owner);
+    }
+
+    long handle() {
+        return queue;
+    }
+
+    /**
+     * Get this queue's instance of a kernel, created on first use
+     *
+     * @param name The name of the kernel
+     * @return The {@code cl_kernel} handle
+     */
+    long kernel(String name) {
+        Long kernel = kernels.get(name);
+        if (kernel == null) {
+            kernel = clCreateKernel(interactor.programOf(name), name, errorCodeRet);
+            checkCLError(errorCodeRet);
+            kernels.put(name, kernel);
+        }
+        return kernel;
+    }
+
+    /**
+     * Get this queue's instance of the tiled multiplication kernel, created again when the interactor
+     * has loaded another configuration
+     *
+     * @return The {@code cl_kernel} handle, 0 if the tiled kernel cannot be built on this device
+     */
+    long gemmKernel() {
+        synchronized (interactor) {
+            long program = interactor.gemmProgram();
+            if (interactor.gemmGeneration() != gemmGeneration) {
+                if (gemmKernel != 0)
+                    clReleaseKernel(gemmKernel);
+                gemmKernel = 0;
+                gemmGeneration = interactor.gemmGeneration();
+                gemmConfiguration = interactor.gemmConfigurationOfProgram();
+                if (program != 0) {
+                    gemmKernel = clCreateKernel(program, "multiply", errorCodeRet);
+                    checkCLError(errorCodeRet);
+                }
+            }
+            return gemmKernel;
+        }
+    }
+
+    /**
+     * @return The configuration the kernel returned by {@code gemmKernel} was built with
+     */
+    GemmConfiguration gemmConfiguration() {
+        return gemmConfiguration;
+    }
+
+    /**
+     * Note that a command has been enqueued, buffers given back from now on are held until the queue is drained
+     */
+    synchronized void enqueued() {
+        idle = false;
+    }
+
+    /**
+     * Note that every command enqueued so far is complete, after a blocking transfer
+     */
+    synchronized void drained() {
+        idle = true;
+        for (long memory : pendingFrees)
+            interactor.free(memory);
+        pendingFrees.clear();
+    }
+
+    /**
+     * Wait for every command of the queue
+     */
+    synchronized void finish() {
+        if (released)
+            return;
+        checkCLError(clFinish(queue));
+        drained();
+    }
+
+    /**
+     * Give a buffer used by commands of this queue back to the pool, once they are complete
+     *
+     * @param memory The {@code cl_mem} handle, 0 (a buffer that was never created) is ignored
+     */
+    synchronized void free(long memory) {
+        if (memory == 0)
+            return;
+        if (idle || released)
+            interactor.free(memory);
+        else
+            pendingFrees.add(memory);
+    }
+
+    /**
+     * @return Whether the thread that created the queue has terminated
+     */
+    boolean isOrphaned() {
+        Thread thread = owner.get();
+        return thread == null || !thread.isAlive();
+    }
+
+    synchronized boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Wait for the pending commands and release the queue and its kernels
+     */
+    synchronized void release() {
+        if (released)
+            return;
+        clFinish(queue);
+        drained();
+        released = true;
+        for (long kernel : kernels.values())
+            clReleaseKernel(kernel);
+        kernels.clear();
+        if (gemmKernel != 0)
+            clReleaseKernel(gemmKernel);
+        gemmKernel = 0;
+        clReleaseCommandQueue(queue);
+    }
+}
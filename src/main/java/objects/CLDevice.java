@@ -0,0 +1,18 @@
+package objects;
+
+/**
+ * An OpenCL device and the platform it belongs to
+ *
+ * @param platform     The {@code cl_platform_id}
+ * @param device       The {@code cl_device_id}
+ * @param platformName The {@code CL_PLATFORM_NAME}
+ * @param name         The {@code CL_DEVICE_NAME}
+ * @param type         The {@code CL_DEVICE_TYPE} bitfield
+ */
+public record CLDevice(long platform, long device, String platformName, String name, long type) {
+
+    @Override
+    public String toString() {
+        return name + " (" + platformName + ")";
+    }
+}
@@ -0,0 +1,341 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Every OpenCL device of the machine working on the same operations.
+ * <p>
+ * Each device has its own {@code OpenCLInteractor}, so its own context, queue, buffer pool and kernels.
+ * A multiplication or forward pass is cut into blocks of rows of the left hand side, one block per device,
+ * sized by the measured throughput of the device, and the blocks of the result are gathered into one
+ * matrix. A list of batches is spread over the devices so that they are expected to finish together.
+ * <p>
+ * Throughputs start equal and are refined from the time of every block, so a slow CPU runtime ends up
+ * with a small share and a fast GPU with a large one.
+ */
+public class CLDeviceGroup implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(CLDeviceGroup.class.getName());
+
+    private static final double EWMA_WEIGHT = 0.3;
+    /**
+     * Smallest block of rows worth sending to a device
+     */
+    private static final int MIN_ROWS_PER_DEVICE = 16;
+
+    private final List<OpenCLInteractor> interactors;
+    /**
+     * Throughput of every device in flops per ns
+     */
+    private final double[] throughput;
+    private final ExecutorService executor;
+    /**
+     * Operations hold the read lock and may run concurrently, the interactors are thread-safe;
+     * {@code close} holds the write lock so no operation is running when the devices are released
+     */
+    private final ReentrantReadWriteLock operationLock = new ReentrantReadWriteLock();
+
+    private CLDeviceGroup(List<OpenCLInteractor> interactors) {
+        this.interactors = interactors;
+        this.throughput = new double[interactors.size()];
+        Arrays.fill(throughput, 1.0);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, interactors.size()), runnable -> {
+            Thread thread = new Thread(runnable, "cl-device-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Initialize every device of every platform. Devices that cannot be initialized, e.g. because no context
+     * can be created on them, are left out. Devices without {@code cl_khr_fp64} are kept and run in single precision.
+     *
+     * @return The group
+     */
+    public static CLDeviceGroup create() {
+        return create(OpenCLInteractor.listDevices());
+    }
+
+    /**
+     * Initialize the given devices. Devices that cannot be initialized are left out.
+     *
+     * @param devices The devices, from {@code OpenCLInteractor.listDevices()}
+     * @return The group
+     */
+    public static CLDeviceGroup create(List<CLDevice> devices) {
+        List<OpenCLInteractor> interactors = new ArrayList<>();
+        for (CLDevice device : devices) {
+            OpenCLInteractor interactor = new OpenCLInteractor(device);
+            try {
+                interactor.initialize();
+                interactors.add(interactor);
+            } catch (RuntimeException e) {
+                LOGGER.warning(String.format("Leaving out the OpenCL device %s: %s", device, e.getMessage()));
+            }
+        }
+        if (interactors.isEmpty())
+            throw new RuntimeException("No usable OpenCL device found.");
+        return new CLDeviceGroup(interactors);
+    }
+
+    /**
+     * @return The devices of the group
+     */
+    public List<CLDevice> getDevices() {
+        List<CLDevice> devices = new ArrayList<>(interactors.size());
+        for (OpenCLInteractor interactor : interactors)
+            devices.add(interactor.getDevice());
+        return Collections.unmodifiableList(devices);
+    }
+
+    /**
+     * Get the share of the work each device currently receives
+     *
+     * @return The shares, in the order of {@link #getDevices()}, summing to 1
+     */
+    public synchronized double[] getShares() {
+        double total = 0;
+        for (double rate : throughput)
+            total += rate;
+        double[] shares = new double[throughput.length];
+        for (int i = 0; i < shares.length; i++)
+            shares[i] = throughput[i] / total;
+        return shares;
+    }
+
+    /**
+     * Multiply two matrices, each device computing a block of rows of the product
+     *
+     * @param matrixA The left hand side
+     * @param matrixB The right hand side
+     * @return The product
+     * @throws MatrixDimensionsNotMatchException if the number of columns of A is not the number of rows of B
+     */
+    public Matrix multiply(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        if (matrixA.getNumOfColumns() != matrixB.getNumOfRows())
+            throw new MatrixDimensionsNotMatchException();
+        Matrix result = Matrix.createNewEmptyMatrix(matrixA.getNumOfRows(), matrixB.getNumOfColumns());
+        runRowBlocks(matrixA.getNumOfRows(), 2.0 * matrixB.getNumOfColumns() * matrixA.getNumOfColumns(), (interactor, fromRow, toRow) ->
+                copyRows(interactor.clMultiply(rows(matrixA, fromRow, toRow), matrixB), result, fromRow));
+        return result;
+    }
+
+    /**
+     * Compute {@code activation(weights x inputs + bias)}, each device computing a block of rows
+     *
+     * @param weights The weights
+     * @param inputs  The inputs, one sample per column
+     * @param bias    The bias, the same size as the result
+     * @param mode    The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The activated outputs
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     */
+    public Matrix forwardPass(Matrix weights, Matrix inputs, Matrix bias, int mode) throws MatrixDimensionsNotMatchException {
+        checkForwardPass(weights, inputs, bias);
+        Matrix result = Matrix.createNewEmptyMatrix(weights.getNumOfRows(), inputs.getNumOfColumns());
+        runRowBlocks(weights.getNumOfRows(), 2.0 * inputs.getNumOfColumns() * weights.getNumOfColumns(), (interactor, fromRow, toRow) ->
+                copyRows(interactor.clForwardPass(rows(weights, fromRow, toRow), inputs, rows(bias, fromRow, toRow), mode), result, fromRow));
+        return result;
+    }
+
+    /**
+     * Run the forward pass of the same weights on every batch, the batches being spread over the devices
+     *
+     * @param weights The weights
+     * @param batches The inputs, one sample per column
+     * @param biases  The bias of every batch, the same size as its result
+     * @param mode    The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The output of every batch, in the order of the batches
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     */
+    public List<Matrix> forwardPassBatches(Matrix weights, List<Matrix> batches, List<Matrix> biases, int mode) throws MatrixDimensionsNotMatchException {
+        if (batches.size() != biases.size())
+            throw new MatrixDimensionsNotMatchException("Every batch needs its bias");
+        for (int i = 0; i < batches.size(); i++)
+            checkForwardPass(weights, batches.get(i), biases.get(i));
+
+        // Give every batch to the device expected to finish it first
+        double[] rates = snapshotThroughput();
+        double[] finish = new double[rates.length];
+        List<List<Integer>> assignments = new ArrayList<>();
+        for (int d = 0; d < rates.length; d++)
+            assignments.add(new ArrayList<>());
+        for (int i = 0; i < batches.size(); i++) {
+            double work = 2.0 * weights.getNumOfRows() * weights.getNumOfColumns() * batches.get(i).getNumOfColumns();
+            int best = 0;
+            for (int d = 1; d < rates.length; d++)
+                if (finish[d] + work / rates[d] < finish[best] + work / rates[best])
+                    best = d;
+            finish[best] += work / rates[best];
+            assignments.get(best).add(i);
+        }
+
+        Matrix[] results = new Matrix[batches.size()];
+        operationLock.readLock().lock();
+        try {
+            runAssignments(weights, batches, biases, mode, assignments, results);
+        } finally {
+            operationLock.readLock().unlock();
+        }
+        return List.of(results);
+    }
+
+    private void runAssignments(Matrix weights, List<Matrix> batches, List<Matrix> biases, int mode, List<List<Integer>> assignments, Matrix[] results) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int d = 0; d < interactors.size(); d++) {
+            List<Integer> assigned = assignments.get(d);
+            if (assigned.isEmpty())
+                continue;
+            final int device = d;
+            futures.add(CompletableFuture.runAsync(() -> {
+                OpenCLInteractor interactor = interactors.get(device);
+                double work = 0;
+                long start = System.nanoTime();
+                for (int i : assigned) {
+                    results[i] = interactor.clForwardPass(weights, batches.get(i), biases.get(i), mode);
+                    work += 2.0 * weights.getNumOfRows() * weights.getNumOfColumns() * batches.get(i).getNumOfColumns();
+                }
+                learn(device, work, System.nanoTime() - start);
+            }, executor));
+        }
+        join(futures);
+    }
+
+    /**
+     * Release every device
+     */
+    @Override
+    public void close() {
+        operationLock.writeLock().lock();
+        try {
+            executor.shutdown();
+            for (OpenCLInteractor interactor : interactors)
+                interactor.exit();
+        } finally {
+            operationLock.writeLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowBlockTask {
+        void run(OpenCLInteractor interactor, int fromRow, int toRow);
+    }
+
+    /**
+     * Cut the rows into one block per device according to the throughputs and run the blocks in parallel
+     *
+     * @param numOfRows   The number of rows
+     * @param workPerRow  The flops of one row
+     * @param task        Computes the rows [fromRow, toRow) on a device
+     */
+    private void runRowBlocks(int numOfRows, double workPerRow, RowBlockTask task) {
+        operationLock.readLock().lock();
+        try {
+            runRowBlocks(numOfRows, workPerRow, task, snapshotThroughput());
+        } finally {
+            operationLock.readLock().unlock();
+        }
+    }
+
+    private void runRowBlocks(int numOfRows, double workPerRow, RowBlockTask task, double[] rates) {
+        int[] bounds = splitRows(numOfRows, rates);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int d = 0; d < interactors.size(); d++) {
+            int fromRow = bounds[d];
+            int toRow = bounds[d + 1];
+            if (fromRow == toRow)
+                continue;
+            final int device = d;
+            futures.add(CompletableFuture.runAsync(() -> {
+                long start = System.nanoTime();
+                task.run(interactors.get(device), fromRow, toRow);
+                learn(device, workPerRow * (toRow - fromRow), System.nanoTime() - start);
+            }, executor));
+        }
+        join(futures);
+    }
+
+    /**
+     * Split the rows proportionally to the rates, devices whose block would be too small get nothing
+     *
+     * @return The bounds, block d being [bounds[d], bounds[d + 1])
+     */
+    static int[] splitRows(int numOfRows, double[] rates) {
+        double[] shares = rates.clone();
+        double total = 0;
+        for (double share : shares)
+            total += share;
+        // Drop the slowest devices until every remaining block is worth it
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int slowest = -1;
+            for (int d = 0; d < shares.length; d++)
+                if (shares[d] > 0 && numOfRows * shares[d] / total < MIN_ROWS_PER_DEVICE && (slowest < 0 || shares[d] < shares[slowest]))
+                    slowest = d;
+            if (slowest >= 0 && total > shares[slowest]) {
+                total -= shares[slowest];
+                shares[slowest] = 0;
+                changed = true;
+            }
+        }
+        int[] bounds = new int[shares.length + 1];
+        double cumulative = 0;
+        for (int d = 0; d < shares.length; d++) {
+            cumulative += shares[d];
+            bounds[d + 1] = (int) Math.round(numOfRows * cumulative / total);
+        }
+        bounds[shares.length] = numOfRows;
+        return bounds;
+    }
+
+    private synchronized double[] snapshotThroughput() {
+        return throughput.clone();
+    }
+
+    private synchronized void learn(int device, double work, long nanos) {
+        if (nanos <= 0 || work <= 0)
+            return;
+        throughput[device] = (1 - EWMA_WEIGHT) * throughput[device] + EWMA_WEIGHT * (work / nanos);
+    }
+
+    private static void checkForwardPass(Matrix weights, Matrix inputs, Matrix bias) throws MatrixDimensionsNotMatchException {
+        if (weights.getNumOfColumns() != inputs.getNumOfRows()
+                || bias.getNumOfRows() != weights.getNumOfRows() || bias.getNumOfColumns() != inputs.getNumOfColumns())
+            throw new MatrixDimensionsNotMatchException();
+    }
+
+    private static Matrix rows(Matrix matrix, int fromRow, int toRow) {
+        int columns = matrix.getNumOfColumns();
+        Matrix block = Matrix.createNewEmptyMatrix(toRow - fromRow, columns);
+        System.arraycopy(matrix.getData(), fromRow * columns, block.getData(), 0, block.getNumOfEntries());
+        return block;
+    }
+
+    private static void copyRows(Matrix block, Matrix target, int fromRow) {
+        System.arraycopy(block.getData(), 0, target.getData(), fromRow * target.getNumOfColumns(), block.getNumOfEntries());
+    }
+
+    private static void join(List<CompletableFuture<Void>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+}
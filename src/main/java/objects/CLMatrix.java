@@ -0,0 +1,285 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+/**
+ * A matrix whose data lives in an OpenCL device buffer.
+ * <p>
+ * Every operation enqueues a kernel and returns a new {@code CLMatrix} right away, nothing is copied
+ * back to the host until {@link #download()} is called. Each thread has its own in-order command queue, so a
+ * chain such as {@code a.multiply(b).add(c).activate(mode)} runs as consecutive kernels on the device, and an
+ * intermediate can be closed as soon as the next operation has been enqueued.
+ * <p>
+ * A {@code CLMatrix} is not meant to be used by two threads at once, but it can be handed over: the first
+ * operation on another thread waits for the commands of the previous thread's queue.
+ * <p>
+ * The buffer comes from the pool of the interactor and goes back to it on {@link #close()}, once the
+ * commands using it are complete.
+ */
+public class CLMatrix implements AutoCloseable {
+
+    private final OpenCLInteractor interactor;
+    private final int numOfRows;
+    private final int numOfColumns;
+    private long memory;
+    /**
+     * The queue of the last commands that used the buffer
+     */
+    private CLCommandQueue queue;
+
+    CLMatrix(OpenCLInteractor interactor, long memory, int numOfRows, int numOfColumns) {
+        this.interactor = interactor;
+        this.memory = memory;
+        this.queue = interactor.commandQueue();
+        this.numOfRows = numOfRows;
+        this.numOfColumns = numOfColumns;
+    }
+
+    /**
+     * Copy a matrix to the device of the library's OpenCL interactor
+     *
+     * @param matrix The matrix
+     * @return The device resident matrix
+     */
+    public static CLMatrix upload(Matrix matrix) {
+        return Matrix.clInteractor().toDevice(matrix);
+    }
+
+    /**
+     * Copy the data back to the host, waiting for every operation enqueued before
+     *
+     * @return A new matrix with the data
+     */
+    public Matrix download() {
+        ensureOpen();
+        Matrix result = Matrix.createNewEmptyMatrix(numOfRows, numOfColumns);
+        interactor.download(memory, result);
+        return result;
+    }
+
+    /**
+     * Multiply this matrix by another one on the device
+     *
+     * @param other The right hand side
+     * @return The product
+     * @throws MatrixDimensionsNotMatchException if the number of columns of this matrix is not the number of rows of the other
+     */
+    public CLMatrix multiply(CLMatrix other) throws MatrixDimensionsNotMatchException {
+        ensureOpen();
+        other.ensureOpen();
+        if (numOfColumns != other.numOfRows)
+            throw new MatrixDimensionsNotMatchException();
+        CLMatrix result = allocate(numOfRows, other.numOfColumns);
+        interactor.enqueueMultiply(memory, other.memory, result.memory, numOfRows, other.numOfColumns, numOfColumns);
+        return result;
+    }
+
+    /**
+     * Add another matrix to this one on the device
+     *
+     * @param other The other matrix
+     * @return The sum
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     */
+    public CLMatrix add(CLMatrix other) throws MatrixDimensionsNotMatchException {
+        ensureSameSize(other);
+        CLMatrix result = allocate(numOfRows, numOfColumns);
+        interactor.enqueueAdd(memory, other.memory, result.memory, getNumOfEntries());
+        return result;
+    }
+
+    /**
+     * Subtract another matrix from this one on the device
+     *
+     * @param other The other matrix
+     * @return The difference
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     */
+    public CLMatrix subtract(CLMatrix other) throws MatrixDimensionsNotMatchException {
+        ensureSameSize(other);
+        CLMatrix result = allocate(numOfRows, numOfColumns);
+        interactor.enqueueSubtract(memory, other.memory, result.memory, getNumOfEntries());
+        return result;
+    }
+
+    /**
+     * Multiply this matrix by another one entry by entry on the device
+     *
+     * @param other The other matrix
+     * @return The Hadamard product
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     */
+    public CLMatrix hadamard(CLMatrix other) throws MatrixDimensionsNotMatchException {
+        ensureSameSize(other);
+        CLMatrix result = allocate(numOfRows, numOfColumns);
+        interactor.enqueueHadamard(memory, other.memory, result.memory, getNumOfEntries());
+        return result;
+    }
+
+    /**
+     * Multiply every entry by a constant on the device
+     *
+     * @param factor The constant
+     * @return The scaled matrix
+     */
+    public CLMatrix scale(double factor) {
+        ensureOpen();
+        CLMatrix result = allocate(numOfRows, numOfColumns);
+        interactor.enqueueScale(memory, result.memory, getNumOfEntries(), factor);
+        return result;
+    }
+
+    /**
+     * Convolve this matrix with a mask on the device, without padding, as {@code Matrix.convolution}
+     *
+     * @param mask The mask, not larger than this matrix
+     * @return The convolved matrix
+     */
+    public CLMatrix convolve(CLMatrix mask) {
+        ensureOpen();
+        mask.ensureOpen();
+        if (mask.numOfRows > numOfRows || mask.numOfColumns > numOfColumns)
+            throw new IllegalArgumentException("The mask is larger than the matrix");
+        CLMatrix result = allocate(numOfRows - mask.numOfRows + 1, numOfColumns - mask.numOfColumns + 1);
+        interactor.enqueueConvolve(memory, mask.memory, result.memory, numOfRows, numOfColumns, mask.numOfRows, mask.numOfColumns);
+        return result;
+    }
+
+    /**
+     * Reduce every entry to one value on the device, only that value is copied back
+     *
+     * @param reduction SUM, MEAN, MIN, MAX, ABSOLUTE_SUM or NORM
+     * @return The reduced value
+     * @throws UnsupportedOperationException for ARG_MIN and ARG_MAX
+     */
+    public double reduce(Reduction reduction) {
+        ensureOpen();
+        return interactor.reduce(memory, getNumOfEntries(), reduction);
+    }
+
+    public double sum() {
+        return reduce(Reduction.SUM);
+    }
+
+    public double max() {
+        return reduce(Reduction.MAX);
+    }
+
+    public double min() {
+        return reduce(Reduction.MIN);
+    }
+
+    /**
+     * @return The Frobenius norm, the square root of the sum of squares
+     */
+    public double norm() {
+        return reduce(Reduction.NORM);
+    }
+
+    /**
+     * Transpose this matrix on the device
+     *
+     * @return The transpose
+     */
+    public CLMatrix transpose() {
+        ensureOpen();
+        CLMatrix result = allocate(numOfColumns, numOfRows);
+        interactor.enqueueTranspose(memory, result.memory, numOfRows, numOfColumns);
+        return result;
+    }
+
+    /**
+     * Apply an activation function to every entry on the device
+     *
+     * @param mode The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The activated matrix
+     */
+    public CLMatrix activate(int mode) {
+        ensureOpen();
+        CLMatrix result = allocate(numOfRows, numOfColumns);
+        interactor.enqueueActivate(memory, result.memory, getNumOfEntries(), mode);
+        return result;
+    }
+
+    /**
+     * Apply an activation function to every entry on the device
+     *
+     * @param activation The activation
+     * @return The activated matrix
+     */
+    public CLMatrix activate(Activation activation) {
+        return activate(activation.getMode());
+    }
+
+    /**
+     * Compute {@code activation(this x inputs + bias)} on the device, this matrix being the weights
+     *
+     * @param inputs The inputs, one sample per column
+     * @param bias   The bias, the same size as the result
+     * @param mode   The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The activated outputs
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     */
+    public CLMatrix forwardPass(CLMatrix inputs, CLMatrix bias, int mode) throws MatrixDimensionsNotMatchException {
+        ensureOpen();
+        inputs.ensureOpen();
+        bias.ensureOpen();
+        if (numOfColumns != inputs.numOfRows || bias.numOfRows != numOfRows || bias.numOfColumns != inputs.numOfColumns)
+            throw new MatrixDimensionsNotMatchException();
+        CLMatrix result = allocate(numOfRows, inputs.numOfColumns);
+        interactor.enqueueForwardPass(memory, inputs.memory, bias.memory, result.memory, numOfRows, inputs.numOfColumns, numOfColumns, mode);
+        return result;
+    }
+
+    public int getNumOfRows() {
+        return numOfRows;
+    }
+
+    public int getNumOfColumns() {
+        return numOfColumns;
+    }
+
+    public int getNumOfEntries() {
+        return numOfRows * numOfColumns;
+    }
+
+    public boolean isClosed() {
+        return memory == 0;
+    }
+
+    /**
+     * Give the device buffer back to the pool, closing twice has no effect
+     */
+    @Override
+    public void close() {
+        if (memory != 0) {
+            queue.free(memory);
+            memory = 0;
+        }
+    }
+
+    private CLMatrix allocate(int rows, int columns) {
+        return new CLMatrix(interactor, interactor.allocate((long) rows * columns), rows, columns);
+    }
+
+    private void ensureSameSize(CLMatrix other) throws MatrixDimensionsNotMatchException {
+        ensureOpen();
+        other.ensureOpen();
+        if (numOfRows != other.numOfRows || numOfColumns != other.numOfColumns)
+            throw new MatrixDimensionsNotMatchException();
+    }
+
+    /**
+     * Check that the matrix is open and move it to the calling thread's queue, waiting for the commands
+     * that another thread enqueued on it
+     */
+    private void ensureOpen() {
+        if (memory == 0)
+            throw new IllegalStateException("The CLMatrix has been closed");
+        CLCommandQueue current = interactor.commandQueue();
+        if (queue != current) {
+            queue.finish();
+            queue = current;
+        }
+    }
+}
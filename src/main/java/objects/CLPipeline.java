@@ -0,0 +1,350 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opencl.CLEventCallback;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.lwjgl.opencl.CL10.*;
+import static org.lwjgl.opencl.CL11.clSetEventCallback;
+import static util.InfoUtil.checkCLError;
+
+/**
+ * Run OpenCL operations asynchronously, overlapping transfers with compute.
+ * <p>
+ * Uploads, kernels and downloads go to three in-order queues and are chained with events, so while the
+ * kernel of an operation runs, the inputs of the next one are uploaded and the result of the previous one
+ * is downloaded. Every operation returns at once with a future that is completed when its result has
+ * reached the host.
+ * <p>
+ * At most {@code depth} operations are in flight, submitting one more waits for the oldest to finish and
+ * recycles its host and device buffers. Futures are completed on the common fork join pool, never on the
+ * thread of the OpenCL driver.
+ * <p>
+ * A pipeline is used by one thread at a time.
+ */
+public class CLPipeline implements AutoCloseable {
+
+    /**
+     * One operation uploading, one computing and one downloading
+     */
+    public static final int DEFAULT_DEPTH = 3;
+
+    private final OpenCLInteractor interactor;
+    private final long uploadQueue;
+    private final long computeQueue;
+    private final long downloadQueue;
+    private final Slot[] slots;
+    /**
+     * Device buffers shared by the operations of a batch still being submitted. Once it is submitted, the buffer
+     * goes to the slot of its last operation, and only a submission that failed halfway leaves it here until close.
+     */
+    private final List<Long> residentBuffers = new ArrayList<>();
+    private int nextSlot;
+    private boolean closed;
+
+    CLPipeline(OpenCLInteractor interactor, int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("The depth must be at least 1");
+        this.interactor = interactor;
+        this.uploadQueue = interactor.createQueue();
+        this.computeQueue = interactor.createQueue();
+        this.downloadQueue = interactor.createQueue();
+        this.slots = new Slot[depth];
+        for (int i = 0; i < depth; i++)
+            slots[i] = new Slot();
+    }
+
+    /**
+     * Multiply two matrices asynchronously
+     *
+     * @param matrixA The left hand side
+     * @param matrixB The right hand side
+     * @return The future of the product
+     * @throws MatrixDimensionsNotMatchException if the number of columns of A is not the number of rows of B
+     */
+    public synchronized CompletableFuture<Matrix> multiply(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        if (matrixA.getNumOfColumns() != matrixB.getNumOfRows())
+            throw new MatrixDimensionsNotMatchException();
+        Slot slot = nextSlot();
+        long a = slot.upload(matrixA);
+        return multiply(slot, a, matrixA.getNumOfRows(), matrixA.getNumOfColumns(), matrixB);
+    }
+
+    /**
+     * Multiply the same left hand side by every batch. The left hand side is uploaded once and stays on the
+     * device, the batches are streamed through the pipeline.
+     *
+     * @param matrixA The left hand side, e.g. the weights of a layer
+     * @param batches The right hand sides
+     * @return The future of every product, in the order of the batches
+     * @throws MatrixDimensionsNotMatchException if the number of columns of A is not the number of rows of a batch
+     */
+    public synchronized List<CompletableFuture<Matrix>> multiplyBatches(Matrix matrixA, List<Matrix> batches) throws MatrixDimensionsNotMatchException {
+        for (Matrix batch : batches)
+            if (matrixA.getNumOfColumns() != batch.getNumOfRows())
+                throw new MatrixDimensionsNotMatchException();
+        long a = resident(matrixA);
+        List<CompletableFuture<Matrix>> futures = new ArrayList<>(batches.size());
+        Slot slot = null;
+        for (Matrix batch : batches) {
+            slot = nextSlot();
+            futures.add(multiply(slot, a, matrixA.getNumOfRows(), matrixA.getNumOfColumns(), batch));
+        }
+        handOver(a, slot);
+        return futures;
+    }
+
+    /**
+     * Compute {@code activation(weights x inputs + bias)} asynchronously
+     *
+     * @param weights The weights
+     * @param inputs  The inputs, one sample per column
+     * @param bias    The bias, the same size as the result
+     * @param mode    The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The future of the activated outputs
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     */
+    public synchronized CompletableFuture<Matrix> forwardPass(Matrix weights, Matrix inputs, Matrix bias, int mode) throws MatrixDimensionsNotMatchException {
+        checkForwardPass(weights, inputs, bias);
+        Slot slot = nextSlot();
+        long w = slot.upload(weights);
+        return forwardPass(slot, w, weights.getNumOfRows(), weights.getNumOfColumns(), inputs, bias, mode);
+    }
+
+    /**
+     * Run the forward pass of the same weights on every batch. The weights are uploaded once and stay on the
+     * device, the batches and their bias are streamed through the pipeline.
+     *
+     * @param weights The weights
+     * @param batches The inputs, one sample per column
+     * @param biases  The bias of every batch, the same size as its result
+     * @param mode    The activation mode, as in {@code Matrix.clForwardPass}
+     * @return The future of every output, in the order of the batches
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     */
+    public synchronized List<CompletableFuture<Matrix>> forwardPassBatches(Matrix weights, List<Matrix> batches, List<Matrix> biases, int mode) throws MatrixDimensionsNotMatchException {
+        if (batches.size() != biases.size())
+            throw new MatrixDimensionsNotMatchException("Every batch needs its bias");
+        for (int i = 0; i < batches.size(); i++)
+            checkForwardPass(weights, batches.get(i), biases.get(i));
+        long w = resident(weights);
+        List<CompletableFuture<Matrix>> futures = new ArrayList<>(batches.size());
+        Slot slot = null;
+        for (int i = 0; i < batches.size(); i++) {
+            slot = nextSlot();
+            futures.add(forwardPass(slot, w, weights.getNumOfRows(), weights.getNumOfColumns(), batches.get(i), biases.get(i), mode));
+        }
+        handOver(w, slot);
+        return futures;
+    }
+
+    /**
+     * Wait until every submitted operation has completed
+     */
+    public synchronized void await() {
+        for (Slot slot : slots)
+            slot.retire();
+    }
+
+    /**
+     * Wait for the operations in flight and release the queues and buffers of the pipeline
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        await();
+        for (long buffer : residentBuffers)
+            interactor.free(buffer);
+        residentBuffers.clear();
+        clReleaseCommandQueue(uploadQueue);
+        clReleaseCommandQueue(computeQueue);
+        clReleaseCommandQueue(downloadQueue);
+        closed = true;
+    }
+
+    private CompletableFuture<Matrix> multiply(Slot slot, long a, int m, int k, Matrix matrixB) {
+        long b = slot.upload(matrixB);
+        int n = matrixB.getNumOfColumns();
+        long c = slot.allocate((long) m * n);
+        PointerBuffer kernelEvent = slot.newEvent();
+        interactor.enqueueMultiply(computeQueue, slot.uploadEvents(), kernelEvent, a, b, c, m, n, k);
+        return slot.download(c, kernelEvent, m, n);
+    }
+
+    private CompletableFuture<Matrix> forwardPass(Slot slot, long weights, int m, int k, Matrix inputs, Matrix bias, int mode) {
+        long x = slot.upload(inputs);
+        long b = slot.upload(bias);
+        int n = inputs.getNumOfColumns();
+        long result = slot.allocate((long) m * n);
+        PointerBuffer kernelEvent = slot.newEvent();
+        interactor.enqueueForwardPass(computeQueue, slot.uploadEvents(), kernelEvent, weights, x, b, result, m, n, k, mode);
+        return slot.download(result, kernelEvent, m, n);
+    }
+
+    private static void checkForwardPass(Matrix weights, Matrix inputs, Matrix bias) throws MatrixDimensionsNotMatchException {
+        if (weights.getNumOfColumns() != inputs.getNumOfRows()
+                || bias.getNumOfRows() != weights.getNumOfRows() || bias.getNumOfColumns() != inputs.getNumOfColumns())
+            throw new MatrixDimensionsNotMatchException();
+    }
+
+    /**
+     * Upload a matrix that is shared by a batch of operations, blocking so it is ready on every queue
+     */
+    private long resident(Matrix matrix) {
+        ensureOpen();
+        long memory = interactor.upload(matrix);
+        residentBuffers.add(memory);
+        return memory;
+    }
+
+    /**
+     * Give a resident buffer to the slot of the last operation that uses it, to be released when that slot retires.
+     * The compute queue is in order, so every earlier kernel of the batch is complete by then.
+     *
+     * @param last The slot, {@code null} if the batch was empty and the buffer can be released now
+     */
+    private void handOver(long memory, Slot last) {
+        residentBuffers.remove(Long.valueOf(memory));
+        if (last == null)
+            interactor.free(memory);
+        else
+            last.buffers.add(memory);
+    }
+
+    private Slot nextSlot() {
+        ensureOpen();
+        Slot slot = slots[nextSlot];
+        nextSlot = (nextSlot + 1) % slots.length;
+        slot.retire();
+        return slot;
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("The pipeline has been closed");
+    }
+
+    /**
+     * The buffers and events of one operation in flight
+     */
+    private final class Slot {
+        private final List<Long> buffers = new ArrayList<>();
+        private final List<PointerBuffer> events = new ArrayList<>();
+        private final List<PointerBuffer> uploadEvents = new ArrayList<>();
+        /**
+         * Host buffers of non-blocking transfers must outlive the transfer
+         */
+        private final List<ByteBuffer> hostBuffers = new ArrayList<>();
+        private CLEventCallback callback;
+        private CountDownLatch callbackDone;
+        private PointerBuffer readEvent;
+
+        long upload(Matrix matrix) {
+            ByteBuffer host = interactor.toHostBuffer(matrix);
+            hostBuffers.add(host);
+            long memory = allocate(matrix.getNumOfEntries());
+            PointerBuffer event = newEvent();
+            checkCLError(clEnqueueWriteBuffer(uploadQueue, memory, false, 0, host, null, event));
+            interactor.profile(event, event, "upload", CLProfiler.CommandType.WRITE, 0, host.capacity());
+            uploadEvents.add(event);
+            return memory;
+        }
+
+        long allocate(long numOfEntries) {
+            long memory = interactor.allocate(numOfEntries);
+            buffers.add(memory);
+            return memory;
+        }
+
+        PointerBuffer newEvent() {
+            PointerBuffer event = BufferUtils.createPointerBuffer(1);
+            events.add(event);
+            return event;
+        }
+
+        /**
+         * @return The events of the uploads of this slot, {@code null} if the operation only uses resident buffers
+         */
+        PointerBuffer uploadEvents() {
+            if (uploadEvents.isEmpty())
+                return null;
+            PointerBuffer waitList = BufferUtils.createPointerBuffer(uploadEvents.size());
+            for (int i = 0; i < uploadEvents.size(); i++)
+                waitList.put(i, uploadEvents.get(i).get(0));
+            return waitList;
+        }
+
+        /**
+         * Read the result once the kernel is done and complete the future when it is on the host
+         */
+        CompletableFuture<Matrix> download(long memory, PointerBuffer kernelEvent, int rows, int columns) {
+            Matrix result = Matrix.createNewEmptyMatrix(rows, columns);
+            ByteBuffer host = interactor.createHostBuffer(result.getNumOfEntries());
+            hostBuffers.add(host);
+            readEvent = newEvent();
+            checkCLError(clEnqueueReadBuffer(downloadQueue, memory, false, 0, host, kernelEvent, readEvent));
+            interactor.profile(readEvent, readEvent, "download", CLProfiler.CommandType.READ, 0, host.capacity());
+
+            CompletableFuture<Matrix> future = new CompletableFuture<>();
+            CountDownLatch done = new CountDownLatch(1);
+            callback = CLEventCallback.create((event, status, userData) -> {
+                if (status == CL_COMPLETE) {
+                    ForkJoinPool.commonPool().execute(() -> {
+                        interactor.fromHostBuffer(host, result);
+                        future.complete(result);
+                    });
+                } else {
+                    future.completeExceptionally(new RuntimeException(String.format("OpenCL error [%d]", status)));
+                }
+                done.countDown();
+            });
+            callbackDone = done;
+            checkCLError(clSetEventCallback(readEvent.get(0), CL_COMPLETE, callback, 0));
+
+            // Start the work now instead of when a queue happens to be flushed
+            checkCLError(clFlush(uploadQueue));
+            checkCLError(clFlush(computeQueue));
+            checkCLError(clFlush(downloadQueue));
+            return future;
+        }
+
+        /**
+         * Wait for the operation of this slot, if any, and give its resources back
+         */
+        void retire() {
+            if (readEvent != null)
+                checkCLError(clWaitForEvents(readEvent.get(0)));
+            // The callback may still be running once the event is complete, it has to return before being freed
+            if (callbackDone != null) {
+                try {
+                    callbackDone.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            for (PointerBuffer event : events)
+                if (event.get(0) != 0)
+                    clReleaseEvent(event.get(0));
+            for (long buffer : buffers)
+                interactor.free(buffer);
+            if (callback != null)
+                callback.free();
+            events.clear();
+            uploadEvents.clear();
+            buffers.clear();
+            hostBuffers.clear();
+            callback = null;
+            callbackDone = null;
+            readEvent = null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package objects;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.opencl.CL10.*;
+import static util.InfoUtil.checkCLError;
+
+/**
+ * Timings of the commands enqueued by an {@code OpenCLInteractor} with profiling enabled.
+ * <p>
+ * Every kernel launch and transfer is recorded with its event. Once the command is complete its
+ * {@code CL_PROFILING_COMMAND_QUEUED}, {@code START} and {@code END} timestamps are read and added to the
+ * statistics of its name ({@code multiply}, {@code upload}, ...). Events are read in bulk when a blocking
+ * download completes or when the statistics are queried, so profiling adds no synchronisation of its own
+ * to the queue.
+ */
+public class CLProfiler {
+
+    /**
+     * Number of histogram buckets, bucket i holds the commands that ran for [2^i, 2^(i+1)) ns
+     */
+    public static final int NUM_OF_BUCKETS = 40;
+
+    /**
+     * Above this many unread events, recording a command reads the completed ones first
+     */
+    private static final int MAX_PENDING = 4096;
+
+    public enum CommandType {
+        KERNEL, WRITE, READ
+    }
+
+    /**
+     * The statistics of one command name
+     *
+     * @param name        The name of the command
+     * @param type        Whether it is a kernel or a transfer
+     * @param count       The number of commands
+     * @param totalNanos  The sum of the execution times, from START to END
+     * @param minNanos    The shortest execution time
+     * @param maxNanos    The longest execution time
+     * @param queuedNanos The sum of the times spent waiting in the queue, from QUEUED to START
+     * @param flops       The floating point operations of all the commands
+     * @param bytes       The bytes read and written by all the commands
+     * @param histogram   The number of commands per execution time bucket, see {@link #NUM_OF_BUCKETS}
+     */
+    public record Statistics(String name, CommandType type, long count, long totalNanos, long minNanos, long maxNanos,
+                             long queuedNanos, double flops, long bytes, long[] histogram) {
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @return The achieved GFLOP/s over the execution time, 0 for transfers
+         */
+        public double gflops() {
+            return totalNanos == 0 ? 0 : flops / totalNanos;
+        }
+
+        /**
+         * @return The achieved GB/s over the execution time
+         */
+        public double gigabytesPerSecond() {
+            return totalNanos == 0 ? 0 : (double) bytes / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %-6s count=%d mean=%.1fus min=%.1fus max=%.1fus queued=%.1fus %.2f GFLOP/s %.2f GB/s",
+                    name, type, count, meanNanos() / 1e3, minNanos / 1e3, maxNanos / 1e3, count == 0 ? 0 : queuedNanos / 1e3 / count,
+                    gflops(), gigabytesPerSecond());
+        }
+    }
+
+    private record Pending(long event, String name, CommandType type, double flops, long bytes) {
+    }
+
+    /**
+     * Running totals of one command name
+     */
+    private static final class Accumulator {
+        private final CommandType type;
+        private long count;
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+        private long queuedNanos;
+        private double flops;
+        private long bytes;
+        private final long[] histogram = new long[NUM_OF_BUCKETS];
+
+        Accumulator(CommandType type) {
+            this.type = type;
+        }
+
+        void add(long queued, long start, long end, double flops, long bytes) {
+            long nanos = Math.max(0, end - start);
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+            queuedNanos += Math.max(0, start - queued);
+            this.flops += flops;
+            this.bytes += bytes;
+            histogram[Math.min(NUM_OF_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)))]++;
+        }
+
+        Statistics toStatistics(String name) {
+            return new Statistics(name, type, count, totalNanos, count == 0 ? 0 : minNanos, maxNanos, queuedNanos, flops, bytes, histogram.clone());
+        }
+    }
+
+    private final List<Pending> pending = new ArrayList<>();
+    private final Map<String, Accumulator> accumulators = new TreeMap<>();
+    private final LongBuffer timestamp = BufferUtils.createLongBuffer(1);
+
+    CLProfiler() {
+    }
+
+    /**
+     * Record a command, its event is retained until its timestamps have been read
+     *
+     * @param event The {@code cl_event} of the command
+     * @param name  The name the command is accounted under
+     * @param type  Whether it is a kernel or a transfer
+     * @param flops The floating point operations of the command
+     * @param bytes The bytes the command reads and writes
+     */
+    synchronized void record(long event, String name, CommandType type, double flops, long bytes) {
+        checkCLError(clRetainEvent(event));
+        pending.add(new Pending(event, name, type, flops, bytes));
+        if (pending.size() > MAX_PENDING)
+            collect();
+    }
+
+    /**
+     * Read the timestamps of every recorded command, waiting for those still running
+     */
+    synchronized void collect() {
+        for (Pending command : pending) {
+            checkCLError(clWaitForEvents(command.event()));
+            long queued = timestamp(command.event(), CL_PROFILING_COMMAND_QUEUED);
+            long start = timestamp(command.event(), CL_PROFILING_COMMAND_START);
+            long end = timestamp(command.event(), CL_PROFILING_COMMAND_END);
+            accumulators.computeIfAbsent(command.name(), k -> new Accumulator(command.type()))
+                    .add(queued, start, end, command.flops(), command.bytes());
+            clReleaseEvent(command.event());
+        }
+        pending.clear();
+    }
+
+    /**
+     * Get the statistics of every command name, waiting for the commands still running
+     *
+     * @return The statistics by name
+     */
+    public synchronized Map<String, Statistics> getStatistics() {
+        collect();
+        Map<String, Statistics> statistics = new TreeMap<>();
+        accumulators.forEach((name, accumulator) -> statistics.put(name, accumulator.toStatistics(name)));
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Get the statistics of one command name, waiting for the commands still running
+     *
+     * @param name The name, e.g. {@code multiply}, {@code upload} or {@code download}
+     * @return The statistics, all zero if no such command has run
+     */
+    public synchronized Statistics getStatistics(String name) {
+        collect();
+        Accumulator accumulator = accumulators.get(name);
+        if (accumulator == null)
+            return new Statistics(name, CommandType.KERNEL, 0, 0, 0, 0, 0, 0, 0, new long[NUM_OF_BUCKETS]);
+        return accumulator.toStatistics(name);
+    }
+
+    /**
+     * Forget every recorded command
+     */
+    public synchronized void reset() {
+        collect();
+        accumulators.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Statistics statistics : getStatistics().values())
+            builder.append(statistics).append(System.lineSeparator());
+        return builder.toString();
+    }
+
+    private long timestamp(long event, int name) {
+        checkCLError(clGetEventProfilingInfo(event, name, timestamp, null));
+        return timestamp.get(0);
+    }
+}
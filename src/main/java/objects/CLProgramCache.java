@@ -0,0 +1,144 @@
+package objects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Compiled OpenCL programs kept on disk so that later runs skip the source build.
+ * <p>
+ * Every binary is stored in its own file named after a SHA-256 of the device name, the driver version,
+ * the build options and the sources. Changing any of them gives another name, so a stale binary is never
+ * loaded, it is just left behind. The directory is {@code ~/.linearalgebra/cl-cache} unless the system
+ * property {@value #CACHE_DIRECTORY_PROPERTY} says otherwise.
+ */
+final class CLProgramCache {
+
+    private static final Logger LOGGER = Logger.getLogger(CLProgramCache.class.getName());
+
+    static final String CACHE_DIRECTORY_PROPERTY = "linearalgebra.cl.cache";
+
+    private final Path directory;
+
+    CLProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The cache in the default directory
+     */
+    static CLProgramCache createDefault() {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (directory != null)
+            return new CLProgramCache(Paths.get(directory));
+        return new CLProgramCache(Paths.get(System.getProperty("user.home"), ".linearalgebra", "cl-cache"));
+    }
+
+    /**
+     * Compute the key of a program
+     *
+     * @param deviceName    The {@code CL_DEVICE_NAME}
+     * @param driverVersion The {@code CL_DRIVER_VERSION}
+     * @param options       The build options
+     * @param sources       The source files, in the order they are given to the compiler
+     * @return The key, a hexadecimal string
+     */
+    static String key(String deviceName, String driverVersion, String options, ByteBuffer... sources) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Each part is followed by a zero byte so that moving text from one part to the next changes the key
+        for (String part : new String[]{deviceName, driverVersion, options}) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        for (ByteBuffer source : sources) {
+            digest.update(source.duplicate());
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Read the binary stored under a key
+     *
+     * @param key The key
+     * @return The binary, empty if there is none or it cannot be read
+     */
+    Optional<byte[]> load(String key) {
+        Path file = file(key);
+        if (!Files.isRegularFile(file))
+            return Optional.empty();
+        try {
+            return Optional.of(Files.readAllBytes(file));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store a binary under a key. The file is written next to its final place and then moved,
+     * so another JVM never reads half a binary.
+     *
+     * @param key    The key
+     * @param binary The binary
+     */
+    void store(String key, byte[] binary) {
+        Path file = file(key);
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, binary);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Building from source again on the next run is the only cost
+            LOGGER.warning(String.format("Cannot store the OpenCL program binary in %s: %s", file, e.getMessage()));
+        }
+    }
+
+    /**
+     * Delete the binary stored under a key, used when the driver rejects it
+     *
+     * @param key The key
+     */
+    void remove(String key) {
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Delete every stored binary
+     */
+    void clear() {
+        if (!Files.isDirectory(directory))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.bin")) {
+            for (Path file : files)
+                Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + ".bin");
+    }
+}
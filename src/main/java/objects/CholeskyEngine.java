@@ -0,0 +1,252 @@
+package objects;
+
+import exceptions.NotPositiveDefiniteException;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Blocked right-looking Cholesky factorization {@code A = L x L^T} and the triangular solves against its factor.
+ * <p>
+ * Each block column of {@value #BLOCK_SIZE} columns is factored on the calling thread, then the panel below it
+ * ({@code L21 = A21 x L11^-T}) and the lower triangle of the trailing sub-matrix ({@code A22 -= L21 x L21^T})
+ * are cut into ranges of rows for the worker threads. Every entry receives its updates in the same order
+ * whatever the number of requests, so the serial and the parallel version give the same bits.
+ */
+final class CholeskyEngine {
+
+    static final int BLOCK_SIZE = 48;
+    /**
+     * Trailing updates touching fewer entries run on the calling thread
+     */
+    static final long PARALLEL_THRESHOLD = 1L << 16;
+    /**
+     * The relative difference tolerated between {@code A[i][j]} and {@code A[j][i]}
+     */
+    static final double SYMMETRY_TOLERANCE = 1e-10;
+    private static final int MIN_COLUMNS_PER_REQUEST = 64;
+
+    private CholeskyEngine() {
+    }
+
+    /**
+     * Factor a symmetric positive definite matrix
+     *
+     * @param matrix   The matrix, only read
+     * @param parallel Whether the panels and the trailing updates are given to the worker threads
+     * @return L, lower triangular with a positive diagonal
+     * @throws NotPositiveDefiniteException if the matrix is not square, not symmetric, or a pivot is not positive
+     */
+    static Matrix factor(Matrix matrix, boolean parallel) {
+        if (!matrix.isSquareMatrix())
+            throw new NotPositiveDefiniteException("A square matrix is required!");
+        int size = matrix.getNumOfRows();
+        double[] a = matrix.getData();
+        // The cheap checks first, before any O(n^3) work
+        for (int i = 0; i < size; i++) {
+            if (!(a[i * size + i] > 0))
+                throw new NotPositiveDefiniteException("The diagonal entry " + i + " is not positive", i);
+            for (int j = 0; j < i; j++) {
+                double lower = a[i * size + j];
+                double upper = a[j * size + i];
+                if (Math.abs(lower - upper) > SYMMETRY_TOLERANCE * (Math.abs(lower) + Math.abs(upper)))
+                    throw new NotPositiveDefiniteException("The matrix is not symmetric at (" + i + ", " + j + ")", j);
+            }
+        }
+
+        // Work on the lower triangle of a copy, the strict upper triangle is cleared at the end
+        Matrix result = Matrix.copyingMatrix(matrix);
+        double[] l = result.getData();
+        for (int blockStart = 0; blockStart < size; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(size, blockStart + BLOCK_SIZE);
+            factorDiagonalBlock(l, size, blockStart, blockEnd);
+            int remaining = size - blockEnd;
+            if (remaining == 0)
+                break;
+            long work = (long) remaining * remaining * (blockEnd - blockStart) / 2;
+            int numOfRequests = parallel && work >= PARALLEL_THRESHOLD ? Math.min(Matrix.NUM_OF_THREADS, remaining) : 1;
+
+            CountDownLatch panelLatch = new CountDownLatch(numOfRequests);
+            CholeskyPanelRequest[] panelRequests = new CholeskyPanelRequest[numOfRequests];
+            for (int i = 0; i < numOfRequests; i++)
+                panelRequests[i] = new CholeskyPanelRequest(result, blockStart, blockEnd,
+                        blockEnd + (int) ((long) remaining * i / numOfRequests), blockEnd + (int) ((long) remaining * (i + 1) / numOfRequests), panelLatch);
+            Matrix.runRequests(panelRequests, panelLatch);
+
+            // Row i of the trailing triangle has i - blockEnd + 1 entries, so the ranges split its area evenly
+            CountDownLatch updateLatch = new CountDownLatch(numOfRequests);
+            CholeskyUpdateRequest[] updateRequests = new CholeskyUpdateRequest[numOfRequests];
+            for (int i = 0; i < numOfRequests; i++)
+                updateRequests[i] = new CholeskyUpdateRequest(result, blockStart, blockEnd,
+                        blockEnd + (int) (remaining * Math.sqrt((double) i / numOfRequests)),
+                        i == numOfRequests - 1 ? size : blockEnd + (int) (remaining * Math.sqrt((double) (i + 1) / numOfRequests)), updateLatch);
+            Matrix.runRequests(updateRequests, updateLatch);
+        }
+        for (int i = 0; i < size; i++)
+            for (int j = i + 1; j < size; j++)
+                l[i * size + j] = 0;
+        return result;
+    }
+
+    /**
+     * Unblocked Cholesky of the diagonal block, whose updates from the previous blocks are already applied
+     */
+    private static void factorDiagonalBlock(double[] l, int size, int blockStart, int blockEnd) {
+        for (int j = blockStart; j < blockEnd; j++) {
+            int rowJ = j * size;
+            double pivot = l[rowJ + j];
+            for (int p = blockStart; p < j; p++)
+                pivot -= l[rowJ + p] * l[rowJ + p];
+            if (!(pivot > 0))
+                throw new NotPositiveDefiniteException("The matrix is not positive definite, the pivot of column " + j + " is " + pivot, j);
+            double diagonal = Math.sqrt(pivot);
+            l[rowJ + j] = diagonal;
+            for (int i = j + 1; i < blockEnd; i++) {
+                int rowI = i * size;
+                double value = l[rowI + j];
+                for (int p = blockStart; p < j; p++)
+                    value -= l[rowI + p] * l[rowJ + p];
+                l[rowI + j] = value / diagonal;
+            }
+        }
+    }
+
+    /**
+     * Solve {@code L x L^T x X = B}
+     *
+     * @param l The factor
+     * @param b The right hand side, only read
+     * @return X
+     */
+    static Matrix solve(Matrix l, Matrix b) {
+        int width = b.getNumOfColumns();
+        Matrix result = new Matrix(b.getNumOfRows(), width);
+        long work = (long) l.getNumOfEntries() * width;
+        int numOfRequests = work >= PARALLEL_THRESHOLD ? Math.max(1, Math.min(Matrix.NUM_OF_THREADS, width / MIN_COLUMNS_PER_REQUEST)) : 1;
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        CholeskySolveRequest[] requests = new CholeskySolveRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new CholeskySolveRequest(result, l, b, (int) ((long) width * i / numOfRequests), (int) ((long) width * (i + 1) / numOfRequests), latch);
+        Matrix.runRequests(requests, latch);
+        return result;
+    }
+}
+
+/**
+ * A Request that computes a range of rows of the panel below a diagonal block, {@code L21 = A21 x L11^-T}
+ */
+class CholeskyPanelRequest extends MultiRowRequest {
+    private final int blockStart;
+    private final int blockEnd;
+
+    public CholeskyPanelRequest(Matrix container, int blockStart, int blockEnd, int fromRow, int toRow, CountDownLatch latch) {
+        super(container, null, null, fromRow, toRow, latch);
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+    }
+
+    @Override
+    public void calculate() {
+        double[] l = container.getData();
+        int size = container.getNumOfColumns();
+        for (int i = row; i < toRow; i++) {
+            int rowI = i * size;
+            for (int j = blockStart; j < blockEnd; j++) {
+                int rowJ = j * size;
+                double value = l[rowI + j];
+                for (int p = blockStart; p < j; p++)
+                    value -= l[rowI + p] * l[rowJ + p];
+                l[rowI + j] = value / l[rowJ + j];
+            }
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that applies a panel to a range of rows of the lower triangle of the trailing sub-matrix,
+ * {@code A22 -= L21 x L21^T}. Both operands of each dot product are contiguous rows of the panel.
+ */
+class CholeskyUpdateRequest extends MultiRowRequest {
+    private final int blockStart;
+    private final int blockEnd;
+
+    public CholeskyUpdateRequest(Matrix container, int blockStart, int blockEnd, int fromRow, int toRow, CountDownLatch latch) {
+        super(container, null, null, fromRow, toRow, latch);
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+    }
+
+    @Override
+    public void calculate() {
+        double[] l = container.getData();
+        int size = container.getNumOfColumns();
+        for (int i = row; i < toRow; i++) {
+            int rowI = i * size;
+            for (int j = blockEnd; j <= i; j++) {
+                int rowJ = j * size;
+                double sum = 0;
+                for (int p = blockStart; p < blockEnd; p++)
+                    sum += l[rowI + p] * l[rowJ + p];
+                l[rowI + j] -= sum;
+            }
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that solves {@code L x L^T x X = B} for a range of columns of X
+ */
+class CholeskySolveRequest extends BaseRequest {
+    private final int fromColumn;
+    private final int toColumn;
+
+    public CholeskySolveRequest(Matrix container, Matrix l, Matrix b, int fromColumn, int toColumn, CountDownLatch latch) {
+        super(container, l, b, fromColumn, latch);
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+    }
+
+    @Override
+    public void calculate() {
+        int size = container.getNumOfRows();
+        int columns = container.getNumOfColumns();
+        int width = toColumn - fromColumn;
+        double[] l = matrixA.getData();
+        double[] b = matrixB.getData();
+        // Work on a row major block of the right hand side so the inner loops are contiguous
+        double[] x = new double[size * width];
+        for (int row = 0; row < size; row++)
+            System.arraycopy(b, row * columns + fromColumn, x, row * width, width);
+        // Forward substitution, L x Y = B
+        for (int row = 0; row < size; row++) {
+            int rowOffset = row * size;
+            for (int k = 0; k < row; k++)
+                subtractRow(x, row, k, l[rowOffset + k], width);
+            divideRow(x, row, l[rowOffset + row], width);
+        }
+        // Backward substitution, L^T x X = Y, reading L by rows: once x[k] is known it is removed from the rows above
+        for (int k = size - 1; k >= 0; k--) {
+            int rowOffset = k * size;
+            divideRow(x, k, l[rowOffset + k], width);
+            for (int row = 0; row < k; row++)
+                subtractRow(x, row, k, l[rowOffset + row], width);
+        }
+        double[] result = container.getData();
+        for (int row = 0; row < size; row++)
+            System.arraycopy(x, row * width, result, row * columns + fromColumn, width);
+        latch.countDown();
+    }
+
+    private static void subtractRow(double[] x, int row, int sourceRow, double factor, int width) {
+        if (factor == 0.0)
+            return;
+        for (int i = 0; i < width; i++)
+            x[row * width + i] -= factor * x[sourceRow * width + i];
+    }
+
+    private static void divideRow(double[] x, int row, double divisor, int width) {
+        for (int i = 0; i < width; i++)
+            x[row * width + i] /= divisor;
+    }
+}
@@ -0,0 +1,62 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+/**
+ * The result of a Cholesky factorization {@code A = L x L^T}, to be kept and reused for any number of solves
+ * against the same matrix
+ * @param l The lower triangle matrix, with a positive diagonal
+ */
+public record CholeskyFactor(Matrix l) {
+
+    /**
+     * Solve {@code A x X = B} with two triangular solves, column ranges of B being spread over the worker threads
+     *
+     * @param b The right hand side, one or more columns
+     * @return X
+     * @throws MatrixDimensionsNotMatchException if B does not have as many rows as A
+     */
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != l.getNumOfRows())
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand side must have %d rows", l.getNumOfRows()));
+        return CholeskyEngine.solve(l, b);
+    }
+
+    /**
+     * The inverse of A, which is symmetric positive definite as well
+     *
+     * @return The inverse, exactly symmetric
+     */
+    public Matrix inverse() {
+        int size = l.getNumOfRows();
+        Matrix result = CholeskyEngine.solve(l, Matrix.createIdentity(size));
+        // The solves leave both triangles within rounding of each other, keep the lower one
+        double[] data = result.getData();
+        for (int i = 0; i < size; i++)
+            for (int j = i + 1; j < size; j++)
+                data[i * size + j] = data[j * size + i];
+        return result;
+    }
+
+    /**
+     * log(det(A)) = 2 x sum(log(L[i][i])), which does not overflow where the determinant would
+     *
+     * @return The natural logarithm of the determinant of A
+     */
+    public double logDeterminant() {
+        int size = l.getNumOfRows();
+        double[] data = l.getData();
+        double sum = 0;
+        for (int i = 0; i < size; i++)
+            sum += Math.log(data[i * size + i]);
+        return 2 * sum;
+    }
+
+    /**
+     * @return The determinant of A
+     * @see CholeskyFactor#logDeterminant()
+     */
+    public double determinant() {
+        return Math.exp(logDeterminant());
+    }
+}
@@ -0,0 +1,300 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A fully connected network prepared once and then run many times.
+ * <p>
+ * Compiling copies the weights and biases (to the device for OpenCL) and allocates the activations of every
+ * layer for the largest batch, so {@link #infer(Matrix, Matrix)} allocates no matrix and no buffer: the
+ * inputs are read, every layer runs as one fused forward pass into its preallocated activations and the
+ * last one is written into the caller's output. A batch is a matrix with one sample per column and may have
+ * any number of columns up to the maximum batch size.
+ * <p>
+ * Inference calls on one network are serialized, as they share the activations.
+ */
+public final class CompiledNetwork implements AutoCloseable {
+
+    private final int numOfLayers;
+    private final int maxBatchSize;
+    /**
+     * rows[l] outputs of layer l, depths[l] inputs, depths[0] being the input size of the network
+     */
+    private final int[] rows;
+    private final int[] depths;
+    private final Activation[] activations;
+
+    // CPU
+    private final double[][] weights;
+    private final double[][] biases;
+    private final double[][] buffers;
+    private final NetworkLayerRequest[][] requests;
+
+    // OpenCL
+    private final OpenCLInteractor interactor;
+    private final long[] weightsMemory;
+    private final long[] biasMemory;
+    private final long[] activationMemory;
+    private long inputMemory;
+    private ByteBuffer hostInput;
+    private ByteBuffer hostOutput;
+
+    private boolean closed = false;
+
+    private CompiledNetwork(List<NetworkLayer> layers, int maxBatchSize, OpenCLInteractor interactor) throws MatrixDimensionsNotMatchException {
+        if (layers.isEmpty())
+            throw new IllegalArgumentException("A network needs at least one layer");
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1");
+        this.numOfLayers = layers.size();
+        this.maxBatchSize = maxBatchSize;
+        this.interactor = interactor;
+        rows = new int[numOfLayers];
+        depths = new int[numOfLayers];
+        activations = new Activation[numOfLayers];
+        for (int l = 0; l < numOfLayers; l++) {
+            NetworkLayer layer = layers.get(l);
+            rows[l] = layer.weights().getNumOfRows();
+            depths[l] = layer.weights().getNumOfColumns();
+            activations[l] = layer.activation();
+            if (l > 0 && depths[l] != rows[l - 1])
+                throw new MatrixDimensionsNotMatchException(String.format("Layer %d takes %d inputs but layer %d has %d outputs", l, depths[l], l - 1, rows[l - 1]));
+            if (layer.bias().getNumOfRows() != rows[l] || layer.bias().getNumOfColumns() != 1)
+                throw new MatrixDimensionsNotMatchException(String.format("The bias of layer %d must be a %d x 1 column vector", l, rows[l]));
+        }
+
+        if (interactor == null) {
+            weights = new double[numOfLayers][];
+            biases = new double[numOfLayers][];
+            buffers = new double[numOfLayers - 1][];
+            requests = new NetworkLayerRequest[numOfLayers][];
+            for (int l = 0; l < numOfLayers; l++) {
+                weights[l] = layers.get(l).weights().getData().clone();
+                biases[l] = layers.get(l).bias().getData().clone();
+                if (l < numOfLayers - 1)
+                    buffers[l] = new double[rows[l] * maxBatchSize];
+                int parts = Math.max(1, Math.min(Matrix.NUM_OF_THREADS, rows[l] / ForwardPassEngine.ROW_TILE));
+                requests[l] = new NetworkLayerRequest[parts];
+                for (int i = 0; i < parts; i++)
+                    requests[l][i] = new NetworkLayerRequest(weights[l], biases[l], activations[l], depths[l],
+                            (int) ((long) rows[l] * i / parts), (int) ((long) rows[l] * (i + 1) / parts));
+            }
+            weightsMemory = null;
+            biasMemory = null;
+            activationMemory = null;
+        } else {
+            weights = null;
+            biases = null;
+            buffers = null;
+            requests = null;
+            weightsMemory = new long[numOfLayers];
+            biasMemory = new long[numOfLayers];
+            activationMemory = new long[numOfLayers];
+            try {
+                for (int l = 0; l < numOfLayers; l++) {
+                    weightsMemory[l] = interactor.upload(layers.get(l).weights());
+                    biasMemory[l] = interactor.upload(layers.get(l).bias());
+                    activationMemory[l] = interactor.allocate((long) rows[l] * maxBatchSize);
+                }
+                inputMemory = interactor.allocate((long) depths[0] * maxBatchSize);
+                hostInput = interactor.createHostBuffer(depths[0] * maxBatchSize);
+                hostOutput = interactor.createHostBuffer(rows[numOfLayers - 1] * maxBatchSize);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Compile a network that runs on the CPU
+     *
+     * @param layers       The layers, from the inputs to the outputs
+     * @param maxBatchSize The largest number of samples given to one inference
+     * @return The network
+     * @throws MatrixDimensionsNotMatchException if the sizes of consecutive layers do not match
+     */
+    public static CompiledNetwork compile(List<NetworkLayer> layers, int maxBatchSize) throws MatrixDimensionsNotMatchException {
+        return new CompiledNetwork(layers, maxBatchSize, null);
+    }
+
+    /**
+     * Compile a network whose weights and activations stay on the device of an interactor
+     *
+     * @param layers       The layers, from the inputs to the outputs
+     * @param maxBatchSize The largest number of samples given to one inference
+     * @param interactor   An initialized interactor
+     * @return The network, to be closed to give the device buffers back
+     * @throws MatrixDimensionsNotMatchException if the sizes of consecutive layers do not match
+     */
+    public static CompiledNetwork compile(List<NetworkLayer> layers, int maxBatchSize, OpenCLInteractor interactor) throws MatrixDimensionsNotMatchException {
+        interactor.ensureInitialized();
+        return new CompiledNetwork(layers, maxBatchSize, interactor);
+    }
+
+    /**
+     * Compile a network for the library's OpenCL interactor, or for the CPU when OpenCL cannot be used
+     *
+     * @param layers       The layers, from the inputs to the outputs
+     * @param maxBatchSize The largest number of samples given to one inference
+     * @return The network
+     * @throws MatrixDimensionsNotMatchException if the sizes of consecutive layers do not match
+     * @see Matrix#getOpenCLUnavailableReason()
+     */
+    public static CompiledNetwork clCompile(List<NetworkLayer> layers, int maxBatchSize) throws MatrixDimensionsNotMatchException {
+        if (!Matrix.openCLUsable())
+            return compile(layers, maxBatchSize);
+        return compile(layers, maxBatchSize, Matrix.clInteractor());
+    }
+
+    /**
+     * Run the network on a batch
+     *
+     * @param inputs The inputs, one sample per column
+     * @return The outputs, one sample per column
+     * @throws MatrixDimensionsNotMatchException if the inputs do not fit the network
+     */
+    public Matrix infer(Matrix inputs) throws MatrixDimensionsNotMatchException {
+        Matrix output = new Matrix(getOutputSize(), inputs.getNumOfColumns());
+        infer(inputs, output);
+        return output;
+    }
+
+    /**
+     * Run the network on a batch, writing into an existing matrix. Nothing is allocated.
+     *
+     * @param inputs The inputs, input size x batch size
+     * @param output The outputs, output size x batch size
+     * @throws MatrixDimensionsNotMatchException if the inputs or the output do not fit the network
+     */
+    public synchronized void infer(Matrix inputs, Matrix output) throws MatrixDimensionsNotMatchException {
+        if (closed)
+            throw new IllegalStateException("The network has been closed");
+        int batchSize = inputs.getNumOfColumns();
+        if (inputs.getNumOfRows() != depths[0] || batchSize > maxBatchSize)
+            throw new MatrixDimensionsNotMatchException(String.format("The inputs must be %d x at most %d", depths[0], maxBatchSize));
+        if (output.getNumOfRows() != getOutputSize() || output.getNumOfColumns() != batchSize)
+            throw new MatrixDimensionsNotMatchException(String.format("The output must be %d x %d", getOutputSize(), batchSize));
+        if (interactor == null)
+            inferOnCPU(inputs.getData(), output.getData(), batchSize);
+        else
+            inferOnDevice(inputs, output, batchSize);
+    }
+
+    private void inferOnCPU(double[] inputs, double[] output, int batchSize) {
+        double[] current = inputs;
+        for (int l = 0; l < numOfLayers; l++) {
+            double[] target = l == numOfLayers - 1 ? output : buffers[l];
+            long work = (long) rows[l] * batchSize * depths[l];
+            NetworkLayerRequest[] layerRequests = requests[l];
+            if (layerRequests.length == 1 || work < ForwardPassEngine.PARALLEL_THRESHOLD) {
+                ForwardPassEngine.computeTile(weights[l], current, biases[l], true, activations[l], target,
+                        depths[l], batchSize, 0, rows[l], 0, batchSize);
+            } else {
+                CountDownLatch latch = new CountDownLatch(layerRequests.length);
+                for (NetworkLayerRequest request : layerRequests)
+                    request.prepare(current, target, batchSize, latch);
+                Matrix.runRequests(layerRequests, latch);
+            }
+            current = target;
+        }
+    }
+
+    private void inferOnDevice(Matrix inputs, Matrix output, int batchSize) {
+        interactor.write(inputMemory, inputs, hostInput);
+        long current = inputMemory;
+        for (int l = 0; l < numOfLayers; l++) {
+            interactor.enqueueForwardPassColumnBias(weightsMemory[l], current, biasMemory[l], activationMemory[l],
+                    rows[l], batchSize, depths[l], activations[l].getMode());
+            current = activationMemory[l];
+        }
+        interactor.read(current, output, hostOutput);
+    }
+
+    public int getNumOfLayers() {
+        return numOfLayers;
+    }
+
+    public int getInputSize() {
+        return depths[0];
+    }
+
+    public int getOutputSize() {
+        return rows[numOfLayers - 1];
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return true if the network runs on an OpenCL device
+     */
+    public boolean isOnDevice() {
+        return interactor != null;
+    }
+
+    /**
+     * Give the device buffers back, closing twice or closing a CPU network has no effect
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (interactor == null || !interactor.isInitialized())
+            return;
+        interactor.commandQueue().finish();
+        for (long[] memories : new long[][]{weightsMemory, biasMemory, activationMemory})
+            for (long memory : memories)
+                if (memory != 0)
+                    interactor.free(memory);
+        if (inputMemory != 0)
+            interactor.free(inputMemory);
+    }
+}
+
+/**
+ * A Request that computes a range of rows of one layer of a {@code CompiledNetwork}.
+ * <p>
+ * It is created once when the network is compiled and given the activations of each inference,
+ * so running a layer on the workers creates no request.
+ */
+class NetworkLayerRequest implements CalculationRequest {
+    private final double[] weights;
+    private final double[] bias;
+    private final Activation activation;
+    private final int depth;
+    private final int fromRow;
+    private final int toRow;
+    private double[] inputs;
+    private double[] result;
+    private int batchSize;
+    private CountDownLatch latch;
+
+    NetworkLayerRequest(double[] weights, double[] bias, Activation activation, int depth, int fromRow, int toRow) {
+        this.weights = weights;
+        this.bias = bias;
+        this.activation = activation;
+        this.depth = depth;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+    }
+
+    void prepare(double[] inputs, double[] result, int batchSize, CountDownLatch latch) {
+        this.inputs = inputs;
+        this.result = result;
+        this.batchSize = batchSize;
+        this.latch = latch;
+    }
+
+    @Override
+    public void calculate() {
+        ForwardPassEngine.computeTile(weights, inputs, bias, true, activation, result, depth, batchSize, fromRow, toRow, 0, batchSize);
+        latch.countDown();
+    }
+}
@@ -0,0 +1,96 @@
+package objects;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The {@code LinearOperator} of a dense {@code Matrix}.
+ * <p>
+ * The requests of a parallel product are created once and given the vectors of each product, so repeated
+ * products in an iterative solver create nothing but their latch.
+ */
+final class DenseOperator implements LinearOperator {
+
+    /**
+     * Products with fewer entries run on the calling thread
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final Matrix matrix;
+    private final MatrixVectorRequest[] requests;
+
+    DenseOperator(Matrix matrix) {
+        this.matrix = matrix;
+        int rows = matrix.getNumOfRows();
+        int numOfRequests = matrix.getNumOfEntries() < PARALLEL_THRESHOLD ? 1 : Math.max(1, Math.min(Matrix.NUM_OF_THREADS, rows / 16));
+        requests = new MatrixVectorRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new MatrixVectorRequest(matrix, (int) ((long) rows * i / numOfRequests), (int) ((long) rows * (i + 1) / numOfRequests));
+    }
+
+    @Override
+    public int getNumOfRows() {
+        return matrix.getNumOfRows();
+    }
+
+    @Override
+    public int getNumOfColumns() {
+        return matrix.getNumOfColumns();
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        if (requests.length == 1) {
+            requests[0].multiply(x, y);
+            return;
+        }
+        // The requests are shared, products from several threads take turns
+        synchronized (requests) {
+            CountDownLatch latch = new CountDownLatch(requests.length);
+            for (MatrixVectorRequest request : requests)
+                request.prepare(x, y, latch);
+            Matrix.runRequests(requests, latch);
+        }
+    }
+}
+
+/**
+ * A Request that computes a range of rows of a matrix-vector product
+ */
+class MatrixVectorRequest implements CalculationRequest {
+    private final Matrix matrix;
+    private final int fromRow;
+    private final int toRow;
+    private double[] x;
+    private double[] y;
+    private CountDownLatch latch;
+
+    MatrixVectorRequest(Matrix matrix, int fromRow, int toRow) {
+        this.matrix = matrix;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+    }
+
+    void prepare(double[] x, double[] y, CountDownLatch latch) {
+        this.x = x;
+        this.y = y;
+        this.latch = latch;
+    }
+
+    void multiply(double[] x, double[] y) {
+        double[] data = matrix.getData();
+        int columns = matrix.getNumOfColumns();
+        for (int r = fromRow; r < toRow; r++) {
+            int offset = r * columns;
+            double sum = 0;
+            for (int c = 0; c < columns; c++)
+                sum += data[offset + c] * x[c];
+            y[r] = sum;
+        }
+    }
+
+    @Override
+    public void calculate() {
+        multiply(x, y);
+        latch.countDown();
+    }
+}
@@ -0,0 +1,13 @@
+package objects;
+
+/**
+ * A record of an operation executed through {@code BackendDispatcher}
+ *
+ * @param operation The operation executed
+ * @param backend   The backend it was executed on
+ * @param overridden true if the backend was forced by an override instead of chosen by the cost model
+ * @param work      The estimated number of floating point operations
+ * @param nanos     The wall time taken in nanoseconds
+ */
+public record DispatchRecord(BackendDispatcher.Operation operation, ExecutionBackend backend, boolean overridden, double work, long nanos) {
+}
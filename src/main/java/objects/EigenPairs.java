@@ -0,0 +1,9 @@
+package objects;
+
+/**
+ * Some eigenpairs of a symmetric matrix, {@code A x vectors[:, i] = values[i] x vectors[:, i]}
+ * @param values  The eigenvalues, largest first
+ * @param vectors The eigenvectors as orthonormal columns, N x K
+ */
+public record EigenPairs(double[] values, Matrix vectors) {
+}
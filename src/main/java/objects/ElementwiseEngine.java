@@ -0,0 +1,192 @@
+package objects;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Elementwise operations behind {@code Matrix.map}, {@code Matrix.zip}, {@code Matrix.mapIndexed} and {@code Matrix.softmax}.
+ * <p>
+ * Everything works on primitive doubles, nothing is allocated per entry. Large matrices are cut into
+ * contiguous ranges that are handed to the worker threads.
+ */
+final class ElementwiseEngine {
+
+    /**
+     * Matrices with fewer entries are processed on the calling thread
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private ElementwiseEngine() {
+    }
+
+    /**
+     * Apply the operator to every entry of source, writing into target (which can be the source)
+     */
+    static void map(Matrix source, Matrix target, DoubleUnaryOperator operator) {
+        int numOfRequests = numOfRequests(source.getNumOfEntries());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        MapRequest[] requests = new MapRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new MapRequest(target, source, split(source.getNumOfEntries(), numOfRequests, i), split(source.getNumOfEntries(), numOfRequests, i + 1), operator, latch);
+        Matrix.runRequests(requests, latch);
+    }
+
+    /**
+     * Combine the entries of left and right pairwise, writing into target (which can be one of the operands)
+     */
+    static void zip(Matrix left, Matrix right, Matrix target, DoubleBinaryOperator operator) {
+        int numOfRequests = numOfRequests(left.getNumOfEntries());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        ZipRequest[] requests = new ZipRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new ZipRequest(target, left, right, split(left.getNumOfEntries(), numOfRequests, i), split(left.getNumOfEntries(), numOfRequests, i + 1), operator, latch);
+        Matrix.runRequests(requests, latch);
+    }
+
+    /**
+     * Apply the operator to every entry of source together with its position, writing into target (which can be the source)
+     */
+    static void mapIndexed(Matrix source, Matrix target, IndexedDoubleOperator operator) {
+        int numOfRequests = Math.min(numOfRequests(source.getNumOfEntries()), Math.max(1, source.getNumOfRows()));
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        MapIndexedRequest[] requests = new MapIndexedRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new MapIndexedRequest(target, source, split(source.getNumOfRows(), numOfRequests, i), split(source.getNumOfRows(), numOfRequests, i + 1), operator, latch);
+        Matrix.runRequests(requests, latch);
+    }
+
+    /**
+     * The softmax of every row of source, writing into target (which can be the source)
+     */
+    static void softmax(Matrix source, Matrix target, BulkDoubleOperator exp) {
+        int numOfRequests = Math.min(numOfRequests(source.getNumOfEntries()), Math.max(1, source.getNumOfRows()));
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        SoftmaxRequest[] requests = new SoftmaxRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new SoftmaxRequest(target, source, split(source.getNumOfRows(), numOfRequests, i), split(source.getNumOfRows(), numOfRequests, i + 1), exp, latch);
+        Matrix.runRequests(requests, latch);
+    }
+
+    private static int numOfRequests(int numOfEntries) {
+        if (numOfEntries < PARALLEL_THRESHOLD || Matrix.NUM_OF_THREADS <= 1)
+            return 1;
+        return Math.min(Matrix.NUM_OF_THREADS, numOfEntries / (PARALLEL_THRESHOLD / 4));
+    }
+
+    private static int split(int total, int parts, int i) {
+        return (int) ((long) total * i / parts);
+    }
+}
+
+/**
+ * A Request that maps a contiguous range of entries
+ */
+class MapRequest extends MultiRowRequest {
+    private final DoubleUnaryOperator operator;
+
+    public MapRequest(Matrix container, Matrix source, int fromIndex, int toIndex, DoubleUnaryOperator operator, CountDownLatch latch) {
+        super(container, source, null, fromIndex, toIndex, latch);
+        this.operator = operator;
+    }
+
+    @Override
+    public void calculate() {
+        double[] source = matrixA.getData();
+        double[] target = container.getData();
+        if (operator instanceof BulkDoubleOperator bulk) {
+            bulk.applyToRange(source, target, row, toRow);
+        } else {
+            for (int i = row; i < toRow; i++)
+                target[i] = operator.applyAsDouble(source[i]);
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that zips a contiguous range of entries of two matrix
+ */
+class ZipRequest extends MultiRowRequest {
+    private final DoubleBinaryOperator operator;
+
+    public ZipRequest(Matrix container, Matrix left, Matrix right, int fromIndex, int toIndex, DoubleBinaryOperator operator, CountDownLatch latch) {
+        super(container, left, right, fromIndex, toIndex, latch);
+        this.operator = operator;
+    }
+
+    @Override
+    public void calculate() {
+        double[] left = matrixA.getData();
+        double[] right = matrixB.getData();
+        double[] target = container.getData();
+        if (operator instanceof BulkDoubleBinaryOperator bulk) {
+            bulk.applyToRange(left, right, target, row, toRow);
+        } else {
+            for (int i = row; i < toRow; i++)
+                target[i] = operator.applyAsDouble(left[i], right[i]);
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that maps a range of rows, passing the position of each entry to the operator
+ */
+class MapIndexedRequest extends MultiRowRequest {
+    private final IndexedDoubleOperator operator;
+
+    public MapIndexedRequest(Matrix container, Matrix source, int fromRow, int toRow, IndexedDoubleOperator operator, CountDownLatch latch) {
+        super(container, source, null, fromRow, toRow, latch);
+        this.operator = operator;
+    }
+
+    @Override
+    public void calculate() {
+        double[] source = matrixA.getData();
+        double[] target = container.getData();
+        int columns = matrixA.getNumOfColumns();
+        for (int r = row; r < toRow; r++) {
+            int offset = r * columns;
+            for (int c = 0; c < columns; c++)
+                target[offset + c] = operator.applyAsDouble(r, c, source[offset + c]);
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that computes the softmax of a range of rows
+ */
+class SoftmaxRequest extends MultiRowRequest {
+    private final BulkDoubleOperator exp;
+
+    public SoftmaxRequest(Matrix container, Matrix source, int fromRow, int toRow, BulkDoubleOperator exp, CountDownLatch latch) {
+        super(container, source, null, fromRow, toRow, latch);
+        this.exp = exp;
+    }
+
+    @Override
+    public void calculate() {
+        double[] source = matrixA.getData();
+        double[] target = container.getData();
+        int columns = matrixA.getNumOfColumns();
+        for (int r = row; r < toRow; r++) {
+            int from = r * columns;
+            int to = from + columns;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++)
+                max = Math.max(max, source[i]);
+            for (int i = from; i < to; i++)
+                target[i] = source[i] - max;
+            exp.applyToRange(target, target, from, to);
+            double sum = 0;
+            for (int i = from; i < to; i++)
+                sum += target[i];
+            double scale = 1 / sum;
+            for (int i = from; i < to; i++)
+                target[i] *= scale;
+        }
+        latch.countDown();
+    }
+}
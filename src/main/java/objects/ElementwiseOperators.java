@@ -0,0 +1,487 @@
+package objects;
+
+/**
+ * Built-in operators for {@code Matrix.map} and {@code Matrix.zip}.
+ * <p>
+ * Every operator is its own final class with its own range loop, so when the engine calls
+ * {@code applyToRange} the loop body is a single known operation that the JIT can inline and unroll.
+ *
+ * @see BulkDoubleOperator
+ */
+public final class ElementwiseOperators {
+
+    public static final BulkDoubleOperator NEGATE = new Negate();
+    public static final BulkDoubleOperator ABS = new Abs();
+    public static final BulkDoubleOperator SQUARE = new Square();
+    public static final BulkDoubleOperator SQRT = new Sqrt();
+    public static final BulkDoubleOperator EXP = new Exp();
+    public static final BulkDoubleOperator LOG = new Log();
+    public static final BulkDoubleOperator RECIPROCAL = new Reciprocal();
+    public static final BulkDoubleOperator RELU = new Relu();
+    /**
+     * LeakyReLU with a slope of 0.01 below zero, as in {@code ForwardPass.cl}
+     */
+    public static final BulkDoubleOperator LEAKY_RELU = new LeakyRelu();
+    public static final BulkDoubleOperator SIGMOID = new Sigmoid();
+    public static final BulkDoubleOperator TANH = new Tanh();
+    public static final BulkDoubleOperator SOFTPLUS = new Softplus();
+    /**
+     * 1 for entries greater than or equal to zero, otherwise 0
+     */
+    public static final BulkDoubleOperator STEP = new Step();
+    /**
+     * x Phi(x), Phi being the distribution function of the standard normal distribution
+     */
+    public static final BulkDoubleOperator GELU = new Gelu();
+
+    /**
+     * e^x without {@code Math.exp}, relative error below 1e-13
+     */
+    public static final BulkDoubleOperator FAST_EXP = new FastExp();
+    /**
+     * The sigmoid without {@code Math.exp}, relative error below 1e-13
+     */
+    public static final BulkDoubleOperator FAST_SIGMOID = new FastSigmoid();
+    /**
+     * tanh without {@code Math.tanh}, relative error below 1e-13
+     */
+    public static final BulkDoubleOperator FAST_TANH = new FastTanh();
+    /**
+     * SoftPlus without {@code Math.exp} and {@code Math.log1p}, relative error below 1e-10
+     */
+    public static final BulkDoubleOperator FAST_SOFTPLUS = new FastSoftplus();
+    /**
+     * GELU with a rational approximation of erf, absolute error below 3e-7
+     */
+    public static final BulkDoubleOperator FAST_GELU = new FastGelu();
+
+    public static final BulkDoubleBinaryOperator ADD = new Add();
+    public static final BulkDoubleBinaryOperator SUBTRACT = new Subtract();
+    public static final BulkDoubleBinaryOperator MULTIPLY = new Multiply();
+    public static final BulkDoubleBinaryOperator DIVIDE = new Divide();
+    public static final BulkDoubleBinaryOperator MIN = new Min();
+    public static final BulkDoubleBinaryOperator MAX = new Max();
+
+    private ElementwiseOperators() {
+    }
+
+    /**
+     * Multiply every entry by a constant
+     *
+     * @param factor The constant
+     * @return The operator
+     */
+    public static BulkDoubleOperator scale(double factor) {
+        return new Scale(factor);
+    }
+
+    /**
+     * Add a constant to every entry
+     *
+     * @param constant The constant
+     * @return The operator
+     */
+    public static BulkDoubleOperator shift(double constant) {
+        return new Shift(constant);
+    }
+
+    /**
+     * Limit every entry to {@code [min, max]}
+     *
+     * @param min The lower bound
+     * @param max The upper bound
+     * @return The operator
+     */
+    public static BulkDoubleOperator clamp(double min, double max) {
+        return new Clamp(min, max);
+    }
+
+    private static final class Negate implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return -x;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = -source[i];
+        }
+    }
+
+    private static final class Abs implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.abs(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.abs(source[i]);
+        }
+    }
+
+    private static final class Square implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return x * x;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = source[i] * source[i];
+        }
+    }
+
+    private static final class Sqrt implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.sqrt(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.sqrt(source[i]);
+        }
+    }
+
+    private static final class Exp implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.exp(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.exp(source[i]);
+        }
+    }
+
+    private static final class Log implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.log(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.log(source[i]);
+        }
+    }
+
+    private static final class Reciprocal implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return 1 / x;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = 1 / source[i];
+        }
+    }
+
+    private static final class Relu implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.max(x, 0);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.max(source[i], 0);
+        }
+    }
+
+    private static final class LeakyRelu implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return x >= 0 ? x : 0.01 * x;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++) {
+                double x = source[i];
+                target[i] = x >= 0 ? x : 0.01 * x;
+            }
+        }
+    }
+
+    private static final class Sigmoid implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return 1 / (1 + Math.exp(-x));
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = 1 / (1 + Math.exp(-source[i]));
+        }
+    }
+
+    private static final class Tanh implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.tanh(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.tanh(source[i]);
+        }
+    }
+
+    private static final class Softplus implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            // log(1 + e^x) written so that large x does not overflow
+            return Math.max(x, 0) + Math.log1p(Math.exp(-Math.abs(x)));
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++) {
+                double x = source[i];
+                target[i] = Math.max(x, 0) + Math.log1p(Math.exp(-Math.abs(x)));
+            }
+        }
+    }
+
+    private static final class Step implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return x >= 0 ? 1 : 0;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = source[i] >= 0 ? 1 : 0;
+        }
+    }
+
+    private static final class Gelu implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.gelu(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.gelu(source[i]);
+        }
+    }
+
+    private static final class FastExp implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.fastExp(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.fastExp(source[i]);
+        }
+    }
+
+    private static final class FastSigmoid implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.fastSigmoid(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.fastSigmoid(source[i]);
+        }
+    }
+
+    private static final class FastTanh implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.fastTanh(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.fastTanh(source[i]);
+        }
+    }
+
+    private static final class FastSoftplus implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.fastSoftplus(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.fastSoftplus(source[i]);
+        }
+    }
+
+    private static final class FastGelu implements BulkDoubleOperator {
+        @Override
+        public double applyAsDouble(double x) {
+            return ActivationMath.fastGelu(x);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = ActivationMath.fastGelu(source[i]);
+        }
+    }
+
+    private static final class Scale implements BulkDoubleOperator {
+        private final double factor;
+
+        Scale(double factor) {
+            this.factor = factor;
+        }
+
+        @Override
+        public double applyAsDouble(double x) {
+            return x * factor;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = source[i] * factor;
+        }
+    }
+
+    private static final class Shift implements BulkDoubleOperator {
+        private final double constant;
+
+        Shift(double constant) {
+            this.constant = constant;
+        }
+
+        @Override
+        public double applyAsDouble(double x) {
+            return x + constant;
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = source[i] + constant;
+        }
+    }
+
+    private static final class Clamp implements BulkDoubleOperator {
+        private final double min;
+        private final double max;
+
+        Clamp(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double applyAsDouble(double x) {
+            return Math.min(Math.max(x, min), max);
+        }
+
+        @Override
+        public void applyToRange(double[] source, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.min(Math.max(source[i], min), max);
+        }
+    }
+
+    private static final class Add implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return left + right;
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = left[i] + right[i];
+        }
+    }
+
+    private static final class Subtract implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return left - right;
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = left[i] - right[i];
+        }
+    }
+
+    private static final class Multiply implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return left * right;
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = left[i] * right[i];
+        }
+    }
+
+    private static final class Divide implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return left / right;
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = left[i] / right[i];
+        }
+    }
+
+    private static final class Min implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return Math.min(left, right);
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.min(left[i], right[i]);
+        }
+    }
+
+    private static final class Max implements BulkDoubleBinaryOperator {
+        @Override
+        public double applyAsDouble(double left, double right) {
+            return Math.max(left, right);
+        }
+
+        @Override
+        public void applyToRange(double[] left, double[] right, double[] target, int from, int to) {
+            for (int i = from; i < to; i++)
+                target[i] = Math.max(left[i], right[i]);
+        }
+    }
+}
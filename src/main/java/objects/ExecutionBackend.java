@@ -0,0 +1,19 @@
+package objects;
+
+/**
+ * The engines a {@code Matrix} operation can be executed on
+ */
+public enum ExecutionBackend {
+    /**
+     * Single threaded, on the calling thread
+     */
+    SERIAL,
+    /**
+     * Split across the library worker threads
+     */
+    MULTI_THREADED,
+    /**
+     * Run on the OpenCL device
+     */
+    OPENCL
+}
@@ -0,0 +1,129 @@
+package objects;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The fused forward pass behind {@code Matrix.forwardPass}: {@code activation(weights x inputs + bias)}
+ * computed in a single pass over the result.
+ * <p>
+ * The result is cut into tiles of {@value #ROW_TILE} x {@value #COLUMN_TILE} entries, each one a request for
+ * the worker threads. A tile starts from the bias, accumulates the products one slice of
+ * {@value #DEPTH_TILE} weights columns at a time so the slice of inputs it streams stays in cache, and is
+ * activated right after its last slice while it is still in cache. There is no temporary matrix and no
+ * separate bias or activation pass.
+ */
+final class ForwardPassEngine {
+
+    static final int ROW_TILE = 64;
+    static final int COLUMN_TILE = 128;
+    static final int DEPTH_TILE = 128;
+
+    /**
+     * Passes with fewer multiply-adds run on the calling thread
+     */
+    static final long PARALLEL_THRESHOLD = 1L << 18;
+
+    private ForwardPassEngine() {
+    }
+
+    /**
+     * result = activation(weights x inputs + bias)
+     *
+     * @param weights    M x K
+     * @param inputs     K x N
+     * @param bias       M x N, or M x 1 added to every column
+     * @param activation The activation
+     * @param result     M x N, written entirely
+     */
+    static void forwardPass(Matrix weights, Matrix inputs, Matrix bias, Activation activation, Matrix result) {
+        int rows = result.getNumOfRows();
+        int columns = result.getNumOfColumns();
+        int rowTiles = (rows + ROW_TILE - 1) / ROW_TILE;
+        int columnTiles = (columns + COLUMN_TILE - 1) / COLUMN_TILE;
+        long work = (long) rows * columns * weights.getNumOfColumns();
+        if (work < PARALLEL_THRESHOLD || Matrix.NUM_OF_THREADS <= 1) {
+            // One request covering the whole result, still tiled inside
+            rowTiles = 1;
+            columnTiles = 1;
+        }
+        int numOfRequests = rowTiles * columnTiles;
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        ForwardPassRequest[] requests = new ForwardPassRequest[numOfRequests];
+        for (int i = 0; i < rowTiles; i++) {
+            for (int j = 0; j < columnTiles; j++) {
+                int fromRow = numOfRequests == 1 ? 0 : i * ROW_TILE;
+                int toRow = numOfRequests == 1 ? rows : Math.min(rows, fromRow + ROW_TILE);
+                int fromColumn = numOfRequests == 1 ? 0 : j * COLUMN_TILE;
+                int toColumn = numOfRequests == 1 ? columns : Math.min(columns, fromColumn + COLUMN_TILE);
+                requests[i * columnTiles + j] = new ForwardPassRequest(result, weights, inputs, bias, activation, fromRow, toRow, fromColumn, toColumn, latch);
+            }
+        }
+        Matrix.runRequests(requests, latch);
+    }
+
+    /**
+     * Compute the rows [fromRow, toRow) and columns [fromColumn, toColumn) of the result
+     */
+    static void computeTile(double[] weights, double[] inputs, double[] bias, boolean columnBias, Activation activation, double[] result,
+                            int depth, int columns, int fromRow, int toRow, int fromColumn, int toColumn) {
+        for (int r0 = fromRow; r0 < toRow; r0 += ROW_TILE) {
+            int r1 = Math.min(toRow, r0 + ROW_TILE);
+            for (int c0 = fromColumn; c0 < toColumn; c0 += COLUMN_TILE) {
+                int c1 = Math.min(toColumn, c0 + COLUMN_TILE);
+                // The accumulators start from the bias
+                for (int r = r0; r < r1; r++) {
+                    int offset = r * columns;
+                    if (columnBias) {
+                        double value = bias[r];
+                        for (int c = c0; c < c1; c++)
+                            result[offset + c] = value;
+                    } else {
+                        System.arraycopy(bias, offset + c0, result, offset + c0, c1 - c0);
+                    }
+                }
+                for (int k0 = 0; k0 < depth; k0 += DEPTH_TILE) {
+                    int k1 = Math.min(depth, k0 + DEPTH_TILE);
+                    for (int r = r0; r < r1; r++) {
+                        int resultOffset = r * columns;
+                        int weightsOffset = r * depth;
+                        for (int k = k0; k < k1; k++) {
+                            double weight = weights[weightsOffset + k];
+                            int inputsOffset = k * columns;
+                            for (int c = c0; c < c1; c++)
+                                result[resultOffset + c] += weight * inputs[inputsOffset + c];
+                        }
+                    }
+                }
+                // Epilogue, the tile is still in cache
+                for (int r = r0; r < r1; r++)
+                    activation.applyToRange(result, r * columns + c0, r * columns + c1);
+            }
+        }
+    }
+}
+
+/**
+ * A Request that computes one tile of a fused forward pass
+ */
+class ForwardPassRequest extends MultiRowRequest {
+    private final Matrix bias;
+    private final Activation activation;
+    private final int fromColumn;
+    private final int toColumn;
+
+    public ForwardPassRequest(Matrix container, Matrix weights, Matrix inputs, Matrix bias, Activation activation,
+                              int fromRow, int toRow, int fromColumn, int toColumn, CountDownLatch latch) {
+        super(container, weights, inputs, fromRow, toRow, latch);
+        this.bias = bias;
+        this.activation = activation;
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+    }
+
+    @Override
+    public void calculate() {
+        ForwardPassEngine.computeTile(matrixA.getData(), matrixB.getData(), bias.getData(), bias.getNumOfColumns() == 1 && container.getNumOfColumns() != 1,
+                activation, container.getData(), matrixA.getNumOfColumns(), container.getNumOfColumns(), row, toRow, fromColumn, toColumn);
+        latch.countDown();
+    }
+}
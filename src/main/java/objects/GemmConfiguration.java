@@ -0,0 +1,108 @@
+package objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compile-time parameters of the tiled multiplication kernel in {@code FasterMatrixMultiplication.cl}
+ *
+ * @param tileSize      The side of the square tile of C computed by a work-group
+ * @param workPerThread The number of entries of C each work-item accumulates in registers
+ */
+public record GemmConfiguration(int tileSize, int workPerThread) {
+
+    /**
+     * Used when the device has not been tuned
+     */
+    public static final GemmConfiguration DEFAULT = new GemmConfiguration(16, 4);
+
+    private static final int[] TILE_SIZES = {8, 16, 32, 64};
+    private static final int[] WORK_PER_THREAD = {1, 2, 4, 8};
+
+    public GemmConfiguration {
+        if (tileSize <= 0 || workPerThread <= 0 || tileSize % workPerThread != 0)
+            throw new IllegalArgumentException(String.format("Invalid configuration: tile size %d, work per thread %d", tileSize, workPerThread));
+    }
+
+    /**
+     * Every configuration the tuner tries on a device
+     *
+     * @param maxWorkGroupSize The {@code CL_DEVICE_MAX_WORK_GROUP_SIZE} of the device
+     * @param localMemorySize  The {@code CL_DEVICE_LOCAL_MEM_SIZE} of the device in bytes
+     * @return The configurations that fit the device
+     */
+    public static List<GemmConfiguration> candidates(long maxWorkGroupSize, long localMemorySize) {
+        List<GemmConfiguration> candidates = new ArrayList<>();
+        for (int tileSize : TILE_SIZES) {
+            for (int workPerThread : WORK_PER_THREAD) {
+                GemmConfiguration configuration = new GemmConfiguration(tileSize, workPerThread);
+                if (configuration.workGroupSize() <= maxWorkGroupSize && configuration.localMemorySize() <= localMemorySize)
+                    candidates.add(configuration);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Read a configuration written by {@link #toString()}
+     *
+     * @param text The text, for example {@code 16x4}
+     * @return The configuration
+     */
+    public static GemmConfiguration parse(String text) {
+        String[] parts = text.trim().split("x");
+        if (parts.length != 2)
+            throw new IllegalArgumentException(String.format("Invalid configuration: %s", text));
+        return new GemmConfiguration(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    /**
+     * @return The options given to {@code clBuildProgram}
+     */
+    public String buildOptions() {
+        return String.format("-DTILE_SIZE=%d -DWORK_PER_THREAD=%d", tileSize, workPerThread);
+    }
+
+    /**
+     * @return The number of work-items in a work-group
+     */
+    public int workGroupSize() {
+        return tileSize * (tileSize / workPerThread);
+    }
+
+    /**
+     * @return The bytes of local memory a work-group needs for its two tiles
+     */
+    public long localMemorySize() {
+        return 2L * tileSize * tileSize * Double.BYTES;
+    }
+
+    /**
+     * Get the local work size, dimension 0 runs along the columns of C
+     *
+     * @return {columns, rows}
+     */
+    public long[] localWorkSize() {
+        return new long[]{tileSize, tileSize / workPerThread};
+    }
+
+    /**
+     * Get the global work size for a product of M x N, padded to whole tiles
+     *
+     * @param m The number of rows of C
+     * @param n The number of columns of C
+     * @return {columns, rows}
+     */
+    public long[] globalWorkSize(int m, int n) {
+        return new long[]{roundUp(n), roundUp(m) / workPerThread};
+    }
+
+    private long roundUp(int size) {
+        return (long) (size + tileSize - 1) / tileSize * tileSize;
+    }
+
+    @Override
+    public String toString() {
+        return tileSize + "x" + workPerThread;
+    }
+}
@@ -0,0 +1,115 @@
+package objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Pick the fastest {@code GemmConfiguration} of a device and remember it between runs.
+ * <p>
+ * The choices are kept in a properties file, one entry per device. The key holds the device name,
+ * the driver version and a hash of the kernel source, so a driver update or a kernel change tunes again.
+ * The file is {@code ~/.linearalgebra/gemm-tuning.properties} unless the system property
+ * {@value #TUNING_FILE_PROPERTY} says otherwise.
+ */
+final class GemmTuner {
+
+    private static final Logger LOGGER = Logger.getLogger(GemmTuner.class.getName());
+
+    static final String TUNING_FILE_PROPERTY = "linearalgebra.gemm.tuning";
+
+    /**
+     * Time one configuration
+     */
+    @FunctionalInterface
+    interface Benchmark {
+        /**
+         * @return The time in ns of a multiplication, or {@code Long.MAX_VALUE} if the configuration cannot run
+         */
+        long run(GemmConfiguration configuration);
+    }
+
+    private GemmTuner() {
+    }
+
+    /**
+     * Get the configuration stored for a device
+     *
+     * @param deviceKey The key of the device
+     * @return The configuration, empty if the device has not been tuned or the file cannot be read
+     */
+    static synchronized Optional<GemmConfiguration> load(String deviceKey) {
+        Path file = tuningFile();
+        if (!Files.isRegularFile(file))
+            return Optional.empty();
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            String value = properties.getProperty(deviceKey);
+            return value == null ? Optional.empty() : Optional.of(GemmConfiguration.parse(value));
+        } catch (IOException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store the configuration of a device, keeping the entries of other devices
+     *
+     * @param deviceKey     The key of the device
+     * @param configuration The configuration
+     */
+    static synchronized void store(String deviceKey, GemmConfiguration configuration) {
+        Path file = tuningFile();
+        Properties properties = new Properties();
+        try {
+            if (Files.isRegularFile(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+            }
+            properties.setProperty(deviceKey, configuration.toString());
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, "Tiled multiplication configurations, one per device");
+            }
+        } catch (IOException e) {
+            // Tuning again on the next run is the only cost
+            LOGGER.warning(String.format("Cannot store the tuning of the multiplication kernel in %s: %s", file, e.getMessage()));
+        }
+    }
+
+    /**
+     * Time every candidate and return the fastest one
+     *
+     * @param candidates The configurations to try
+     * @param benchmark  Times one configuration
+     * @return The fastest configuration, {@code GemmConfiguration.DEFAULT} if none could run
+     */
+    static GemmConfiguration tune(List<GemmConfiguration> candidates, Benchmark benchmark) {
+        GemmConfiguration best = GemmConfiguration.DEFAULT;
+        long bestTime = Long.MAX_VALUE;
+        for (GemmConfiguration candidate : candidates) {
+            long time = benchmark.run(candidate);
+            if (time < bestTime) {
+                best = candidate;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+
+    static Path tuningFile() {
+        String file = System.getProperty(TUNING_FILE_PROPERTY);
+        if (file != null)
+            return Paths.get(file);
+        return Paths.get(System.getProperty("user.home"), ".linearalgebra", "gemm-tuning.properties");
+    }
+}
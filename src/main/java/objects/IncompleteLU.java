@@ -0,0 +1,85 @@
+package objects;
+
+import exceptions.NoInverseException;
+
+import java.util.Arrays;
+
+/**
+ * ILU(0) of a sparse matrix, stored in a copy of its CSR values: the strictly lower part holds L, whose diagonal is 1,
+ * and the rest holds U.
+ */
+final class IncompleteLU implements Preconditioner {
+    private final int size;
+    private final double[] values;
+    private final int[] columnIndices;
+    private final int[] rowPointers;
+    /**
+     * The position of the diagonal entry of each row
+     */
+    private final int[] diagonal;
+
+    IncompleteLU(SparseMatrix matrix) {
+        if (matrix.getNumOfRows() != matrix.getNumOfColumns())
+            throw new IllegalArgumentException("ILU(0) needs a square matrix");
+        size = matrix.getNumOfRows();
+        values = Arrays.copyOf(matrix.values(), matrix.values().length);
+        columnIndices = matrix.columnIndices();
+        rowPointers = matrix.rowPointers();
+        diagonal = new int[size];
+        for (int r = 0; r < size; r++) {
+            diagonal[r] = Arrays.binarySearch(columnIndices, rowPointers[r], rowPointers[r + 1], r);
+            if (diagonal[r] < 0)
+                throw new IllegalArgumentException(String.format("ILU(0) needs every diagonal entry, row %d has none", r));
+        }
+        factor();
+    }
+
+    /**
+     * The IKJ variant of Gaussian elimination, dropping every entry outside the pattern of A
+     */
+    private void factor() {
+        // position[c] is where column c of the current row is stored, -1 if it is not
+        int[] position = new int[size];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < size; i++) {
+            int from = rowPointers[i];
+            int to = rowPointers[i + 1];
+            for (int j = from; j < to; j++)
+                position[columnIndices[j]] = j;
+            for (int j = from; j < diagonal[i]; j++) {
+                int k = columnIndices[j];
+                double pivot = values[diagonal[k]];
+                if (pivot == 0)
+                    throw new NoInverseException(String.format("ILU(0) has a zero pivot at row %d", k));
+                double multiplier = values[j] / pivot;
+                values[j] = multiplier;
+                for (int m = diagonal[k] + 1; m < rowPointers[k + 1]; m++) {
+                    int p = position[columnIndices[m]];
+                    if (p >= 0)
+                        values[p] -= multiplier * values[m];
+                }
+            }
+            if (values[diagonal[i]] == 0)
+                throw new NoInverseException(String.format("ILU(0) has a zero pivot at row %d", i));
+            for (int j = from; j < to; j++)
+                position[columnIndices[j]] = -1;
+        }
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        // L y = r, then U z = y, in place
+        for (int i = 0; i < size; i++) {
+            double sum = r[i];
+            for (int j = rowPointers[i]; j < diagonal[i]; j++)
+                sum -= values[j] * z[columnIndices[j]];
+            z[i] = sum;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            double sum = z[i];
+            for (int j = diagonal[i] + 1; j < rowPointers[i + 1]; j++)
+                sum -= values[j] * z[columnIndices[j]];
+            z[i] = sum / values[diagonal[i]];
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package objects;
+
+/**
+ * An operation on a single entry of a {@code Matrix} that also receives the position of the entry
+ */
+@FunctionalInterface
+public interface IndexedDoubleOperator {
+    /**
+     * Apply the operation
+     *
+     * @param row    The row number of the entry
+     * @param column The column number of the entry
+     * @param value  The entry
+     * @return The new value of the entry
+     */
+    double applyAsDouble(int row, int column, double value);
+}
@@ -0,0 +1,13 @@
+package objects;
+
+/**
+ * Told about the progress of a {@code KrylovSolver} after every iteration
+ */
+@FunctionalInterface
+public interface IterationListener {
+    /**
+     * @param iteration        The number of the iteration, from 1
+     * @param relativeResidual The relative residual {@code ||b - A x|| / ||b||} after it
+     */
+    void onIteration(int iteration, double relativeResidual);
+}
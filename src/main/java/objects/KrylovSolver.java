@@ -0,0 +1,387 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.Arrays;
+
+/**
+ * Iterative solvers of {@code A x = b} that only need products with A: conjugate gradients for symmetric positive
+ * definite A, BiCGSTAB and restarted GMRES for any square A.
+ * <p>
+ * Every vector an iteration uses is created with the solver, so a solver can be kept and reused for many solves of
+ * the same size without creating garbage; the result and its residual history are the only arrays created per solve.
+ * A solver is not meant to be used by several threads at once.
+ * <br>
+ * Example: {@code KrylovSolver.conjugateGradient(n).setPreconditioner(Preconditioner.ilu0(a)).solve(a, b, x);}
+ */
+public final class KrylovSolver {
+
+    private enum Method {CG, BICGSTAB, GMRES}
+
+    private static final double DEFAULT_TOLERANCE = 1e-10;
+
+    private final Method method;
+    private final int size;
+    private final int restart;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int maxIterations;
+    private Preconditioner preconditioner = Preconditioner.identity();
+    private IterationListener listener = null;
+
+    /**
+     * The work vectors, how many depends on the method
+     */
+    private final double[][] vectors;
+    /**
+     * The Krylov basis of GMRES, restart + 1 vectors
+     */
+    private final double[][] basis;
+    /**
+     * The Hessenberg matrix of GMRES, (restart + 1) x restart, reduced to triangular by the rotations as it is built
+     */
+    private final double[] hessenberg;
+    private final double[] cosines;
+    private final double[] sines;
+    private final double[] g;
+    private double[] history;
+
+    private KrylovSolver(Method method, int size, int restart, int numOfVectors) {
+        if (size < 1)
+            throw new IllegalArgumentException("The size must be positive");
+        this.method = method;
+        this.size = size;
+        this.restart = restart;
+        this.vectors = new double[numOfVectors][size];
+        if (method == Method.GMRES) {
+            basis = new double[restart + 1][size];
+            hessenberg = new double[(restart + 1) * restart];
+            cosines = new double[restart];
+            sines = new double[restart];
+            g = new double[restart + 1];
+        } else {
+            basis = null;
+            hessenberg = cosines = sines = g = null;
+        }
+        setMaxIterations(Math.max(100, size));
+    }
+
+    /**
+     * Preconditioned conjugate gradients, for symmetric positive definite systems
+     *
+     * @param size The size of the systems
+     * @return The solver
+     */
+    public static KrylovSolver conjugateGradient(int size) {
+        return new KrylovSolver(Method.CG, size, 0, 4);
+    }
+
+    /**
+     * Right-preconditioned BiCGSTAB, for general square systems. It uses two products per iteration and little memory,
+     * but its convergence can be irregular.
+     *
+     * @param size The size of the systems
+     * @return The solver
+     */
+    public static KrylovSolver biCgStab(int size) {
+        return new KrylovSolver(Method.BICGSTAB, size, 0, 8);
+    }
+
+    /**
+     * Right-preconditioned GMRES restarted every {@code restart} iterations, for general square systems. The residual
+     * never grows, at the cost of keeping restart + 1 vectors.
+     *
+     * @param size    The size of the systems
+     * @param restart The number of iterations between restarts
+     * @return The solver
+     */
+    public static KrylovSolver gmres(int size, int restart) {
+        if (restart < 1)
+            throw new IllegalArgumentException("The restart must be positive");
+        return new KrylovSolver(Method.GMRES, size, Math.min(restart, size), 2);
+    }
+
+    /**
+     * @param tolerance The relative residual {@code ||b - A x|| / ||b||} to reach, 1e-10 by default
+     * @return This solver
+     */
+    public KrylovSolver setTolerance(double tolerance) {
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException("The tolerance must be positive");
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param maxIterations The number of iterations after which to give up, max(100, size) by default
+     * @return This solver
+     */
+    public KrylovSolver setMaxIterations(int maxIterations) {
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("The maximum number of iterations must be positive");
+        this.maxIterations = maxIterations;
+        this.history = new double[maxIterations + 1];
+        return this;
+    }
+
+    /**
+     * @param preconditioner The preconditioner, the identity by default
+     * @return This solver
+     */
+    public KrylovSolver setPreconditioner(Preconditioner preconditioner) {
+        this.preconditioner = preconditioner == null ? Preconditioner.identity() : preconditioner;
+        return this;
+    }
+
+    /**
+     * @param listener Called after every iteration, null for none
+     * @return This solver
+     */
+    public KrylovSolver setListener(IterationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Solve {@code A x = b}
+     *
+     * @param a The operator, size x size
+     * @param b The right hand side, only read
+     * @param x The initial guess, overwritten with the solution
+     * @return Whether the solve converged and how
+     * @throws MatrixDimensionsNotMatchException if A, b or x is not of the size of the solver
+     */
+    public SolverResult solve(LinearOperator a, double[] b, double[] x) throws MatrixDimensionsNotMatchException {
+        if (a.getNumOfRows() != size || a.getNumOfColumns() != size || b.length != size || x.length != size)
+            throw new MatrixDimensionsNotMatchException(String.format("The solver is for %d x %d systems", size, size));
+        double bNorm = norm(b);
+        if (bNorm == 0) {
+            Arrays.fill(x, 0);
+            return new SolverResult(true, 0, 0, new double[1]);
+        }
+        int iterations = switch (method) {
+            case CG -> conjugateGradient(a, b, x, bNorm);
+            case BICGSTAB -> biCgStab(a, b, x, bNorm);
+            case GMRES -> gmres(a, b, x, bNorm);
+        };
+        double residual = history[iterations];
+        return new SolverResult(residual <= tolerance, iterations, residual, Arrays.copyOf(history, iterations + 1));
+    }
+
+    /**
+     * @return The number of iterations run
+     */
+    private int conjugateGradient(LinearOperator a, double[] b, double[] x, double bNorm) {
+        double[] r = vectors[0], z = vectors[1], p = vectors[2], q = vectors[3];
+        a.apply(x, q);
+        for (int i = 0; i < size; i++)
+            r[i] = b[i] - q[i];
+        history[0] = norm(r) / bNorm;
+        if (history[0] <= tolerance)
+            return 0;
+        preconditioner.apply(r, z);
+        System.arraycopy(z, 0, p, 0, size);
+        double rho = dot(r, z);
+        for (int k = 1; k <= maxIterations; k++) {
+            a.apply(p, q);
+            double pq = dot(p, q);
+            if (pq == 0) {
+                // Breakdown, A is not positive definite
+                return k - 1;
+            }
+            double alpha = rho / pq;
+            for (int i = 0; i < size; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            if (record(k, norm(r) / bNorm))
+                return k;
+            preconditioner.apply(r, z);
+            double rhoNext = dot(r, z);
+            double beta = rhoNext / rho;
+            rho = rhoNext;
+            for (int i = 0; i < size; i++)
+                p[i] = z[i] + beta * p[i];
+        }
+        return maxIterations;
+    }
+
+    /**
+     * @return The number of iterations run
+     */
+    private int biCgStab(LinearOperator a, double[] b, double[] x, double bNorm) {
+        double[] r = vectors[0], shadow = vectors[1], p = vectors[2], v = vectors[3];
+        double[] s = vectors[4], t = vectors[5], y = vectors[6], z = vectors[7];
+        a.apply(x, v);
+        for (int i = 0; i < size; i++)
+            r[i] = b[i] - v[i];
+        history[0] = norm(r) / bNorm;
+        if (history[0] <= tolerance)
+            return 0;
+        System.arraycopy(r, 0, shadow, 0, size);
+        double rho = 1, alpha = 1, omega = 1;
+        for (int k = 1; k <= maxIterations; k++) {
+            double rhoNext = dot(shadow, r);
+            if (rhoNext == 0)
+                return k - 1;
+            if (k == 1) {
+                System.arraycopy(r, 0, p, 0, size);
+            } else {
+                double beta = (rhoNext / rho) * (alpha / omega);
+                for (int i = 0; i < size; i++)
+                    p[i] = r[i] + beta * (p[i] - omega * v[i]);
+            }
+            rho = rhoNext;
+            preconditioner.apply(p, y);
+            a.apply(y, v);
+            double shadowV = dot(shadow, v);
+            if (shadowV == 0)
+                return k - 1;
+            alpha = rho / shadowV;
+            for (int i = 0; i < size; i++)
+                s[i] = r[i] - alpha * v[i];
+            double sNorm = norm(s) / bNorm;
+            if (sNorm <= tolerance) {
+                for (int i = 0; i < size; i++)
+                    x[i] += alpha * y[i];
+                record(k, sNorm);
+                return k;
+            }
+            preconditioner.apply(s, z);
+            a.apply(z, t);
+            double tt = dot(t, t);
+            omega = tt == 0 ? 0 : dot(t, s) / tt;
+            for (int i = 0; i < size; i++) {
+                x[i] += alpha * y[i] + omega * z[i];
+                r[i] = s[i] - omega * t[i];
+            }
+            if (record(k, norm(r) / bNorm) || omega == 0)
+                return k;
+        }
+        return maxIterations;
+    }
+
+    /**
+     * @return The number of iterations run
+     */
+    private int gmres(LinearOperator a, double[] b, double[] x, double bNorm) {
+        double[] w = vectors[0], z = vectors[1];
+        int total = 0;
+        while (true) {
+            // r = b - A x becomes the first vector of the basis
+            a.apply(x, w);
+            double[] first = basis[0];
+            for (int i = 0; i < size; i++)
+                first[i] = b[i] - w[i];
+            double beta = norm(first);
+            if (total == 0) {
+                history[0] = beta / bNorm;
+                if (history[0] <= tolerance)
+                    return 0;
+            }
+            if (total == maxIterations || beta == 0)
+                return total;
+            for (int i = 0; i < size; i++)
+                first[i] /= beta;
+            Arrays.fill(g, 0);
+            g[0] = beta;
+            int columns = 0;
+            boolean done = false;
+            while (columns < restart && total < maxIterations) {
+                int j = columns;
+                preconditioner.apply(basis[j], z);
+                a.apply(z, w);
+                // Modified Gram-Schmidt against the basis so far
+                for (int i = 0; i <= j; i++) {
+                    double[] vector = basis[i];
+                    double h = dot(w, vector);
+                    for (int e = 0; e < size; e++)
+                        w[e] -= h * vector[e];
+                    hessenberg[i * restart + j] = h;
+                }
+                double next = norm(w);
+                hessenberg[(j + 1) * restart + j] = next;
+                if (next != 0) {
+                    double[] vector = basis[j + 1];
+                    for (int e = 0; e < size; e++)
+                        vector[e] = w[e] / next;
+                }
+                // Bring the new column to triangular form with the previous rotations and a new one
+                for (int i = 0; i < j; i++) {
+                    double upper = hessenberg[i * restart + j];
+                    double lower = hessenberg[(i + 1) * restart + j];
+                    hessenberg[i * restart + j] = cosines[i] * upper + sines[i] * lower;
+                    hessenberg[(i + 1) * restart + j] = -sines[i] * upper + cosines[i] * lower;
+                }
+                double diagonal = hessenberg[j * restart + j];
+                double radius = Math.hypot(diagonal, next);
+                if (radius == 0) {
+                    // The operator is singular on the basis, nothing more can be gained
+                    done = true;
+                    break;
+                }
+                cosines[j] = diagonal / radius;
+                sines[j] = next / radius;
+                hessenberg[j * restart + j] = radius;
+                hessenberg[(j + 1) * restart + j] = 0;
+                g[j + 1] = -sines[j] * g[j];
+                g[j] = cosines[j] * g[j];
+                columns++;
+                total++;
+                if (record(total, Math.abs(g[j + 1]) / bNorm) || next == 0) {
+                    done = true;
+                    break;
+                }
+            }
+            updateSolution(x, z, w, columns);
+            if (done || total == maxIterations)
+                return total;
+        }
+    }
+
+    /**
+     * x += M^-1 (V y) where H y = g, the GMRES update after {@code columns} iterations
+     */
+    private void updateSolution(double[] x, double[] z, double[] w, int columns) {
+        if (columns == 0)
+            return;
+        // Back substitution, y is kept in g
+        for (int i = columns - 1; i >= 0; i--) {
+            double sum = g[i];
+            for (int c = i + 1; c < columns; c++)
+                sum -= hessenberg[i * restart + c] * g[c];
+            g[i] = sum / hessenberg[i * restart + i];
+        }
+        Arrays.fill(w, 0);
+        for (int i = 0; i < columns; i++) {
+            double[] vector = basis[i];
+            for (int e = 0; e < size; e++)
+                w[e] += g[i] * vector[e];
+        }
+        preconditioner.apply(w, z);
+        for (int e = 0; e < size; e++)
+            x[e] += z[e];
+    }
+
+    /**
+     * Record the residual of an iteration
+     *
+     * @return Whether it has converged
+     */
+    private boolean record(int iteration, double relativeResidual) {
+        history[iteration] = relativeResidual;
+        if (listener != null)
+            listener.onIteration(iteration, relativeResidual);
+        return relativeResidual <= tolerance;
+    }
+
+    private static double dot(double[] u, double[] v) {
+        double sum = 0;
+        for (int i = 0; i < u.length; i++)
+            sum += u[i] * v[i];
+        return sum;
+    }
+
+    private static double norm(double[] v) {
+        return Math.sqrt(dot(v, v));
+    }
+}
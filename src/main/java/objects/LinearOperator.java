@@ -0,0 +1,63 @@
+package objects;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Anything that can be multiplied with a vector, {@code y = A x}, without having to be stored as a {@code Matrix}.
+ * <p>
+ * The iterative solvers of {@code KrylovSolver} only ever ask an operator for products, so a dense matrix,
+ * a {@code SparseMatrix} or a function computing the product on the fly can all be solved against.
+ */
+public interface LinearOperator {
+
+    int getNumOfRows();
+
+    int getNumOfColumns();
+
+    /**
+     * Compute {@code y = A x}
+     *
+     * @param x The vector to multiply, as long as the number of columns, only read
+     * @param y The result, as long as the number of rows, entirely overwritten
+     */
+    void apply(double[] x, double[] y);
+
+    /**
+     * The operator of a dense matrix. The matrix is used, not copied, and large products are split
+     * across the worker threads.
+     *
+     * @param matrix The matrix
+     * @return The operator
+     */
+    static LinearOperator of(Matrix matrix) {
+        return new DenseOperator(matrix);
+    }
+
+    /**
+     * A square operator given by a function
+     * <br>
+     * Example: {@code LinearOperator.of(n, (x, y) -> { for (int i = 0; i < n; i++) y[i] = 2 * x[i]; });}
+     *
+     * @param size    The size of the vectors
+     * @param product The function, writing A x into its second argument
+     * @return The operator
+     */
+    static LinearOperator of(int size, BiConsumer<double[], double[]> product) {
+        return new LinearOperator() {
+            @Override
+            public int getNumOfRows() {
+                return size;
+            }
+
+            @Override
+            public int getNumOfColumns() {
+                return size;
+            }
+
+            @Override
+            public void apply(double[] x, double[] y) {
+                product.accept(x, y);
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package objects;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The products behind rank-k updates of an N x N matrix: {@code A x U} and {@code V^T x A} with thin U and V,
+ * and {@code A += L x R} with L N x K and R K x N. Each costs O(N^2 K) and is cut into ranges of rows or columns
+ * for the worker threads, every entry being computed in the same order whatever the number of requests.
+ */
+final class LowRankEngine {
+
+    /**
+     * Products touching fewer entries run on the calling thread
+     */
+    static final long PARALLEL_THRESHOLD = 1L << 16;
+    private static final int MIN_ROWS_PER_REQUEST = 16;
+
+    private LowRankEngine() {
+    }
+
+    /**
+     * @return A x U, N x K
+     */
+    static Matrix multiply(Matrix a, Matrix u) {
+        Matrix result = new Matrix(a.getNumOfRows(), u.getNumOfColumns());
+        int size = a.getNumOfRows();
+        int numOfRequests = numOfRequests(a, u.getNumOfColumns());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        ThinProductRequest[] requests = new ThinProductRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new ThinProductRequest(result, a, u, (int) ((long) size * i / numOfRequests), (int) ((long) size * (i + 1) / numOfRequests), latch);
+        Matrix.runRequests(requests, latch);
+        return result;
+    }
+
+    /**
+     * @return V^T x A, K x N
+     */
+    static Matrix transposedMultiply(Matrix v, Matrix a) {
+        Matrix result = new Matrix(v.getNumOfColumns(), a.getNumOfColumns());
+        int size = a.getNumOfColumns();
+        int numOfRequests = numOfRequests(a, v.getNumOfColumns());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        TransposedProductRequest[] requests = new TransposedProductRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new TransposedProductRequest(result, v, a, (int) ((long) size * i / numOfRequests), (int) ((long) size * (i + 1) / numOfRequests), latch);
+        Matrix.runRequests(requests, latch);
+        return result;
+    }
+
+    /**
+     * {@code A += scale x L x R}, in place
+     */
+    static void addProduct(Matrix a, Matrix left, Matrix right, double scale) {
+        int size = a.getNumOfRows();
+        int numOfRequests = numOfRequests(a, left.getNumOfColumns());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        RankUpdateRequest[] requests = new RankUpdateRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new RankUpdateRequest(a, left, right, scale, (int) ((long) size * i / numOfRequests), (int) ((long) size * (i + 1) / numOfRequests), latch);
+        Matrix.runRequests(requests, latch);
+    }
+
+    private static int numOfRequests(Matrix a, int rank) {
+        if ((long) a.getNumOfEntries() * rank < PARALLEL_THRESHOLD)
+            return 1;
+        return Math.max(1, Math.min(Matrix.NUM_OF_THREADS, a.getNumOfRows() / MIN_ROWS_PER_REQUEST));
+    }
+}
+
+/**
+ * A Request that computes a range of rows of {@code A x U}, walking the rows of A and of U contiguously
+ */
+class ThinProductRequest extends MultiRowRequest {
+    public ThinProductRequest(Matrix container, Matrix matrixA, Matrix matrixB, int fromRow, int toRow, CountDownLatch latch) {
+        super(container, matrixA, matrixB, fromRow, toRow, latch);
+    }
+
+    @Override
+    public void calculate() {
+        double[] a = matrixA.getData();
+        double[] u = matrixB.getData();
+        double[] result = container.getData();
+        int size = matrixA.getNumOfColumns();
+        int rank = matrixB.getNumOfColumns();
+        for (int r = row; r < toRow; r++) {
+            int offset = r * rank;
+            for (int c = 0; c < size; c++) {
+                double value = a[r * size + c];
+                for (int p = 0; p < rank; p++)
+                    result[offset + p] += value * u[c * rank + p];
+            }
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that computes a range of columns of {@code V^T x A}, adding the rows of A one after another
+ */
+class TransposedProductRequest extends BaseRequest {
+    private final int fromColumn;
+    private final int toColumn;
+
+    public TransposedProductRequest(Matrix container, Matrix matrixA, Matrix matrixB, int fromColumn, int toColumn, CountDownLatch latch) {
+        super(container, matrixA, matrixB, 0, latch);
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+    }
+
+    @Override
+    public void calculate() {
+        double[] v = matrixA.getData();
+        double[] a = matrixB.getData();
+        double[] result = container.getData();
+        int size = matrixB.getNumOfColumns();
+        int rank = matrixA.getNumOfColumns();
+        for (int r = 0; r < matrixB.getNumOfRows(); r++) {
+            for (int p = 0; p < rank; p++) {
+                double value = v[r * rank + p];
+                if (value == 0.0)
+                    continue;
+                int offset = p * size;
+                for (int c = fromColumn; c < toColumn; c++)
+                    result[offset + c] += value * a[r * size + c];
+            }
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that adds {@code scale x L x R} to a range of rows of a matrix
+ */
+class RankUpdateRequest extends MultiRowRequest {
+    private final double scale;
+
+    public RankUpdateRequest(Matrix container, Matrix matrixA, Matrix matrixB, double scale, int fromRow, int toRow, CountDownLatch latch) {
+        super(container, matrixA, matrixB, fromRow, toRow, latch);
+        this.scale = scale;
+    }
+
+    @Override
+    public void calculate() {
+        double[] target = container.getData();
+        double[] left = matrixA.getData();
+        double[] right = matrixB.getData();
+        int size = container.getNumOfColumns();
+        int rank = matrixA.getNumOfColumns();
+        for (int r = row; r < toRow; r++) {
+            int offset = r * size;
+            for (int p = 0; p < rank; p++) {
+                double value = scale * left[r * rank + p];
+                if (value == 0.0)
+                    continue;
+                for (int c = 0; c < size; c++)
+                    target[offset + c] += value * right[p * size + c];
+            }
+        }
+        latch.countDown();
+    }
+}
@@ -5,11 +5,17 @@ import exceptions.MatrixDimensionsNotMatchException;
 import exceptions.MatrixIndexOutofBoundException;
 import exceptions.MatrixInitialSizeException;
 import exceptions.NoInverseException;
+import exceptions.NotPositiveDefiniteException;
 
 import java.nio.DoubleBuffer;
 import java.util.Objects;
+import java.util.Random;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleFunction;
+import java.util.function.DoubleUnaryOperator;
+import java.util.logging.Logger;
 import java.util.stream.DoubleStream;
 import java.util.stream.Stream;
 
@@ -21,13 +27,42 @@ import java.util.stream.Stream;
 public class Matrix {
 
     public static final int NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
-    private static final OpenCLInteractor clInteractor = new OpenCLInteractor();
 
     /**
-     * The monitor for all worker threads, the number of worker
-     * threads spawned is equals to the computer's available cores
+     * Created on the first OpenCL call, so callers that never use OpenCL never pay for it
      */
-    private static final ParallelMatrixMonitor pm = new ParallelMatrixMonitor(NUM_OF_THREADS);
+    private static volatile OpenCLInteractor clInteractor;
+    /**
+     * Why OpenCL cannot be used, {@code null} until a probe has failed
+     */
+    private static volatile String openCLUnavailableReason;
+    /**
+     * Set by {@code disableOpenCL}, the {@code cl} operations then run on the CPU
+     */
+    private static volatile boolean openCLDisabled = false;
+
+    private static final Logger LOGGER = Logger.getLogger(Matrix.class.getName());
+
+    /**
+     * The monitor for all worker threads, the maximum number of worker
+     * threads spawned is equals to the computer's available cores.
+     * <br>
+     * It is created on the first parallel operation and re-created if it has been stopped.
+     */
+    private static volatile ParallelMatrixMonitor pm;
+    private static boolean shutdownHookRegistered = false;
+
+    private static final int LU_BLOCK_SIZE = 32;
+    private static final int MIN_COLUMNS_PER_REQUEST = 64;
+    /**
+     * The seed of the random vectors of the spectral methods, so their results are reproducible
+     */
+    private static final long DEFAULT_SEED = 0x5EEDL;
+
+    /**
+     * Picks the backend of {@code autoMultiplication} and {@code autoAddition}
+     */
+    private static final BackendDispatcher dispatcher = new BackendDispatcher(NUM_OF_THREADS);
     private final double[] data;
     private final int numOfRows;    // AKA columnSize
     private final int numOfColumns; // AKA rowSize
@@ -258,109 +293,475 @@ public class Matrix {
     }
 
     /**
-     * Find the first non-zero entry in the array that its index is larger than the limiter,
-     * If no matching value, it will return -1
+     * Perform LU Decomposition on the given matrix
+     * <p>
+     * The first non-zero entry of each column is used as the pivot and the
+     * result satisfies {@code P x A = L x U}.
      *
-     * @param subArray The subArray in the matrix
-     * @param limiter  The limiting index
-     * @return The first non-zero data's index, otherwise -1
+     * @param matrix The matrix to be de-composited.
+     * @return The de-composited matrix
      */
-    private static int firstNonZeroWithLimit(double[] subArray, int limiter) {
-        for (int i = limiter; i < subArray.length; i++)
-            if (subArray[i] != 0) // if the value at index[i-1] is not zero
-                return i;
-        return -1;
+    public static LUMatrixGroup luDecomposition(Matrix matrix) {
+        return luDecomposition(matrix, false);
     }
 
     /**
      * Perform LU Decomposition on the given matrix
+     * <br>
+     * This version is multiThreaded, the trailing sub-matrix update after each pivot panel is split
+     * across the worker threads. The result is identical to {@code luDecomposition}.
      *
      * @param matrix The matrix to be de-composited.
      * @return The de-composited matrix
+     * @see Matrix#luDecomposition(Matrix)
      */
-    public static LUMatrixGroup luDecomposition(Matrix matrix) {
+    public static LUMatrixGroup parallelLuDecomposition(Matrix matrix) {
+        return luDecomposition(matrix, true);
+    }
+
+    /**
+     * Perform LU Decomposition with partial pivoting, the largest entry of each column is used as the pivot.
+     * <br>
+     * Unlike the first non-zero pivot of {@code luDecomposition}, it keeps the multipliers at most 1 in magnitude,
+     * which the solvers built on the factors need to be numerically stable. The trailing update is multithreaded.
+     *
+     * @param matrix The matrix to be de-composited.
+     * @return The de-composited matrix, {@code P x A = L x U}
+     */
+    static LUMatrixGroup pivotedLuDecomposition(Matrix matrix) {
+        return luDecomposition(matrix, true, true);
+    }
+
+    /**
+     * Blocked right-looking LU Decomposition.
+     * <p>
+     * Every entry receives the updates of the pivots in the same order as the unblocked
+     * elimination, so the serial and the parallel version give the same bits.
+     *
+     * @param matrix   The matrix to be de-composited.
+     * @param parallel Whether the trailing update is given to the worker threads
+     * @return The de-composited matrix
+     */
+    private static LUMatrixGroup luDecomposition(Matrix matrix, boolean parallel) {
+        return luDecomposition(matrix, parallel, false);
+    }
+
+    /**
+     * @param partialPivoting Whether the largest entry of each column is the pivot, instead of the first non-zero one
+     */
+    private static LUMatrixGroup luDecomposition(Matrix matrix, boolean parallel, boolean partialPivoting) {
         Matrix upper = new Matrix(matrix);
-        Matrix lower = new Matrix(matrix.getDimension(), INIT_MODE.IDENTITY);
-        Matrix permutation = new Matrix(matrix.getDimension(), INIT_MODE.IDENTITY);
-        for (int pivotRow = 0; pivotRow < upper.numOfRows; pivotRow++) {    // Last row don't have to perform Gaussian elimination
-            double[] column = upper.getColumn(pivotRow);
-            int firstNonZero = firstNonZeroWithLimit(column, pivotRow);  // Find the first non-zero element
-            if (firstNonZero != -1) {                                    // If there is a left-most non zero element
-                if (pivotRow != firstNonZero) { // Make the marked row as the pivot row by swapping
-                    upper.swapRows(pivotRow, firstNonZero);
-                    permutation.swapRows(pivotRow, firstNonZero);
-                }
-                for (int movingRow = pivotRow + 1; movingRow < upper.numOfRows; movingRow++) {
-                    double lFactor = upper.getRow(movingRow)[pivotRow] / upper.getRow(firstNonZero)[pivotRow];
-                    lower.setDatum(firstNonZero, movingRow, lFactor);
-                    upper.addMultiplesToRow(firstNonZero, movingRow, -lFactor);
-                }
+        Matrix lower = createIdentity(matrix.numOfRows);
+        Matrix permutation = createIdentity(matrix.numOfRows);
+        int steps = Math.min(upper.numOfRows, upper.numOfColumns);
+        for (int panelStart = 0; panelStart < steps; panelStart += LU_BLOCK_SIZE) {
+            int panelEnd = Math.min(panelStart + LU_BLOCK_SIZE, steps);
+            factorPanel(upper, lower, permutation, panelStart, panelEnd, partialPivoting);
+            int width = upper.numOfColumns - panelEnd;
+            if (width <= 0)
+                continue;
+            int numOfRequests = parallel ? Math.min(NUM_OF_THREADS, (width + MIN_COLUMNS_PER_REQUEST - 1) / MIN_COLUMNS_PER_REQUEST) : 1;
+            CountDownLatch latch = new CountDownLatch(numOfRequests);
+            LUUpdateRequest[] requests = new LUUpdateRequest[numOfRequests];
+            for (int i = 0; i < numOfRequests; i++) {
+                int fromColumn = panelEnd + (int) ((long) width * i / numOfRequests);
+                int toColumn = panelEnd + (int) ((long) width * (i + 1) / numOfRequests);
+                requests[i] = new LUUpdateRequest(upper, lower, panelStart, panelEnd, fromColumn, toColumn, latch);
             }
+            runRequests(requests, latch);
         }
-        lower = Matrix.transpose(lower);    // Transpose it to get the final lower matrix
         return new LUMatrixGroup(permutation, lower, upper);
     }
 
     /**
-     * Inverse the given matrix
+     * Eliminate the columns of a pivot panel in all rows below the pivots, swapping rows when
+     * the pivot is zero, or when a larger entry is below it with partial pivoting.
+     * Columns right of the panel are left for {@code LUUpdateRequest}.
      *
-     * @param matrix The original
-     * @return The inverse matrix of the original matrix
+     * @param upper           The matrix being reduced to U
+     * @param lower           The multipliers (L)
+     * @param permutation     The permutation matrix
+     * @param panelStart      The first column of the panel
+     * @param panelEnd        The column after the last column of the panel
+     * @param partialPivoting Whether the largest entry of the column is the pivot
      */
-    public static Matrix inverse(Matrix matrix) {
-        Matrix cloned = new Matrix(matrix);
-        Matrix result = new Matrix(matrix.getDimension(), INIT_MODE.IDENTITY);
-        // Working down from the top
-        for (int pivotRow = 0; pivotRow < cloned.getNumOfRows(); pivotRow++) { // Last row don't have to perform Gaussian elimination
-            double[] column = cloned.getColumn(pivotRow);
-            int firstNonZero = firstNonZeroWithLimit(column, pivotRow);  // Find the first non-zero element
-            if (firstNonZero != -1) {                                    // If there is a left-most non zero element
-                if (pivotRow != firstNonZero) { // Make the marked row as the pivot row by swapping
-                    cloned.swapRows(pivotRow, firstNonZero);
-                    result.swapRows(pivotRow, firstNonZero);
-                }
-                for (int movingRow = pivotRow + 1; movingRow < cloned.getNumOfRows(); movingRow++) {
-                    findMultipleAndEliminate(cloned, result, pivotRow, movingRow);
+    private static void factorPanel(Matrix upper, Matrix lower, Matrix permutation, int panelStart, int panelEnd, boolean partialPivoting) {
+        double[] u = upper.data;
+        double[] l = lower.data;
+        int columns = upper.numOfColumns;
+        for (int pivotRow = panelStart; pivotRow < panelEnd; pivotRow++) {
+            int pivotIndex = -1;
+            for (int i = pivotRow; i < upper.numOfRows; i++) {
+                double entry = Math.abs(u[i * columns + pivotRow]);
+                if (entry != 0 && (pivotIndex == -1 || entry > Math.abs(u[pivotIndex * columns + pivotRow]))) {
+                    pivotIndex = i;
+                    if (!partialPivoting)
+                        break;
                 }
             }
-        }
-        //Working up from the bottom
-        for (int pivotRow = cloned.getNumOfRows() - 1; pivotRow >= 0; pivotRow--) {
-            for (int movingRow = pivotRow - 1; movingRow >= 0; movingRow--) {
-                findMultipleAndEliminate(cloned, result, pivotRow, movingRow);
+            if (pivotIndex == -1)     // Nothing to eliminate in this column
+                continue;
+            if (pivotIndex != pivotRow) { // Make the marked row as the pivot row by swapping
+                upper.swapRowRange(pivotRow, pivotIndex, 0, columns);
+                permutation.swapRowRange(pivotRow, pivotIndex, 0, permutation.numOfColumns);
+                lower.swapRowRange(pivotRow, pivotIndex, 0, pivotRow);   // Multipliers found so far follow their rows
+            }
+            double pivot = u[pivotRow * columns + pivotRow];
+            for (int movingRow = pivotRow + 1; movingRow < upper.numOfRows; movingRow++) {
+                int offset = movingRow * columns;
+                double lFactor = u[offset + pivotRow] / pivot;
+                l[movingRow * lower.numOfColumns + pivotRow] = lFactor;
+                u[offset + pivotRow] = 0.0;
+                if (lFactor == 0.0)
+                    continue;
+                for (int column = pivotRow + 1; column < panelEnd; column++)
+                    u[offset + column] -= lFactor * u[pivotRow * columns + column];
             }
         }
-        //Turn all into 1s
-        for (int pivotRow = 0; pivotRow < cloned.getNumOfRows(); pivotRow++) {
-            double datum = cloned.getDatum(pivotRow, pivotRow);
-            if (datum != 0) {
-                cloned.multiplyRow(pivotRow, 1 / datum);
-                result.multiplyRow(pivotRow, 1 / datum);
+    }
+
+    /**
+     * Perform Cholesky Decomposition {@code A = L x L^T} on a symmetric positive definite matrix.
+     * <p>
+     * It does half the work of {@code luDecomposition} and needs no pivoting. The factor can be kept
+     * to solve, inverse or take the log-determinant without factoring again.
+     *
+     * @param matrix The symmetric positive definite matrix
+     * @return The factor
+     * @throws NotPositiveDefiniteException if the matrix is not square, not symmetric or not positive definite
+     */
+    public static CholeskyFactor choleskyDecomposition(Matrix matrix) {
+        return new CholeskyFactor(CholeskyEngine.factor(matrix, false));
+    }
+
+    /**
+     * Perform Cholesky Decomposition {@code A = L x L^T} on a symmetric positive definite matrix.
+     * <br>
+     * This version is multiThreaded, the panel and the trailing update after each diagonal block are split
+     * across the worker threads. The result is identical to {@code choleskyDecomposition}.
+     *
+     * @param matrix The symmetric positive definite matrix
+     * @return The factor
+     * @throws NotPositiveDefiniteException if the matrix is not square, not symmetric or not positive definite
+     * @see Matrix#choleskyDecomposition(Matrix)
+     */
+    public static CholeskyFactor parallelCholeskyDecomposition(Matrix matrix) {
+        return new CholeskyFactor(CholeskyEngine.factor(matrix, true));
+    }
+
+    /**
+     * Perform Householder QR Decomposition {@code A = Q x R} on the given matrix.
+     * <p>
+     * The reflectors of each panel of columns are applied to the rest of the matrix at once in their WY form,
+     * and kept compactly below R instead of forming Q.
+     *
+     * @param matrix The matrix, M x N
+     * @return The factorization
+     */
+    public static QRFactor qrDecomposition(Matrix matrix) {
+        return qrDecomposition(matrix, false);
+    }
+
+    /**
+     * Perform Householder QR Decomposition {@code A = Q x R} on the given matrix.
+     * <br>
+     * This version is multiThreaded, the trailing update of each panel is split across the worker threads.
+     * The result is identical to {@code qrDecomposition}.
+     *
+     * @param matrix The matrix, M x N
+     * @return The factorization
+     * @see Matrix#qrDecomposition(Matrix)
+     */
+    public static QRFactor parallelQrDecomposition(Matrix matrix) {
+        return qrDecomposition(matrix, true);
+    }
+
+    private static QRFactor qrDecomposition(Matrix matrix, boolean parallel) {
+        Matrix factors = new Matrix(matrix);
+        double[] tau = new double[Math.min(matrix.numOfRows, matrix.numOfColumns)];
+        QREngine.factor(factors.data, factors.numOfRows, factors.numOfColumns, tau, parallel);
+        return new QRFactor(factors, tau);
+    }
+
+    /**
+     * Solve the least squares problem {@code min ||A x X - B||} with a QR factorization, never forming
+     * {@code A^T x A}, whose condition number is the square of the one of A.
+     * <p>
+     * Tall matrix are solved with a tall-skinny QR: ranges of rows are factored on the worker threads, with the
+     * right hand sides as extra columns, and only their R are combined. Nothing the size of A is allocated.
+     *
+     * @param a The matrix, M x N with M >= N
+     * @param b The right hand side, M x K
+     * @return X, N x K
+     * @throws MatrixDimensionsNotMatchException if A and B do not have the same number of rows
+     * @throws NoInverseException                if A has fewer rows than columns or does not have full column rank
+     * @see TallSkinnyQR
+     */
+    public static Matrix leastSquares(Matrix a, Matrix b) throws MatrixDimensionsNotMatchException {
+        if (a.numOfRows != b.numOfRows)
+            throw new MatrixDimensionsNotMatchException("A and B must have the same number of rows");
+        if (a.numOfRows < a.numOfColumns)
+            throw new NoInverseException("A least squares solution needs at least as many rows as columns");
+        int width = a.numOfColumns + b.numOfColumns;
+        if (a.numOfRows < 2L * TallSkinnyQR.BLOCK_ROWS || a.numOfRows < 8L * width)
+            return qrDecomposition(a, true).solve(b);
+
+        int numOfRequests = Math.max(1, Math.min(NUM_OF_THREADS, a.numOfRows / TallSkinnyQR.BLOCK_ROWS));
+        TallSkinnyQR[] accumulators = new TallSkinnyQR[numOfRequests];
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        TSQRRequest[] requests = new TSQRRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++) {
+            accumulators[i] = new TallSkinnyQR(a.numOfColumns, b.numOfColumns);
+            requests[i] = new TSQRRequest(accumulators[i], a, b, (int) ((long) a.numOfRows * i / numOfRequests), (int) ((long) a.numOfRows * (i + 1) / numOfRequests), latch);
+        }
+        runRequests(requests, latch);
+        for (int i = 1; i < numOfRequests; i++)
+            accumulators[0].merge(accumulators[i]);
+        return accumulators[0].solve();
+    }
+
+    /**
+     * Perform LU Decomposition with partial pivoting on the given matrix in single precision, to be refined
+     * to double precision accuracy by {@code MixedPrecisionLU.solve}.
+     * <p>
+     * The factorization does its O(N^3) work on floats, at about twice the speed of doubles. The matrix is kept,
+     * not copied, for the residuals of the refinement.
+     *
+     * @param matrix The square matrix
+     * @return The factorization
+     * @throws NoInverseException if the matrix is not square
+     * @see MixedPrecisionLU
+     */
+    public static MixedPrecisionLU mixedPrecisionLuDecomposition(Matrix matrix) {
+        return new MixedPrecisionLU(matrix, false);
+    }
+
+    /**
+     * Perform LU Decomposition with partial pivoting on the given matrix in single precision.
+     * <br>
+     * This version is multiThreaded, the trailing update after each pivot panel is split across the worker threads.
+     * The result is identical to {@code mixedPrecisionLuDecomposition}.
+     *
+     * @param matrix The square matrix
+     * @return The factorization
+     * @throws NoInverseException if the matrix is not square
+     * @see Matrix#mixedPrecisionLuDecomposition(Matrix)
+     */
+    public static MixedPrecisionLU parallelMixedPrecisionLuDecomposition(Matrix matrix) {
+        return new MixedPrecisionLU(matrix, true);
+    }
+
+    /**
+     * Solve {@code A x X = B} to double precision accuracy with a single precision LU factorization and
+     * iterative refinement, falling back to a double precision factorization if A is too ill-conditioned.
+     *
+     * @param a The square matrix
+     * @param b The right hand side, N x K
+     * @return X
+     * @throws MatrixDimensionsNotMatchException if B does not have as many rows as A
+     * @throws NoInverseException                if A is not square or is singular
+     * @see MixedPrecisionLU
+     */
+    public static Matrix mixedPrecisionSolve(Matrix a, Matrix b) throws MatrixDimensionsNotMatchException {
+        return parallelMixedPrecisionLuDecomposition(a).solve(b);
+    }
+
+    /**
+     * Find the k largest eigenvalues of a symmetric matrix and their eigenvectors with the Lanczos algorithm,
+     * without reducing the whole matrix. The products with the matrix are split across the worker threads.
+     *
+     * @param matrix The symmetric matrix
+     * @param k      The number of eigenpairs, at most the size of the matrix
+     * @return The eigenpairs, largest first
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     * @throws IllegalArgumentException          if the matrix is not symmetric or k is out of range
+     */
+    public static EigenPairs symmetricEigenpairs(Matrix matrix, int k) throws MatrixDimensionsNotMatchException {
+        if (!matrix.isSquareMatrix())
+            throw new MatrixDimensionsNotMatchException("A square matrix is required!");
+        int size = matrix.numOfRows;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < i; j++) {
+                double lower = matrix.data[i * size + j];
+                double upper = matrix.data[j * size + i];
+                if (Math.abs(lower - upper) > CholeskyEngine.SYMMETRY_TOLERANCE * (Math.abs(lower) + Math.abs(upper)))
+                    throw new IllegalArgumentException("The matrix is not symmetric at (" + i + ", " + j + ")");
             }
         }
+        return symmetricEigenpairs(LinearOperator.of(matrix), k, 1e-10, size);
+    }
+
+    /**
+     * Find the k largest eigenvalues of a symmetric operator and their eigenvectors with the Lanczos algorithm.
+     * <p>
+     * The operator is only multiplied with vectors, so it can be sparse or implicit, such as {@code A^T x A} of
+     * a tall A applied as two products. The Krylov basis is kept and fully reorthogonalized, using
+     * {@code maxIterations} vectors at most.
+     *
+     * @param operator      The symmetric operator, it is not checked
+     * @param k             The number of eigenpairs, at most the size of the operator
+     * @param tolerance     The residual {@code ||A x - lambda x||} to reach, relative to the largest eigenvalue
+     * @param maxIterations The number of products after which the best estimates are returned
+     * @return The eigenpairs, largest first
+     * @throws MatrixDimensionsNotMatchException if the operator is not square
+     * @throws IllegalArgumentException          if k is out of range
+     */
+    public static EigenPairs symmetricEigenpairs(LinearOperator operator, int k, double tolerance, int maxIterations) throws MatrixDimensionsNotMatchException {
+        if (operator.getNumOfRows() != operator.getNumOfColumns())
+            throw new MatrixDimensionsNotMatchException("A square operator is required!");
+        if (k < 1 || k > operator.getNumOfRows())
+            throw new IllegalArgumentException(String.format("k must be in [1, %d]", operator.getNumOfRows()));
+        return SpectralEngine.lanczos(operator, k, tolerance, maxIterations, new Random(DEFAULT_SEED));
+    }
+
+    /**
+     * Find the k largest singular values of a matrix and their singular vectors with a randomized SVD,
+     * using 10 extra random directions and 2 power iterations.
+     * <p>
+     * The random directions come from a fixed seed, so the same matrix always gives the same result.
+     *
+     * @param matrix The matrix, M x N
+     * @param k      The number of singular values, at most min(M, N)
+     * @return The truncated SVD
+     * @throws IllegalArgumentException if k is out of range
+     * @see Matrix#randomizedSvd(Matrix, int, int, int, long)
+     */
+    public static TruncatedSVD randomizedSvd(Matrix matrix, int k) {
+        return randomizedSvd(matrix, k, 10, 2, DEFAULT_SEED);
+    }
+
+    /**
+     * Find the k largest singular values of a matrix and their singular vectors with a randomized SVD.
+     * <p>
+     * The range of the matrix is sampled with k + oversampling random vectors and sharpened by power iterations,
+     * then only the projection of the matrix onto that range, (k + oversampling) x N, is decomposed. Every product
+     * with the matrix goes through {@code autoMultiplication}, so it runs on the fastest backend available.
+     * More power iterations help when the singular values decay slowly.
+     *
+     * @param matrix          The matrix, M x N
+     * @param k               The number of singular values, at most min(M, N)
+     * @param oversampling    The number of extra random directions, 5 to 10 is usually enough
+     * @param powerIterations The number of power iterations
+     * @param seed            The seed of the random directions
+     * @return The truncated SVD
+     * @throws IllegalArgumentException if k, the oversampling or the number of power iterations is out of range
+     */
+    public static TruncatedSVD randomizedSvd(Matrix matrix, int k, int oversampling, int powerIterations, long seed) {
+        if (k < 1 || k > Math.min(matrix.numOfRows, matrix.numOfColumns))
+            throw new IllegalArgumentException(String.format("k must be in [1, %d]", Math.min(matrix.numOfRows, matrix.numOfColumns)));
+        if (oversampling < 0 || powerIterations < 0)
+            throw new IllegalArgumentException("The oversampling and the number of power iterations can not be negative");
+        try {
+            return SpectralEngine.randomizedSvd(matrix, k, oversampling, powerIterations, new Random(seed));
+        } catch (MatrixDimensionsNotMatchException e) {
+            // The products are built to match
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inverse the given matrix
+     *
+     * @param matrix The original
+     * @return The inverse matrix of the original matrix
+     * @throws NoInverseException if the matrix is not square or singular
+     */
+    public static Matrix inverse(Matrix matrix) {
+        return inverse(matrix, false);
+    }
+
+    /**
+     * Inverse the given matrix
+     * <br>
+     * This version is multiThreaded, both the LU Decomposition and the solves against
+     * the columns of the identity are split across the worker threads.
+     * The result is identical to {@code inverse}.
+     *
+     * @param matrix The original
+     * @return The inverse matrix of the original matrix
+     * @throws NoInverseException if the matrix is not square or singular
+     * @see Matrix#inverse(Matrix)
+     */
+    public static Matrix parallelInverse(Matrix matrix) {
+        return inverse(matrix, true);
+    }
+
+    /**
+     * Inverse the given matrix from an LU Decomposition with partial pivoting, see {@code pivotedLuDecomposition}
+     *
+     * @param matrix   The original
+     * @param parallel Whether the decomposition and the solves are split across the worker threads
+     * @return The inverse matrix of the original matrix
+     * @throws NoInverseException if the matrix is not square or singular
+     */
+    static Matrix pivotedInverse(Matrix matrix, boolean parallel) {
+        return inverse(matrix, parallel, true);
+    }
+
+    private static Matrix inverse(Matrix matrix, boolean parallel) {
+        return inverse(matrix, parallel, false);
+    }
+
+    private static Matrix inverse(Matrix matrix, boolean parallel, boolean partialPivoting) {
+        if (!matrix.isSquareMatrix())
+            throw new NoInverseException("A square matrix is required!");
+        LUMatrixGroup lu = luDecomposition(matrix, parallel, partialPivoting);
+        int size = matrix.numOfRows;
+        for (int i = 0; i < size; i++)
+            if (lu.u().data[i * size + i] == 0)
+                throw new NoInverseException("This matrix can not be inverted");
+        Matrix result = new Matrix(size, size);
+        int numOfRequests = parallel ? Math.min(NUM_OF_THREADS, (size + MIN_COLUMNS_PER_REQUEST - 1) / MIN_COLUMNS_PER_REQUEST) : 1;
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        LUSolveRequest[] requests = new LUSolveRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++) {
+            int fromColumn = (int) ((long) size * i / numOfRequests);
+            int toColumn = (int) ((long) size * (i + 1) / numOfRequests);
+            requests[i] = new LUSolveRequest(result, lu, fromColumn, toColumn, latch);
+        }
+        runRequests(requests, latch);
         return result;
     }
 
     /**
-     * Find the multiple of the source row needed to add/subtract in order to reduce the target zero non-diagonal number to zero
+     * Give the requests to the worker threads and wait until all of them are calculated.
+     * A single request is calculated on the calling thread.
+     * <p>
+     * The first exception thrown by a request of the batch is rethrown on the calling thread once the others are done.
+     * A request that throws never reaches its count down, so it is counted down for it here.
      *
-     * @param original  The original matrix to be reduced to R.E.F/R.E.E.F
-     * @param augment   The augment matrix to store the result
-     * @param sourceRow The source row
-     * @param targetRow The target row
-     * @throws NoInverseException Throw if the program encounter problems
+     * @param requests The requests, each of them count down the latch once, as the last thing it does
+     * @param latch    The latch shared by the requests
      */
-    private static void findMultipleAndEliminate(Matrix original, Matrix augment, int sourceRow, int targetRow) {
-        double factor = original.getRow(targetRow)[sourceRow];
-        if (factor == 0.0)
+    static void runRequests(CalculationRequest[] requests, CountDownLatch latch) {
+        if (requests.length == 1) {
+            requests[0].calculate();
             return;
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (CalculationRequest request : requests) {
+            giveRequest(() -> {
+                try {
+                    request.calculate();
+                } catch (Throwable e) {
+                    // Keep the worker alive and release the caller, which gets the exception
+                    failure.compareAndSet(null, e);
+                    latch.countDown();
+                }
+            });
+        }
         try {
-            double lFactor = factor / original.getRow(sourceRow)[sourceRow];    //throw exception if divider is 0(don't have inverse)
-            original.addMultiplesToRow(sourceRow, targetRow, -lFactor);
-            augment.addMultiplesToRow(sourceRow, targetRow, -lFactor);
-        } catch (ArithmeticException arithmeticException) {
-            throw new NoInverseException("This matrix can not be inverted?");
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
         }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        if (e instanceof Error error)
+            throw error;
+        if (e != null)
+            throw new RuntimeException(e);
     }
 
     /**
@@ -399,11 +800,63 @@ public class Matrix {
     public static double determinant(Matrix matrix) throws MatrixDimensionsNotMatchException {
         if (!matrix.isSquareMatrix())
             throw new MatrixDimensionsNotMatchException("A square matrix is required!");
-        Matrix u = Matrix.luDecomposition(matrix).u();
+        return determinant(Matrix.luDecomposition(matrix));
+    }
+
+    /**
+     * Find the determinant of the matrix (Square matrix only)
+     * <br>
+     * This version is multiThreaded, the result is identical to {@code determinant}.
+     *
+     * @param matrix THe matrix to find its determinant
+     * @return The determinant of the square matrix
+     * @throws MatrixDimensionsNotMatchException if it is not a square matrix
+     * @see Matrix#determinant(Matrix)
+     */
+    public static double parallelDeterminant(Matrix matrix) throws MatrixDimensionsNotMatchException {
+        if (!matrix.isSquareMatrix())
+            throw new MatrixDimensionsNotMatchException("A square matrix is required!");
+        return determinant(Matrix.parallelLuDecomposition(matrix));
+    }
+
+    /**
+     * Find the determinant from a LU Decomposition, the product of the diagonal of U
+     * with the sign of the row swaps recorded in P
+     *
+     * @param lu The decomposition
+     * @return The determinant
+     */
+    private static double determinant(LUMatrixGroup lu) {
+        Matrix u = lu.u();
         double determinant = 1.0;
         for (int i = 0; i < u.numOfRows; i++)
             determinant *= u.getDatum(i, i);
-        return determinant;
+        return permutationSign(lu.p()) * determinant;
+    }
+
+    /**
+     * Find the sign (+1 or -1) of a permutation matrix by counting its cycles
+     *
+     * @param permutation The permutation matrix
+     * @return The sign of the permutation
+     */
+    private static int permutationSign(Matrix permutation) {
+        int size = permutation.numOfRows;
+        int[] target = new int[size];
+        for (int row = 0; row < size; row++)
+            for (int column = 0; column < size; column++)
+                if (permutation.data[row * size + column] != 0)
+                    target[row] = column;
+        boolean[] visited = new boolean[size];
+        int cycles = 0;
+        for (int i = 0; i < size; i++) {
+            if (visited[i])
+                continue;
+            cycles++;
+            for (int j = i; !visited[j]; j = target[j])
+                visited[j] = true;
+        }
+        return (size - cycles) % 2 == 0 ? 1 : -1;
     }
 
     /**
@@ -433,7 +886,13 @@ public class Matrix {
      * @see Matrix#multiplication(Matrix, Matrix)
      */
     public static Matrix clMultiplication(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
-        return clInteractor.clMultiply(matrixA, matrixB);
+        // The kernels do not check the sizes, so the device and the CPU must reject the same operands here
+        if (matrixA.numOfColumns != matrixB.numOfRows)
+            throw new MatrixDimensionsNotMatchException();
+        // OpenCL is probed on first use, every cl operation below runs on the CPU when it cannot be used
+        if (!openCLUsable())
+            return autoMultiplication(matrixA, matrixB);
+        return clInteractor().clMultiply(matrixA, matrixB);
     }
 
     /**
@@ -445,11 +904,195 @@ public class Matrix {
      * @param weights   The weight matrix
      * @param inputs    The input matrix
      * @param bias      The bias matrix
-     * @param mode      The mode used to activate
+     * @param mode      The mode used to activate: 0 LeakyReLU, 1 Sigmoid, 2 Step, 3 Tanh, 4 SoftPlus, 5 GELU, otherwise none, see {@link Activation#getMode()}
+     * @return The result
+     * @throws IllegalArgumentException if the sizes of the operands do not match, use
+     *                                  {@link #clForwardPass(Matrix, Matrix, Matrix, Activation)} for the checked exception
+     */
+    public static Matrix clForwardPass(Matrix weights, Matrix inputs, Matrix bias, int mode) {
+        try {
+            return clForwardPass(weights, inputs, bias, Activation.ofMode(mode));
+        } catch (MatrixDimensionsNotMatchException e) {
+            throw new IllegalArgumentException("The sizes of the operands do not match", e);
+        }
+    }
+
+    /**
+     * Multiply two matrix together, add the third matrix and activate the final matrix, this version use
+     * OpenCL implementation.
+     *
+     * @param weights    The weight matrix
+     * @param inputs     The input matrix
+     * @param bias       The bias matrix
+     * @param activation The activation
      * @return The result
+     * @throws MatrixDimensionsNotMatchException
+     * @see Matrix#forwardPass(Matrix, Matrix, Matrix, Activation)
+     */
+    public static Matrix clForwardPass(Matrix weights, Matrix inputs, Matrix bias, Activation activation) throws MatrixDimensionsNotMatchException {
+        checkForwardPass(weights, inputs, bias);
+        if (!openCLUsable())
+            return forwardPass(weights, inputs, bias, activation);
+        return clInteractor().clForwardPass(weights, inputs, bias, activation.getMode());
+    }
+
+    /**
+     * Apply an activation to every entry and return the result as a new matrix.
+     * Large matrix are processed on the worker threads.
+     *
+     * @param matrix     The matrix
+     * @param activation The activation
+     * @param precision  The exact functions, or their fast approximations
+     * @return The new matrix
+     * @see ActivationPrecision
+     */
+    public static Matrix activate(Matrix matrix, Activation activation, ActivationPrecision precision) {
+        return matrix.map(activation.operator(precision));
+    }
+
+    /**
+     * The softmax of every row, {@code e^x / sum(e^x)} over the row, computed after subtracting the largest
+     * entry of the row so that no exponential overflows.
+     * Large matrix are processed on the worker threads, a range of rows each.
+     *
+     * @param matrix    The matrix
+     * @param precision The exact exponential, or its fast approximation
+     * @return The new matrix, whose rows sum to 1
+     * @see ActivationPrecision
+     */
+    public static Matrix softmax(Matrix matrix, ActivationPrecision precision) {
+        Matrix result = new Matrix(matrix.numOfRows, matrix.numOfColumns);
+        ElementwiseEngine.softmax(matrix, result, precision == ActivationPrecision.FAST ? ElementwiseOperators.FAST_EXP : ElementwiseOperators.EXP);
+        return result;
+    }
+
+    /**
+     * Compute {@code activation(weights x inputs + bias)} on the CPU in a single fused pass: every tile of the
+     * result starts from the bias, accumulates the products and is activated while still in cache.
+     * The tiles are spread over the worker threads.
+     *
+     * @param weights    The weight matrix, M x K
+     * @param inputs     The input matrix, K x N, one sample per column
+     * @param bias       The bias matrix, M x N, or M x 1 to add the same bias to every sample
+     * @param activation The activation
+     * @return The result, M x N
+     * @throws MatrixDimensionsNotMatchException if the sizes of the operands do not match
+     * @see Matrix#clForwardPass(Matrix, Matrix, Matrix, Activation)
+     */
+    public static Matrix forwardPass(Matrix weights, Matrix inputs, Matrix bias, Activation activation) throws MatrixDimensionsNotMatchException {
+        checkForwardPass(weights, inputs, bias);
+        Matrix result = new Matrix(weights.numOfRows, inputs.numOfColumns);
+        ForwardPassEngine.forwardPass(weights, inputs, bias, activation, result);
+        return result;
+    }
+
+    /**
+     * Check the operands of a forward pass, the bias is M x N or an M x 1 column added to every column
+     */
+    private static void checkForwardPass(Matrix weights, Matrix inputs, Matrix bias) throws MatrixDimensionsNotMatchException {
+        if (weights.numOfColumns != inputs.numOfRows || bias.numOfRows != weights.numOfRows
+                || (bias.numOfColumns != inputs.numOfColumns && bias.numOfColumns != 1))
+            throw new MatrixDimensionsNotMatchException();
+    }
+
+    /**
+     * Add two matrix together, this version use OpenCL implementation.
+     *
+     * @param m1 The first matrix
+     * @param m2 The second matrix
+     * @return The sum
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     * @see Matrix#addition(Matrix, Matrix)
+     */
+    public static Matrix clAddition(Matrix m1, Matrix m2) throws MatrixDimensionsNotMatchException {
+        if (!openCLUsable())
+            return autoAddition(m1, m2);
+        return clInteractor().clAdd(m1, m2);
+    }
+
+    /**
+     * Subtract the second matrix from the first one, this version use OpenCL implementation.
+     *
+     * @param m1 The first matrix
+     * @param m2 The second matrix
+     * @return The difference
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     * @see Matrix#subtraction(Matrix, Matrix)
+     */
+    public static Matrix clSubtraction(Matrix m1, Matrix m2) throws MatrixDimensionsNotMatchException {
+        if (!openCLUsable())
+            return subtraction(m1, m2);
+        return clInteractor().clSubtract(m1, m2);
+    }
+
+    /**
+     * Multiply two matrix entry by entry (Hadamard product), this version use OpenCL implementation.
+     *
+     * @param m1 The first matrix
+     * @param m2 The second matrix
+     * @return The Hadamard product
+     * @throws MatrixDimensionsNotMatchException if the matrices do not have the same size
+     */
+    public static Matrix clHadamardProduct(Matrix m1, Matrix m2) throws MatrixDimensionsNotMatchException {
+        if (!openCLUsable())
+            return m1.zip(m2, ElementwiseOperators.MULTIPLY);
+        return clInteractor().clHadamard(m1, m2);
+    }
+
+    /**
+     * Multiply every entry by a scale, this version use OpenCL implementation.
+     *
+     * @param matrix The matrix
+     * @param scale  The scale
+     * @return The scaled matrix
+     * @see Matrix#scalarMultiplication(Matrix, double)
+     */
+    public static Matrix clScalarMultiplication(Matrix matrix, double scale) {
+        if (!openCLUsable())
+            return scalarMultiplication(matrix, scale);
+        return clInteractor().clScale(matrix, scale);
+    }
+
+    /**
+     * Transpose a matrix, this version use OpenCL implementation with a local memory tiled kernel.
+     *
+     * @param matrix The matrix
+     * @return The transpose
+     * @see Matrix#transpose(Matrix)
+     */
+    public static Matrix clTranspose(Matrix matrix) {
+        if (!openCLUsable())
+            return transpose(matrix);
+        return clInteractor().clTranspose(matrix);
+    }
+
+    /**
+     * Reduce every entry of a matrix to one value, this version use OpenCL implementation.
+     *
+     * @param matrix    The matrix
+     * @param reduction SUM, MEAN, MIN, MAX, ABSOLUTE_SUM or NORM
+     * @return The reduced value
+     * @throws UnsupportedOperationException for ARG_MIN and ARG_MAX
+     * @see Matrix#reduce(Reduction)
+     */
+    public static double clReduce(Matrix matrix, Reduction reduction) {
+        if (!openCLUsable())
+            return matrix.reduce(reduction);
+        return clInteractor().clReduce(matrix, reduction);
+    }
+
+    /**
+     * Convoluted the two matrix together, this version use OpenCL implementation.
+     *
+     * @param m1 The first matrix
+     * @param m2 The kernel/mask/convolution matrix
+     * @return The result matrix
+     * @see Matrix#convolution(Matrix, Matrix)
      */
-    public static Matrix clForwardPass(Matrix weights, Matrix inputs, Matrix bias, int mode){
-        return clInteractor.clForwardPass(weights, inputs, bias, mode);
+    public static Matrix clConvolution(Matrix m1, Matrix m2) {
+        if (!openCLUsable())
+            return convolution(m1, m2);
+        return clInteractor().clConvolve(m1, m2);
     }
 
     /**
@@ -472,7 +1115,7 @@ public class Matrix {
         // Use this to ensure Matrix multiply correctly
         CountDownLatch latch = new CountDownLatch(result.numOfRows);
         for (int i = 0; i < result.getNumOfRows(); i++) {
-            pm.giveRequest(new MultiplyRequest(result, matrixA, matrixB, i, latch));
+            giveRequest(new MultiplyRequest(result, matrixA, matrixB, i, latch));
         }
         try {
             latch.await();
@@ -498,7 +1141,7 @@ public class Matrix {
         Matrix result = new Matrix(ensureSameSize(m1, m2));
         CountDownLatch latch = new CountDownLatch(result.numOfRows);
         for (int i = 0; i < result.numOfRows; i++) {
-            pm.giveRequest(new AdditionRequest(result, m1, m2, i, latch));
+            giveRequest(new AdditionRequest(result, m1, m2, i, latch));
         }
         try {
             latch.await();
@@ -508,6 +1151,73 @@ public class Matrix {
         return result;
     }
 
+    /**
+     * Multiply two matrix together and return a new Matrix.
+     * The matrix must meet the requirement for multiplying Matrix.
+     * <p>
+     * The serial, multithreaded or OpenCL implementation is chosen per call by the {@code BackendDispatcher}
+     * from the shape of the matrix, whether OpenCL is enabled and the throughput measured so far.
+     *
+     * @param matrixA The first matrix
+     * @param matrixB The second matrix
+     * @return The result of the multiplication
+     * @throws MatrixDimensionsNotMatchException
+     * @see Matrix#getDispatcher()
+     */
+    public static Matrix autoMultiplication(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        if (matrixA.numOfColumns != matrixB.numOfRows)
+            throw new MatrixDimensionsNotMatchException();
+        double work = 2.0 * matrixA.numOfRows * matrixA.numOfColumns * matrixB.numOfColumns;
+        double bytes = (double) Double.BYTES * (matrixA.getNumOfEntries() + matrixB.getNumOfEntries() + (double) matrixA.numOfRows * matrixB.numOfColumns);
+        return dispatcher.execute(BackendDispatcher.Operation.MULTIPLICATION, work, bytes, matrixA.numOfRows, isOpenCLEnabled(),
+                backend -> switch (backend) {
+                    case SERIAL -> multiplication(matrixA, matrixB);
+                    case MULTI_THREADED -> multiThreadedMultiplication(matrixA, matrixB);
+                    case OPENCL -> clMultiplication(matrixA, matrixB);
+                });
+    }
+
+    /**
+     * Add two matrix, using the serial, multithreaded or OpenCL implementation chosen by the {@code BackendDispatcher}
+     *
+     * @param m1 The first matrix
+     * @param m2 The second matrix
+     * @return answer
+     * @throws MatrixDimensionsNotMatchException
+     * @see Matrix#getDispatcher()
+     */
+    public static Matrix autoAddition(Matrix m1, Matrix m2) throws MatrixDimensionsNotMatchException {
+        ensureSameSize(m1, m2);
+        double work = m1.getNumOfEntries();
+        double bytes = 3.0 * Double.BYTES * m1.getNumOfEntries();
+        // The device is offered as for the multiplication, its transfer cost usually keeps additions on the CPU
+        return dispatcher.execute(BackendDispatcher.Operation.ADDITION, work, bytes, m1.numOfRows, isOpenCLEnabled(),
+                backend -> switch (backend) {
+                    case SERIAL -> addition(m1, m2);
+                    case MULTI_THREADED -> multiThreadedAddition(m1, m2);
+                    case OPENCL -> clAddition(m1, m2);
+                });
+    }
+
+    /**
+     * Get the dispatcher used by the {@code auto} operations, to set overrides and read which backend ran
+     *
+     * @return The dispatcher
+     */
+    public static BackendDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Check if OpenCL has been enabled and is ready to be used
+     *
+     * @return true if {@code enableOpenCL} has been called successfully
+     */
+    public static boolean isOpenCLEnabled() {
+        OpenCLInteractor interactor = clInteractor;
+        return interactor != null && interactor.isInitialized();
+    }
+
     /**
      * Convoluted the two matrix together
      * @param m1 The first matrix
@@ -523,7 +1233,7 @@ public class Matrix {
         //Multithreaded convolution
         CountDownLatch latch = new CountDownLatch(resultRow*resultCol);
         for(int i = 0; i<result.getNumOfEntries();i++){
-            pm.giveRequest(new ConvolutionRequest(result, m1, m2, i, latch));
+            giveRequest(new ConvolutionRequest(result, m1, m2, i, latch));
         }
         try {
             latch.await();
@@ -548,16 +1258,178 @@ public class Matrix {
         return result;
     }
 
-    public static void enableOpenCL() {
-        clInteractor.initialize();
+    /**
+     * Initialize OpenCL for the {@code cl} operations. It never throws: when there is no platform or the
+     * initialization fails, the reason is logged and the {@code cl} operations keep running on the CPU.
+     *
+     * @return true if OpenCL is ready to be used
+     * @see Matrix#getOpenCLUnavailableReason()
+     */
+    public static boolean enableOpenCL() {
+        synchronized (Matrix.class) {
+            openCLDisabled = false;
+            openCLUnavailableReason = null;
+        }
+        return openCLUsable();
     }
 
+    /**
+     * Release the OpenCL resources, the {@code cl} operations run on the CPU until {@code enableOpenCL} is called again
+     */
     public static void disableOpenCL() {
-        clInteractor.exit();
+        synchronized (Matrix.class) {
+            openCLDisabled = true;
+            OpenCLInteractor interactor = clInteractor;
+            if (interactor != null && interactor.isInitialized())
+                interactor.exit();
+        }
+    }
+
+    /**
+     * Get why the {@code cl} operations run on the CPU
+     *
+     * @return The reason, {@code null} if OpenCL is usable or has not been probed yet
+     */
+    public static String getOpenCLUnavailableReason() {
+        return openCLDisabled ? "OpenCL has been disabled" : openCLUnavailableReason;
+    }
+
+    /**
+     * Check whether the {@code cl} operations can run on OpenCL, initializing it on the first call.
+     * A failed initialization is logged once and not retried until {@code enableOpenCL} is called.
+     *
+     * @return true if OpenCL is initialized
+     */
+    static boolean openCLUsable() {
+        if (isOpenCLEnabled())
+            return true;
+        if (openCLDisabled || openCLUnavailableReason != null)
+            return false;
+        synchronized (Matrix.class) {
+            if (isOpenCLEnabled())
+                return true;
+            if (openCLDisabled || openCLUnavailableReason != null)
+                return false;
+            try {
+                clInteractor().initialize();
+                return true;
+            } catch (RuntimeException | LinkageError e) {
+                // LinkageError: the OpenCL library itself cannot be loaded
+                openCLUnavailableReason = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                LOGGER.warning("OpenCL is not available, the cl operations run on the CPU: " + openCLUnavailableReason);
+                return false;
+            }
+        }
+    }
+
+
+    /**
+     * Stop all library worker threads. The pool is created again by the next parallel operation.
+     */
+    public static synchronized void stopLibraryWorker() {
+        ParallelMatrixMonitor monitor = pm;
+        if (monitor != null) {
+            // Unpublish first, under the lock of monitor(), so no caller can take the stopped monitor afterwards
+            pm = null;
+            monitor.stopWorkers();
+        }
     }
 
-    public static void stopLibraryWorker() {
-        pm.stopWorkers();
+    /**
+     * Get the number of library worker threads currently alive, useful to observe the lazy
+     * start and the idle shrinking of the worker pool
+     *
+     * @return The number of live worker threads, 0 if the pool has not been started
+     */
+    public static int getNumOfLiveWorkers() {
+        ParallelMatrixMonitor monitor = pm;
+        return monitor == null ? 0 : monitor.getNumOfLiveWorkers();
+    }
+
+    /**
+     * Check whether the worker pool has been created
+     *
+     * @return true if a parallel operation has started the worker pool
+     */
+    public static boolean isLibraryWorkerStarted() {
+        return pm != null;
+    }
+
+    /**
+     * Get the worker monitor, creating it on first use
+     *
+     * @return The monitor of the library worker threads
+     */
+    static ParallelMatrixMonitor monitor() {
+        ParallelMatrixMonitor monitor = pm;
+        if (monitor == null) {
+            synchronized (Matrix.class) {
+                monitor = pm;
+                if (monitor == null) {
+                    monitor = new ParallelMatrixMonitor(NUM_OF_THREADS);
+                    pm = monitor;
+                    registerShutdownHook();
+                }
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Give a request to the worker threads. A caller may have taken the monitor just before
+     * {@code stopLibraryWorker}, the stopped monitor still calculates what it queued and rejects the rest,
+     * which goes to the monitor started in its place.
+     *
+     * @param request The request
+     */
+    static void giveRequest(CalculationRequest request) {
+        // Only a stop in between rejects the request, monitor() then returns the new monitor
+        while (!monitor().offerRequest(request))
+            Thread.onSpinWait();
+    }
+
+    /**
+     * Get the OpenCL interactor used by the {@code cl} operations, to configure it and read its statistics
+     *
+     * @return The interactor
+     */
+    public static OpenCLInteractor getOpenCLInteractor() {
+        return clInteractor();
+    }
+
+    /**
+     * Get the OpenCL interactor, creating it on first use
+     *
+     * @return The interactor
+     */
+    static OpenCLInteractor clInteractor() {
+        OpenCLInteractor interactor = clInteractor;
+        if (interactor == null) {
+            synchronized (Matrix.class) {
+                interactor = clInteractor;
+                if (interactor == null) {
+                    interactor = new OpenCLInteractor();
+                    clInteractor = interactor;
+                    registerShutdownHook();
+                }
+            }
+        }
+        return interactor;
+    }
+
+    /**
+     * Make sure workers are stopped and OpenCL resources are released when the JVM exits,
+     * even if the caller never calls {@code stopLibraryWorker} or {@code disableOpenCL}
+     */
+    private static void registerShutdownHook() {
+        if (shutdownHookRegistered)
+            return;
+        shutdownHookRegistered = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopLibraryWorker();
+            if (isOpenCLEnabled())
+                clInteractor.exit();
+        }, "matrix-shutdown"));
     }
 
     /**
@@ -703,6 +1575,24 @@ public class Matrix {
         setRow(targetRow, tempRow);
     }
 
+    /**
+     * Swap part of two rows in place
+     *
+     * @param sourceRow  The source row
+     * @param targetRow  The target row to swap
+     * @param fromColumn The first column to swap
+     * @param toColumn   The column after the last column to swap
+     */
+    private void swapRowRange(int sourceRow, int targetRow, int fromColumn, int toColumn) {
+        int source = sourceRow * numOfColumns;
+        int target = targetRow * numOfColumns;
+        for (int i = fromColumn; i < toColumn; i++) {
+            double temp = data[source + i];
+            data[source + i] = data[target + i];
+            data[target + i] = temp;
+        }
+    }
+
     /**
      * Swap columns in this Matrix
      *
@@ -787,6 +1677,120 @@ public class Matrix {
         return this;
     }
 
+    /**
+     * Reduce all entries of this matrix.
+     * <br>
+     * Large matrix are reduced on the worker threads, the result is the same as the single threaded one.
+     *
+     * @param reduction The reduction
+     * @return The result, for {@code ARG_MIN} and {@code ARG_MAX} the row major index of the entry
+     */
+    public double reduce(Reduction reduction) {
+        return MatrixReductions.reduce(this, reduction);
+    }
+
+    /**
+     * Reduce every row of this matrix
+     *
+     * @param reduction The reduction
+     * @return A column vector with the result of each row, for {@code ARG_MIN} and {@code ARG_MAX} the column number
+     */
+    public Matrix reduceRows(Reduction reduction) {
+        return MatrixReductions.reduceRows(this, reduction);
+    }
+
+    /**
+     * Reduce every column of this matrix
+     *
+     * @param reduction The reduction
+     * @return A row vector with the result of each column, for {@code ARG_MIN} and {@code ARG_MAX} the row number
+     */
+    public Matrix reduceColumns(Reduction reduction) {
+        return MatrixReductions.reduceColumns(this, reduction);
+    }
+
+    /**
+     * Get the sum of all entries
+     *
+     * @return The sum
+     */
+    public double sum() {
+        return reduce(Reduction.SUM);
+    }
+
+    /**
+     * Get the mean of all entries
+     *
+     * @return The mean
+     */
+    public double mean() {
+        return reduce(Reduction.MEAN);
+    }
+
+    /**
+     * Get the smallest entry
+     *
+     * @return The smallest entry
+     */
+    public double min() {
+        return reduce(Reduction.MIN);
+    }
+
+    /**
+     * Get the largest entry
+     *
+     * @return The largest entry
+     */
+    public double max() {
+        return reduce(Reduction.MAX);
+    }
+
+    /**
+     * Get the position of the smallest entry, the first one if there is a tie
+     *
+     * @return The position
+     */
+    public MatrixIndex argMin() {
+        int index = (int) reduce(Reduction.ARG_MIN);
+        return new MatrixIndex(index / numOfColumns, index % numOfColumns);
+    }
+
+    /**
+     * Get the position of the largest entry, the first one if there is a tie
+     *
+     * @return The position
+     */
+    public MatrixIndex argMax() {
+        int index = (int) reduce(Reduction.ARG_MAX);
+        return new MatrixIndex(index / numOfColumns, index % numOfColumns);
+    }
+
+    /**
+     * Get a norm of this matrix
+     *
+     * @param normType The norm
+     * @return The norm
+     * @see NormType
+     */
+    public double norm(NormType normType) {
+        return MatrixReductions.norm(this, normType);
+    }
+
+    /**
+     * Get the trace (sum of the diagonal) of this matrix (Square matrix only)
+     *
+     * @return The trace
+     * @throws MatrixDimensionsNotMatchException if it is not a square matrix
+     */
+    public double trace() throws MatrixDimensionsNotMatchException {
+        if (!isSquareMatrix())
+            throw new MatrixDimensionsNotMatchException("A square matrix is required!");
+        double trace = 0;
+        for (int i = 0; i < numOfRows; i++)
+            trace += data[i * numOfColumns + i];
+        return trace;
+    }
+
     /**
      * Initialize this matrix as an Identity matrix
      * <br>
@@ -885,13 +1889,101 @@ public class Matrix {
      * <br>
      * Example: {@code matrix.forEach(e => e+1);}
      *
-     * @param function The function to perform
+     * @param function The function to perform, called on the calling thread in entry order
+     * @deprecated boxes every entry, use {@link #mapInPlace(DoubleUnaryOperator)} instead
      */
+    @Deprecated
     public void forEach(DoubleFunction<Double> function) {
         for (int i = 0; i < data.length; i++)
             data[i] = function.apply(data[i]);
     }
 
+    /**
+     * Apply an operator to every entry and return the result as a new matrix
+     * <br>
+     * Example: {@code matrix.map(e -> e + 1);} or {@code matrix.map(ElementwiseOperators.SIGMOID);}
+     * <p>
+     * Large matrix are processed on the worker threads.
+     *
+     * @param operator The operator, see {@code ElementwiseOperators} for built-in ones
+     * @return The new matrix
+     */
+    public Matrix map(DoubleUnaryOperator operator) {
+        Matrix result = new Matrix(numOfRows, numOfColumns);
+        ElementwiseEngine.map(this, result, operator);
+        return result;
+    }
+
+    /**
+     * Apply an operator to every entry of this matrix (in-place)
+     *
+     * @param operator The operator, see {@code ElementwiseOperators} for built-in ones
+     * @return this matrix
+     * @see Matrix#map(DoubleUnaryOperator)
+     */
+    public Matrix mapInPlace(DoubleUnaryOperator operator) {
+        ElementwiseEngine.map(this, this, operator);
+        return this;
+    }
+
+    /**
+     * Combine the entries of this matrix with the entries at the same position in another matrix,
+     * and return the result as a new matrix
+     * <br>
+     * Example: {@code a.zip(b, (x, y) -> x * y);} or {@code a.zip(b, ElementwiseOperators.MULTIPLY);}
+     *
+     * @param other    The other matrix
+     * @param operator The operator, this matrix's entry is the left operand
+     * @return The new matrix
+     * @throws MatrixDimensionsNotMatchException
+     */
+    public Matrix zip(Matrix other, DoubleBinaryOperator operator) throws MatrixDimensionsNotMatchException {
+        Matrix result = new Matrix(ensureSameSize(this, other));
+        ElementwiseEngine.zip(this, other, result, operator);
+        return result;
+    }
+
+    /**
+     * Combine the entries of this matrix with the entries at the same position in another matrix (in-place)
+     *
+     * @param other    The other matrix
+     * @param operator The operator, this matrix's entry is the left operand
+     * @return this matrix
+     * @throws MatrixDimensionsNotMatchException
+     * @see Matrix#zip(Matrix, DoubleBinaryOperator)
+     */
+    public Matrix zipInPlace(Matrix other, DoubleBinaryOperator operator) throws MatrixDimensionsNotMatchException {
+        ensureSameSize(this, other);
+        ElementwiseEngine.zip(this, other, this, operator);
+        return this;
+    }
+
+    /**
+     * Apply an operator that also receives the row and column of every entry, and return the result as a new matrix
+     * <br>
+     * Example: {@code matrix.mapIndexed((row, column, e) -> row == column ? e : 0);}
+     *
+     * @param operator The operator
+     * @return The new matrix
+     */
+    public Matrix mapIndexed(IndexedDoubleOperator operator) {
+        Matrix result = new Matrix(numOfRows, numOfColumns);
+        ElementwiseEngine.mapIndexed(this, result, operator);
+        return result;
+    }
+
+    /**
+     * Apply an operator that also receives the row and column of every entry (in-place)
+     *
+     * @param operator The operator
+     * @return this matrix
+     * @see Matrix#mapIndexed(IndexedDoubleOperator)
+     */
+    public Matrix mapIndexedInPlace(IndexedDoubleOperator operator) {
+        ElementwiseEngine.mapIndexed(this, this, operator);
+        return this;
+    }
+
     /**
      * Get the data array of this matrix
      *
@@ -1017,4 +2109,121 @@ class ConvolutionRequest extends BaseRequest{
         container.setDatum(lrow, lcol, sum);
         latch.countDown();
     }
-}
\ No newline at end of file
+}
+/**
+ * A Request that adds a range of rows of A and B to a tall-skinny QR accumulator
+ */
+class TSQRRequest extends MultiRowRequest {
+    private final TallSkinnyQR accumulator;
+
+    public TSQRRequest(TallSkinnyQR accumulator, Matrix a, Matrix b, int fromRow, int toRow, CountDownLatch latch) {
+        super(null, a, b, fromRow, toRow, latch);
+        this.accumulator = accumulator;
+    }
+
+    @Override
+    public void calculate() {
+        accumulator.add(matrixA, matrixB, row, toRow);
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that applies the pivots of a panel to a range of columns right of the panel.
+ * <p>
+ * The rows of the panel are finished first (the U12 block) and then used to update every row below
+ * the panel. Column ranges do not depend on each other, so the requests of a panel can run in any order.
+ */
+class LUUpdateRequest extends BaseRequest {
+    private final int panelStart;
+    private final int panelEnd;
+    private final int fromColumn;
+    private final int toColumn;
+
+    public LUUpdateRequest(Matrix upper, Matrix lower, int panelStart, int panelEnd, int fromColumn, int toColumn, CountDownLatch latch) {
+        super(upper, lower, null, panelStart, latch);
+        this.panelStart = panelStart;
+        this.panelEnd = panelEnd;
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+    }
+
+    @Override
+    public void calculate() {
+        double[] u = container.getData();
+        double[] l = matrixA.getData();
+        int columns = container.getNumOfColumns();
+        int lColumns = matrixA.getNumOfColumns();
+        // Finish the rows of the panel, each needs the pivots above it within the panel
+        for (int row = panelStart + 1; row < panelEnd; row++)
+            applyPivots(u, l, columns, lColumns, row, row);
+        // Rank-k update of the trailing sub-matrix
+        for (int row = panelEnd; row < container.getNumOfRows(); row++)
+            applyPivots(u, l, columns, lColumns, row, panelEnd);
+        latch.countDown();
+    }
+
+    private void applyPivots(double[] u, double[] l, int columns, int lColumns, int row, int lastPivot) {
+        int offset = row * columns;
+        for (int pivot = panelStart; pivot < lastPivot; pivot++) {
+            double lFactor = l[row * lColumns + pivot];
+            if (lFactor == 0.0)
+                continue;
+            int pivotOffset = pivot * columns;
+            for (int column = fromColumn; column < toColumn; column++)
+                u[offset + column] -= lFactor * u[pivotOffset + column];
+        }
+    }
+}
+
+/**
+ * A Request that solves {@code L x U x X = P} for a range of columns of X, used to find the inverse.
+ */
+class LUSolveRequest extends BaseRequest {
+    private final Matrix permutation;
+    private final int fromColumn;
+    private final int toColumn;
+
+    public LUSolveRequest(Matrix container, LUMatrixGroup lu, int fromColumn, int toColumn, CountDownLatch latch) {
+        super(container, lu.l(), lu.u(), fromColumn, latch);
+        this.permutation = lu.p();
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+    }
+
+    @Override
+    public void calculate() {
+        int size = container.getNumOfRows();
+        int width = toColumn - fromColumn;
+        double[] l = matrixA.getData();
+        double[] u = matrixB.getData();
+        double[] p = permutation.getData();
+        // Work on a row major block of the right hand side so the inner loops are contiguous
+        double[] x = new double[size * width];
+        for (int row = 0; row < size; row++)
+            System.arraycopy(p, row * size + fromColumn, x, row * width, width);
+        // Forward substitution, L has a unit diagonal
+        for (int row = 1; row < size; row++)
+            for (int k = 0; k < row; k++)
+                subtractRow(x, row, k, l[row * size + k], width);
+        // Backward substitution
+        for (int row = size - 1; row >= 0; row--) {
+            for (int k = row + 1; k < size; k++)
+                subtractRow(x, row, k, u[row * size + k], width);
+            double diagonal = u[row * size + row];
+            for (int i = 0; i < width; i++)
+                x[row * width + i] /= diagonal;
+        }
+        double[] result = container.getData();
+        for (int row = 0; row < size; row++)
+            System.arraycopy(x, row * width, result, row * size + fromColumn, width);
+        latch.countDown();
+    }
+
+    private static void subtractRow(double[] x, int row, int sourceRow, double factor, int width) {
+        if (factor == 0.0)
+            return;
+        for (int i = 0; i < width; i++)
+            x[row * width + i] -= factor * x[sourceRow * width + i];
+    }
+}
@@ -0,0 +1,10 @@
+package objects;
+
+/**
+ * The position of an entry in a {@code Matrix}
+ *
+ * @param row    The row number
+ * @param column The column number
+ */
+public record MatrixIndex(int row, int column) {
+}
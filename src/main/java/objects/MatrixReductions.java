@@ -0,0 +1,485 @@
+package objects;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Reductions behind {@code Matrix.reduce}, {@code Matrix.reduceRows}, {@code Matrix.reduceColumns} and {@code Matrix.norm}.
+ * <p>
+ * The data is cut into fixed size chunks whatever the number of threads, each chunk is reduced into a partial
+ * result and the partials are combined pairwise as a tree. The result therefore does not depend on whether the
+ * reduction ran on the worker threads, and the pairwise combination keeps the rounding error of long sums low.
+ * Column reductions walk the matrix row by row and accumulate into a row of partials, so the inner loop is
+ * contiguous and free of loop-carried dependencies.
+ */
+final class MatrixReductions {
+
+    /**
+     * Number of entries reduced into one partial result
+     */
+    static final int CHUNK_SIZE = 4096;
+    /**
+     * Reductions over fewer entries are not worth waking the workers for
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int MAX_POWER_ITERATIONS = 1000;
+    private static final double POWER_ITERATION_TOLERANCE = 1e-13;
+
+    private MatrixReductions() {
+    }
+
+    /**
+     * Reduce all entries of the matrix
+     *
+     * @param matrix    The matrix
+     * @param reduction The reduction
+     * @return The result, the flat (row major) index for {@code ARG_MIN} and {@code ARG_MAX}
+     */
+    static double reduce(Matrix matrix, Reduction reduction) {
+        double[] data = matrix.getData();
+        int numOfChunks = Math.max(1, (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        // column 0 holds the partial value, column 1 the partial index
+        Matrix partials = Matrix.createNewEmptyMatrix(numOfChunks, 2);
+        int numOfRequests = numOfRequests(data.length, numOfChunks);
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        ChunkReductionRequest[] requests = new ChunkReductionRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new ChunkReductionRequest(partials, matrix, split(numOfChunks, numOfRequests, i), split(numOfChunks, numOfRequests, i + 1), reduction, latch);
+        Matrix.runRequests(requests, latch);
+
+        double[] values = partials.getData();
+        for (int stride = 1; stride < numOfChunks; stride *= 2)
+            for (int i = 0; i + stride < numOfChunks; i += 2 * stride)
+                merge(values, 2 * i, values, 2 * i + 1, values, 2 * (i + stride), values, 2 * (i + stride) + 1, reduction);
+        return finish(reduction, values[0], values[1], data.length);
+    }
+
+    /**
+     * Reduce every row of the matrix
+     *
+     * @param matrix    The matrix
+     * @param reduction The reduction
+     * @return A column vector with one result per row, column numbers for {@code ARG_MIN} and {@code ARG_MAX}
+     */
+    static Matrix reduceRows(Matrix matrix, Reduction reduction) {
+        Matrix result = Matrix.createNewEmptyColumnVector(matrix.getNumOfRows());
+        int numOfRequests = numOfRequests(matrix.getNumOfEntries(), matrix.getNumOfRows());
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        RowReductionRequest[] requests = new RowReductionRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new RowReductionRequest(result, matrix, split(matrix.getNumOfRows(), numOfRequests, i), split(matrix.getNumOfRows(), numOfRequests, i + 1), reduction, latch);
+        Matrix.runRequests(requests, latch);
+        return result;
+    }
+
+    /**
+     * Reduce every column of the matrix
+     *
+     * @param matrix    The matrix
+     * @param reduction The reduction
+     * @return A row vector with one result per column, row numbers for {@code ARG_MIN} and {@code ARG_MAX}
+     */
+    static Matrix reduceColumns(Matrix matrix, Reduction reduction) {
+        int columns = matrix.getNumOfColumns();
+        int blockRows = Math.max(1, CHUNK_SIZE / Math.max(1, columns));
+        int numOfBlocks = Math.max(1, (matrix.getNumOfRows() + blockRows - 1) / blockRows);
+        Matrix values = Matrix.createNewEmptyMatrix(numOfBlocks, columns);
+        Matrix indices = isArg(reduction) ? Matrix.createNewEmptyMatrix(numOfBlocks, columns) : null;
+        int numOfRequests = numOfRequests(matrix.getNumOfEntries(), numOfBlocks);
+        CountDownLatch latch = new CountDownLatch(numOfRequests);
+        ColumnReductionRequest[] requests = new ColumnReductionRequest[numOfRequests];
+        for (int i = 0; i < numOfRequests; i++)
+            requests[i] = new ColumnReductionRequest(values, matrix, indices, split(numOfBlocks, numOfRequests, i), split(numOfBlocks, numOfRequests, i + 1), blockRows, reduction, latch);
+        Matrix.runRequests(requests, latch);
+
+        // Tree combination of the partial rows, the merges of one level are independent of each other
+        for (int stride = 1; stride < numOfBlocks; stride *= 2) {
+            int numOfPairs = (numOfBlocks - stride + 2 * stride - 1) / (2 * stride);
+            int levelRequests = numOfRequests((long) numOfPairs * columns, numOfPairs);
+            CountDownLatch levelLatch = new CountDownLatch(levelRequests);
+            CombineRequest[] combines = new CombineRequest[levelRequests];
+            for (int i = 0; i < levelRequests; i++)
+                combines[i] = new CombineRequest(values, indices, split(numOfPairs, levelRequests, i), split(numOfPairs, levelRequests, i + 1), stride, reduction, levelLatch);
+            Matrix.runRequests(combines, levelLatch);
+        }
+
+        Matrix result = Matrix.createNewEmptyRowVector(columns);
+        double[] out = result.getData();
+        for (int column = 0; column < columns; column++)
+            out[column] = finish(reduction, values.getData()[column], indices == null ? 0 : indices.getData()[column], matrix.getNumOfRows());
+        return result;
+    }
+
+    /**
+     * Find a norm of the matrix
+     *
+     * @param matrix   The matrix
+     * @param normType The norm
+     * @return The norm
+     */
+    static double norm(Matrix matrix, NormType normType) {
+        boolean vector = matrix.getNumOfRows() == 1 || matrix.getNumOfColumns() == 1;
+        return switch (normType) {
+            case FROBENIUS -> reduce(matrix, Reduction.NORM);
+            case L1 -> vector ? reduce(matrix, Reduction.ABSOLUTE_SUM) : reduce(reduceColumns(matrix, Reduction.ABSOLUTE_SUM), Reduction.MAX);
+            case INFINITY -> vector ? maxAbsolute(matrix) : reduce(reduceRows(matrix, Reduction.ABSOLUTE_SUM), Reduction.MAX);
+            case L2 -> vector ? reduce(matrix, Reduction.NORM) : spectralNorm(matrix);
+        };
+    }
+
+    private static double maxAbsolute(Matrix matrix) {
+        return Math.max(Math.abs(reduce(matrix, Reduction.MIN)), Math.abs(reduce(matrix, Reduction.MAX)));
+    }
+
+    /**
+     * Largest singular value by power iteration on {@code A^T x A}
+     */
+    private static double spectralNorm(Matrix matrix) {
+        int rows = matrix.getNumOfRows();
+        int columns = matrix.getNumOfColumns();
+        double[] a = matrix.getData();
+        double[] x = new double[columns];
+        double[] y = new double[rows];
+        Random random = new Random(columns * 31L + rows);
+        for (int i = 0; i < columns; i++)
+            x[i] = random.nextDouble() + 0.5;
+        normalize(x);
+        double sigma = 0;
+        for (int iteration = 0; iteration < MAX_POWER_ITERATIONS; iteration++) {
+            for (int row = 0; row < rows; row++) {
+                double sum = 0;
+                for (int column = 0; column < columns; column++)
+                    sum += a[row * columns + column] * x[column];
+                y[row] = sum;
+            }
+            Arrays.fill(x, 0);
+            for (int row = 0; row < rows; row++) {
+                double factor = y[row];
+                for (int column = 0; column < columns; column++)
+                    x[column] += a[row * columns + column] * factor;
+            }
+            double length = normalize(x);
+            double next = Math.sqrt(length);
+            if (length == 0 || Math.abs(next - sigma) <= POWER_ITERATION_TOLERANCE * next)
+                return next;
+            sigma = next;
+        }
+        return sigma;
+    }
+
+    private static double normalize(double[] vector) {
+        double sum = 0;
+        for (double v : vector)
+            sum += v * v;
+        double length = Math.sqrt(sum);
+        if (length != 0)
+            for (int i = 0; i < vector.length; i++)
+                vector[i] /= length;
+        return length;
+    }
+
+    static boolean isArg(Reduction reduction) {
+        return reduction == Reduction.ARG_MIN || reduction == Reduction.ARG_MAX;
+    }
+
+    /**
+     * The starting value of a partial result
+     */
+    static double identity(Reduction reduction) {
+        return switch (reduction) {
+            case MIN, ARG_MIN -> Double.POSITIVE_INFINITY;
+            case MAX, ARG_MAX -> Double.NEGATIVE_INFINITY;
+            default -> 0.0;
+        };
+    }
+
+    /**
+     * Merge the partial result b into a, on a tie the smaller index (a) wins as it comes first
+     */
+    static void merge(double[] aValues, int a, double[] aIndices, int aIndex, double[] bValues, int b, double[] bIndices, int bIndex, Reduction reduction) {
+        switch (reduction) {
+            case MIN -> aValues[a] = Math.min(aValues[a], bValues[b]);
+            case MAX -> aValues[a] = Math.max(aValues[a], bValues[b]);
+            case ARG_MIN -> {
+                if (bValues[b] < aValues[a]) {
+                    aValues[a] = bValues[b];
+                    aIndices[aIndex] = bIndices[bIndex];
+                }
+            }
+            case ARG_MAX -> {
+                if (bValues[b] > aValues[a]) {
+                    aValues[a] = bValues[b];
+                    aIndices[aIndex] = bIndices[bIndex];
+                }
+            }
+            default -> aValues[a] += bValues[b];
+        }
+    }
+
+    /**
+     * Turn a combined partial into the result of the reduction
+     */
+    static double finish(Reduction reduction, double value, double index, int count) {
+        return switch (reduction) {
+            case MEAN -> value / count;
+            case NORM -> Math.sqrt(value);
+            case ARG_MIN, ARG_MAX -> index;
+            default -> value;
+        };
+    }
+
+    /**
+     * Reduce {@code data[from, to)} into {@code partial[0]} (value) and {@code partial[1]} (index)
+     */
+    static void reduceRange(double[] data, int from, int to, Reduction reduction, double[] partial) {
+        switch (reduction) {
+            case SUM, MEAN -> {
+                // Independent accumulators break the dependency chain of a single running sum
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                int i = from;
+                for (; i + 3 < to; i += 4) {
+                    s0 += data[i];
+                    s1 += data[i + 1];
+                    s2 += data[i + 2];
+                    s3 += data[i + 3];
+                }
+                for (; i < to; i++)
+                    s0 += data[i];
+                partial[0] = (s0 + s1) + (s2 + s3);
+            }
+            case ABSOLUTE_SUM -> {
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                int i = from;
+                for (; i + 3 < to; i += 4) {
+                    s0 += Math.abs(data[i]);
+                    s1 += Math.abs(data[i + 1]);
+                    s2 += Math.abs(data[i + 2]);
+                    s3 += Math.abs(data[i + 3]);
+                }
+                for (; i < to; i++)
+                    s0 += Math.abs(data[i]);
+                partial[0] = (s0 + s1) + (s2 + s3);
+            }
+            case NORM -> {
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                int i = from;
+                for (; i + 3 < to; i += 4) {
+                    s0 += data[i] * data[i];
+                    s1 += data[i + 1] * data[i + 1];
+                    s2 += data[i + 2] * data[i + 2];
+                    s3 += data[i + 3] * data[i + 3];
+                }
+                for (; i < to; i++)
+                    s0 += data[i] * data[i];
+                partial[0] = (s0 + s1) + (s2 + s3);
+            }
+            case MIN -> {
+                double min = Double.POSITIVE_INFINITY;
+                for (int i = from; i < to; i++)
+                    min = Math.min(min, data[i]);
+                partial[0] = min;
+            }
+            case MAX -> {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++)
+                    max = Math.max(max, data[i]);
+                partial[0] = max;
+            }
+            case ARG_MIN -> {
+                double min = Double.POSITIVE_INFINITY;
+                int index = from;
+                for (int i = from; i < to; i++) {
+                    if (data[i] < min) {
+                        min = data[i];
+                        index = i;
+                    }
+                }
+                partial[0] = min;
+                partial[1] = index;
+            }
+            case ARG_MAX -> {
+                double max = Double.NEGATIVE_INFINITY;
+                int index = from;
+                for (int i = from; i < to; i++) {
+                    if (data[i] > max) {
+                        max = data[i];
+                        index = i;
+                    }
+                }
+                partial[0] = max;
+                partial[1] = index;
+            }
+        }
+    }
+
+    /**
+     * Number of requests to split the given amount of work into, 1 means it runs on the calling thread
+     */
+    static int numOfRequests(long numOfEntries, int numOfUnits) {
+        if (numOfEntries < PARALLEL_THRESHOLD || Matrix.NUM_OF_THREADS <= 1)
+            return 1;
+        return Math.max(1, Math.min(Matrix.NUM_OF_THREADS, numOfUnits));
+    }
+
+    /**
+     * The start of the i-th part when splitting {@code total} into {@code parts}
+     */
+    static int split(int total, int parts, int i) {
+        return (int) ((long) total * i / parts);
+    }
+}
+
+/**
+ * A Request that reduces a range of chunks of the matrix into one row of partials each
+ */
+class ChunkReductionRequest extends MultiRowRequest {
+    private final Reduction reduction;
+
+    public ChunkReductionRequest(Matrix partials, Matrix matrix, int fromChunk, int toChunk, Reduction reduction, CountDownLatch latch) {
+        super(partials, matrix, null, fromChunk, toChunk, latch);
+        this.reduction = reduction;
+    }
+
+    @Override
+    public void calculate() {
+        double[] data = matrixA.getData();
+        double[] partials = container.getData();
+        double[] partial = new double[2];
+        for (int chunk = row; chunk < toRow; chunk++) {
+            int from = chunk * MatrixReductions.CHUNK_SIZE;
+            int to = Math.min(data.length, from + MatrixReductions.CHUNK_SIZE);
+            partial[0] = MatrixReductions.identity(reduction);
+            partial[1] = 0;
+            MatrixReductions.reduceRange(data, from, to, reduction, partial);
+            partials[2 * chunk] = partial[0];
+            partials[2 * chunk + 1] = partial[1];
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that reduces a range of rows, one result per row
+ */
+class RowReductionRequest extends MultiRowRequest {
+    private final Reduction reduction;
+
+    public RowReductionRequest(Matrix container, Matrix matrix, int fromRow, int toRow, Reduction reduction, CountDownLatch latch) {
+        super(container, matrix, null, fromRow, toRow, latch);
+        this.reduction = reduction;
+    }
+
+    @Override
+    public void calculate() {
+        double[] data = matrixA.getData();
+        double[] result = container.getData();
+        int columns = matrixA.getNumOfColumns();
+        double[] partial = new double[2];
+        for (int r = row; r < toRow; r++) {
+            partial[0] = MatrixReductions.identity(reduction);
+            partial[1] = r * columns;
+            MatrixReductions.reduceRange(data, r * columns, (r + 1) * columns, reduction, partial);
+            result[r] = MatrixReductions.finish(reduction, partial[0], partial[1] - r * columns, columns);
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that reduces blocks of rows into one row of partials per block.
+ * The partial row is updated a whole matrix row at a time, so the inner loop is contiguous.
+ */
+class ColumnReductionRequest extends MultiRowRequest {
+    private final int blockRows;
+    private final Reduction reduction;
+
+    public ColumnReductionRequest(Matrix values, Matrix matrix, Matrix indices, int fromBlock, int toBlock, int blockRows, Reduction reduction, CountDownLatch latch) {
+        super(values, matrix, indices, fromBlock, toBlock, latch);
+        this.blockRows = blockRows;
+        this.reduction = reduction;
+    }
+
+    @Override
+    public void calculate() {
+        double[] data = matrixA.getData();
+        double[] values = container.getData();
+        double[] indices = matrixB == null ? null : matrixB.getData();
+        int columns = matrixA.getNumOfColumns();
+        for (int block = row; block < toRow; block++) {
+            int offset = block * columns;
+            Arrays.fill(values, offset, offset + columns, MatrixReductions.identity(reduction));
+            int lastRow = Math.min(matrixA.getNumOfRows(), (block + 1) * blockRows);
+            for (int r = block * blockRows; r < lastRow; r++) {
+                int source = r * columns;
+                switch (reduction) {
+                    case SUM, MEAN -> {
+                        for (int c = 0; c < columns; c++)
+                            values[offset + c] += data[source + c];
+                    }
+                    case ABSOLUTE_SUM -> {
+                        for (int c = 0; c < columns; c++)
+                            values[offset + c] += Math.abs(data[source + c]);
+                    }
+                    case NORM -> {
+                        for (int c = 0; c < columns; c++)
+                            values[offset + c] += data[source + c] * data[source + c];
+                    }
+                    case MIN -> {
+                        for (int c = 0; c < columns; c++)
+                            values[offset + c] = Math.min(values[offset + c], data[source + c]);
+                    }
+                    case MAX -> {
+                        for (int c = 0; c < columns; c++)
+                            values[offset + c] = Math.max(values[offset + c], data[source + c]);
+                    }
+                    case ARG_MIN -> {
+                        for (int c = 0; c < columns; c++) {
+                            if (data[source + c] < values[offset + c] || r == block * blockRows) {
+                                values[offset + c] = data[source + c];
+                                indices[offset + c] = r;
+                            }
+                        }
+                    }
+                    case ARG_MAX -> {
+                        for (int c = 0; c < columns; c++) {
+                            if (data[source + c] > values[offset + c] || r == block * blockRows) {
+                                values[offset + c] = data[source + c];
+                                indices[offset + c] = r;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        latch.countDown();
+    }
+}
+
+/**
+ * A Request that merges pairs of partial rows for one level of the combination tree
+ */
+class CombineRequest extends MultiRowRequest {
+    private final int stride;
+    private final Reduction reduction;
+
+    public CombineRequest(Matrix values, Matrix indices, int fromPair, int toPair, int stride, Reduction reduction, CountDownLatch latch) {
+        super(values, null, indices, fromPair, toPair, latch);
+        this.stride = stride;
+        this.reduction = reduction;
+    }
+
+    @Override
+    public void calculate() {
+        double[] values = container.getData();
+        double[] indices = matrixB == null ? null : matrixB.getData();
+        int columns = container.getNumOfColumns();
+        for (int pair = row; pair < toRow; pair++) {
+            int a = 2 * stride * pair * columns;
+            int b = a + stride * columns;
+            for (int c = 0; c < columns; c++)
+                MatrixReductions.merge(values, a + c, indices, a + c, values, b + c, indices, b + c, reduction);
+        }
+        latch.countDown();
+    }
+}
@@ -0,0 +1,304 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.NoInverseException;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An LU factorization computed in single precision, from {@code getDataAsFloat}, whose solutions are brought to
+ * double precision accuracy by iterative refinement.
+ * <p>
+ * Each refinement step computes the residual {@code R = B - A x X} in double and solves for the correction with
+ * the float factors, so all the O(N^3) work is done in float and each step only costs O(N^2) per right hand side.
+ * A solve stops once every column satisfies {@code ||r||_inf <= sqrt(N) x eps x ||A||_inf x ||x||_inf}, the
+ * test of LAPACK's dsgesv.
+ * <p>
+ * When the float factorization breaks down, or the refinement stalls because A is too ill-conditioned for float,
+ * A is factored again in double with partial pivoting, once, and that factorization is refined instead. If even
+ * that does not pass the test, A is singular to double precision and the solve throws.
+ */
+public final class MixedPrecisionLU {
+
+    static final int BLOCK_SIZE = 32;
+    /**
+     * The number of refinement steps after which a solve gives up on the float factors
+     */
+    static final int MAX_ITERATIONS = 30;
+    private static final int MIN_COLUMNS_PER_REQUEST = 64;
+    private static final double EPSILON = Math.ulp(1.0) / 2;
+
+    private final Matrix matrix;
+    private final int size;
+    /**
+     * L below the diagonal, with its unit diagonal implied, and U on and above it, null if the factorization failed
+     */
+    private final float[] factors;
+    /**
+     * Row i of the factored matrix is row rowOf[i] of A
+     */
+    private final int[] rowOf;
+    private final double normOfA;
+    private LUMatrixGroup doubleFactors = null;
+    private int[] doubleRowOf = null;
+    private int numOfIterations = 0;
+
+    MixedPrecisionLU(Matrix matrix, boolean parallel) {
+        if (!matrix.isSquareMatrix())
+            throw new NoInverseException("A square matrix is required!");
+        this.matrix = matrix;
+        this.size = matrix.getNumOfRows();
+        this.rowOf = new int[size];
+        double norm = 0;
+        for (int i = 0; i < size; i++) {
+            double sum = 0;
+            for (int j = 0; j < size; j++)
+                sum += Math.abs(matrix.getData()[i * size + j]);
+            norm = Math.max(norm, sum);
+        }
+        this.normOfA = norm;
+        float[] a = matrix.getDataAsFloat();
+        this.factors = factor(a, size, rowOf, parallel) ? a : null;
+    }
+
+    /**
+     * Blocked right-looking LU with partial pivoting, in place, mirroring {@code Matrix.luDecomposition}
+     *
+     * @return false if a pivot is 0 or an entry is not finite
+     */
+    static boolean factor(float[] a, int size, int[] rowOf, boolean parallel) {
+        for (float value : a)
+            if (!Float.isFinite(value))
+                return false;
+        for (int i = 0; i < size; i++)
+            rowOf[i] = i;
+        for (int panelStart = 0; panelStart < size; panelStart += BLOCK_SIZE) {
+            int panelEnd = Math.min(panelStart + BLOCK_SIZE, size);
+            if (!factorPanel(a, size, rowOf, panelStart, panelEnd))
+                return false;
+            int width = size - panelEnd;
+            if (width == 0)
+                continue;
+            int numOfRequests = parallel ? Math.max(1, Math.min(Matrix.NUM_OF_THREADS, width / MIN_COLUMNS_PER_REQUEST)) : 1;
+            CountDownLatch latch = new CountDownLatch(numOfRequests);
+            FloatLUUpdateRequest[] requests = new FloatLUUpdateRequest[numOfRequests];
+            for (int i = 0; i < numOfRequests; i++)
+                requests[i] = new FloatLUUpdateRequest(a, size, panelStart, panelEnd,
+                        panelEnd + (int) ((long) width * i / numOfRequests), panelEnd + (int) ((long) width * (i + 1) / numOfRequests), latch);
+            Matrix.runRequests(requests, latch);
+        }
+        return true;
+    }
+
+    /**
+     * Eliminate the columns of a panel, swapping whole rows to put the largest entry of each column on the diagonal.
+     * Columns right of the panel are left for {@code FloatLUUpdateRequest}.
+     */
+    private static boolean factorPanel(float[] a, int size, int[] rowOf, int panelStart, int panelEnd) {
+        for (int pivotRow = panelStart; pivotRow < panelEnd; pivotRow++) {
+            int best = pivotRow;
+            for (int i = pivotRow + 1; i < size; i++)
+                if (Math.abs(a[i * size + pivotRow]) > Math.abs(a[best * size + pivotRow]))
+                    best = i;
+            if (a[best * size + pivotRow] == 0)
+                return false;
+            if (best != pivotRow) {
+                // The multipliers found so far and the pending trailing entries follow their rows
+                for (int c = 0; c < size; c++) {
+                    float swap = a[pivotRow * size + c];
+                    a[pivotRow * size + c] = a[best * size + c];
+                    a[best * size + c] = swap;
+                }
+                int swap = rowOf[pivotRow];
+                rowOf[pivotRow] = rowOf[best];
+                rowOf[best] = swap;
+            }
+            float pivot = a[pivotRow * size + pivotRow];
+            for (int row = pivotRow + 1; row < size; row++) {
+                int offset = row * size;
+                float lFactor = a[offset + pivotRow] / pivot;
+                a[offset + pivotRow] = lFactor;
+                if (lFactor == 0)
+                    continue;
+                for (int column = pivotRow + 1; column < panelEnd; column++)
+                    a[offset + column] -= lFactor * a[pivotRow * size + column];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solve {@code A x X = B} to double precision accuracy
+     *
+     * @param b The right hand side, N x K
+     * @return X
+     * @throws MatrixDimensionsNotMatchException if B does not have N rows
+     * @throws NoInverseException                if A is singular in double precision as well, or the refinement with
+     *                                           the double factors does not meet the test
+     */
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != size)
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand side must have %d rows", size));
+        numOfIterations = 0;
+        if (factors != null) {
+            Matrix x = correction(b, true);
+            if (refine(b, x, true))
+                return x;
+        }
+        if (doubleFactors == null) {
+            doubleFactors = Matrix.pivotedLuDecomposition(matrix);
+            doubleRowOf = new int[size];
+            UpdatableLU.rowsOf(doubleFactors.p(), doubleRowOf);
+        }
+        // A pivoted LU in double is backward stable, a residual it cannot bring down means A is numerically singular
+        Matrix x = correction(b, false);
+        if (!refine(b, x, false))
+            throw new NoInverseException("The matrix is singular to double precision, the refinement did not converge");
+        return x;
+    }
+
+    /**
+     * Add corrections to X, in place, until it is accurate
+     *
+     * @param inFloat Whether the corrections come from the float factors
+     * @return false if the refinement stalled
+     */
+    private boolean refine(Matrix b, Matrix x, boolean inFloat) {
+        int width = b.getNumOfColumns();
+        double previous = Double.POSITIVE_INFINITY;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            Matrix residual = LowRankEngine.multiply(matrix, x);
+            double[] r = residual.getData();
+            double[] bData = b.getData();
+            for (int i = 0; i < r.length; i++)
+                r[i] = bData[i] - r[i];
+            // The largest ratio of a residual to the accuracy its column can have
+            double worst = 0;
+            double[] xData = x.getData();
+            for (int c = 0; c < width; c++) {
+                double residualNorm = 0, xNorm = 0;
+                for (int i = 0; i < size; i++) {
+                    residualNorm = Math.max(residualNorm, Math.abs(r[i * width + c]));
+                    xNorm = Math.max(xNorm, Math.abs(xData[i * width + c]));
+                }
+                double target = Math.sqrt(size) * EPSILON * normOfA * xNorm;
+                worst = Math.max(worst, target == 0 ? (residualNorm == 0 ? 0 : Double.POSITIVE_INFINITY) : residualNorm / target);
+            }
+            if (worst <= 1)
+                return true;
+            // Each step should gain about as many digits as float has, not even halving the residual is a stall
+            if (!(worst < previous / 2) && iteration > 0)
+                return false;
+            previous = worst;
+            numOfIterations++;
+            Matrix d = correction(residual, inFloat);
+            double[] dData = d.getData();
+            for (int i = 0; i < xData.length; i++)
+                xData[i] += dData[i];
+        }
+        return false;
+    }
+
+    /**
+     * Solve {@code A x D = R} with the float or the double factors
+     */
+    private Matrix correction(Matrix r, boolean inFloat) {
+        if (!inFloat)
+            return UpdatableLU.solve(doubleFactors, doubleRowOf, r);
+        int width = r.getNumOfColumns();
+        float[] d = new float[size * width];
+        double[] rData = r.getData();
+        for (int i = 0; i < size; i++)
+            for (int c = 0; c < width; c++)
+                d[i * width + c] = (float) rData[rowOf[i] * width + c];
+        // Forward substitution, L has a unit diagonal
+        for (int i = 1; i < size; i++) {
+            for (int k = 0; k < i; k++) {
+                float factor = factors[i * size + k];
+                if (factor == 0)
+                    continue;
+                for (int c = 0; c < width; c++)
+                    d[i * width + c] -= factor * d[k * width + c];
+            }
+        }
+        // Backward substitution
+        for (int i = size - 1; i >= 0; i--) {
+            for (int k = i + 1; k < size; k++) {
+                float factor = factors[i * size + k];
+                if (factor == 0)
+                    continue;
+                for (int c = 0; c < width; c++)
+                    d[i * width + c] -= factor * d[k * width + c];
+            }
+            float diagonal = factors[i * size + i];
+            for (int c = 0; c < width; c++)
+                d[i * width + c] /= diagonal;
+        }
+        Matrix result = new Matrix(size, width);
+        double[] data = result.getData();
+        for (int i = 0; i < data.length; i++)
+            data[i] = d[i];
+        return result;
+    }
+
+    /**
+     * @return The number of refinement steps of the last solve, counting those with the double factors
+     */
+    public int getNumOfIterations() {
+        return numOfIterations;
+    }
+
+    /**
+     * @return Whether A had to be factored in double, because the float factorization broke down or a refinement
+     * stalled
+     */
+    public boolean usesDoubleFactorization() {
+        return doubleFactors != null;
+    }
+}
+
+/**
+ * A Request that applies the pivots of a float panel to a range of columns right of it, like {@code LUUpdateRequest}
+ */
+class FloatLUUpdateRequest implements CalculationRequest {
+    private final float[] a;
+    private final int size;
+    private final int panelStart;
+    private final int panelEnd;
+    private final int fromColumn;
+    private final int toColumn;
+    private final CountDownLatch latch;
+
+    FloatLUUpdateRequest(float[] a, int size, int panelStart, int panelEnd, int fromColumn, int toColumn, CountDownLatch latch) {
+        this.a = a;
+        this.size = size;
+        this.panelStart = panelStart;
+        this.panelEnd = panelEnd;
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+        this.latch = latch;
+    }
+
+    @Override
+    public void calculate() {
+        // Finish the rows of the panel, each needs the pivots above it within the panel
+        for (int row = panelStart + 1; row < panelEnd; row++)
+            applyPivots(row, row);
+        // Rank-k update of the trailing sub-matrix
+        for (int row = panelEnd; row < size; row++)
+            applyPivots(row, panelEnd);
+        latch.countDown();
+    }
+
+    private void applyPivots(int row, int lastPivot) {
+        int offset = row * size;
+        for (int pivot = panelStart; pivot < lastPivot; pivot++) {
+            float lFactor = a[offset + pivot];
+            if (lFactor == 0)
+                continue;
+            int pivotOffset = pivot * size;
+            for (int column = fromColumn; column < toColumn; column++)
+                a[offset + column] -= lFactor * a[pivotOffset + column];
+        }
+    }
+}
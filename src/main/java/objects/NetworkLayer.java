@@ -0,0 +1,10 @@
+package objects;
+
+/**
+ * A fully connected layer of a {@code CompiledNetwork}, computing {@code activation(weights x inputs + bias)}
+ * @param weights    The weights, one row per output and one column per input
+ * @param bias       The bias, a column vector with one entry per output
+ * @param activation The activation
+ */
+public record NetworkLayer(Matrix weights, Matrix bias, Activation activation) {
+}
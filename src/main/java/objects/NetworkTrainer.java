@@ -0,0 +1,332 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Trains the layers of a network on mini-batches, with the mean squared error
+ * {@code sum((output - target)^2) / (2 x batch size)} as the loss.
+ * <p>
+ * A step cuts the batch into shards of columns, one request per shard on the worker threads. Each shard runs
+ * the forward pass, keeping the inputs and outputs of every activation, then the backward pass, accumulating
+ * its own weights and bias gradients; the shards' gradients are then summed and the optimizer updates the
+ * weights and biases of the layers in place. The gradients are products with transposed operands,
+ * {@code delta x inputs^T} and {@code weights^T x delta}, read in place rather than transposed.
+ * <p>
+ * Every buffer is allocated when the trainer is created. The layers are shared, so a {@code CompiledNetwork}
+ * compiled from them before training has to be compiled again to see the new weights.
+ */
+public final class NetworkTrainer {
+
+    /**
+     * Batches are not cut into shards of fewer columns
+     */
+    static final int MIN_SHARD_COLUMNS = 16;
+
+    private final List<NetworkLayer> layers;
+    private final Optimizer optimizer;
+    private final int numOfLayers;
+    private final int maxBatchSize;
+    private final int[] rows;
+    private final int[] depths;
+    private final Activation[] activations;
+    private final TrainingShard[] shards;
+    private final double[][] weightsGradients;
+    private final double[][] biasGradients;
+    private final double[][][] weightsStates;
+    private final double[][][] biasStates;
+    private long step = 0;
+
+    /**
+     * @param layers       The layers to train, from the inputs to the outputs, updated in place
+     * @param optimizer    The optimizer
+     * @param maxBatchSize The largest number of samples in a batch
+     * @throws MatrixDimensionsNotMatchException if the sizes of consecutive layers do not match
+     */
+    public NetworkTrainer(List<NetworkLayer> layers, Optimizer optimizer, int maxBatchSize) throws MatrixDimensionsNotMatchException {
+        if (layers.isEmpty())
+            throw new IllegalArgumentException("A network needs at least one layer");
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1");
+        this.layers = List.copyOf(layers);
+        this.optimizer = optimizer;
+        this.numOfLayers = layers.size();
+        this.maxBatchSize = maxBatchSize;
+        rows = new int[numOfLayers];
+        depths = new int[numOfLayers];
+        activations = new Activation[numOfLayers];
+        weightsGradients = new double[numOfLayers][];
+        biasGradients = new double[numOfLayers][];
+        weightsStates = new double[numOfLayers][][];
+        biasStates = new double[numOfLayers][][];
+        for (int l = 0; l < numOfLayers; l++) {
+            NetworkLayer layer = layers.get(l);
+            rows[l] = layer.weights().getNumOfRows();
+            depths[l] = layer.weights().getNumOfColumns();
+            activations[l] = layer.activation();
+            if (l > 0 && depths[l] != rows[l - 1])
+                throw new MatrixDimensionsNotMatchException(String.format("Layer %d takes %d inputs but layer %d has %d outputs", l, depths[l], l - 1, rows[l - 1]));
+            if (layer.bias().getNumOfRows() != rows[l] || layer.bias().getNumOfColumns() != 1)
+                throw new MatrixDimensionsNotMatchException(String.format("The bias of layer %d must be a %d x 1 column vector", l, rows[l]));
+            weightsGradients[l] = new double[rows[l] * depths[l]];
+            biasGradients[l] = new double[rows[l]];
+            weightsStates[l] = new double[optimizer.getNumOfStates()][rows[l] * depths[l]];
+            biasStates[l] = new double[optimizer.getNumOfStates()][rows[l]];
+        }
+
+        int maxShards = Math.max(1, Math.min(Matrix.NUM_OF_THREADS, maxBatchSize / MIN_SHARD_COLUMNS));
+        // The widest shard either batch cutting in shardsOf can give
+        int shardCapacity = Math.min(maxBatchSize, Math.max((maxBatchSize + maxShards - 1) / maxShards, MIN_SHARD_COLUMNS));
+        shards = new TrainingShard[maxShards];
+        for (int s = 0; s < maxShards; s++)
+            shards[s] = new TrainingShard(this, shardCapacity);
+    }
+
+    /**
+     * Compute the gradients of a batch, then update the layers
+     *
+     * @param inputs  The inputs, input size x batch size
+     * @param targets The expected outputs, output size x batch size
+     * @return The loss of the batch before the update
+     * @throws MatrixDimensionsNotMatchException if the inputs or the targets do not fit the network
+     */
+    public synchronized double trainStep(Matrix inputs, Matrix targets) throws MatrixDimensionsNotMatchException {
+        double loss = computeGradients(inputs, targets);
+        applyGradients();
+        return loss;
+    }
+
+    /**
+     * Compute the gradients of a batch without updating the layers
+     *
+     * @param inputs  The inputs, input size x batch size
+     * @param targets The expected outputs, output size x batch size
+     * @return The loss of the batch
+     * @throws MatrixDimensionsNotMatchException if the inputs or the targets do not fit the network
+     * @see #getWeightsGradient(int)
+     * @see #getBiasGradient(int)
+     */
+    public synchronized double computeGradients(Matrix inputs, Matrix targets) throws MatrixDimensionsNotMatchException {
+        int batchSize = inputs.getNumOfColumns();
+        // An empty batch would make the loss NaN and still count as a step
+        if (inputs.getNumOfRows() != depths[0] || batchSize < 1 || batchSize > maxBatchSize)
+            throw new MatrixDimensionsNotMatchException(String.format("The inputs must be %d x 1 to %d", depths[0], maxBatchSize));
+        if (targets.getNumOfRows() != rows[numOfLayers - 1] || targets.getNumOfColumns() != batchSize)
+            throw new MatrixDimensionsNotMatchException(String.format("The targets must be %d x %d", rows[numOfLayers - 1], batchSize));
+
+        int numOfShards = shardsOf(batchSize);
+        long work = (long) batchSize * weightsCount();
+        CountDownLatch latch = new CountDownLatch(numOfShards);
+        for (int s = 0; s < numOfShards; s++)
+            shards[s].prepare(inputs.getData(), targets.getData(), batchSize,
+                    (int) ((long) batchSize * s / numOfShards), (int) ((long) batchSize * (s + 1) / numOfShards), latch);
+        if (numOfShards == 1 || work < ForwardPassEngine.PARALLEL_THRESHOLD) {
+            for (int s = 0; s < numOfShards; s++)
+                shards[s].calculate();
+        } else {
+            Matrix.runRequests(Arrays.copyOf(shards, numOfShards, CalculationRequest[].class), latch);
+        }
+
+        // Sum the shards' gradients
+        double loss = 0;
+        for (int l = 0; l < numOfLayers; l++) {
+            System.arraycopy(shards[0].weightsGradients[l], 0, weightsGradients[l], 0, weightsGradients[l].length);
+            System.arraycopy(shards[0].biasGradients[l], 0, biasGradients[l], 0, biasGradients[l].length);
+            for (int s = 1; s < numOfShards; s++) {
+                ElementwiseOperators.ADD.applyToRange(weightsGradients[l], shards[s].weightsGradients[l], weightsGradients[l], 0, weightsGradients[l].length);
+                ElementwiseOperators.ADD.applyToRange(biasGradients[l], shards[s].biasGradients[l], biasGradients[l], 0, biasGradients[l].length);
+            }
+        }
+        for (int s = 0; s < numOfShards; s++)
+            loss += shards[s].loss;
+        return loss;
+    }
+
+    /**
+     * Update the layers in place with the gradients of the last call to {@link #computeGradients(Matrix, Matrix)}
+     */
+    public synchronized void applyGradients() {
+        step++;
+        for (int l = 0; l < numOfLayers; l++) {
+            optimizer.update(layers.get(l).weights().getData(), weightsGradients[l], weightsStates[l], step);
+            optimizer.update(layers.get(l).bias().getData(), biasGradients[l], biasStates[l], step);
+        }
+    }
+
+    /**
+     * @param layer The index of the layer
+     * @return A copy of the gradient of the loss with respect to the weights of the layer
+     */
+    public synchronized Matrix getWeightsGradient(int layer) {
+        return Matrix.createNewFilledMatrix(rows[layer], depths[layer], weightsGradients[layer].clone());
+    }
+
+    /**
+     * @param layer The index of the layer
+     * @return A copy of the gradient of the loss with respect to the bias of the layer
+     */
+    public synchronized Matrix getBiasGradient(int layer) {
+        return Matrix.createNewFilledMatrix(rows[layer], 1, biasGradients[layer].clone());
+    }
+
+    /**
+     * @return The number of updates applied so far
+     */
+    public synchronized long getStep() {
+        return step;
+    }
+
+    private int shardsOf(int batchSize) {
+        return Math.max(1, Math.min(shards.length, (batchSize + MIN_SHARD_COLUMNS - 1) / MIN_SHARD_COLUMNS));
+    }
+
+    private long weightsCount() {
+        long count = 0;
+        for (int l = 0; l < numOfLayers; l++)
+            count += (long) rows[l] * depths[l];
+        return count;
+    }
+
+    /**
+     * A Request running the forward and backward passes of a range of columns of a batch.
+     * <p>
+     * The activations are packed with the width of the shard as their row length.
+     */
+    private static final class TrainingShard implements CalculationRequest {
+        private final NetworkTrainer trainer;
+        private final double[] inputs;
+        private final double[] targets;
+        /**
+         * The inputs and the outputs of the activation of each layer
+         */
+        private final double[][] preActivations;
+        private final double[][] outputs;
+        private final double[][] deltas;
+        private final double[][] weightsGradients;
+        private final double[][] biasGradients;
+        private double[] batchInputs;
+        private double[] batchTargets;
+        private int batchSize;
+        private int fromColumn;
+        private int toColumn;
+        private CountDownLatch latch;
+        private double loss;
+
+        TrainingShard(NetworkTrainer trainer, int capacity) {
+            this.trainer = trainer;
+            int numOfLayers = trainer.numOfLayers;
+            inputs = new double[trainer.depths[0] * capacity];
+            targets = new double[trainer.rows[numOfLayers - 1] * capacity];
+            preActivations = new double[numOfLayers][];
+            outputs = new double[numOfLayers][];
+            deltas = new double[numOfLayers][];
+            weightsGradients = new double[numOfLayers][];
+            biasGradients = new double[numOfLayers][];
+            for (int l = 0; l < numOfLayers; l++) {
+                preActivations[l] = new double[trainer.rows[l] * capacity];
+                outputs[l] = new double[trainer.rows[l] * capacity];
+                deltas[l] = new double[trainer.rows[l] * capacity];
+                weightsGradients[l] = new double[trainer.rows[l] * trainer.depths[l]];
+                biasGradients[l] = new double[trainer.rows[l]];
+            }
+        }
+
+        void prepare(double[] batchInputs, double[] batchTargets, int batchSize, int fromColumn, int toColumn, CountDownLatch latch) {
+            this.batchInputs = batchInputs;
+            this.batchTargets = batchTargets;
+            this.batchSize = batchSize;
+            this.fromColumn = fromColumn;
+            this.toColumn = toColumn;
+            this.latch = latch;
+        }
+
+        @Override
+        public void calculate() {
+            int width = toColumn - fromColumn;
+            int numOfLayers = trainer.numOfLayers;
+            int[] rows = trainer.rows;
+            int[] depths = trainer.depths;
+            gatherColumns(batchInputs, inputs, depths[0], width);
+            gatherColumns(batchTargets, targets, rows[numOfLayers - 1], width);
+
+            // Forward, keeping what the derivatives need
+            double[] current = inputs;
+            for (int l = 0; l < numOfLayers; l++) {
+                NetworkLayer layer = trainer.layers.get(l);
+                int size = rows[l] * width;
+                ForwardPassEngine.computeTile(layer.weights().getData(), current, layer.bias().getData(), true, Activation.IDENTITY,
+                        preActivations[l], depths[l], width, 0, rows[l], 0, width);
+                System.arraycopy(preActivations[l], 0, outputs[l], 0, size);
+                trainer.activations[l].applyToRange(outputs[l], 0, size);
+                current = outputs[l];
+            }
+
+            // The delta of the last layer, d(loss)/d(pre-activation)
+            int last = numOfLayers - 1;
+            double sum = 0;
+            for (int i = 0; i < rows[last] * width; i++) {
+                double error = outputs[last][i] - targets[i];
+                sum += error * error;
+                deltas[last][i] = error / batchSize * trainer.activations[last].derivative(preActivations[last][i], outputs[last][i]);
+            }
+            loss = sum / (2.0 * batchSize);
+
+            for (int l = last; l >= 0; l--) {
+                double[] delta = deltas[l];
+                double[] previous = l == 0 ? inputs : outputs[l - 1];
+                double[] weightsGradient = weightsGradients[l];
+                double[] biasGradient = biasGradients[l];
+                int depth = depths[l];
+                // bias gradient = delta x 1, weights gradient = delta x previous^T, both row by row
+                for (int i = 0; i < rows[l]; i++) {
+                    int deltaOffset = i * width;
+                    double biasSum = 0;
+                    for (int c = 0; c < width; c++)
+                        biasSum += delta[deltaOffset + c];
+                    biasGradient[i] = biasSum;
+                    int gradientOffset = i * depth;
+                    for (int k = 0; k < depth; k++) {
+                        int previousOffset = k * width;
+                        double dot = 0;
+                        for (int c = 0; c < width; c++)
+                            dot += delta[deltaOffset + c] * previous[previousOffset + c];
+                        weightsGradient[gradientOffset + k] = dot;
+                    }
+                }
+                if (l == 0)
+                    break;
+                // delta of the previous layer = (weights^T x delta) * derivative, accumulated row of weights by row
+                double[] weights = trainer.layers.get(l).weights().getData();
+                double[] previousDelta = deltas[l - 1];
+                Arrays.fill(previousDelta, 0, depth * width, 0);
+                for (int i = 0; i < rows[l]; i++) {
+                    int deltaOffset = i * width;
+                    int weightsOffset = i * depth;
+                    for (int k = 0; k < depth; k++) {
+                        double weight = weights[weightsOffset + k];
+                        int previousOffset = k * width;
+                        for (int c = 0; c < width; c++)
+                            previousDelta[previousOffset + c] += weight * delta[deltaOffset + c];
+                    }
+                }
+                Activation activation = trainer.activations[l - 1];
+                double[] preActivation = preActivations[l - 1];
+                double[] output = outputs[l - 1];
+                for (int i = 0; i < depth * width; i++)
+                    previousDelta[i] *= activation.derivative(preActivation[i], output[i]);
+            }
+            latch.countDown();
+        }
+
+        /**
+         * Copy the columns of the shard out of a batch, packed
+         */
+        private void gatherColumns(double[] batch, double[] shard, int numOfRows, int width) {
+            for (int r = 0; r < numOfRows; r++)
+                System.arraycopy(batch, r * batchSize + fromColumn, shard, r * width, width);
+        }
+    }
+}
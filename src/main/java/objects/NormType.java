@@ -0,0 +1,26 @@
+package objects;
+
+/**
+ * Norms of a {@code Matrix}.
+ * <p>
+ * For a row or column vector these are the usual vector norms. For any other matrix
+ * {@code L1}, {@code L2} and {@code INFINITY} are the induced (operator) norms.
+ */
+public enum NormType {
+    /**
+     * Maximum absolute column sum (sum of absolute values for a vector)
+     */
+    L1,
+    /**
+     * Spectral norm, the largest singular value (Euclidean length for a vector)
+     */
+    L2,
+    /**
+     * Maximum absolute row sum (largest absolute value for a vector)
+     */
+    INFINITY,
+    /**
+     * Square root of the sum of squares of all entries
+     */
+    FROBENIUS
+}
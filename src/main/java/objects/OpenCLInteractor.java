@@ -1,5 +1,6 @@
 package objects;
 
+import exceptions.MatrixDimensionsNotMatchException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.opencl.CL;
@@ -9,104 +10,355 @@ import org.lwjgl.system.MemoryStack;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import static org.lwjgl.opencl.CL10.*;
 import static org.lwjgl.opencl.CL10.clCreateCommandQueue;
+import static org.lwjgl.opencl.KHRICD.CL_PLATFORM_NOT_FOUND_KHR;
 import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.system.MemoryUtil.memUTF8;
 import static util.IOUtil.ioResourceToByteBuffer;
 import static util.InfoUtil.*;
 
+/**
+ * Runs the OpenCL kernels of the library on one device.
+ * <p>
+ * It is safe to use from several threads at once: the context, programs and buffer pool are shared, while
+ * every thread enqueues on its own in-order queue with its own kernel objects, see {@code CLCommandQueue}.
+ */
 public class OpenCLInteractor {
 
-    private boolean initialized = false;
-    final List<ByteBuffer> sources = new ArrayList<>();
-    private IntBuffer errorCodeRet;
+    /**
+     * Side of the tiles of {@code Transpose.cl}
+     */
+    private static final int TRANSPOSE_TILE_SIZE = 16;
+    /**
+     * Work-groups of the first pass of {@code Reduction.cl} and their size, a power of two
+     */
+    private static final int REDUCTION_GROUPS = 64;
+    private static final int REDUCTION_GROUP_SIZE = 256;
+
+    /**
+     * Share of the device's global memory the buffer pool may keep allocated, unless set explicitly
+     */
+    private static final double DEFAULT_BUDGET_SHARE = 0.5;
+
+    /**
+     * Size of the square matrices multiplied when tuning the tiled kernel, and the number of timed runs per configuration
+     */
+    private static final int TUNING_SIZE = 512;
+    private static final int TUNING_RUNS = 3;
+
+    /**
+     * The programs to build, each one is the concatenation of its source files followed by the kernels it defines
+     */
+    private static final String[][][] PROGRAMS = {
+            {{"MatrixMultiplication.cl"}, {"multiply"}},
+            {{"Activation.cl", "ForwardPass.cl"}, {"forwardPass", "forwardPassColumnBias"}},
+            {{"Activation.cl", "Elementwise.cl"}, {"add", "subtract", "hadamard", "scale", "activate"}},
+            {{"Transpose.cl"}, {"transpose"}},
+            {{"Reduction.cl"}, {"reduce"}},
+            {{"Convolution.cl"}, {"convolve"}},
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(OpenCLInteractor.class.getName());
+
+    private final CLDevice target;
+    private final boolean ownsLibrary;
+    private CLDevice clDevice;
+    private volatile boolean initialized = false;
+    final List<ByteBuffer[]> sources = new ArrayList<>();
+    private final IntBuffer errorCodeRet = BufferUtils.createIntBuffer(1);
+    private long device;
     private long context;
-    private long queue;
+    /**
+     * The queue of each thread, see {@code CLCommandQueue}, and every queue created so far
+     */
+    private final ThreadLocal<CLCommandQueue> commandQueues = new ThreadLocal<>();
+    private final List<CLCommandQueue> allCommandQueues = new ArrayList<>();
     final List<Long> programs = new ArrayList<>();
-    final List<Long> kernels = new ArrayList<>();
-    final List<String> kernelsName = new ArrayList<>();
+    /**
+     * The program defining each kernel, the threads create their own kernel objects from it
+     */
+    final Map<String, Long> kernelPrograms = new HashMap<>();
+
+    private volatile CLBufferPool bufferPool;
+    private long deviceMemoryBudget = -1;
+
+    private CLProgramCache programCache = CLProgramCache.createDefault();
+    private CLProfiler profiler;
+    private volatile String lastBuildLog = "";
+
+    private boolean doublePrecision = true;
+    private int realBytes = Double.BYTES;
+    /**
+     * Defines {@code real} for the device, prepended to every program
+     */
+    private ByteBuffer precisionPrelude;
 
-    private long matrixAMemory;
-    private long matrixBMemory;
-    private long matrixCMemory;
-    private long matrixDMemory;
+    private ByteBuffer gemmSource;
+    private GemmConfiguration gemmConfiguration;
+    private long gemmProgram;
+    private boolean gemmUnavailable;
+    /**
+     * Incremented every time the tiled multiplication program changes, so the threads recreate their kernel
+     */
+    private int gemmGeneration;
 
 
     private void initializeSources(){
         try {
-            sources.add(ioResourceToByteBuffer("MatrixMultiplication.cl", 4096));
-            sources.add(ioResourceToByteBuffer("ForwardPass.cl", 4096));
-            kernelsName.add("multiply");
-            kernelsName.add("forwardPass");
+            for (String[][] program : PROGRAMS) {
+                ByteBuffer[] files = new ByteBuffer[program[0].length];
+                for (int i = 0; i < files.length; i++)
+                    files[i] = ioResourceToByteBuffer(program[0][i], 4096);
+                sources.add(files);
+            }
+            gemmSource = ioResourceToByteBuffer("FasterMatrixMultiplication.cl", 4096);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Create an interactor for the first device of the first platform
+     */
+    public OpenCLInteractor() {
+        this(null, true);
+    }
+
+    /**
+     * Create an interactor for the given device. It does not unload the OpenCL library on {@code exit},
+     * so other interactors keep working.
+     *
+     * @param device The device, from {@link #listDevices()}
+     */
+    public OpenCLInteractor(CLDevice device) {
+        this(device, false);
+    }
+
+    private OpenCLInteractor(CLDevice target, boolean ownsLibrary) {
+        this.target = target;
+        this.ownsLibrary = ownsLibrary;
+    }
+
+    /**
+     * Enumerate every device of every platform
+     *
+     * @return The devices, in platform order then device order
+     */
+    public static List<CLDevice> listDevices() {
+        List<CLDevice> result = new ArrayList<>();
+        try (MemoryStack memoryStack = MemoryStack.stackPush()) {
+            IntBuffer count = memoryStack.mallocInt(1);
+            int error = clGetPlatformIDs(null, count);
+            if (error == CL_PLATFORM_NOT_FOUND_KHR || count.get(0) == 0)
+                return result;
+            checkCLError(error);
+            PointerBuffer platforms = memoryStack.mallocPointer(count.get(0));
+            checkCLError(clGetPlatformIDs(platforms, (IntBuffer) null));
+            for (int p = 0; p < platforms.capacity(); p++) {
+                long platform = platforms.get(p);
+                String platformName = getPlatformInfoStringUTF8(platform, CL_PLATFORM_NAME);
+                if (clGetDeviceIDs(platform, CL_DEVICE_TYPE_ALL, null, count) != CL_SUCCESS || count.get(0) == 0)
+                    continue;
+                PointerBuffer devices = memoryStack.mallocPointer(count.get(0));
+                checkCLError(clGetDeviceIDs(platform, CL_DEVICE_TYPE_ALL, devices, (IntBuffer) null));
+                for (int d = 0; d < devices.capacity(); d++) {
+                    long device = devices.get(d);
+                    result.add(new CLDevice(platform, device, platformName,
+                            getDeviceInfoStringUTF8(device, CL_DEVICE_NAME), getDeviceInfoLong(device, CL_DEVICE_TYPE)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The device of this interactor, {@code null} before {@code initialize}
+     */
+    public CLDevice getDevice() {
+        return clDevice;
+    }
+
+    /**
+     * Create the context and build the programs. On failure every partially created object is released
+     * and the exception is rethrown, so the caller can fall back to the CPU.
+     */
     public void initialize(){
         initializeSources();
 
-        MemoryStack memoryStack = MemoryStack.stackPush();
-        // Get the id of the OpenCL platform
-        IntBuffer platformID = memoryStack.mallocInt(1);
-        checkCLError(clGetPlatformIDs(null, platformID));
-        if (platformID.get(0) == 0) {
-            throw new RuntimeException("No OpenCL platforms found.");
+        try (MemoryStack memoryStack = MemoryStack.stackPush()) {
+            initialize(memoryStack);
+        } catch (RuntimeException | LinkageError e) {
+            release();
+            throw e;
         }
-        PointerBuffer platforms = memoryStack.mallocPointer(platformID.get(0));
-        checkCLError(clGetPlatformIDs(platforms, (IntBuffer) null));
+        initialized = true;
+    }
 
-        PointerBuffer ctxProps = memoryStack.mallocPointer(3);
-        ctxProps.put(0, CL_CONTEXT_PLATFORM).put(2, 0);
+    /**
+     * @return Whether the kernels compute in double precision, {@code false} when the device lacks
+     * {@code cl_khr_fp64} and the data is converted to float on the way to and from the device
+     */
+    public boolean isDoublePrecision() {
+        return doublePrecision;
+    }
 
-        errorCodeRet = memoryStack.callocInt(1);
+    private void initialize(MemoryStack memoryStack) {
+        CLDevice target = this.target;
+        if (target == null) {
+            List<CLDevice> devices = listDevices();
+            if (devices.isEmpty()) {
+                throw new RuntimeException("No OpenCL platforms found.");
+            }
+            target = devices.get(0);
+        }
+        device = target.device();
+        clDevice = target;
 
-        // Get platform (assume one only)
-        long platform = platforms.get(0);
-        ctxProps.put(1, platform);
-        checkCLError(clGetDeviceIDs(platform, CL_DEVICE_TYPE_ALL, null, platformID));
+        doublePrecision = getDeviceInfoStringUTF8(device, CL_DEVICE_EXTENSIONS).contains("cl_khr_fp64");
+        realBytes = doublePrecision ? Double.BYTES : Float.BYTES;
+        if (!doublePrecision)
+            LOGGER.warning(String.format("%s does not support cl_khr_fp64, the kernels run in single precision", target.name()));
+        byte[] prelude = (doublePrecision
+                ? "#pragma OPENCL EXTENSION cl_khr_fp64 : enable\ntypedef double real;\n"
+                : "typedef float real;\n").getBytes(StandardCharsets.US_ASCII);
+        precisionPrelude = BufferUtils.createByteBuffer(prelude.length).put(prelude).flip();
 
-        PointerBuffer devices = memoryStack.mallocPointer(platformID.get(0));
-        checkCLError(clGetDeviceIDs(platform, CL_DEVICE_TYPE_ALL, devices, (IntBuffer) null));
+        PointerBuffer ctxProps = memoryStack.mallocPointer(3);
+        ctxProps.put(0, CL_CONTEXT_PLATFORM).put(1, target.platform()).put(2, 0);
 
-        long device = devices.get(0);
-        context = clCreateContext(ctxProps, device, CLContextCallback.create((errorInfo, privateInfo, cb, userData) -> System.out.println(memUTF8(errorInfo))), NULL, errorCodeRet);
+        context = clCreateContext(ctxProps, device, CLContextCallback.create((errorInfo, privateInfo, cb, userData) -> LOGGER.warning(memUTF8(errorInfo))), NULL, errorCodeRet);
         checkCLError(errorCodeRet);
 
-        queue = clCreateCommandQueue(context, device, NULL, errorCodeRet);
+        long budget = deviceMemoryBudget > 0 ? deviceMemoryBudget : (long) (getDeviceInfoLong(device, CL_DEVICE_GLOBAL_MEM_SIZE) * DEFAULT_BUDGET_SHARE);
+        bufferPool = new CLBufferPool(context, budget);
 
         for (int i = 0; i < sources.size(); i++) {
-            final PointerBuffer strings = BufferUtils.createPointerBuffer(1);
-            final PointerBuffer lengths = BufferUtils.createPointerBuffer(1);
+            programs.add(buildProgram(sources.get(i), ""));
+            for (String kernelName : PROGRAMS[i][1]) {
+                kernelPrograms.put(kernelName, programs.get(i));
+            }
+        }
+    }
 
-            strings.put(0, sources.get(i));
-            lengths.put(0, sources.get(i).remaining());
-            programs.add(clCreateProgramWithSource(context, strings, lengths, errorCodeRet));
-            checkCLError(errorCodeRet);
+    /**
+     * Get the program of the source files for the device, from the binary cache if possible,
+     * otherwise built from source and then added to the cache
+     *
+     * @param files   The source files
+     * @param options The build options
+     * @return The {@code cl_program} handle
+     */
+    private long buildProgram(ByteBuffer[] files, String options) {
+        ByteBuffer[] withPrelude = new ByteBuffer[files.length + 1];
+        withPrelude[0] = precisionPrelude;
+        System.arraycopy(files, 0, withPrelude, 1, files.length);
+        files = withPrelude;
 
-            // To ensure the program is created before running, a latch is used.
-            CountDownLatch latch = new CountDownLatch(1);
-            final long finalDevice = device;
-            checkCLError(clBuildProgram(programs.get(i), device, "", CLProgramCallback.create((program1, userData) -> {
-                System.out.println(String.format(
-                        "The cl_program [0x%X] was built %s",
-                        program1,
-                        getProgramBuildInfoInt(program1, finalDevice, CL_PROGRAM_BUILD_STATUS) == CL_SUCCESS ? "successfully" : "unsuccessfully"
-                ));
-                String log = getProgramBuildInfoStringASCII(program1, finalDevice, CL_PROGRAM_BUILD_LOG);
-                if (!log.isEmpty()) {
-                    System.out.println(String.format("BUILD LOG:%n----%n%s%n-----", log));
-                }
+        String key = null;
+        if (programCache != null) {
+            key = CLProgramCache.key(getDeviceInfoStringUTF8(device, CL_DEVICE_NAME), getDeviceInfoStringUTF8(device, CL_DRIVER_VERSION), options, files);
+            Optional<byte[]> binary = programCache.load(key);
+            if (binary.isPresent()) {
+                long program = buildProgramFromBinary(binary.get(), options);
+                if (program != 0)
+                    return program;
+                // The driver does not accept it anymore
+                programCache.remove(key);
+            }
+        }
 
-                latch.countDown();
-            }), NULL));
+        final PointerBuffer strings = BufferUtils.createPointerBuffer(files.length);
+        final PointerBuffer lengths = BufferUtils.createPointerBuffer(files.length);
+
+        for (int j = 0; j < files.length; j++) {
+            strings.put(j, files[j]);
+            lengths.put(j, files[j].remaining());
+        }
+        long program = clCreateProgramWithSource(context, strings, lengths, errorCodeRet);
+        checkCLError(errorCodeRet);
+        build(program, options);
+        if (programCache != null)
+            programCache.store(key, programBinary(program));
+        return program;
+    }
+
+    /**
+     * Create and build a program from a cached binary
+     *
+     * @return The {@code cl_program} handle, 0 if the binary is rejected
+     */
+    private long buildProgramFromBinary(byte[] binary, String options) {
+        ByteBuffer buffer = BufferUtils.createByteBuffer(binary.length).put(binary);
+        buffer.flip();
+        IntBuffer binaryStatus = BufferUtils.createIntBuffer(1);
+        long program = clCreateProgramWithBinary(context, BufferUtils.createPointerBuffer(1).put(0, device), buffer, binaryStatus, errorCodeRet);
+        if (errorCodeRet.get(0) != CL_SUCCESS || binaryStatus.get(0) != CL_SUCCESS) {
+            if (program != 0)
+                clReleaseProgram(program);
+            return 0;
+        }
+        try {
+            build(program, options);
+        } catch (RuntimeException e) {
+            return 0;
+        }
+        return program;
+    }
+
+    /**
+     * Read the binary of a built program
+     */
+    private byte[] programBinary(long program) {
+        PointerBuffer sizes = BufferUtils.createPointerBuffer(1);
+        checkCLError(clGetProgramInfo(program, CL_PROGRAM_BINARY_SIZES, sizes, null));
+        ByteBuffer binary = BufferUtils.createByteBuffer((int) sizes.get(0));
+        PointerBuffer binaries = BufferUtils.createPointerBuffer(1).put(0, binary);
+        checkCLError(clGetProgramInfo(program, CL_PROGRAM_BINARIES, binaries, null));
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Build a program for the device, the program is released if the build fails
+     */
+    private void build(long program, String options) {
+        // To ensure the program is created before running, a latch is used.
+        CountDownLatch latch = new CountDownLatch(1);
+        final long finalDevice = device;
+        CLProgramCallback callback = CLProgramCallback.create((program1, userData) -> {
+            boolean success = getProgramBuildInfoInt(program1, finalDevice, CL_PROGRAM_BUILD_STATUS) == CL_SUCCESS;
+            String log = getProgramBuildInfoStringASCII(program1, finalDevice, CL_PROGRAM_BUILD_LOG).strip();
+            lastBuildLog = log;
+            LOGGER.log(success ? Level.FINE : Level.WARNING, () -> String.format(
+                    "The cl_program [0x%X] was built %s%s",
+                    program1,
+                    success ? "successfully" : "unsuccessfully",
+                    log.isEmpty() ? "" : String.format("%nBUILD LOG:%n----%n%s%n-----", log)
+            ));
+
+            latch.countDown();
+        });
+        try {
+            int error = clBuildProgram(program, device, options, callback, NULL);
+            if (error != CL_SUCCESS) {
+                clReleaseProgram(program);
+                checkCLError(error);
+            }
 
             // Make sure the program has been built before proceeding
             try {
@@ -114,127 +366,941 @@ public class OpenCLInteractor {
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
-
-            kernels.add(clCreateKernel(programs.get(i), kernelsName.get(i), errorCodeRet));
-            checkCLError(errorCodeRet);
+        } finally {
+            callback.free();
         }
-        initialized = true;
+        if (getProgramBuildInfoInt(program, device, CL_PROGRAM_BUILD_STATUS) != CL_SUCCESS) {
+            clReleaseProgram(program);
+            throw new RuntimeException(String.format("The OpenCL program could not be built:%n%s", lastBuildLog));
+        }
+    }
+
+    /**
+     * Record the timestamps of every command enqueued by this interactor. The queues are created with
+     * {@code CL_QUEUE_PROFILING_ENABLE}, so it has to be set before {@code initialize}.
+     *
+     * @param enabled Whether commands are profiled
+     * @throws IllegalStateException if the interactor is already initialized
+     */
+    public void setProfilingEnabled(boolean enabled) {
+        if (initialized)
+            throw new IllegalStateException("Profiling has to be set before initialize");
+        profiler = enabled ? new CLProfiler() : null;
+    }
+
+    /**
+     * Get the timings of the commands enqueued since profiling was enabled
+     *
+     * @return The profiler, {@code null} if profiling is disabled
+     */
+    public CLProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Get the log of the last program build, the same text is also logged under the name of this class
+     *
+     * @return The build log, empty if the compiler had nothing to say
+     */
+    public String getLastBuildLog() {
+        return lastBuildLog;
+    }
+
+    /**
+     * Keep compiled programs on disk so that later runs load them instead of building from source.
+     * Enabled by default, it has to be set before {@code initialize} to affect the initial build.
+     *
+     * @param enabled Whether the binary cache is used
+     */
+    public void setProgramCacheEnabled(boolean enabled) {
+        programCache = enabled ? CLProgramCache.createDefault() : null;
+    }
+
+    /**
+     * Delete every program binary of the cache, the next build of each program is from source
+     */
+    public void clearProgramCache() {
+        CLProgramCache.createDefault().clear();
+    }
+
+    public boolean isInitialized() {
+        return initialized;
     }
 
     public void exit(){
         initialized = false;
-        for(Long kernel:kernels)
-            clReleaseKernel(kernel);
+        if (profiler != null)
+            profiler.collect();
+        release();
+        if (ownsLibrary)
+            CL.destroy();
+    }
+
+    /**
+     * Release whatever has been created so far, also used to clean up after a failed {@code initialize}
+     */
+    private void release() {
+        synchronized (allCommandQueues) {
+            for (CLCommandQueue commandQueue : allCommandQueues)
+                commandQueue.release();
+            allCommandQueues.clear();
+        }
         for(Long program:programs)
             clReleaseProgram(program);
-        clReleaseMemObject(matrixAMemory);
-        clReleaseMemObject(matrixBMemory);
-        clReleaseMemObject(matrixCMemory);
-        clReleaseMemObject(matrixDMemory);
-        clReleaseCommandQueue(queue);
-        clReleaseContext(context);
-        CL.destroy();
+        kernelPrograms.clear();
+        programs.clear();
+        sources.clear();
+        releaseGemmProgram();
+        gemmConfiguration = null;
+        gemmUnavailable = false;
+        if (bufferPool != null)
+            bufferPool.close();
+        bufferPool = null;
+        if (context != NULL)
+            clReleaseContext(context);
+        context = NULL;
     }
 
-    public Matrix clMultiply(Matrix matrixA, Matrix matrixB){
-        if(!initialized)
-            throw new OpenCLNotInitializedException();
-        final PointerBuffer kernel2DGlobalWorkSize = BufferUtils.createPointerBuffer(2);
-        kernel2DGlobalWorkSize.put(0, matrixA.getNumOfRows()).put(1, matrixB.getNumOfColumns());
-        checkCLError(errorCodeRet);
+    /**
+     * Set the number of bytes the device buffer pool may keep allocated.
+     * By default it is half of the device's global memory.
+     *
+     * @param bytes The budget in bytes
+     */
+    public void setDeviceMemoryBudget(long bytes) {
+        deviceMemoryBudget = bytes;
+        if (bufferPool != null)
+            bufferPool.setBudget(bytes);
+    }
 
-        DoubleBuffer aMatrix = toDoubleBuffer(matrixA.getData());
-        DoubleBuffer bMatrix = toDoubleBuffer(matrixB.getData());
-        DoubleBuffer cMatrix = BufferUtils.createDoubleBuffer(matrixA.getNumOfRows() * matrixB.getNumOfColumns());
+    /**
+     * Get the allocation and reuse statistics of the device buffer pool
+     *
+     * @return The statistics, all zero if OpenCL has not been initialized
+     */
+    public CLBufferPool.Statistics getBufferPoolStatistics() {
+        if (bufferPool == null)
+            return new CLBufferPool.Statistics(0, 0, 0, 0, 0, 0);
+        return bufferPool.getStatistics();
+    }
 
-        matrixAMemory = clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, aMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        matrixBMemory = clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, bMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        matrixCMemory = clCreateBuffer(context, CL_MEM_WRITE_ONLY | CL_MEM_COPY_HOST_PTR, cMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        // Finish the queue
-        clEnqueueWriteBuffer(queue, matrixAMemory, true, 0, aMatrix, null, null);
-        clEnqueueWriteBuffer(queue, matrixBMemory, true, 0, bMatrix, null, null);
-        clFinish(queue);
-
-        clSetKernelArg1i(kernels.get(0), 0, matrixA.getNumOfRows());        // set M
-        clSetKernelArg1i(kernels.get(0), 1, matrixB.getNumOfColumns());     // set N
-        clSetKernelArg1i(kernels.get(0), 2, matrixA.getNumOfColumns());     // set K
-        clSetKernelArg1p(kernels.get(0), 3, matrixAMemory);                 // set A    use 1p instead of 1d where p stands for pointer, not flowPoint, as I pass an ARRAY!@!!!!!
-        clSetKernelArg1p(kernels.get(0), 4, matrixBMemory);                 // set B
-        clSetKernelArg1p(kernels.get(0), 5, matrixCMemory);                 // set C
-
-        clEnqueueNDRangeKernel(queue, kernels.get(0), 2, null, kernel2DGlobalWorkSize, null, null, null);
-        clEnqueueReadBuffer(queue, matrixCMemory, false, 0, cMatrix, null, null);
-        clFinish(queue);
-
-        clReleaseMemObject(matrixAMemory);
-        clReleaseMemObject(matrixBMemory);
-        clReleaseMemObject(matrixCMemory);
+    /**
+     * Get the configuration of the tiled multiplication kernel, tuning the device on first use.
+     * A configuration found by an earlier run on the same device and driver is reused.
+     *
+     * @return The configuration, {@code null} if the tiled kernel cannot be built on this device
+     */
+    public GemmConfiguration getGemmConfiguration() {
+        ensureInitialized();
+        gemmProgram();
+        return gemmConfiguration;
+    }
+
+    /**
+     * Use the given configuration for the tiled multiplication kernel instead of the tuned one
+     *
+     * @param configuration The configuration
+     */
+    public synchronized void setGemmConfiguration(GemmConfiguration configuration) {
+        ensureInitialized();
+        releaseGemmProgram();
+        gemmUnavailable = false;
+        loadGemmProgram(configuration);
+    }
+
+    /**
+     * Time every configuration that fits the device, keep the fastest and store it for later runs
+     *
+     * @return The fastest configuration
+     */
+    public synchronized GemmConfiguration tuneGemm() {
+        ensureInitialized();
+        releaseGemmProgram();
+        List<GemmConfiguration> candidates = GemmConfiguration.candidates(
+                getDeviceInfoPointer(device, CL_DEVICE_MAX_WORK_GROUP_SIZE),
+                getDeviceInfoLong(device, CL_DEVICE_LOCAL_MEM_SIZE));
+        Matrix matrix = Matrix.createNewEmptyMatrix(TUNING_SIZE, TUNING_SIZE).fillRandomDoubles();
+        long[] buffers = new long[3];
+        GemmConfiguration best;
+        try {
+            buffers[0] = upload(matrix);
+            buffers[1] = upload(matrix);
+            buffers[2] = allocate(matrix.getNumOfEntries());
+            best = GemmTuner.tune(candidates, configuration -> timeGemm(configuration, buffers[0], buffers[1], buffers[2]));
+        } finally {
+            commandQueue().finish();
+            for (long buffer : buffers)
+                if (buffer != NULL)
+                    free(buffer);
+        }
+        GemmTuner.store(deviceKey(), best);
+        loadGemmProgram(best);
+        return best;
+    }
 
+    public Matrix clMultiply(Matrix matrixA, Matrix matrixB){
+        ensureInitialized();
+        CLCommandQueue commandQueue = commandQueue();
         Matrix result = Matrix.createNewEmptyMatrix(matrixA.getNumOfRows(), matrixB.getNumOfColumns());
-        result.setData(cMatrix);
 
+        // A failed upload leaves the later handles at 0, which free ignores
+        long matrixAMemory = 0, matrixBMemory = 0, matrixCMemory = 0;
+        try {
+            matrixAMemory = upload(matrixA);
+            matrixBMemory = upload(matrixB);
+            matrixCMemory = allocate(result.getNumOfEntries());
+            enqueueMultiply(matrixAMemory, matrixBMemory, matrixCMemory, matrixA.getNumOfRows(), matrixB.getNumOfColumns(), matrixA.getNumOfColumns());
+            download(matrixCMemory, result);
+        } finally {
+            commandQueue.free(matrixAMemory);
+            commandQueue.free(matrixBMemory);
+            commandQueue.free(matrixCMemory);
+        }
         return result;
     }
 
     public Matrix clForwardPass(final Matrix weights, final Matrix inputs, final Matrix bias, final int mode){
+        ensureInitialized();
+        CLCommandQueue commandQueue = commandQueue();
+        Matrix result = Matrix.createNewEmptyMatrix(weights.getNumOfRows(), inputs.getNumOfColumns());
+
+        long weightsMemory = 0, inputsMemory = 0, biasMemory = 0, resultMemory = 0;
+        try {
+            weightsMemory = upload(weights);
+            inputsMemory = upload(inputs);
+            biasMemory = upload(bias);
+            resultMemory = allocate(result.getNumOfEntries());
+            // An M x 1 bias is added to every column, as Matrix.forwardPass does, the M x N kernel would read past it
+            if (bias.getNumOfColumns() == 1)
+                enqueueForwardPassColumnBias(weightsMemory, inputsMemory, biasMemory, resultMemory, weights.getNumOfRows(), inputs.getNumOfColumns(), weights.getNumOfColumns(), mode);
+            else
+                enqueueForwardPass(weightsMemory, inputsMemory, biasMemory, resultMemory, weights.getNumOfRows(), inputs.getNumOfColumns(), weights.getNumOfColumns(), mode);
+            download(resultMemory, result);
+        } finally {
+            commandQueue.free(weightsMemory);
+            commandQueue.free(inputsMemory);
+            commandQueue.free(biasMemory);
+            commandQueue.free(resultMemory);
+        }
+        return result;
+    }
+
+    public Matrix clAdd(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        try (CLMatrix a = toDevice(matrixA); CLMatrix b = toDevice(matrixB); CLMatrix c = a.add(b)) {
+            return c.download();
+        }
+    }
+
+    public Matrix clSubtract(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        try (CLMatrix a = toDevice(matrixA); CLMatrix b = toDevice(matrixB); CLMatrix c = a.subtract(b)) {
+            return c.download();
+        }
+    }
+
+    public Matrix clHadamard(Matrix matrixA, Matrix matrixB) throws MatrixDimensionsNotMatchException {
+        try (CLMatrix a = toDevice(matrixA); CLMatrix b = toDevice(matrixB); CLMatrix c = a.hadamard(b)) {
+            return c.download();
+        }
+    }
+
+    public Matrix clScale(Matrix matrix, double factor) {
+        try (CLMatrix a = toDevice(matrix); CLMatrix b = a.scale(factor)) {
+            return b.download();
+        }
+    }
+
+    public Matrix clTranspose(Matrix matrix) {
+        try (CLMatrix a = toDevice(matrix); CLMatrix b = a.transpose()) {
+            return b.download();
+        }
+    }
+
+    public double clReduce(Matrix matrix, Reduction reduction) {
+        try (CLMatrix a = toDevice(matrix)) {
+            return a.reduce(reduction);
+        }
+    }
+
+    public Matrix clConvolve(Matrix matrix, Matrix mask) {
+        try (CLMatrix a = toDevice(matrix); CLMatrix k = toDevice(mask); CLMatrix c = a.convolve(k)) {
+            return c.download();
+        }
+    }
+
+    /**
+     * Copy a matrix to the device, operations on the returned {@code CLMatrix} stay on the device
+     * until it is downloaded
+     *
+     * @param matrix The matrix
+     * @return The device resident matrix
+     */
+    public CLMatrix toDevice(Matrix matrix) {
+        ensureInitialized();
+        return new CLMatrix(this, upload(matrix), matrix.getNumOfRows(), matrix.getNumOfColumns());
+    }
+
+    /**
+     * Create a pipeline that overlaps the uploads, kernels and downloads of successive operations
+     *
+     * @param depth The number of operations that can be in flight at once
+     * @return The pipeline, to be closed once done with
+     */
+    public CLPipeline createPipeline(int depth) {
+        ensureInitialized();
+        return new CLPipeline(this, depth);
+    }
+
+    /**
+     * Create a pipeline of {@code CLPipeline.DEFAULT_DEPTH} operations in flight
+     *
+     * @return The pipeline, to be closed once done with
+     */
+    public CLPipeline createPipeline() {
+        return createPipeline(CLPipeline.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Create another in-order queue on the device of this interactor
+     *
+     * @return The {@code cl_command_queue} handle, to be released by the caller
+     */
+    long createQueue() {
+        IntBuffer errorCode = BufferUtils.createIntBuffer(1);
+        long newQueue = clCreateCommandQueue(context, device, profiler != null ? CL_QUEUE_PROFILING_ENABLE : 0, errorCode);
+        checkCLError(errorCode);
+        return newQueue;
+    }
+
+    /**
+     * Get the queue of the calling thread, created on its first OpenCL command.
+     * The queues of threads that have terminated are released at the same time.
+     *
+     * @return The queue
+     */
+    CLCommandQueue commandQueue() {
+        CLCommandQueue commandQueue = commandQueues.get();
+        if (commandQueue == null || commandQueue.isReleased()) {
+            commandQueue = new CLCommandQueue(this, createQueue(), Thread.currentThread());
+            synchronized (allCommandQueues) {
+                allCommandQueues.removeIf(orphan -> {
+                    if (!orphan.isOrphaned())
+                        return false;
+                    orphan.release();
+                    return true;
+                });
+                allCommandQueues.add(commandQueue);
+            }
+            commandQueues.set(commandQueue);
+        }
+        return commandQueue;
+    }
+
+    /**
+     * @return The number of thread queues alive
+     */
+    int getNumOfCommandQueues() {
+        synchronized (allCommandQueues) {
+            return allCommandQueues.size();
+        }
+    }
+
+    /**
+     * Get the program that defines a kernel
+     *
+     * @param name The name of the kernel
+     * @return The {@code cl_program} handle
+     */
+    long programOf(String name) {
+        Long program = kernelPrograms.get(name);
+        if (program == null)
+            throw new IllegalArgumentException("No OpenCL kernel named " + name);
+        return program;
+    }
+
+    void ensureInitialized() {
         if(!initialized)
             throw new OpenCLNotInitializedException();
-        final PointerBuffer kernel2DGlobalWorkSize = BufferUtils.createPointerBuffer(2);
-        kernel2DGlobalWorkSize.put(0, weights.getNumOfRows()).put(1, inputs.getNumOfColumns());
-        checkCLError(errorCodeRet);
+    }
 
-        DoubleBuffer weightsMatrix = toDoubleBuffer(weights.getData());
-        DoubleBuffer inputsMatrix = toDoubleBuffer(inputs.getData());
-        DoubleBuffer biasMatrix = toDoubleBuffer(bias.getData());
-        DoubleBuffer resultMatrix = BufferUtils.createDoubleBuffer(bias.getColumnSize());
+    /**
+     * Get a device buffer from the pool
+     *
+     * @param numOfEntries The number of doubles it has to hold
+     * @return The {@code cl_mem} handle, to be given back with {@code free}
+     */
+    long allocate(long numOfEntries) {
+        return bufferPool.acquire(numOfEntries * realBytes);
+    }
 
-        matrixAMemory = clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, weightsMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        matrixBMemory = clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, inputsMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        matrixCMemory = clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, biasMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        matrixDMemory = clCreateBuffer(context, CL_MEM_WRITE_ONLY | CL_MEM_COPY_HOST_PTR, resultMatrix, errorCodeRet);
-        checkCLError(errorCodeRet);
-        // Finish the queue
-        clEnqueueWriteBuffer(queue, matrixAMemory, true, 0, weightsMatrix, null, null);
-        clEnqueueWriteBuffer(queue, matrixBMemory, true, 0, inputsMatrix, null, null);
-        clEnqueueWriteBuffer(queue, matrixCMemory, true, 0, biasMatrix, null, null);
-        clFinish(queue);
-
-        clSetKernelArg1i(kernels.get(1), 0, weights.getNumOfRows());        // set M
-        clSetKernelArg1i(kernels.get(1), 1, inputs.getNumOfColumns());      // set N
-        clSetKernelArg1i(kernels.get(1), 2, weights.getNumOfColumns());     // set K
-        clSetKernelArg1p(kernels.get(1), 3, matrixAMemory);                 // set weightMatrix    use 1p instead of 1d where p stands for pointer, not flowPoint, as I pass an ARRAY!@!!!!!
-        clSetKernelArg1p(kernels.get(1), 4, matrixBMemory);                 // set inputsMatrix
-        clSetKernelArg1p(kernels.get(1), 5, matrixCMemory);                 // set biasMatrix
-        clSetKernelArg1p(kernels.get(1), 6, matrixDMemory);                 // set resultsMatrix
-        clSetKernelArg1i(kernels.get(1), 7, mode);                          // set MODE
-
-        clEnqueueNDRangeKernel(queue, kernels.get(1), 2, null, kernel2DGlobalWorkSize, null, null, null);
-        clEnqueueReadBuffer(queue, matrixDMemory, false, 0, resultMatrix, null, null);
-        clFinish(queue);
-
-        clReleaseMemObject(matrixAMemory);
-        clReleaseMemObject(matrixBMemory);
-        clReleaseMemObject(matrixCMemory);
-        clReleaseMemObject(matrixDMemory);
+    /**
+     * Give a device buffer back to the pool right away, no pending command may still use it.
+     * Buffers used on a thread's queue go through {@code CLCommandQueue.free} instead.
+     *
+     * @param memory The {@code cl_mem} handle
+     */
+    void free(long memory) {
+        // After exit the pool has already released every buffer
+        if (bufferPool != null)
+            bufferPool.release(memory);
+    }
 
-        Matrix result = Matrix.createNewEmptyMatrix(weights.getNumOfRows(), inputs.getNumOfColumns());
-        result.setData(resultMatrix);
+    /**
+     * Copy the data of a matrix into a pooled device buffer
+     *
+     * @param matrix The matrix
+     * @return The {@code cl_mem} handle, to be released to the pool
+     */
+    long upload(Matrix matrix) {
+        ByteBuffer buffer = toHostBuffer(matrix);
+        long memory = allocate(matrix.getNumOfEntries());
+        // The host buffer is only valid during this call, so the write has to block
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        try {
+            checkCLError(clEnqueueWriteBuffer(commandQueue.handle(), memory, true, 0, buffer, null, profiled));
+        } catch (RuntimeException e) {
+            free(memory);
+            throw e;
+        }
+        profile(profiled, null, "upload", CLProfiler.CommandType.WRITE, 0, buffer.capacity());
+        commandQueue.drained();
+        return memory;
+    }
 
-        return result;
+    /**
+     * Copy a device buffer into a matrix, waiting for every command enqueued before
+     *
+     * @param memory The {@code cl_mem} handle
+     * @param target The matrix to fill, its size decides how much is read
+     */
+    void download(long memory, Matrix target) {
+        ByteBuffer buffer = createHostBuffer(target.getNumOfEntries());
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        checkCLError(clEnqueueReadBuffer(commandQueue.handle(), memory, true, 0, buffer, null, profiled));
+        profile(profiled, null, "download", CLProfiler.CommandType.READ, 0, buffer.capacity());
+        commandQueue.drained();
+        fromHostBuffer(buffer, target);
+    }
+
+    /**
+     * Copy the data of a matrix into an existing device buffer through an existing host buffer,
+     * nothing is allocated
+     *
+     * @param memory The {@code cl_mem} handle, large enough for the matrix
+     * @param matrix The matrix
+     * @param host   A host buffer from {@code createHostBuffer}, large enough for the matrix
+     */
+    void write(long memory, Matrix matrix, ByteBuffer host) {
+        double[] data = matrix.getData();
+        for (int i = 0; i < data.length; i++) {
+            if (doublePrecision)
+                host.putDouble(i * Double.BYTES, data[i]);
+            else
+                host.putFloat(i * Float.BYTES, (float) data[i]);
+        }
+        host.clear().limit(data.length * realBytes);
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        checkCLError(clEnqueueWriteBuffer(commandQueue.handle(), memory, true, 0, host, null, profiled));
+        profile(profiled, null, "upload", CLProfiler.CommandType.WRITE, 0, host.remaining());
+        commandQueue.drained();
+    }
+
+    /**
+     * Copy the start of a device buffer into a matrix through an existing host buffer, waiting for every
+     * command enqueued before. Nothing is allocated.
+     *
+     * @param memory The {@code cl_mem} handle
+     * @param target The matrix to fill, its size decides how much is read
+     * @param host   A host buffer from {@code createHostBuffer}, large enough for the matrix
+     */
+    void read(long memory, Matrix target, ByteBuffer host) {
+        double[] data = target.getData();
+        host.clear().limit(data.length * realBytes);
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        checkCLError(clEnqueueReadBuffer(commandQueue.handle(), memory, true, 0, host, null, profiled));
+        profile(profiled, null, "download", CLProfiler.CommandType.READ, 0, host.remaining());
+        commandQueue.drained();
+        for (int i = 0; i < data.length; i++)
+            data[i] = doublePrecision ? host.getDouble(i * Double.BYTES) : host.getFloat(i * Float.BYTES);
     }
 
-    private DoubleBuffer toDoubleBuffer(double[] doubles) {
-        DoubleBuffer buffer = BufferUtils.createDoubleBuffer(doubles.length).put(doubles);
-        buffer.rewind();
+    /**
+     * C = A x B where A is M x K and B is K x N
+     */
+    void enqueueMultiply(long a, long b, long c, int m, int n, int k) {
+        CLCommandQueue commandQueue = commandQueue();
+        enqueueMultiply(commandQueue.handle(), null, null, a, b, c, m, n, k);
+        commandQueue.enqueued();
+    }
+
+    /**
+     * C = A x B on the given queue, once the commands of the wait list are complete
+     *
+     * @param waitList The events to wait for, can be {@code null}
+     * @param event    Receives the event of the kernel, can be {@code null}
+     */
+    void enqueueMultiply(long queue, PointerBuffer waitList, PointerBuffer event, long a, long b, long c, int m, int n, int k) {
+        // The kernels of the calling thread, whatever queue they are enqueued on
+        CLCommandQueue commandQueue = commandQueue();
+        long tiled = commandQueue.gemmKernel();
+        if (tiled != 0) {
+            enqueueTiledMultiply(queue, waitList, event, "multiply", tiled, commandQueue.gemmConfiguration(), a, b, c, m, n, k);
+            return;
+        }
+        // The tiled kernel does not build on this device, use the naive one
+        long kernel = commandQueue.kernel("multiply");
+        clSetKernelArg1i(kernel, 0, m);        // set M
+        clSetKernelArg1i(kernel, 1, n);        // set N
+        clSetKernelArg1i(kernel, 2, k);        // set K
+        clSetKernelArg1p(kernel, 3, a);        // set A
+        clSetKernelArg1p(kernel, 4, b);        // set B
+        clSetKernelArg1p(kernel, 5, c);        // set C
+        enqueue2D(queue, waitList, event, kernel, m, n, "multiply", 2.0 * m * n * k, gemmBytes(m, n, k));
+    }
+
+    private long gemmBytes(int m, int n, int k) {
+        return ((long) m * k + (long) k * n + (long) m * n) * realBytes;
+    }
+
+    private void enqueueTiledMultiply(long queue, PointerBuffer waitList, PointerBuffer event, String name, long kernel, GemmConfiguration configuration, long a, long b, long c, int m, int n, int k) {
+        clSetKernelArg1i(kernel, 0, m);        // set M
+        clSetKernelArg1i(kernel, 1, n);        // set N
+        clSetKernelArg1i(kernel, 2, k);        // set K
+        clSetKernelArg1p(kernel, 3, a);        // set A    use 1p instead of 1d where p stands for pointer, not flowPoint, as I pass an ARRAY!@!!!!!
+        clSetKernelArg1p(kernel, 4, b);        // set B
+        clSetKernelArg1p(kernel, 5, c);        // set C
+        long[] global = configuration.globalWorkSize(m, n);
+        long[] local = configuration.localWorkSize();
+        PointerBuffer globalWorkSize = BufferUtils.createPointerBuffer(2);
+        globalWorkSize.put(0, global[0]).put(1, global[1]);
+        PointerBuffer localWorkSize = BufferUtils.createPointerBuffer(2);
+        localWorkSize.put(0, local[0]).put(1, local[1]);
+        PointerBuffer profiled = profilingEvent(event);
+        checkCLError(clEnqueueNDRangeKernel(queue, kernel, 2, null, globalWorkSize, localWorkSize, waitList, profiled));
+        profile(profiled, event, name, CLProfiler.CommandType.KERNEL, 2.0 * m * n * k, gemmBytes(m, n, k));
+    }
+
+    /**
+     * Get the tiled multiplication program, loading the stored configuration of the device or tuning it
+     *
+     * @return The {@code cl_program} handle, 0 if the tiled kernel cannot be built on this device
+     */
+    synchronized long gemmProgram() {
+        if (gemmProgram == 0 && !gemmUnavailable) {
+            try {
+                Optional<GemmConfiguration> stored = GemmTuner.load(deviceKey());
+                if (stored.isPresent())
+                    loadGemmProgram(stored.get());
+                else
+                    tuneGemm();
+            } catch (RuntimeException e) {
+                releaseGemmProgram();
+                gemmConfiguration = null;
+                gemmUnavailable = true;
+            }
+        }
+        return gemmProgram;
+    }
+
+    /**
+     * @return The configuration the current tiled multiplication program is built with
+     */
+    synchronized GemmConfiguration gemmConfigurationOfProgram() {
+        return gemmConfiguration;
+    }
+
+    synchronized int gemmGeneration() {
+        return gemmGeneration;
+    }
+
+    private synchronized void loadGemmProgram(GemmConfiguration configuration) {
+        long program = buildProgram(new ByteBuffer[]{gemmSource}, configuration.buildOptions());
+        // Make sure the kernel can be created before any thread tries to
+        long kernel = clCreateKernel(program, "multiply", errorCodeRet);
+        if (errorCodeRet.get(0) != CL_SUCCESS) {
+            clReleaseProgram(program);
+            checkCLError(errorCodeRet);
+        }
+        clReleaseKernel(kernel);
+        gemmProgram = program;
+        gemmConfiguration = configuration;
+        gemmGeneration++;
+    }
+
+    /**
+     * Release the tiled multiplication program, the kernels the threads created from it keep it alive until
+     * they notice the change
+     */
+    private synchronized void releaseGemmProgram() {
+        if (gemmProgram != 0)
+            clReleaseProgram(gemmProgram);
+        gemmProgram = 0;
+        gemmGeneration++;
+    }
+
+    /**
+     * Build the kernel with a configuration and time the best of a few multiplications of the tuning size
+     */
+    private long timeGemm(GemmConfiguration configuration, long a, long b, long c) {
+        long program = 0;
+        long kernel = 0;
+        try {
+            program = buildProgram(new ByteBuffer[]{gemmSource}, configuration.buildOptions());
+            kernel = clCreateKernel(program, "multiply", errorCodeRet);
+            checkCLError(errorCodeRet);
+            long queue = commandQueue().handle();
+            // The first run pays for the kernel upload
+            enqueueTiledMultiply(queue, null, null, "tuning", kernel, configuration, a, b, c, TUNING_SIZE, TUNING_SIZE, TUNING_SIZE);
+            checkCLError(clFinish(queue));
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < TUNING_RUNS; i++) {
+                long start = System.nanoTime();
+                enqueueTiledMultiply(queue, null, null, "tuning", kernel, configuration, a, b, c, TUNING_SIZE, TUNING_SIZE, TUNING_SIZE);
+                checkCLError(clFinish(queue));
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            return best;
+        } catch (RuntimeException e) {
+            // The device rejected the configuration, e.g. not enough registers
+            return Long.MAX_VALUE;
+        } finally {
+            if (kernel != 0)
+                clReleaseKernel(kernel);
+            if (program != 0)
+                clReleaseProgram(program);
+        }
+    }
+
+    /**
+     * Identify the device, its driver and the tiled kernel source for the stored tunings
+     */
+    private String deviceKey() {
+        CRC32 crc = new CRC32();
+        crc.update(gemmSource.duplicate());
+        return String.format("%s|%s|%08x",
+                getDeviceInfoStringUTF8(device, CL_DEVICE_NAME),
+                getDeviceInfoStringUTF8(device, CL_DRIVER_VERSION),
+                crc.getValue());
+    }
+
+    /**
+     * result = activation(weights x inputs + bias) where weights is M x K and inputs is K x N
+     */
+    void enqueueForwardPass(long weights, long inputs, long bias, long result, int m, int n, int k, int mode) {
+        CLCommandQueue commandQueue = commandQueue();
+        enqueueForwardPass(commandQueue.handle(), null, null, weights, inputs, bias, result, m, n, k, mode);
+        commandQueue.enqueued();
+    }
+
+    /**
+     * The forward pass on the given queue, once the commands of the wait list are complete
+     *
+     * @param waitList The events to wait for, can be {@code null}
+     * @param event    Receives the event of the kernel, can be {@code null}
+     */
+    void enqueueForwardPass(long queue, PointerBuffer waitList, PointerBuffer event, long weights, long inputs, long bias, long result, int m, int n, int k, int mode) {
+        long kernel = commandQueue().kernel("forwardPass");
+        clSetKernelArg1i(kernel, 0, m);        // set M
+        clSetKernelArg1i(kernel, 1, n);        // set N
+        clSetKernelArg1i(kernel, 2, k);        // set K
+        clSetKernelArg1p(kernel, 3, weights);  // set weightMatrix
+        clSetKernelArg1p(kernel, 4, inputs);   // set inputsMatrix
+        clSetKernelArg1p(kernel, 5, bias);     // set biasMatrix
+        clSetKernelArg1p(kernel, 6, result);   // set resultsMatrix
+        clSetKernelArg1i(kernel, 7, mode);     // set MODE
+        enqueue2D(queue, waitList, event, kernel, m, n, "forwardPass", 2.0 * m * n * k + 2.0 * m * n, gemmBytes(m, n, k) + (long) m * n * realBytes);
+    }
+
+    /**
+     * result = activation(weights x inputs + bias) where the bias is an M x 1 vector added to every column
+     */
+    void enqueueForwardPassColumnBias(long weights, long inputs, long bias, long result, int m, int n, int k, int mode) {
+        CLCommandQueue commandQueue = commandQueue();
+        long kernel = commandQueue.kernel("forwardPassColumnBias");
+        clSetKernelArg1i(kernel, 0, m);
+        clSetKernelArg1i(kernel, 1, n);
+        clSetKernelArg1i(kernel, 2, k);
+        clSetKernelArg1p(kernel, 3, weights);
+        clSetKernelArg1p(kernel, 4, inputs);
+        clSetKernelArg1p(kernel, 5, bias);
+        clSetKernelArg1p(kernel, 6, result);
+        clSetKernelArg1i(kernel, 7, mode);
+        enqueue2D(commandQueue.handle(), null, null, kernel, m, n, "forwardPass", 2.0 * m * n * k + 2.0 * m * n, gemmBytes(m, n, k) + (long) m * realBytes);
+        commandQueue.enqueued();
+    }
+
+    /**
+     * C = A + B, entry by entry
+     */
+    void enqueueAdd(long a, long b, long c, int size) {
+        long kernel = commandQueue().kernel("add");
+        clSetKernelArg1i(kernel, 0, size);
+        clSetKernelArg1p(kernel, 1, a);
+        clSetKernelArg1p(kernel, 2, b);
+        clSetKernelArg1p(kernel, 3, c);
+        enqueue1D(kernel, size, "add", size, 3L * size * realBytes);
+    }
+
+    /**
+     * B = activation(A), entry by entry, with the modes of {@code ForwardPass.cl}
+     */
+    void enqueueActivate(long a, long b, int size, int mode) {
+        long kernel = commandQueue().kernel("activate");
+        clSetKernelArg1i(kernel, 0, size);
+        clSetKernelArg1p(kernel, 1, a);
+        clSetKernelArg1p(kernel, 2, b);
+        clSetKernelArg1i(kernel, 3, mode);
+        enqueue1D(kernel, size, "activate", size, 2L * size * realBytes);
+    }
+
+    /**
+     * B = transpose(A) where A is rows x columns
+     */
+    void enqueueTranspose(long a, long b, int rows, int columns) {
+        long kernel = commandQueue().kernel("transpose");
+        clSetKernelArg1i(kernel, 0, rows);
+        clSetKernelArg1i(kernel, 1, columns);
+        clSetKernelArg1p(kernel, 2, a);
+        clSetKernelArg1p(kernel, 3, b);
+        PointerBuffer globalWorkSize = BufferUtils.createPointerBuffer(2);
+        globalWorkSize.put(0, roundUp(columns, TRANSPOSE_TILE_SIZE)).put(1, roundUp(rows, TRANSPOSE_TILE_SIZE));
+        PointerBuffer localWorkSize = BufferUtils.createPointerBuffer(2);
+        localWorkSize.put(0, TRANSPOSE_TILE_SIZE).put(1, TRANSPOSE_TILE_SIZE);
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        checkCLError(clEnqueueNDRangeKernel(commandQueue.handle(), kernel, 2, null, globalWorkSize, localWorkSize, null, profiled));
+        profile(profiled, null, "transpose", CLProfiler.CommandType.KERNEL, 0, 2L * rows * columns * realBytes);
+        commandQueue.enqueued();
+    }
+
+    /**
+     * C = A - B, entry by entry
+     */
+    void enqueueSubtract(long a, long b, long c, int size) {
+        enqueueBinary("subtract", a, b, c, size);
+    }
+
+    /**
+     * C = A * B, entry by entry
+     */
+    void enqueueHadamard(long a, long b, long c, int size) {
+        enqueueBinary("hadamard", a, b, c, size);
+    }
+
+    private void enqueueBinary(String name, long a, long b, long c, int size) {
+        long kernel = commandQueue().kernel(name);
+        clSetKernelArg1i(kernel, 0, size);
+        clSetKernelArg1p(kernel, 1, a);
+        clSetKernelArg1p(kernel, 2, b);
+        clSetKernelArg1p(kernel, 3, c);
+        enqueue1D(kernel, size, name, size, 3L * size * realBytes);
+    }
+
+    /**
+     * B = factor * A
+     */
+    void enqueueScale(long a, long b, int size, double factor) {
+        long kernel = commandQueue().kernel("scale");
+        clSetKernelArg1i(kernel, 0, size);
+        clSetKernelArg1p(kernel, 1, a);
+        clSetKernelArg1p(kernel, 2, b);
+        if (doublePrecision)
+            clSetKernelArg1d(kernel, 3, factor);
+        else
+            clSetKernelArg1f(kernel, 3, (float) factor);
+        enqueue1D(kernel, size, "scale", size, 2L * size * realBytes);
+    }
+
+    /**
+     * C = A * K without padding, where A is rows x columns and K is kernelRows x kernelColumns
+     */
+    void enqueueConvolve(long a, long k, long c, int rows, int columns, int kernelRows, int kernelColumns) {
+        long kernel = commandQueue().kernel("convolve");
+        int resultRows = rows - kernelRows + 1;
+        int resultColumns = columns - kernelColumns + 1;
+        clSetKernelArg1i(kernel, 0, rows);
+        clSetKernelArg1i(kernel, 1, columns);
+        clSetKernelArg1i(kernel, 2, kernelRows);
+        clSetKernelArg1i(kernel, 3, kernelColumns);
+        clSetKernelArg1p(kernel, 4, a);
+        clSetKernelArg1p(kernel, 5, k);
+        clSetKernelArg1p(kernel, 6, c);
+        CLCommandQueue commandQueue = commandQueue();
+        enqueue2D(commandQueue.handle(), null, null, kernel, resultRows, resultColumns, "convolve",
+                2.0 * resultRows * resultColumns * kernelRows * kernelColumns,
+                ((long) rows * columns + (long) kernelRows * kernelColumns + (long) resultRows * resultColumns) * realBytes);
+        commandQueue.enqueued();
+    }
+
+    /**
+     * Reduce a device buffer to one value. The first pass leaves one partial value per work-group,
+     * a second pass with a single work-group folds them, and only that value is read back.
+     *
+     * @param a         The {@code cl_mem} handle
+     * @param size      The number of entries
+     * @param reduction SUM, MEAN, MIN, MAX, ABSOLUTE_SUM or NORM
+     * @return The reduced value
+     */
+    double reduce(long a, int size, Reduction reduction) {
+        int mode = switch (reduction) {
+            case SUM, MEAN -> 0;
+            case MAX -> 1;
+            case MIN -> 2;
+            case NORM -> 3;
+            case ABSOLUTE_SUM -> 4;
+            default -> throw new UnsupportedOperationException(reduction + " is not available in OpenCL");
+        };
+        if (size == 0)
+            return switch (reduction) {
+                case MIN, MAX, MEAN -> Double.NaN;
+                default -> 0;
+            };
+        long partial = allocate(REDUCTION_GROUPS);
+        long total = allocate(1);
+        try {
+            enqueueReduce(a, partial, size, mode, REDUCTION_GROUPS, size);
+            // The partials are already squared or positive
+            enqueueReduce(partial, total, REDUCTION_GROUPS, mode >= 3 ? 0 : mode, 1, REDUCTION_GROUPS);
+            ByteBuffer value = createHostBuffer(1);
+            CLCommandQueue commandQueue = commandQueue();
+            PointerBuffer profiled = profilingEvent(null);
+            checkCLError(clEnqueueReadBuffer(commandQueue.handle(), total, true, 0, value, null, profiled));
+            profile(profiled, null, "download", CLProfiler.CommandType.READ, 0, realBytes);
+            commandQueue.drained();
+            double result = doublePrecision ? value.getDouble(0) : value.getFloat(0);
+            return switch (reduction) {
+                case MEAN -> result / size;
+                case NORM -> Math.sqrt(result);
+                default -> result;
+            };
+        } finally {
+            commandQueue().free(partial);
+            commandQueue().free(total);
+        }
+    }
+
+    private void enqueueReduce(long a, long partial, int size, int mode, int groups, long entries) {
+        long kernel = commandQueue().kernel("reduce");
+        clSetKernelArg1i(kernel, 0, size);
+        clSetKernelArg1p(kernel, 1, a);
+        clSetKernelArg1p(kernel, 2, partial);
+        checkCLError(clSetKernelArg(kernel, 3, (long) REDUCTION_GROUP_SIZE * realBytes));   // local scratch
+        clSetKernelArg1i(kernel, 4, mode);
+        PointerBuffer globalWorkSize = BufferUtils.createPointerBuffer(1);
+        globalWorkSize.put(0, (long) groups * REDUCTION_GROUP_SIZE);
+        PointerBuffer localWorkSize = BufferUtils.createPointerBuffer(1);
+        localWorkSize.put(0, REDUCTION_GROUP_SIZE);
+        CLCommandQueue commandQueue = commandQueue();
+        PointerBuffer profiled = profilingEvent(null);
+        checkCLError(clEnqueueNDRangeKernel(commandQueue.handle(), kernel, 1, null, globalWorkSize, localWorkSize, null, profiled));
+        profile(profiled, null, "reduce", CLProfiler.CommandType.KERNEL, entries, entries * realBytes);
+        commandQueue.enqueued();
+    }
+
+    private static long roundUp(int size, int multiple) {
+        return (long) (size + multiple - 1) / multiple * multiple;
+    }
+
+    private void enqueue1D(long kernel, long size, String name, double flops, long bytes) {
+        CLCommandQueue commandQueue = commandQueue();
+        try (MemoryStack memoryStack = MemoryStack.stackPush()) {
+            PointerBuffer globalWorkSize = memoryStack.mallocPointer(1);
+            globalWorkSize.put(0, size);
+            PointerBuffer profiled = profilingEvent(null);
+            checkCLError(clEnqueueNDRangeKernel(commandQueue.handle(), kernel, 1, null, globalWorkSize, null, null, profiled));
+            profile(profiled, null, name, CLProfiler.CommandType.KERNEL, flops, bytes);
+        }
+        commandQueue.enqueued();
+    }
+
+    private void enqueue2D(long queue, PointerBuffer waitList, PointerBuffer event, long kernel, long sizeX, long sizeY, String name, double flops, long bytes) {
+        try (MemoryStack memoryStack = MemoryStack.stackPush()) {
+            PointerBuffer globalWorkSize = memoryStack.mallocPointer(2);
+            globalWorkSize.put(0, sizeX).put(1, sizeY);
+            PointerBuffer profiled = profilingEvent(event);
+            checkCLError(clEnqueueNDRangeKernel(queue, kernel, 2, null, globalWorkSize, null, waitList, profiled));
+            profile(profiled, event, name, CLProfiler.CommandType.KERNEL, flops, bytes);
+        }
+    }
+
+    /**
+     * Get the event to give to an enqueue: the caller's one, or a new one when profiling needs it
+     *
+     * @param event The event buffer of the caller, can be {@code null}
+     * @return The event buffer to pass to OpenCL, {@code null} if nobody needs the event
+     */
+    PointerBuffer profilingEvent(PointerBuffer event) {
+        if (event != null || profiler == null)
+            return event;
+        return BufferUtils.createPointerBuffer(1);
+    }
+
+    /**
+     * Record an enqueued command in the profiler, if profiling is enabled
+     *
+     * @param profiled    The event buffer given to OpenCL
+     * @param callerEvent The event buffer of the caller, the event is released here if it is not the caller's
+     */
+    void profile(PointerBuffer profiled, PointerBuffer callerEvent, String name, CLProfiler.CommandType type, double flops, long bytes) {
+        if (profiler == null || profiled == null)
+            return;
+        profiler.record(profiled.get(0), name, type, flops, bytes);
+        if (profiled != callerEvent)
+            clReleaseEvent(profiled.get(0));
+    }
+
+    /**
+     * Create a host buffer for entries in the device's precision
+     *
+     * @param numOfEntries The number of entries
+     * @return The direct buffer
+     */
+    ByteBuffer createHostBuffer(int numOfEntries) {
+        return BufferUtils.createByteBuffer(numOfEntries * realBytes);
+    }
+
+    /**
+     * Copy the data of a matrix into a host buffer, converting it to float if the device lacks fp64
+     *
+     * @param matrix The matrix
+     * @return The direct buffer
+     */
+    ByteBuffer toHostBuffer(Matrix matrix) {
+        ByteBuffer buffer = createHostBuffer(matrix.getNumOfEntries());
+        if (doublePrecision)
+            buffer.asDoubleBuffer().put(matrix.getData());
+        else
+            buffer.asFloatBuffer().put(matrix.getDataAsFloat());
         return buffer;
     }
 
+    /**
+     * Copy a host buffer filled by the device into a matrix
+     *
+     * @param buffer The buffer
+     * @param target The matrix to fill
+     */
+    void fromHostBuffer(ByteBuffer buffer, Matrix target) {
+        double[] data = target.getData();
+        if (doublePrecision) {
+            buffer.asDoubleBuffer().get(data);
+        } else {
+            FloatBuffer floats = buffer.asFloatBuffer();
+            for (int i = 0; i < data.length; i++)
+                data[i] = floats.get(i);
+        }
+    }
+
+    /**
+     * @return The size of an entry on the device, in bytes
+     */
+    int getRealBytes() {
+        return realBytes;
+    }
+
     private static class OpenCLNotInitializedException extends RuntimeException {
         @Override
         public String getMessage() {
@@ -0,0 +1,130 @@
+package objects;
+
+/**
+ * The rule a {@code NetworkTrainer} uses to update the weights from their gradients, applied in place.
+ * <p>
+ * The state an optimizer needs between steps (the velocity of momentum, the moments of Adam) is kept by the
+ * trainer, one array per parameter array, so one optimizer can be shared by several trainers.
+ */
+public final class Optimizer {
+
+    private enum Kind {SGD, ADAM}
+
+    private final Kind kind;
+    private final double learningRate;
+    private final double momentum;
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    private Optimizer(Kind kind, double learningRate, double momentum, double beta1, double beta2, double epsilon) {
+        if (learningRate <= 0)
+            throw new IllegalArgumentException("The learning rate must be positive");
+        this.kind = kind;
+        this.learningRate = learningRate;
+        this.momentum = momentum;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Plain stochastic gradient descent, {@code w -= learningRate * g}
+     *
+     * @param learningRate The learning rate
+     * @return The optimizer
+     */
+    public static Optimizer sgd(double learningRate) {
+        return sgd(learningRate, 0);
+    }
+
+    /**
+     * Stochastic gradient descent with momentum, {@code v = momentum * v + g; w -= learningRate * v}
+     *
+     * @param learningRate The learning rate
+     * @param momentum     The momentum, in [0, 1)
+     * @return The optimizer
+     */
+    public static Optimizer sgd(double learningRate, double momentum) {
+        if (momentum < 0 || momentum >= 1)
+            throw new IllegalArgumentException("The momentum must be in [0, 1)");
+        return new Optimizer(Kind.SGD, learningRate, momentum, 0, 0, 0);
+    }
+
+    /**
+     * Adam with the usual betas of 0.9 and 0.999
+     *
+     * @param learningRate The learning rate
+     * @return The optimizer
+     */
+    public static Optimizer adam(double learningRate) {
+        return adam(learningRate, 0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * Adam, with bias corrected moments
+     *
+     * @param learningRate The learning rate
+     * @param beta1        The decay of the first moment, in [0, 1)
+     * @param beta2        The decay of the second moment, in [0, 1)
+     * @param epsilon      Added to the square root of the second moment
+     * @return The optimizer
+     */
+    public static Optimizer adam(double learningRate, double beta1, double beta2, double epsilon) {
+        if (beta1 < 0 || beta1 >= 1 || beta2 < 0 || beta2 >= 1)
+            throw new IllegalArgumentException("The betas must be in [0, 1)");
+        return new Optimizer(Kind.ADAM, learningRate, 0, beta1, beta2, epsilon);
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * @return The number of state arrays, each as long as the parameters, the optimizer needs
+     */
+    int getNumOfStates() {
+        return switch (kind) {
+            case SGD -> momentum == 0 ? 0 : 1;
+            case ADAM -> 2;
+        };
+    }
+
+    /**
+     * Update the parameters in place
+     *
+     * @param parameters The parameters
+     * @param gradients  Their gradients
+     * @param states     {@link #getNumOfStates()} arrays as long as the parameters, zero before the first step
+     * @param step       The number of the step, from 1
+     */
+    void update(double[] parameters, double[] gradients, double[][] states, long step) {
+        switch (kind) {
+            case SGD -> {
+                if (momentum == 0) {
+                    for (int i = 0; i < parameters.length; i++)
+                        parameters[i] -= learningRate * gradients[i];
+                } else {
+                    double[] velocity = states[0];
+                    for (int i = 0; i < parameters.length; i++) {
+                        velocity[i] = momentum * velocity[i] + gradients[i];
+                        parameters[i] -= learningRate * velocity[i];
+                    }
+                }
+            }
+            case ADAM -> {
+                double[] first = states[0];
+                double[] second = states[1];
+                // The bias corrections folded into the step size
+                double stepSize = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+                double correctedEpsilon = epsilon * Math.sqrt(1 - Math.pow(beta2, step));
+                for (int i = 0; i < parameters.length; i++) {
+                    double gradient = gradients[i];
+                    first[i] = beta1 * first[i] + (1 - beta1) * gradient;
+                    second[i] = beta2 * second[i] + (1 - beta2) * gradient * gradient;
+                    parameters[i] -= stepSize * first[i] / (Math.sqrt(second[i]) + correctedEpsilon);
+                }
+            }
+        }
+    }
+}
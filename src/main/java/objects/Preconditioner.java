@@ -0,0 +1,82 @@
+package objects;
+
+/**
+ * An approximation M of a matrix A that is cheap to invert, used by {@code KrylovSolver} to solve
+ * {@code M^-1 A x = M^-1 b} instead of {@code A x = b}. The closer M is to A, the fewer iterations are needed.
+ */
+public interface Preconditioner {
+
+    /**
+     * Compute {@code z = M^-1 r}
+     *
+     * @param r The vector, only read
+     * @param z The result, entirely overwritten
+     */
+    void apply(double[] r, double[] z);
+
+    /**
+     * @return M = I, no preconditioning
+     */
+    static Preconditioner identity() {
+        return (r, z) -> System.arraycopy(r, 0, z, 0, r.length);
+    }
+
+    /**
+     * The Jacobi preconditioner, M = diag(A)
+     *
+     * @param diagonal The diagonal of A, copied
+     * @return The preconditioner
+     * @throws IllegalArgumentException if an entry of the diagonal is 0
+     */
+    static Preconditioner jacobi(double[] diagonal) {
+        double[] inverse = new double[diagonal.length];
+        for (int i = 0; i < diagonal.length; i++) {
+            if (diagonal[i] == 0)
+                throw new IllegalArgumentException(String.format("The diagonal is 0 at %d", i));
+            inverse[i] = 1 / diagonal[i];
+        }
+        return (r, z) -> {
+            for (int i = 0; i < inverse.length; i++)
+                z[i] = r[i] * inverse[i];
+        };
+    }
+
+    /**
+     * The Jacobi preconditioner of a square matrix
+     *
+     * @param matrix The matrix
+     * @return The preconditioner
+     * @throws IllegalArgumentException if an entry of the diagonal is 0
+     */
+    static Preconditioner jacobi(Matrix matrix) {
+        int size = Math.min(matrix.getNumOfRows(), matrix.getNumOfColumns());
+        double[] diagonal = new double[size];
+        for (int i = 0; i < size; i++)
+            diagonal[i] = matrix.getData()[i * matrix.getNumOfColumns() + i];
+        return jacobi(diagonal);
+    }
+
+    /**
+     * The Jacobi preconditioner of a square sparse matrix
+     *
+     * @param matrix The matrix
+     * @return The preconditioner
+     * @throws IllegalArgumentException if an entry of the diagonal is 0
+     */
+    static Preconditioner jacobi(SparseMatrix matrix) {
+        return jacobi(matrix.getDiagonal());
+    }
+
+    /**
+     * The incomplete LU preconditioner with no fill-in, ILU(0): M = L U where L and U have non-zero entries only where
+     * A does. It is computed once, here, and costs about one sparse product per application.
+     *
+     * @param matrix The square matrix, with every diagonal entry stored
+     * @return The preconditioner
+     * @throws IllegalArgumentException if the matrix is not square or a diagonal entry is missing
+     * @throws exceptions.NoInverseException if a pivot becomes 0
+     */
+    static Preconditioner ilu0(SparseMatrix matrix) {
+        return new IncompleteLU(matrix);
+    }
+}
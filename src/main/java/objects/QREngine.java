@@ -0,0 +1,282 @@
+package objects;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Blocked Householder QR on row major arrays, behind {@code Matrix.qrDecomposition} and {@code TallSkinnyQR}.
+ * <p>
+ * The factorization is stored compactly in place as LAPACK does: R on and above the diagonal, the Householder
+ * vectors below it (their leading 1 is implicit) and their scaling factors in {@code tau}. Each reflector is
+ * {@code H = I - tau x v x v^T}.
+ * <p>
+ * Every panel of {@value #BLOCK_SIZE} columns is factored one reflector at a time, then its reflectors are
+ * gathered in the WY form {@code H1 x ... x Hb = I - V x T x V^T} and applied to the trailing columns at once,
+ * {@code C -= V x (T^T x (V^T x C))}. The trailing columns are cut into ranges for the worker threads; every
+ * loop runs along rows so the row major storage is read contiguously.
+ */
+final class QREngine {
+
+    static final int BLOCK_SIZE = 32;
+    /**
+     * Trailing updates touching fewer entries run on the calling thread
+     */
+    static final long PARALLEL_THRESHOLD = 1L << 17;
+    private static final int MIN_COLUMNS_PER_REQUEST = 32;
+
+    private QREngine() {
+    }
+
+    /**
+     * Factor {@code a[0, rows) x [0, columns)} in place
+     *
+     * @param a        The matrix, row major with a row length of columns
+     * @param rows     The number of rows
+     * @param columns  The number of columns
+     * @param tau      The scaling factors, at least min(rows, columns) long
+     * @param parallel Whether the trailing updates can be given to the worker threads
+     */
+    static void factor(double[] a, int rows, int columns, double[] tau, boolean parallel) {
+        int steps = Math.min(rows, columns);
+        double[] t = new double[BLOCK_SIZE * BLOCK_SIZE];
+        for (int panelStart = 0; panelStart < steps; panelStart += BLOCK_SIZE) {
+            int panelEnd = Math.min(steps, panelStart + BLOCK_SIZE);
+            factorPanel(a, rows, columns, tau, panelStart, panelEnd);
+            int width = columns - panelEnd;
+            if (width <= 0)
+                continue;
+            buildT(a, rows, columns, tau, panelStart, panelEnd, t);
+            long work = (long) (rows - panelStart) * width * (panelEnd - panelStart);
+            int numOfRequests = parallel && work >= PARALLEL_THRESHOLD
+                    ? Math.max(1, Math.min(Matrix.NUM_OF_THREADS, width / MIN_COLUMNS_PER_REQUEST)) : 1;
+            CountDownLatch latch = new CountDownLatch(numOfRequests);
+            QRUpdateRequest[] requests = new QRUpdateRequest[numOfRequests];
+            for (int i = 0; i < numOfRequests; i++)
+                requests[i] = new QRUpdateRequest(a, rows, columns, t, panelStart, panelEnd,
+                        panelEnd + (int) ((long) width * i / numOfRequests), panelEnd + (int) ((long) width * (i + 1) / numOfRequests), latch);
+            Matrix.runRequests(requests, latch);
+        }
+    }
+
+    /**
+     * Generate the reflectors of the panel columns, applying each one to the rest of the panel
+     */
+    private static void factorPanel(double[] a, int rows, int columns, double[] tau, int panelStart, int panelEnd) {
+        double[] w = new double[panelEnd - panelStart];
+        for (int j = panelStart; j < panelEnd; j++) {
+            tau[j] = householder(a, rows, columns, j);
+            if (tau[j] == 0 || j + 1 == panelEnd)
+                continue;
+            // w = v^T x A[j:, j+1:panelEnd], then A -= tau x v x w
+            int from = j + 1;
+            int count = panelEnd - from;
+            System.arraycopy(a, j * columns + from, w, 0, count);
+            for (int i = j + 1; i < rows; i++) {
+                double v = a[i * columns + j];
+                if (v == 0)
+                    continue;
+                int offset = i * columns + from;
+                for (int c = 0; c < count; c++)
+                    w[c] += v * a[offset + c];
+            }
+            for (int c = 0; c < count; c++)
+                w[c] *= tau[j];
+            for (int c = 0; c < count; c++)
+                a[j * columns + from + c] -= w[c];
+            for (int i = j + 1; i < rows; i++) {
+                double v = a[i * columns + j];
+                if (v == 0)
+                    continue;
+                int offset = i * columns + from;
+                for (int c = 0; c < count; c++)
+                    a[offset + c] -= v * w[c];
+            }
+        }
+    }
+
+    /**
+     * Turn column j below the diagonal into a reflector, as LAPACK's dlarfg: the diagonal becomes beta
+     * and the entries below it the vector v, scaled so that v[j] = 1
+     *
+     * @return tau, 0 when the column is already zero below the diagonal
+     */
+    static double householder(double[] a, int rows, int columns, int j) {
+        double alpha = a[j * columns + j];
+        double scale = 0;
+        for (int i = j + 1; i < rows; i++)
+            scale = Math.max(scale, Math.abs(a[i * columns + j]));
+        if (scale == 0)
+            return 0;
+        // The norm is taken on scaled entries so that it neither overflows nor underflows
+        double sum = 0;
+        for (int i = j + 1; i < rows; i++) {
+            double x = a[i * columns + j] / scale;
+            sum += x * x;
+        }
+        double xNorm = scale * Math.sqrt(sum);
+        double beta = -Math.copySign(Math.hypot(alpha, xNorm), alpha);
+        double tau = (beta - alpha) / beta;
+        double factor = 1 / (alpha - beta);
+        for (int i = j + 1; i < rows; i++)
+            a[i * columns + j] *= factor;
+        a[j * columns + j] = beta;
+        return tau;
+    }
+
+    /**
+     * The upper triangular T of the WY form of the panel, as LAPACK's dlarft, stored with a row length of {@value #BLOCK_SIZE}
+     */
+    private static void buildT(double[] a, int rows, int columns, double[] tau, int panelStart, int panelEnd, double[] t) {
+        int size = panelEnd - panelStart;
+        double[] dots = new double[size];
+        for (int i = 0; i < size; i++) {
+            int j = panelStart + i;
+            // dots[p] = v_p^T x v_i for the previous reflectors p, v_i being 0 above row j and 1 on it
+            for (int p = 0; p < i; p++)
+                dots[p] = a[j * columns + panelStart + p];
+            for (int r = j + 1; r < rows; r++) {
+                double v = a[r * columns + j];
+                if (v == 0)
+                    continue;
+                int offset = r * columns + panelStart;
+                for (int p = 0; p < i; p++)
+                    dots[p] += a[offset + p] * v;
+            }
+            // T[0:i, i] = -tau_i x T[0:i, 0:i] x dots
+            for (int p = 0; p < i; p++) {
+                double sum = 0;
+                for (int q = p; q < i; q++)
+                    sum += t[p * BLOCK_SIZE + q] * dots[q];
+                t[p * BLOCK_SIZE + i] = -tau[j] * sum;
+            }
+            t[i * BLOCK_SIZE + i] = tau[j];
+        }
+    }
+
+    /**
+     * Overwrite {@code b} with {@code Q^T x b}, applying the reflectors one by one
+     *
+     * @param a       The factorization
+     * @param rows    Its number of rows
+     * @param columns Its number of columns
+     * @param tau     Its scaling factors
+     * @param b       A row major matrix with as many rows as a
+     * @param width   The number of columns of b
+     */
+    static void applyQTranspose(double[] a, int rows, int columns, double[] tau, double[] b, int width) {
+        for (int j = 0; j < Math.min(rows, columns); j++)
+            applyReflector(a, rows, columns, j, tau[j], b, width);
+    }
+
+    /**
+     * Overwrite {@code b} with {@code Q x b}
+     *
+     * @see QREngine#applyQTranspose(double[], int, int, double[], double[], int)
+     */
+    static void applyQ(double[] a, int rows, int columns, double[] tau, double[] b, int width) {
+        for (int j = Math.min(rows, columns) - 1; j >= 0; j--)
+            applyReflector(a, rows, columns, j, tau[j], b, width);
+    }
+
+    private static void applyReflector(double[] a, int rows, int columns, int j, double tau, double[] b, int width) {
+        if (tau == 0)
+            return;
+        double[] w = new double[width];
+        System.arraycopy(b, j * width, w, 0, width);
+        for (int i = j + 1; i < rows; i++) {
+            double v = a[i * columns + j];
+            if (v == 0)
+                continue;
+            for (int c = 0; c < width; c++)
+                w[c] += v * b[i * width + c];
+        }
+        for (int c = 0; c < width; c++) {
+            w[c] *= tau;
+            b[j * width + c] -= w[c];
+        }
+        for (int i = j + 1; i < rows; i++) {
+            double v = a[i * columns + j];
+            if (v == 0)
+                continue;
+            for (int c = 0; c < width; c++)
+                b[i * width + c] -= v * w[c];
+        }
+    }
+}
+
+/**
+ * A Request that applies the block reflector of a panel to a range of trailing columns,
+ * {@code C -= V x (T^T x (V^T x C))}
+ */
+class QRUpdateRequest implements CalculationRequest {
+    private final double[] a;
+    private final int rows;
+    private final int columns;
+    private final double[] t;
+    private final int panelStart;
+    private final int panelEnd;
+    private final int fromColumn;
+    private final int toColumn;
+    private final CountDownLatch latch;
+
+    QRUpdateRequest(double[] a, int rows, int columns, double[] t, int panelStart, int panelEnd, int fromColumn, int toColumn, CountDownLatch latch) {
+        this.a = a;
+        this.rows = rows;
+        this.columns = columns;
+        this.t = t;
+        this.panelStart = panelStart;
+        this.panelEnd = panelEnd;
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+        this.latch = latch;
+    }
+
+    @Override
+    public void calculate() {
+        int size = panelEnd - panelStart;
+        int width = toColumn - fromColumn;
+        double[] w = new double[size * width];
+        // W = V^T x C, row by row of C. V is unit lower trapezoidal: row r holds v_p[r] for p < r - panelStart,
+        // a 1 at p = r - panelStart and zeros after
+        for (int r = panelStart; r < rows; r++) {
+            int cOffset = r * columns + fromColumn;
+            int last = Math.min(size, r - panelStart + 1);
+            for (int p = 0; p < last; p++) {
+                double v = p == r - panelStart ? 1 : a[r * columns + panelStart + p];
+                if (v == 0)
+                    continue;
+                int wOffset = p * width;
+                for (int c = 0; c < width; c++)
+                    w[wOffset + c] += v * a[cOffset + c];
+            }
+        }
+        // W = T^T x W, T upper triangular so row p of the result needs the rows q <= p, done from the bottom
+        for (int p = size - 1; p >= 0; p--) {
+            int wOffset = p * width;
+            double diagonal = t[p * QREngine.BLOCK_SIZE + p];
+            for (int c = 0; c < width; c++)
+                w[wOffset + c] *= diagonal;
+            for (int q = 0; q < p; q++) {
+                double factor = t[q * QREngine.BLOCK_SIZE + p];
+                if (factor == 0)
+                    continue;
+                int qOffset = q * width;
+                for (int c = 0; c < width; c++)
+                    w[wOffset + c] += factor * w[qOffset + c];
+            }
+        }
+        // C -= V x W
+        for (int r = panelStart; r < rows; r++) {
+            int cOffset = r * columns + fromColumn;
+            int last = Math.min(size, r - panelStart + 1);
+            for (int p = 0; p < last; p++) {
+                double v = p == r - panelStart ? 1 : a[r * columns + panelStart + p];
+                if (v == 0)
+                    continue;
+                int wOffset = p * width;
+                for (int c = 0; c < width; c++)
+                    a[cOffset + c] -= v * w[wOffset + c];
+            }
+        }
+        latch.countDown();
+    }
+}
@@ -0,0 +1,122 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.NoInverseException;
+
+/**
+ * The result of a Householder QR factorization {@code A = Q x R}, stored compactly: R and the Householder
+ * vectors share one matrix the size of A, Q is never formed unless asked for.
+ * <p>
+ * It is kept to solve any number of least squares problems against the same matrix.
+ */
+public final class QRFactor {
+    private final Matrix factors;
+    private final double[] tau;
+
+    QRFactor(Matrix factors, double[] tau) {
+        this.factors = factors;
+        this.tau = tau;
+    }
+
+    public int getNumOfRows() {
+        return factors.getNumOfRows();
+    }
+
+    public int getNumOfColumns() {
+        return factors.getNumOfColumns();
+    }
+
+    /**
+     * @return R, min(M, N) x N upper triangular
+     */
+    public Matrix getR() {
+        int columns = factors.getNumOfColumns();
+        int size = Math.min(factors.getNumOfRows(), columns);
+        Matrix result = new Matrix(size, columns);
+        double[] data = factors.getData();
+        for (int i = 0; i < size; i++)
+            System.arraycopy(data, i * columns + i, result.getData(), i * columns + i, columns - i);
+        return result;
+    }
+
+    /**
+     * @return The thin Q, M x min(M, N) with orthonormal columns
+     */
+    public Matrix getQ() {
+        int rows = factors.getNumOfRows();
+        int size = Math.min(rows, factors.getNumOfColumns());
+        Matrix result = new Matrix(rows, size);
+        for (int i = 0; i < size; i++)
+            result.getData()[i * size + i] = 1;
+        QREngine.applyQ(factors.getData(), rows, factors.getNumOfColumns(), tau, result.getData(), size);
+        return result;
+    }
+
+    /**
+     * Compute {@code Q^T x B} without forming Q
+     *
+     * @param b The matrix, M x K
+     * @return Q^T x B, M x K
+     * @throws MatrixDimensionsNotMatchException if B does not have M rows
+     */
+    public Matrix applyQTranspose(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != factors.getNumOfRows())
+            throw new MatrixDimensionsNotMatchException(String.format("The matrix must have %d rows", factors.getNumOfRows()));
+        Matrix result = Matrix.copyingMatrix(b);
+        QREngine.applyQTranspose(factors.getData(), factors.getNumOfRows(), factors.getNumOfColumns(), tau, result.getData(), b.getNumOfColumns());
+        return result;
+    }
+
+    /**
+     * Solve the least squares problem {@code min ||A x X - B||} for every column of B
+     *
+     * @param b The right hand side, M x K
+     * @return X, N x K
+     * @throws MatrixDimensionsNotMatchException if B does not have M rows
+     * @throws NoInverseException                if A has fewer rows than columns or does not have full column rank
+     */
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        int rows = factors.getNumOfRows();
+        int columns = factors.getNumOfColumns();
+        if (rows < columns)
+            throw new NoInverseException("A least squares solution needs at least as many rows as columns");
+        Matrix y = applyQTranspose(b);
+        int width = b.getNumOfColumns();
+        Matrix result = new Matrix(columns, width);
+        System.arraycopy(y.getData(), 0, result.getData(), 0, columns * width);
+        backSubstitute(factors.getData(), columns, columns, result.getData(), width);
+        return result;
+    }
+
+    /**
+     * Solve {@code R x X = Y} in place, R being the upper triangle of the first rows of a row major array
+     *
+     * @param r       The array holding R
+     * @param stride  The row length of that array
+     * @param size    The size of R
+     * @param y       Y, row major, overwritten by X
+     * @param width   The number of columns of Y
+     * @throws NoInverseException if R is singular to working precision
+     */
+    static void backSubstitute(double[] r, int stride, int size, double[] y, int width) {
+        double largest = 0;
+        for (int i = 0; i < size; i++)
+            largest = Math.max(largest, Math.abs(r[i * stride + i]));
+        double tolerance = largest * size * Math.ulp(1.0);
+        for (int i = size - 1; i >= 0; i--) {
+            double diagonal = r[i * stride + i];
+            if (Math.abs(diagonal) <= tolerance)
+                throw new NoInverseException("The matrix does not have full column rank");
+            int yOffset = i * width;
+            for (int k = i + 1; k < size; k++) {
+                double factor = r[i * stride + k];
+                if (factor == 0)
+                    continue;
+                for (int c = 0; c < width; c++)
+                    y[yOffset + c] -= factor * y[k * width + c];
+            }
+            for (int c = 0; c < width; c++)
+                y[yOffset + c] /= diagonal;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package objects;
+
+/**
+ * The reductions available on a {@code Matrix}, for the whole matrix or per row/column
+ */
+public enum Reduction {
+    /**
+     * Sum of all entries
+     */
+    SUM,
+    /**
+     * Arithmetic mean of all entries
+     */
+    MEAN,
+    /**
+     * Smallest entry
+     */
+    MIN,
+    /**
+     * Largest entry
+     */
+    MAX,
+    /**
+     * Index of the smallest entry, the first one if there is a tie
+     */
+    ARG_MIN,
+    /**
+     * Index of the largest entry, the first one if there is a tie
+     */
+    ARG_MAX,
+    /**
+     * Sum of the absolute value of all entries
+     */
+    ABSOLUTE_SUM,
+    /**
+     * Euclidean norm, the square root of the sum of squares
+     */
+    NORM
+}
@@ -0,0 +1,12 @@
+package objects;
+
+/**
+ * The outcome of an iterative solve
+ *
+ * @param converged        Whether the relative residual went below the tolerance
+ * @param iterations       The number of iterations run
+ * @param relativeResidual The final {@code ||b - A x|| / ||b||}, as tracked by the iteration
+ * @param residualHistory  The relative residual before the first iteration and after each one, iterations + 1 long
+ */
+public record SolverResult(boolean converged, int iterations, double relativeResidual, double[] residualHistory) {
+}
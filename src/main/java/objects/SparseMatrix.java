@@ -0,0 +1,204 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.MatrixIndexOutofBoundException;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse matrix in compressed sparse row (CSR) form: the non-zero entries row after row, each with
+ * its column, and the index of the first entry of every row. The columns of each row are sorted.
+ * <p>
+ * A product with a vector costs one multiply-add per non-zero entry, which is what makes iterative solvers
+ * usable on systems far too large to be stored as a {@code Matrix}.
+ */
+public final class SparseMatrix implements LinearOperator {
+    private final int numOfRows;
+    private final int numOfColumns;
+    private final double[] values;
+    private final int[] columnIndices;
+    /**
+     * The entries of row r are [rowPointers[r], rowPointers[r + 1])
+     */
+    private final int[] rowPointers;
+
+    SparseMatrix(int numOfRows, int numOfColumns, double[] values, int[] columnIndices, int[] rowPointers) {
+        this.numOfRows = numOfRows;
+        this.numOfColumns = numOfColumns;
+        this.values = values;
+        this.columnIndices = columnIndices;
+        this.rowPointers = rowPointers;
+    }
+
+    /**
+     * Build a sparse matrix from its entries given in any order. Entries given more than once are added together.
+     *
+     * @param numOfRows    The number of rows
+     * @param numOfColumns The number of columns
+     * @param rows         The row of each entry
+     * @param columns      The column of each entry
+     * @param values       The value of each entry
+     * @return The sparse matrix
+     * @throws MatrixDimensionsNotMatchException if the three arrays do not have the same length
+     * @throws MatrixIndexOutofBoundException    if an entry is outside the matrix
+     */
+    public static SparseMatrix fromTriplets(int numOfRows, int numOfColumns, int[] rows, int[] columns, double[] values) throws MatrixDimensionsNotMatchException {
+        if (rows.length != columns.length || rows.length != values.length)
+            throw new MatrixDimensionsNotMatchException("The rows, columns and values must have the same length");
+        int[] counts = new int[numOfRows + 1];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] < 0 || rows[i] >= numOfRows || columns[i] < 0 || columns[i] >= numOfColumns)
+                throw new MatrixIndexOutofBoundException(String.format("(%d, %d) is outside a %d x %d matrix", rows[i], columns[i], numOfRows, numOfColumns));
+            counts[rows[i] + 1]++;
+        }
+        for (int r = 0; r < numOfRows; r++)
+            counts[r + 1] += counts[r];
+        // Bucket the entries by row, then sort each row by column and merge the duplicates
+        int[] next = Arrays.copyOf(counts, numOfRows);
+        int[] bucketColumns = new int[rows.length];
+        double[] bucketValues = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int position = next[rows[i]]++;
+            bucketColumns[position] = columns[i];
+            bucketValues[position] = values[i];
+        }
+        int[] rowPointers = new int[numOfRows + 1];
+        int[] resultColumns = new int[rows.length];
+        double[] resultValues = new double[rows.length];
+        int size = 0;
+        for (int r = 0; r < numOfRows; r++) {
+            int from = counts[r];
+            int to = counts[r + 1];
+            sortByColumn(bucketColumns, bucketValues, from, to);
+            for (int i = from; i < to; i++) {
+                if (size > rowPointers[r] && resultColumns[size - 1] == bucketColumns[i]) {
+                    resultValues[size - 1] += bucketValues[i];
+                } else {
+                    resultColumns[size] = bucketColumns[i];
+                    resultValues[size] = bucketValues[i];
+                    size++;
+                }
+            }
+            rowPointers[r + 1] = size;
+        }
+        return new SparseMatrix(numOfRows, numOfColumns, Arrays.copyOf(resultValues, size), Arrays.copyOf(resultColumns, size), rowPointers);
+    }
+
+    /**
+     * Keep the non-zero entries of a dense matrix
+     *
+     * @param matrix The matrix
+     * @return The sparse matrix
+     */
+    public static SparseMatrix fromDense(Matrix matrix) {
+        int rows = matrix.getNumOfRows();
+        int columns = matrix.getNumOfColumns();
+        double[] data = matrix.getData();
+        int count = 0;
+        for (double value : data)
+            if (value != 0)
+                count++;
+        double[] values = new double[count];
+        int[] columnIndices = new int[count];
+        int[] rowPointers = new int[rows + 1];
+        int size = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                double value = data[r * columns + c];
+                if (value != 0) {
+                    values[size] = value;
+                    columnIndices[size++] = c;
+                }
+            }
+            rowPointers[r + 1] = size;
+        }
+        return new SparseMatrix(rows, columns, values, columnIndices, rowPointers);
+    }
+
+    /**
+     * Insertion sort of a row, rows are short
+     */
+    private static void sortByColumn(int[] columns, double[] values, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int column = columns[i];
+            double value = values[i];
+            int j = i - 1;
+            while (j >= from && columns[j] > column) {
+                columns[j + 1] = columns[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            columns[j + 1] = column;
+            values[j + 1] = value;
+        }
+    }
+
+    @Override
+    public int getNumOfRows() {
+        return numOfRows;
+    }
+
+    @Override
+    public int getNumOfColumns() {
+        return numOfColumns;
+    }
+
+    public int getNumOfNonZeros() {
+        return values.length;
+    }
+
+    /**
+     * Get an entry, stored or not
+     *
+     * @param row    The row
+     * @param column The column
+     * @return The entry, 0 if it is not stored
+     */
+    public double getDatum(int row, int column) {
+        if (row < 0 || row >= numOfRows || column < 0 || column >= numOfColumns)
+            throw new MatrixIndexOutofBoundException(String.format("(%d, %d) is outside a %d x %d matrix", row, column, numOfRows, numOfColumns));
+        int index = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+        return index >= 0 ? values[index] : 0;
+    }
+
+    /**
+     * @return The main diagonal, min(rows, columns) long
+     */
+    public double[] getDiagonal() {
+        double[] diagonal = new double[Math.min(numOfRows, numOfColumns)];
+        for (int r = 0; r < diagonal.length; r++)
+            diagonal[r] = getDatum(r, r);
+        return diagonal;
+    }
+
+    public Matrix toDense() {
+        Matrix result = new Matrix(numOfRows, numOfColumns);
+        double[] data = result.getData();
+        for (int r = 0; r < numOfRows; r++)
+            for (int i = rowPointers[r]; i < rowPointers[r + 1]; i++)
+                data[r * numOfColumns + columnIndices[i]] = values[i];
+        return result;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        for (int r = 0; r < numOfRows; r++) {
+            double sum = 0;
+            for (int i = rowPointers[r]; i < rowPointers[r + 1]; i++)
+                sum += values[i] * x[columnIndices[i]];
+            y[r] = sum;
+        }
+    }
+
+    double[] values() {
+        return values;
+    }
+
+    int[] columnIndices() {
+        return columnIndices;
+    }
+
+    int[] rowPointers() {
+        return rowPointers;
+    }
+}
@@ -0,0 +1,363 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Partial eigen and singular value decompositions that never factor the whole matrix.
+ * <p>
+ * The top eigenpairs of a symmetric operator come from Lanczos with full reorthogonalization: the Krylov basis
+ * grows one product at a time and the small tridiagonal matrix it projects the operator onto is solved until its
+ * top Ritz pairs have converged. The randomized SVD projects A onto a few more random directions than needed, with
+ * every product against A going through {@code Matrix.autoMultiplication}, and only decomposes the small projection.
+ */
+final class SpectralEngine {
+
+    /**
+     * The tridiagonal matrix is solved again every this many Lanczos steps
+     */
+    private static final int CHECK_INTERVAL = 5;
+    private static final int MAX_JACOBI_SWEEPS = 60;
+    private static final double EPSILON = Math.ulp(1.0);
+
+    private SpectralEngine() {
+    }
+
+    /**
+     * The k largest eigenpairs of a symmetric operator
+     *
+     * @param a             The operator, square and symmetric
+     * @param k             The number of eigenpairs
+     * @param tolerance     The residual {@code ||A x - lambda x||} to reach, relative to the largest eigenvalue
+     * @param maxIterations The largest Krylov basis to build
+     * @param random        The source of the starting vector
+     * @return The eigenpairs, largest first
+     */
+    static EigenPairs lanczos(LinearOperator a, int k, double tolerance, int maxIterations, Random random) {
+        int n = a.getNumOfRows();
+        int maxSteps = Math.min(n, Math.max(k, maxIterations));
+        List<double[]> basis = new ArrayList<>();
+        double[] alpha = new double[maxSteps];
+        double[] beta = new double[maxSteps];
+        double[] w = new double[n];
+        basis.add(randomUnitVector(basis, n, random));
+
+        int steps = 0;
+        // The largest row sum of the tridiagonal matrix so far, an estimate of ||A||
+        double operatorNorm = 0;
+        double[] values = null;
+        double[] vectors = null;
+        while (true) {
+            double[] v = basis.get(steps);
+            a.apply(v, w);
+            alpha[steps] = dot(w, v);
+            // Orthogonalizing against the whole basis twice keeps it orthogonal to working precision
+            for (int pass = 0; pass < 2; pass++) {
+                for (double[] u : basis) {
+                    double projection = dot(w, u);
+                    for (int i = 0; i < n; i++)
+                        w[i] -= projection * u[i];
+                }
+            }
+            beta[steps] = norm(w);
+            operatorNorm = Math.max(operatorNorm, Math.abs(alpha[steps]) + beta[steps] + (steps > 0 ? beta[steps - 1] : 0));
+            steps++;
+
+            boolean exhausted = steps == maxSteps;
+            boolean invariant = beta[steps - 1] <= EPSILON * Math.sqrt(n) * operatorNorm;
+            if (steps >= k && (exhausted || invariant || steps % CHECK_INTERVAL == 0)) {
+                values = new double[steps];
+                vectors = new double[steps * steps];
+                tridiagonalEigen(alpha, beta, steps, values, vectors);
+                // The residual of a Ritz pair is the last entry of its eigenvector times the last beta
+                double scale = Math.max(Math.abs(values[0]), Math.abs(values[steps - 1]));
+                boolean converged = true;
+                for (int i = steps - k; i < steps && converged; i++)
+                    converged = Math.abs(beta[steps - 1] * vectors[(steps - 1) * steps + i]) <= tolerance * scale;
+                if (converged || exhausted)
+                    break;
+            }
+            if (exhausted)
+                break;
+            if (invariant) {
+                // The basis spans an invariant subspace, carry on in the orthogonal complement
+                beta[steps - 1] = 0;
+                basis.add(randomUnitVector(basis, n, random));
+            } else {
+                double[] next = new double[n];
+                for (int i = 0; i < n; i++)
+                    next[i] = w[i] / beta[steps - 1];
+                basis.add(next);
+            }
+        }
+
+        // The Ritz vectors of the k largest Ritz values, largest first
+        double[] eigenvalues = new double[k];
+        Matrix eigenvectors = new Matrix(n, k);
+        double[] x = eigenvectors.getData();
+        for (int c = 0; c < k; c++) {
+            int index = steps - 1 - c;
+            eigenvalues[c] = values[index];
+            for (int j = 0; j < steps; j++) {
+                double coefficient = vectors[j * steps + index];
+                double[] u = basis.get(j);
+                for (int i = 0; i < n; i++)
+                    x[i * k + c] += coefficient * u[i];
+            }
+        }
+        return new EigenPairs(eigenvalues, eigenvectors);
+    }
+
+    /**
+     * The k largest singular triplets of A by a randomized range finder
+     *
+     * @param a               The matrix, M x N
+     * @param k               The number of singular values
+     * @param oversampling    The extra random directions
+     * @param powerIterations The number of multiplications by {@code A x A^T} sharpening the range
+     * @param random          The source of the random directions
+     * @return The truncated SVD
+     */
+    static TruncatedSVD randomizedSvd(Matrix a, int k, int oversampling, int powerIterations, Random random) throws MatrixDimensionsNotMatchException {
+        int rows = a.getNumOfRows();
+        int columns = a.getNumOfColumns();
+        int width = Math.min(k + oversampling, Math.min(rows, columns));
+        Matrix omega = new Matrix(columns, width);
+        double[] data = omega.getData();
+        for (int i = 0; i < data.length; i++)
+            data[i] = random.nextGaussian();
+
+        // Q spans the range of A x Omega, each power iteration multiplying it by A x A^T
+        Matrix q = orthonormalColumns(Matrix.autoMultiplication(a, omega));
+        for (int i = 0; i < powerIterations; i++) {
+            // A^T x Q as (Q^T x A)^T, transposing the thin Q instead of A
+            Matrix z = orthonormalColumns(Matrix.transpose(Matrix.autoMultiplication(Matrix.transpose(q), a)));
+            q = orthonormalColumns(Matrix.autoMultiplication(a, z));
+        }
+
+        // B = Q^T x A is small, B = U_B x S x V^T, then U = Q x U_B
+        Matrix b = Matrix.autoMultiplication(Matrix.transpose(q), a);
+        Matrix uB = new Matrix(width, width);
+        double[] singularValues = jacobiRowSvd(b.getData(), width, columns, uB.getData());
+        Integer[] order = new Integer[width];
+        for (int i = 0; i < width; i++)
+            order[i] = i;
+        Arrays.sort(order, (i, j) -> Double.compare(singularValues[j], singularValues[i]));
+
+        Matrix leftB = new Matrix(width, k);
+        Matrix v = new Matrix(columns, k);
+        double[] sorted = new double[k];
+        double[] bData = b.getData();
+        for (int c = 0; c < k; c++) {
+            int index = order[c];
+            double sigma = singularValues[index];
+            sorted[c] = sigma;
+            for (int i = 0; i < width; i++)
+                leftB.getData()[i * k + c] = uB.getData()[i * width + index];
+            for (int i = 0; i < columns; i++)
+                v.getData()[i * k + c] = sigma == 0 ? 0 : bData[index * columns + i] / sigma;
+        }
+        return new TruncatedSVD(Matrix.autoMultiplication(q, leftB), sorted, v);
+    }
+
+    /**
+     * An orthonormal basis of the columns of a tall matrix, the thin Q of its QR factorization
+     */
+    private static Matrix orthonormalColumns(Matrix matrix) {
+        return Matrix.parallelQrDecomposition(matrix).getQ();
+    }
+
+    /**
+     * One-sided Jacobi on the rows of B: pairs of rows are rotated until all are orthogonal, the rotations being
+     * accumulated in U. Then {@code B = U x B'}, the norms of the rows of B' are the singular values and the rows
+     * divided by them are the right singular vectors.
+     *
+     * @param b       The matrix, rows x columns, overwritten with B'
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @param u       rows x rows, overwritten with U
+     * @return The singular values, in the order of the rows
+     */
+    static double[] jacobiRowSvd(double[] b, int rows, int columns, double[] u) {
+        Arrays.fill(u, 0);
+        for (int i = 0; i < rows; i++)
+            u[i * rows + i] = 1;
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            boolean rotated = false;
+            for (int i = 0; i < rows - 1; i++) {
+                for (int j = i + 1; j < rows; j++) {
+                    int rowI = i * columns, rowJ = j * columns;
+                    double normI = 0, normJ = 0, product = 0;
+                    for (int c = 0; c < columns; c++) {
+                        normI += b[rowI + c] * b[rowI + c];
+                        normJ += b[rowJ + c] * b[rowJ + c];
+                        product += b[rowI + c] * b[rowJ + c];
+                    }
+                    if (Math.abs(product) <= EPSILON * Math.sqrt(normI * normJ))
+                        continue;
+                    rotated = true;
+                    double zeta = (normJ - normI) / (2 * product);
+                    double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    if (zeta == 0)
+                        t = 1;
+                    double cos = 1 / Math.sqrt(1 + t * t);
+                    double sin = cos * t;
+                    for (int c = 0; c < columns; c++) {
+                        double x = b[rowI + c];
+                        double y = b[rowJ + c];
+                        b[rowI + c] = cos * x - sin * y;
+                        b[rowJ + c] = sin * x + cos * y;
+                    }
+                    for (int r = 0; r < rows; r++) {
+                        double x = u[r * rows + i];
+                        double y = u[r * rows + j];
+                        u[r * rows + i] = cos * x - sin * y;
+                        u[r * rows + j] = sin * x + cos * y;
+                    }
+                }
+            }
+            if (!rotated)
+                break;
+        }
+        double[] singularValues = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            double sum = 0;
+            for (int c = 0; c < columns; c++)
+                sum += b[i * columns + c] * b[i * columns + c];
+            singularValues[i] = Math.sqrt(sum);
+        }
+        return singularValues;
+    }
+
+    /**
+     * The eigenvalues and eigenvectors of a symmetric tridiagonal matrix by the implicit QL algorithm
+     *
+     * @param diagonal    The diagonal, only read
+     * @param offDiagonal The entry below each diagonal entry, only read
+     * @param size        The size of the matrix
+     * @param values      Filled with the eigenvalues, ascending
+     * @param vectors     size x size, filled with the eigenvectors as columns
+     */
+    static void tridiagonalEigen(double[] diagonal, double[] offDiagonal, int size, double[] values, double[] vectors) {
+        double[] d = values;
+        double[] e = new double[size];
+        System.arraycopy(diagonal, 0, d, 0, size);
+        System.arraycopy(offDiagonal, 0, e, 0, size - 1);
+        Arrays.fill(vectors, 0, size * size, 0);
+        for (int i = 0; i < size; i++)
+            vectors[i * size + i] = 1;
+
+        double f = 0;
+        double largest = 0;
+        for (int l = 0; l < size; l++) {
+            // Find the first negligible off-diagonal entry from l
+            largest = Math.max(largest, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while (m < size - 1 && Math.abs(e[m]) > EPSILON * largest)
+                m++;
+            if (m > l) {
+                do {
+                    // The Wilkinson-like shift from the leading 2 x 2 block
+                    double g = d[l];
+                    double p = (d[l + 1] - g) / (2 * e[l]);
+                    double r = Math.hypot(p, 1);
+                    if (p < 0)
+                        r = -r;
+                    d[l] = e[l] / (p + r);
+                    d[l + 1] = e[l] * (p + r);
+                    double dl1 = d[l + 1];
+                    double h = g - d[l];
+                    for (int i = l + 2; i < size; i++)
+                        d[i] -= h;
+                    f += h;
+
+                    // The implicit QL sweep from m back to l
+                    p = d[m];
+                    double c = 1, c2 = 1, c3 = 1;
+                    double el1 = e[l + 1];
+                    double s = 0, s2 = 0;
+                    for (int i = m - 1; i >= l; i--) {
+                        c3 = c2;
+                        c2 = c;
+                        s2 = s;
+                        g = c * e[i];
+                        h = c * p;
+                        r = Math.hypot(p, e[i]);
+                        e[i + 1] = s * r;
+                        s = e[i] / r;
+                        c = p / r;
+                        p = c * d[i] - s * g;
+                        d[i + 1] = h + s * (c * g + s * d[i]);
+                        for (int k = 0; k < size; k++) {
+                            h = vectors[k * size + i + 1];
+                            vectors[k * size + i + 1] = s * vectors[k * size + i] + c * h;
+                            vectors[k * size + i] = c * vectors[k * size + i] - s * h;
+                        }
+                    }
+                    p = -s * s2 * c3 * el1 * e[l] / dl1;
+                    e[l] = s * p;
+                    d[l] = c * p;
+                } while (Math.abs(e[l]) > EPSILON * largest);
+            }
+            d[l] += f;
+            e[l] = 0;
+        }
+
+        // Sort ascending, with the vectors
+        for (int i = 0; i < size - 1; i++) {
+            int min = i;
+            for (int j = i + 1; j < size; j++)
+                if (d[j] < d[min])
+                    min = j;
+            if (min != i) {
+                double swap = d[i];
+                d[i] = d[min];
+                d[min] = swap;
+                for (int r = 0; r < size; r++) {
+                    swap = vectors[r * size + i];
+                    vectors[r * size + i] = vectors[r * size + min];
+                    vectors[r * size + min] = swap;
+                }
+            }
+        }
+    }
+
+    /**
+     * A random unit vector orthogonal to the basis
+     */
+    private static double[] randomUnitVector(List<double[]> basis, int n, Random random) {
+        double[] v = new double[n];
+        while (true) {
+            for (int i = 0; i < n; i++)
+                v[i] = random.nextGaussian();
+            for (int pass = 0; pass < 2; pass++) {
+                for (double[] u : basis) {
+                    double projection = dot(v, u);
+                    for (int i = 0; i < n; i++)
+                        v[i] -= projection * u[i];
+                }
+            }
+            double norm = norm(v);
+            if (norm > 1e-8) {
+                for (int i = 0; i < n; i++)
+                    v[i] /= norm;
+                return v;
+            }
+        }
+    }
+
+    private static double dot(double[] u, double[] v) {
+        double sum = 0;
+        for (int i = 0; i < u.length; i++)
+            sum += u[i] * v[i];
+        return sum;
+    }
+
+    private static double norm(double[] v) {
+        return Math.sqrt(dot(v, v));
+    }
+}
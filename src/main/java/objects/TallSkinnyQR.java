@@ -0,0 +1,190 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+import java.util.Arrays;
+
+/**
+ * A tall-skinny QR (TSQR) that takes the rows of a matrix a block at a time and keeps only R.
+ * <p>
+ * The current R is stacked on top of each new block of rows and the stack is factored again, so the memory used
+ * is R plus one block, however many rows go through. For least squares, the right hand sides are carried as extra
+ * columns: the R of {@code [A | B]} is {@code [[R, Q^T x B], [0, S]]}, from which X is found without Q.
+ * Accumulators filled from different row ranges can be merged, which is how {@code Matrix.leastSquares} spreads
+ * a tall matrix over the worker threads.
+ * <p>
+ * Its methods are synchronized. Threads sharing one accumulator take turns; one accumulator per thread, merged at
+ * the end, runs in parallel.
+ */
+public final class TallSkinnyQR {
+
+    /**
+     * The number of rows factored together with R
+     */
+    static final int BLOCK_ROWS = 1024;
+
+    private final int numOfColumns;
+    private final int numOfRightHandSides;
+    /**
+     * The width of the stack, the columns of A then the columns of B
+     */
+    private final int width;
+    private final int blockRows;
+    /**
+     * R in the first rows, then room for one block
+     */
+    private final double[] stack;
+    private final double[] tau;
+    private long numOfRows = 0;
+
+    /**
+     * @param numOfColumns The number of columns of A
+     */
+    public TallSkinnyQR(int numOfColumns) {
+        this(numOfColumns, 0);
+    }
+
+    /**
+     * @param numOfColumns        The number of columns of A
+     * @param numOfRightHandSides The number of columns of B, for least squares
+     */
+    public TallSkinnyQR(int numOfColumns, int numOfRightHandSides) {
+        if (numOfColumns < 1 || numOfRightHandSides < 0)
+            throw new IllegalArgumentException("A needs at least one column");
+        this.numOfColumns = numOfColumns;
+        this.numOfRightHandSides = numOfRightHandSides;
+        this.width = numOfColumns + numOfRightHandSides;
+        this.blockRows = Math.max(BLOCK_ROWS, 2 * width);
+        this.stack = new double[(width + blockRows) * width];
+        this.tau = new double[width];
+    }
+
+    /**
+     * Add rows of A
+     *
+     * @param a The rows, with as many columns as A
+     * @throws MatrixDimensionsNotMatchException if the number of columns is wrong or right hand sides are expected
+     */
+    public void add(Matrix a) throws MatrixDimensionsNotMatchException {
+        add(a, null);
+    }
+
+    /**
+     * Add rows of A together with the same rows of B
+     *
+     * @param a The rows of A
+     * @param b The rows of B, null when there are no right hand sides
+     * @throws MatrixDimensionsNotMatchException if the numbers of rows or columns do not match
+     */
+    public void add(Matrix a, Matrix b) throws MatrixDimensionsNotMatchException {
+        if (a.getNumOfColumns() != numOfColumns)
+            throw new MatrixDimensionsNotMatchException(String.format("The rows must have %d columns", numOfColumns));
+        if (numOfRightHandSides > 0 && (b == null || b.getNumOfColumns() != numOfRightHandSides || b.getNumOfRows() != a.getNumOfRows()))
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand sides must be %d x %d", a.getNumOfRows(), numOfRightHandSides));
+        if (numOfRightHandSides == 0 && b != null)
+            throw new MatrixDimensionsNotMatchException("No right hand side was expected");
+        add(a, b, 0, a.getNumOfRows());
+    }
+
+    /**
+     * Add the rows [fromRow, toRow) of A and B
+     */
+    synchronized void add(Matrix a, Matrix b, int fromRow, int toRow) {
+        double[] aData = a.getData();
+        double[] bData = b == null ? null : b.getData();
+        for (int start = fromRow; start < toRow; start += blockRows) {
+            int count = Math.min(blockRows, toRow - start);
+            for (int i = 0; i < count; i++) {
+                int offset = (width + i) * width;
+                System.arraycopy(aData, (start + i) * numOfColumns, stack, offset, numOfColumns);
+                if (bData != null)
+                    System.arraycopy(bData, (start + i) * numOfRightHandSides, stack, offset + numOfColumns, numOfRightHandSides);
+            }
+            factorStack(count);
+        }
+        numOfRows += toRow - fromRow;
+    }
+
+    /**
+     * Add the rows of another accumulator, as if they had been added to this one
+     *
+     * @param other An accumulator of the same shape
+     * @throws MatrixDimensionsNotMatchException if the shapes differ
+     */
+    public void merge(TallSkinnyQR other) throws MatrixDimensionsNotMatchException {
+        if (other.numOfColumns != numOfColumns || other.numOfRightHandSides != numOfRightHandSides)
+            throw new MatrixDimensionsNotMatchException("The accumulators do not have the same shape");
+        double[] rows;
+        long otherRows;
+        synchronized (other) {
+            rows = Arrays.copyOf(other.stack, width * width);
+            otherRows = other.numOfRows;
+        }
+        synchronized (this) {
+            System.arraycopy(rows, 0, stack, width * width, width * width);
+            factorStack(width);
+            numOfRows += otherRows;
+        }
+    }
+
+    /**
+     * Factor R stacked over count rows, leaving the new R (and zeros below its diagonal) in the first rows
+     */
+    private void factorStack(int count) {
+        QREngine.factor(stack, width + count, width, tau, false);
+        for (int i = 1; i < width; i++)
+            Arrays.fill(stack, i * width, i * width + i, 0);
+    }
+
+    /**
+     * @return The number of rows added so far
+     */
+    public synchronized long getNumOfRows() {
+        return numOfRows;
+    }
+
+    /**
+     * @return R of A, N x N upper triangular, up to the signs of its rows
+     */
+    public synchronized Matrix getR() {
+        Matrix result = new Matrix(numOfColumns, numOfColumns);
+        for (int i = 0; i < numOfColumns; i++)
+            System.arraycopy(stack, i * width + i, result.getData(), i * numOfColumns + i, numOfColumns - i);
+        return result;
+    }
+
+    /**
+     * Solve the least squares problem {@code min ||A x X - B||} of the rows added so far
+     *
+     * @return X, N x K
+     * @throws IllegalStateException if there are no right hand sides
+     * @throws exceptions.NoInverseException if A does not have full column rank
+     */
+    public synchronized Matrix solve() {
+        if (numOfRightHandSides == 0)
+            throw new IllegalStateException("The accumulator has no right hand side");
+        Matrix result = new Matrix(numOfColumns, numOfRightHandSides);
+        double[] x = result.getData();
+        for (int i = 0; i < numOfColumns; i++)
+            System.arraycopy(stack, i * width + numOfColumns, x, i * numOfRightHandSides, numOfRightHandSides);
+        QRFactor.backSubstitute(stack, width, numOfColumns, x, numOfRightHandSides);
+        return result;
+    }
+
+    /**
+     * @return The norms of the residuals {@code ||A x X - B||}, one per right hand side
+     */
+    public synchronized double[] getResidualNorms() {
+        // They are the norms of the columns of S, the bottom right block of R
+        double[] norms = new double[numOfRightHandSides];
+        for (int c = 0; c < numOfRightHandSides; c++) {
+            double sum = 0;
+            for (int i = numOfColumns; i <= numOfColumns + c; i++) {
+                double value = stack[i * width + numOfColumns + c];
+                sum += value * value;
+            }
+            norms[c] = Math.sqrt(sum);
+        }
+        return norms;
+    }
+}
@@ -0,0 +1,10 @@
+package objects;
+
+/**
+ * The K largest singular triplets of a matrix, {@code A ~ U x diag(singularValues) x V^T}
+ * @param u              The left singular vectors as orthonormal columns, M x K
+ * @param singularValues The singular values, largest first
+ * @param v              The right singular vectors as orthonormal columns, N x K
+ */
+public record TruncatedSVD(Matrix u, double[] singularValues, Matrix v) {
+}
@@ -0,0 +1,121 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.NotPositiveDefiniteException;
+
+/**
+ * A Cholesky factorization {@code A = L x L^T} kept up to date through symmetric rank-1 changes
+ * {@code A +- x x x^T}, each applied to L with a sweep of rotations in O(N^2).
+ * <p>
+ * Updates are always safe. A downdate that would leave A indefinite is refused and leaves A and L as they were.
+ */
+public final class UpdatableCholesky extends UpdatableFactorization {
+
+    private Matrix l;
+
+    /**
+     * @param matrix The symmetric positive definite matrix, copied
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     * @throws NotPositiveDefiniteException      if the matrix is not symmetric positive definite
+     */
+    public UpdatableCholesky(Matrix matrix) throws MatrixDimensionsNotMatchException {
+        this(matrix, DEFAULT_REFACTOR_INTERVAL);
+    }
+
+    /**
+     * @param matrix           The symmetric positive definite matrix, copied
+     * @param refactorInterval The number of rank-1 changes after which the factorization is computed again
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     * @throws NotPositiveDefiniteException      if the matrix is not symmetric positive definite
+     */
+    public UpdatableCholesky(Matrix matrix, int refactorInterval) throws MatrixDimensionsNotMatchException {
+        super(matrix, refactorInterval);
+        factor();
+    }
+
+    @Override
+    void factor() {
+        l = CholeskyEngine.factor(matrix, true);
+    }
+
+    /**
+     * Apply {@code A += X x X^T}, as one rank-1 update per column of X
+     *
+     * @param x N x K
+     * @throws MatrixDimensionsNotMatchException if X is not N x K
+     */
+    public void update(Matrix x) throws MatrixDimensionsNotMatchException {
+        checkUpdate(x, x);
+        int rank = x.getNumOfColumns();
+        LowRankEngine.addProduct(matrix, x, Matrix.transpose(x), 1);
+        double[] column = new double[size];
+        for (int c = 0; c < rank; c++) {
+            copyColumn(x, c, column);
+            rotate(l.getData(), column, 1);
+        }
+        updated(rank);
+    }
+
+    /**
+     * Apply {@code A -= X x X^T}, as one rank-1 downdate per column of X
+     *
+     * @param x N x K
+     * @throws MatrixDimensionsNotMatchException if X is not N x K
+     * @throws NotPositiveDefiniteException      if A would not be positive definite, in which case nothing changes
+     */
+    public void downdate(Matrix x) throws MatrixDimensionsNotMatchException {
+        checkUpdate(x, x);
+        int rank = x.getNumOfColumns();
+        // Work on a copy of L so a refused downdate leaves it untouched
+        Matrix updated = Matrix.copyingMatrix(l);
+        double[] column = new double[size];
+        for (int c = 0; c < rank; c++) {
+            copyColumn(x, c, column);
+            rotate(updated.getData(), column, -1);
+        }
+        l = updated;
+        LowRankEngine.addProduct(matrix, x, Matrix.transpose(x), -1);
+        updated(rank);
+    }
+
+    /**
+     * Turn {@code L x L^T} into {@code L x L^T + sign x x x x^T}, in place, destroying x
+     */
+    private void rotate(double[] l, double[] x, int sign) {
+        for (int k = 0; k < size; k++) {
+            double diagonal = l[k * size + k];
+            double squared = diagonal * diagonal + sign * x[k] * x[k];
+            if (!(squared > 0))
+                throw new NotPositiveDefiniteException("The downdate leaves the matrix not positive definite at " + k, k);
+            double r = Math.sqrt(squared);
+            double c = r / diagonal;
+            double s = x[k] / diagonal;
+            l[k * size + k] = r;
+            for (int i = k + 1; i < size; i++) {
+                int index = i * size + k;
+                l[index] = (l[index] + sign * s * x[i]) / c;
+                x[i] = c * x[i] - s * l[index];
+            }
+        }
+    }
+
+    private void copyColumn(Matrix x, int column, double[] target) {
+        int width = x.getNumOfColumns();
+        for (int i = 0; i < size; i++)
+            target[i] = x.getData()[i * width + column];
+    }
+
+    /**
+     * @return The current factor. Later updates change it in place or replace it, so it is to be taken again after them
+     */
+    public CholeskyFactor getFactor() {
+        return new CholeskyFactor(l);
+    }
+
+    @Override
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != size)
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand side must have %d rows", size));
+        return CholeskyEngine.solve(l, b);
+    }
+}
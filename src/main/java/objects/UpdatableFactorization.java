@@ -0,0 +1,113 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+
+/**
+ * A factorization of a square matrix A that follows low-rank changes of A in O(N^2) per rank instead of being
+ * computed again in O(N^3).
+ * <p>
+ * Rounding errors build up with every update, so A itself is kept up to date alongside the factorization and
+ * the factorization is computed again from it every {@code refactorInterval} rank-1 changes, or sooner when
+ * an update becomes numerically unsafe. {@code refactor()} does it on demand.
+ * <p>
+ * Updatable factorizations are not meant to be used by several threads at once.
+ */
+public abstract class UpdatableFactorization {
+
+    /**
+     * The number of rank-1 changes between two refactorizations by default
+     */
+    public static final int DEFAULT_REFACTOR_INTERVAL = 100;
+
+    final int size;
+    /**
+     * A, with every update applied
+     */
+    final Matrix matrix;
+    private final int refactorInterval;
+    private int numOfUpdates = 0;
+    private int numOfRefactorizations = 0;
+
+    UpdatableFactorization(Matrix matrix, int refactorInterval) throws MatrixDimensionsNotMatchException {
+        if (!matrix.isSquareMatrix())
+            throw new MatrixDimensionsNotMatchException("A square matrix is required!");
+        if (refactorInterval < 1)
+            throw new IllegalArgumentException("The refactor interval must be positive");
+        this.size = matrix.getNumOfRows();
+        this.matrix = Matrix.copyingMatrix(matrix);
+        this.refactorInterval = refactorInterval;
+    }
+
+    /**
+     * Compute the factorization of {@code matrix} from scratch
+     */
+    abstract void factor();
+
+    /**
+     * Solve {@code A x X = B} with the current factorization
+     *
+     * @param b The right hand side, N x K
+     * @return X
+     * @throws MatrixDimensionsNotMatchException if B does not have N rows
+     */
+    public abstract Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException;
+
+    /**
+     * Compute the factorization again from the current A, discarding the rounding errors of the updates
+     */
+    public void refactor() {
+        factor();
+        refactored();
+    }
+
+    /**
+     * Count a factorization computed from scratch, by {@code refactor} or by a subclass that built it itself
+     */
+    void refactored() {
+        numOfUpdates = 0;
+        numOfRefactorizations++;
+    }
+
+    /**
+     * Count rank-1 changes, refactoring once there have been enough of them
+     */
+    void updated(int rank) {
+        numOfUpdates += rank;
+        if (numOfUpdates >= refactorInterval)
+            refactor();
+    }
+
+    /**
+     * Check that U and V are N x K
+     */
+    void checkUpdate(Matrix u, Matrix v) throws MatrixDimensionsNotMatchException {
+        if (u.getNumOfRows() != size || v.getNumOfRows() != size || u.getNumOfColumns() != v.getNumOfColumns())
+            throw new MatrixDimensionsNotMatchException(String.format("The update vectors must be %d x K", size));
+    }
+
+    /**
+     * @return A copy of A, with every update applied
+     */
+    public Matrix getMatrix() {
+        return Matrix.copyingMatrix(matrix);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of rank-1 changes since the factorization was last computed from scratch
+     */
+    public int getNumOfUpdatesSinceRefactor() {
+        return numOfUpdates;
+    }
+
+    /**
+     * @return The number of times the factorization was computed again, at intervals, on demand or after an
+     * unsafe update
+     */
+    public int getNumOfRefactorizations() {
+        return numOfRefactorizations;
+    }
+}
@@ -0,0 +1,173 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.NoInverseException;
+
+/**
+ * An LU factorization {@code P x A = L x U} kept up to date through rank-1 changes of A with Bennett's algorithm,
+ * O(N^2) per change.
+ * <p>
+ * The factorization is computed with partial pivoting. Bennett's algorithm keeps the rows where they are, so a
+ * pivot may shrink by cancellation. When a pivot loses more than half of its digits, the update is dropped and the
+ * factorization is computed again from the updated A, choosing the pivots anew.
+ */
+public final class UpdatableLU extends UpdatableFactorization {
+
+    /**
+     * A pivot smaller than this, relative to the terms it was computed from, forces a refactorization
+     */
+    private static final double PIVOT_TOLERANCE = 1e-8;
+
+    private LUMatrixGroup lu;
+    /**
+     * Row i of P x A is row permutation[i] of A
+     */
+    private final int[] permutation;
+
+    /**
+     * @param matrix The matrix, copied
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     */
+    public UpdatableLU(Matrix matrix) throws MatrixDimensionsNotMatchException {
+        this(matrix, DEFAULT_REFACTOR_INTERVAL);
+    }
+
+    /**
+     * @param matrix           The matrix, copied
+     * @param refactorInterval The number of rank-1 changes after which the factorization is computed again
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     */
+    public UpdatableLU(Matrix matrix, int refactorInterval) throws MatrixDimensionsNotMatchException {
+        super(matrix, refactorInterval);
+        permutation = new int[size];
+        factor();
+    }
+
+    @Override
+    void factor() {
+        lu = Matrix.pivotedLuDecomposition(matrix);
+        rowsOf(lu.p(), permutation);
+    }
+
+    /**
+     * Read a permutation matrix as the row of A each row of P x A comes from
+     */
+    static void rowsOf(Matrix p, int[] permutation) {
+        int size = p.getNumOfRows();
+        double[] data = p.getData();
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < size; j++)
+                if (data[i * size + j] == 1)
+                    permutation[i] = j;
+    }
+
+    /**
+     * Apply {@code A += U x V^T}, as K rank-1 changes
+     *
+     * @param u N x K
+     * @param v N x K
+     * @throws MatrixDimensionsNotMatchException if U or V is not N x K
+     */
+    public void update(Matrix u, Matrix v) throws MatrixDimensionsNotMatchException {
+        checkUpdate(u, v);
+        int rank = u.getNumOfColumns();
+        LowRankEngine.addProduct(matrix, u, Matrix.transpose(v), 1);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int c = 0; c < rank; c++) {
+            // P x (A + u x v^T) = L x U + (P x u) x v^T
+            for (int i = 0; i < size; i++) {
+                x[i] = u.getData()[permutation[i] * rank + c];
+                y[i] = v.getData()[i * rank + c];
+            }
+            if (!bennett(x, y)) {
+                // A already holds all K changes
+                refactor();
+                return;
+            }
+        }
+        updated(rank);
+    }
+
+    /**
+     * Turn {@code L x U} into {@code L x U + x x y^T}, in place, destroying x and y
+     *
+     * @return false if a pivot became too small, leaving L and U partly updated
+     */
+    private boolean bennett(double[] x, double[] y) {
+        double[] l = lu.l().getData();
+        double[] u = lu.u().getData();
+        for (int i = 0; i < size; i++) {
+            int rowI = i * size;
+            double diagonal = u[rowI + i];
+            double pivot = diagonal + x[i] * y[i];
+            if (!(Math.abs(pivot) > PIVOT_TOLERANCE * (Math.abs(diagonal) + Math.abs(x[i] * y[i]))))
+                return false;
+            u[rowI + i] = pivot;
+            double xi = x[i];
+            double yi = y[i] / pivot;
+            for (int j = i + 1; j < size; j++) {
+                u[rowI + j] += xi * y[j];
+                x[j] -= xi * l[j * size + i];
+                l[j * size + i] += yi * x[j];
+                y[j] -= yi * u[rowI + j];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The current factorization. Later updates change it in place or replace it, so it is to be taken again after them
+     */
+    public LUMatrixGroup getLU() {
+        return lu;
+    }
+
+    /**
+     * @throws NoInverseException if U has a zero pivot
+     */
+    @Override
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != size)
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand side must have %d rows", size));
+        return solve(lu, permutation, b);
+    }
+
+    /**
+     * Solve {@code A x X = B} from {@code P x A = L x U}
+     *
+     * @throws NoInverseException if U has a zero pivot
+     */
+    static Matrix solve(LUMatrixGroup lu, int[] permutation, Matrix b) {
+        int size = permutation.length;
+        int width = b.getNumOfColumns();
+        double[] l = lu.l().getData();
+        double[] u = lu.u().getData();
+        Matrix result = new Matrix(size, width);
+        double[] x = result.getData();
+        for (int i = 0; i < size; i++)
+            System.arraycopy(b.getData(), permutation[i] * width, x, i * width, width);
+        // Forward substitution, L has a unit diagonal
+        for (int i = 1; i < size; i++)
+            for (int k = 0; k < i; k++)
+                subtractRow(x, i, k, l[i * size + k], width);
+        // Backward substitution
+        for (int i = size - 1; i >= 0; i--) {
+            for (int k = i + 1; k < size; k++)
+                subtractRow(x, i, k, u[i * size + k], width);
+            double diagonal = u[i * size + i];
+            if (diagonal == 0)
+                throw new NoInverseException("The matrix is singular");
+            for (int c = 0; c < width; c++)
+                x[i * width + c] /= diagonal;
+        }
+        return result;
+    }
+
+    private static void subtractRow(double[] x, int row, int sourceRow, double factor, int width) {
+        if (factor == 0.0)
+            return;
+        for (int i = 0; i < width; i++)
+            x[row * width + i] -= factor * x[sourceRow * width + i];
+    }
+}
@@ -0,0 +1,138 @@
+package objects;
+
+import exceptions.MatrixDimensionsNotMatchException;
+import exceptions.NoInverseException;
+
+/**
+ * A stored inverse kept up to date through rank-k changes with the Sherman-Morrison-Woodbury formula
+ * <pre>
+ * (A + U x V^T)^-1 = A^-1 - A^-1 x U x (I + V^T x A^-1 x U)^-1 x V^T x A^-1
+ * </pre>
+ * which costs O(N^2 K) and only inverts a K x K matrix.
+ * <br>
+ * Example: {@code WoodburyInverse inverse = new WoodburyInverse(a); inverse.update(u, v); inverse.getInverse();}
+ */
+public final class WoodburyInverse extends UpdatableFactorization {
+
+    /**
+     * A capacitance matrix whose inverse is larger than this, relative to the terms it was computed from, makes the
+     * update invert the matrix again
+     */
+    private static final double CONDITION_LIMIT = 1e8;
+
+    private Matrix inverse;
+
+    /**
+     * @param matrix The invertible matrix, copied
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     * @throws NoInverseException                if the matrix is singular
+     */
+    public WoodburyInverse(Matrix matrix) throws MatrixDimensionsNotMatchException {
+        this(matrix, DEFAULT_REFACTOR_INTERVAL);
+    }
+
+    /**
+     * @param matrix           The invertible matrix, copied
+     * @param refactorInterval The number of rank-1 changes after which the inverse is computed again
+     * @throws MatrixDimensionsNotMatchException if the matrix is not square
+     * @throws NoInverseException                if the matrix is singular
+     */
+    public WoodburyInverse(Matrix matrix, int refactorInterval) throws MatrixDimensionsNotMatchException {
+        super(matrix, refactorInterval);
+        factor();
+    }
+
+    @Override
+    void factor() {
+        inverse = Matrix.pivotedInverse(matrix, true);
+    }
+
+    /**
+     * Apply {@code A += U x V^T} and update the inverse
+     *
+     * @param u N x K
+     * @param v N x K
+     * @throws MatrixDimensionsNotMatchException if U or V is not N x K
+     * @throws NoInverseException                if the updated matrix is singular, in which case nothing changes
+     */
+    public void update(Matrix u, Matrix v) throws MatrixDimensionsNotMatchException {
+        checkUpdate(u, v);
+        int rank = u.getNumOfColumns();
+        Matrix vTransposed = Matrix.transpose(v);
+        Matrix inverseU = LowRankEngine.multiply(inverse, u);
+        Matrix vInverse = LowRankEngine.transposedMultiply(v, inverse);
+        // The capacitance matrix I + V^T x A^-1 x U, K x K
+        Matrix capacitance = Matrix.multiplication(vTransposed, inverseU);
+        double termsNorm = 1 + capacitance.norm(NormType.L1);
+        for (int i = 0; i < rank; i++)
+            capacitance.getData()[i * rank + i] += 1;
+        Matrix capacitanceInverse = invertCapacitance(capacitance, termsNorm);
+        if (capacitanceInverse == null) {
+            // The updated matrix is singular, or nearly so for the formula, and inverting it again says which
+            invertUpdated(u, vTransposed);
+            return;
+        }
+        LowRankEngine.addProduct(matrix, u, vTransposed, 1);
+        LowRankEngine.addProduct(inverse, inverseU, Matrix.multiplication(capacitanceInverse, vInverse), -1);
+        updated(rank);
+    }
+
+    /**
+     * Invert the capacitance matrix unless it is singular or nearly so. Like a pivot of {@code UpdatableLU}, it is
+     * measured against the terms it was computed from, which also catches I and V^T x A^-1 x U cancelling out.
+     *
+     * @param termsNorm {@code ||I|| + ||V^T x A^-1 x U||} in the 1-norm, at least the norm of the capacitance
+     * @return The inverse, {@code null} if the update would lose more than half of the digits of the inverse
+     */
+    private static Matrix invertCapacitance(Matrix capacitance, double termsNorm) {
+        Matrix result;
+        try {
+            result = Matrix.pivotedInverse(capacitance, false);
+        } catch (NoInverseException e) {
+            return null;
+        }
+        // Also false for NaN
+        return termsNorm * result.norm(NormType.L1) < CONDITION_LIMIT ? result : null;
+    }
+
+    /**
+     * Invert {@code A + U x V^T} from scratch. A and its inverse are only replaced once it succeeded.
+     *
+     * @throws NoInverseException if the updated matrix is singular
+     */
+    private void invertUpdated(Matrix u, Matrix vTransposed) {
+        Matrix updated = Matrix.copyingMatrix(matrix);
+        LowRankEngine.addProduct(updated, u, vTransposed, 1);
+        inverse = Matrix.pivotedInverse(updated, true);
+        System.arraycopy(updated.getData(), 0, matrix.getData(), 0, updated.getNumOfEntries());
+        refactored();
+    }
+
+    /**
+     * Apply {@code A += u x v^T}, the Sherman-Morrison case of {@code update}
+     *
+     * @param u The column vector u, N x 1
+     * @param v The column vector v, N x 1
+     * @throws MatrixDimensionsNotMatchException if u or v is not N x 1
+     * @throws NoInverseException                if the updated matrix is singular
+     */
+    public void rankOneUpdate(Matrix u, Matrix v) throws MatrixDimensionsNotMatchException {
+        if (u.getNumOfColumns() != 1)
+            throw new MatrixDimensionsNotMatchException("u and v must be column vectors");
+        update(u, v);
+    }
+
+    /**
+     * @return The current inverse. Later updates change it in place or replace it, so it is to be taken again after them
+     */
+    public Matrix getInverse() {
+        return inverse;
+    }
+
+    @Override
+    public Matrix solve(Matrix b) throws MatrixDimensionsNotMatchException {
+        if (b.getNumOfRows() != size)
+            throw new MatrixDimensionsNotMatchException(String.format("The right hand side must have %d rows", size));
+        return LowRankEngine.multiply(inverse, b);
+    }
+}
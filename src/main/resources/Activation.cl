@@ -0,0 +1,20 @@
+real activationMode(const real value, const int MODE){
+
+    switch(MODE){
+        case 1: // Sigmoid
+            return 1 / (1 + exp(-value));
+        case 2: // Step
+            return (value >= 0) ? 1 : 0;
+        case 3: // Tanh
+            return tanh(value);
+        case 4: // SoftPlus
+            return log(1 + exp(value));
+        case 5: // GELU
+            return (real) 0.5 * value * (1 + erf(value * (real) 0.7071067811865476));
+        case 0: // LeakyReLU
+            return (value >= 0) ? value : (real) 0.01 * value;
+        default:
+            return value;
+    }
+
+}
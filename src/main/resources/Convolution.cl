@@ -0,0 +1,20 @@
+// C = A * K without padding, as Matrix.convolution: A is ROWS x COLUMNS, K is KROWS x KCOLUMNS and
+// C is (ROWS - KROWS + 1) x (COLUMNS - KCOLUMNS + 1). The mask is not flipped.
+kernel void convolve(const int ROWS, const int COLUMNS, const int KROWS, const int KCOLUMNS,
+ const global real *A, const global real *K, global real *C){
+
+    const int row = get_global_id(0);
+    const int column = get_global_id(1);
+    const int resultRows = ROWS - KROWS + 1;
+    const int resultColumns = COLUMNS - KCOLUMNS + 1;
+    if (row >= resultRows || column >= resultColumns)
+        return;
+
+    real sum = 0;
+    for (int i = 0; i < KROWS; i++){
+        for (int j = 0; j < KCOLUMNS; j++){
+            sum += A[(row + i) * COLUMNS + column + j] * K[i * KCOLUMNS + j];
+        }
+    }
+    C[row * resultColumns + column] = sum;
+}
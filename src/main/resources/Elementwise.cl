@@ -0,0 +1,34 @@
+kernel void add(const int SIZE, const global real *A, const global real *B, global real *C){
+
+    const int index = get_global_id(0);
+    if (index < SIZE)
+        C[index] = A[index] + B[index];
+}
+
+kernel void subtract(const int SIZE, const global real *A, const global real *B, global real *C){
+
+    const int index = get_global_id(0);
+    if (index < SIZE)
+        C[index] = A[index] - B[index];
+}
+
+kernel void hadamard(const int SIZE, const global real *A, const global real *B, global real *C){
+
+    const int index = get_global_id(0);
+    if (index < SIZE)
+        C[index] = A[index] * B[index];
+}
+
+kernel void scale(const int SIZE, const global real *A, global real *B, const real FACTOR){
+
+    const int index = get_global_id(0);
+    if (index < SIZE)
+        B[index] = A[index] * FACTOR;
+}
+
+kernel void activate(const int SIZE, const global real *A, global real *B, const int MODE){
+
+    const int index = get_global_id(0);
+    if (index < SIZE)
+        B[index] = activationMode(A[index], MODE);
+}
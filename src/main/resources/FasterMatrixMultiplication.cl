@@ -1,40 +1,61 @@
-#pragma OPENCL EXTENSION cl_khr_fp64 : enable
-
-#define tileSize 16
-#include <clblast_c.h>
+// Both are given as build options by the host, see GemmConfiguration
+#ifndef TILE_SIZE
+#define TILE_SIZE 16
+#endif
+#ifndef WORK_PER_THREAD
+#define WORK_PER_THREAD 4
+#endif
+#define REDUCED_TILE_SIZE (TILE_SIZE / WORK_PER_THREAD)
+
+// C = A x B where A is M x K, B is K x N and every matrix is row major.
+// A work-group computes a TILE_SIZE x TILE_SIZE tile of C with TILE_SIZE x REDUCED_TILE_SIZE work-items,
+// each work-item keeping WORK_PER_THREAD entries of a column of the tile in registers.
+// Dimension 0 runs along the columns so that neighbouring work-items read neighbouring addresses.
+// The global size is padded to whole tiles, out of range entries are loaded as zeros and never stored.
 kernel void multiply(const int M, const int N, const int K,
- const global double *A, const global double *B, global double *C){
+ const global real *A, const global real *B, global real *C){
 
-    const int localRow = get_local_id(0);           // local row ID (max: tileSize)
-    const int localColumn = get_local_id(1);        // local column ID (max: tileSize)
-    const int globalRow = get_global_id(0);         // row ID of C (0..M)
-    const int globalColumn = get_global_id(1);      // column ID of C (0..N)
+    const int localColumn = get_local_id(0);                        // 0..TILE_SIZE
+    const int localRow = get_local_id(1);                           // 0..REDUCED_TILE_SIZE
+    const int globalColumn = TILE_SIZE * get_group_id(0) + localColumn;
+    const int groupRow = TILE_SIZE * get_group_id(1);
 
-    //printf("localRow: %i\t localColumn: %i\t globalRow: %i\t globalColumn: %i\n", localRow, localColumn, globalRow, globalColumn);
     // Local memory
-    __local double aSubMatrix[tileSize][tileSize];
-    __local double bSubMatrix[tileSize][tileSize];
+    local real aSubMatrix[TILE_SIZE][TILE_SIZE];
+    local real bSubMatrix[TILE_SIZE][TILE_SIZE];
 
-    // Sum register
-    double sum = 0.0;
+    // Sum registers
+    real sum[WORK_PER_THREAD];
+    for (int w = 0; w < WORK_PER_THREAD; w++)
+        sum[w] = 0;
 
-    const int numOfTiles = ceil(K * 1.0 / tileSize);
+    const int numOfTiles = (K + TILE_SIZE - 1) / TILE_SIZE;
 
     // Loop through all tiles
-    for(int t=0; t < numOfTiles; t++){
-        const int tiledRow = tileSize * t + localRow;
-        const int tiledColumn = tileSize * t + localColumn;
-        aSubMatrix[localRow][localColumn] = A[globalRow * M + tiledColumn];
-        bSubMatrix[localRow][localColumn] = B[tiledRow * N + globalColumn];
+    for (int t = 0; t < numOfTiles; t++){
+        const int tiledColumn = TILE_SIZE * t + localColumn;
+        for (int w = 0; w < WORK_PER_THREAD; w++){
+            const int row = localRow + w * REDUCED_TILE_SIZE;
+            const int aRow = groupRow + row;
+            const int bRow = TILE_SIZE * t + row;
+            aSubMatrix[row][localColumn] = (aRow < M && tiledColumn < K) ? A[aRow * K + tiledColumn] : 0;
+            bSubMatrix[row][localColumn] = (bRow < K && globalColumn < N) ? B[bRow * N + globalColumn] : 0;
+        }
 
         barrier(CLK_LOCAL_MEM_FENCE);
 
-        for(int k=0; k < tileSize; k++){
-            sum += aSubMatrix[localRow][k] * bSubMatrix[k][localColumn];
+        for (int k = 0; k < TILE_SIZE; k++){
+            const real b = bSubMatrix[k][localColumn];
+            for (int w = 0; w < WORK_PER_THREAD; w++)
+                sum[w] += aSubMatrix[localRow + w * REDUCED_TILE_SIZE][k] * b;
         }
 
         barrier(CLK_LOCAL_MEM_FENCE);
     }
 
-    C[globalRow * N + globalColumn] = sum;
-}
\ No newline at end of file
+    for (int w = 0; w < WORK_PER_THREAD; w++){
+        const int globalRow = groupRow + localRow + w * REDUCED_TILE_SIZE;
+        if (globalRow < M && globalColumn < N)
+            C[globalRow * N + globalColumn] = sum[w];
+    }
+}
@@ -1,6 +1,5 @@
-#pragma OPENCL EXTENSION cl_khr_fp64 : enable
 kernel void multiply(const int M, const int N, const int K,
- const global double *A, const global double *B, global double *C){
+ const global real *A, const global real *B, global real *C){
     // global is a must!!!                       no MF const here!
 
     const int row = get_global_id(0);
@@ -8,9 +7,9 @@ kernel void multiply(const int M, const int N, const int K,
 
 
     // simple loop over the common side of two matrix
-    double temp = 0.0;
+    real temp = 0;
     for (int i=0; i<K; i++){
-        temp += A[row*M + i] * B[i*N + column];
+        temp += A[row*K + i] * B[i*N + column];
     }
 
     // set the result
@@ -0,0 +1,49 @@
+// The modes, as in OpenCLInteractor.reduce
+#define SUM 0
+#define MAX 1
+#define MIN 2
+#define SUM_OF_SQUARES 3
+#define ABSOLUTE_SUM 4
+
+real identity(const int MODE){
+    switch (MODE){
+        case MAX: return -INFINITY;
+        case MIN: return INFINITY;
+        default: return 0;
+    }
+}
+
+real combine(const real a, const real b, const int MODE){
+    switch (MODE){
+        case MAX: return fmax(a, b);
+        case MIN: return fmin(a, b);
+        default: return a + b;
+    }
+}
+
+// Reduce SIZE entries of A into one value per work-group, written to PARTIAL[group].
+// Every work-item first folds a strided range of A in a register, then the work-group folds the
+// registers in local memory. The local size must be a power of two.
+// Only the entries of A are squared or made positive, so a second pass over the partials uses SUM.
+kernel void reduce(const int SIZE, const global real *A, global real *PARTIAL, local real *scratch, const int MODE){
+
+    const int localId = get_local_id(0);
+    const int localSize = get_local_size(0);
+
+    real value = identity(MODE);
+    for (int i = get_global_id(0); i < SIZE; i += get_global_size(0)){
+        const real entry = A[i];
+        value = combine(value, MODE == SUM_OF_SQUARES ? entry * entry : MODE == ABSOLUTE_SUM ? fabs(entry) : entry, MODE);
+    }
+    scratch[localId] = value;
+
+    barrier(CLK_LOCAL_MEM_FENCE);
+    for (int offset = localSize / 2; offset > 0; offset /= 2){
+        if (localId < offset)
+            scratch[localId] = combine(scratch[localId], scratch[localId + offset], MODE);
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+
+    if (localId == 0)
+        PARTIAL[get_group_id(0)] = scratch[0];
+}
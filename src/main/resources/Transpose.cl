@@ -0,0 +1,27 @@
+#define TILE_SIZE 16
+
+// B = transpose(A) where A is ROWS x COLUMNS and B is COLUMNS x ROWS.
+// A work-group reads a tile of A row by row into local memory and writes it out row by row of B,
+// so both the reads and the writes of neighbouring work-items are to neighbouring addresses.
+// The extra column of the tile keeps the transposed reads of local memory off the same bank.
+kernel void transpose(const int ROWS, const int COLUMNS, const global real *A, global real *B){
+
+    local real tile[TILE_SIZE][TILE_SIZE + 1];
+
+    const int localColumn = get_local_id(0);
+    const int localRow = get_local_id(1);
+
+    // Dimension 0 runs along the columns of A
+    int column = get_group_id(0) * TILE_SIZE + localColumn;
+    int row = get_group_id(1) * TILE_SIZE + localRow;
+    if (row < ROWS && column < COLUMNS)
+        tile[localRow][localColumn] = A[row * COLUMNS + column];
+
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    // Dimension 0 now runs along the columns of B, that is the rows of A
+    column = get_group_id(1) * TILE_SIZE + localColumn;
+    row = get_group_id(0) * TILE_SIZE + localRow;
+    if (row < COLUMNS && column < ROWS)
+        B[row * ROWS + column] = tile[localColumn][localRow];
+}